@@ -0,0 +1,102 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+
+/**
+ * In-memory H2 databases and other fixtures shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+	/** The test that benchmarked code reports against. */
+	static final EnsTestCase TEST = new EnsTestCase() {
+		@Override
+		public String getTestName() {
+			return "org.ensembl.healthcheck.benchmark.BenchmarkTest";
+		}
+	};
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Stop the per-table and per-report logging of the framework from being
+	 * measured along with the code.
+	 */
+	static void quietLogging() {
+		Logger.getLogger("HealthCheckLogger").setLevel(Level.WARNING);
+		Logger.getLogger("SchemaComparer").setLevel(Level.WARNING);
+	}
+
+	/**
+	 * @return A connection to a new in-memory database called name. The
+	 *         database goes away when the connection is closed.
+	 */
+	static Connection openDatabase(String name) throws SQLException {
+		return DriverManager.getConnection("jdbc:h2:mem:" + name + ";MODE=MySQL", "sa", "");
+	}
+
+	/**
+	 * Create a feature table with rows rows in the database of con. The
+	 * columns are an INT, a VARCHAR, a DOUBLE, a TIMESTAMP and a VARCHAR that
+	 * is NULL in every other row.
+	 */
+	static void createFeatures(Connection con, int rows) throws SQLException {
+
+		Statement stmt = con.createStatement();
+		stmt.execute("CREATE TABLE feature (feature_id INT PRIMARY KEY, name VARCHAR(40), score DOUBLE, "
+				+ "created TIMESTAMP, description VARCHAR(255))");
+		stmt.close();
+
+		PreparedStatement insert = con.prepareStatement("INSERT INTO feature VALUES (?, ?, ?, ?, ?)");
+		for (int i = 1; i <= rows; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, "ENSF" + (100000000 + i));
+			insert.setDouble(3, i / 7.0);
+			insert.setTimestamp(4, new Timestamp(1500000000000L + i * 1000L));
+			insert.setString(5, (i % 2 == 0) ? null : "feature number " + i);
+			insert.addBatch();
+			if (i % 1000 == 0) {
+				insert.executeBatch();
+			}
+		}
+		insert.executeBatch();
+		insert.close();
+	}
+
+	/**
+	 * @return All rows of the feature table in a ResultSet that can be read
+	 *         again after {@link ResultSet#beforeFirst()}.
+	 */
+	static ResultSet selectFeatures(Connection con) throws SQLException {
+		Statement stmt = con.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		return stmt.executeQuery("SELECT * FROM feature ORDER BY feature_id");
+	}
+
+}
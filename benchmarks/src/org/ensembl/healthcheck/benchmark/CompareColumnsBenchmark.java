@@ -0,0 +1,88 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.util.DBUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares one value of two rows with {@link DBUtils#compareColumns}, which
+ * {@link DBUtils#compareResultSets} calls for every value. The columns of
+ * the feature table are 1 INT, 2 VARCHAR, 3 DOUBLE, 4 TIMESTAMP and 5 a
+ * VARCHAR that is NULL in the second row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompareColumnsBenchmark {
+
+	@Param({ "1", "2", "3", "4", "5" })
+	public int column;
+
+	@Param({ "1", "2" })
+	public int row;
+
+	private Connection con1;
+	private Connection con2;
+	private ResultSet rs1;
+	private ResultSet rs2;
+
+	@Setup
+	public void setUp() throws SQLException {
+		BenchmarkData.quietLogging();
+		con1 = BenchmarkData.openDatabase("compare_columns_1");
+		con2 = BenchmarkData.openDatabase("compare_columns_2");
+		BenchmarkData.createFeatures(con1, 2);
+		BenchmarkData.createFeatures(con2, 2);
+		rs1 = BenchmarkData.selectFeatures(con1);
+		rs2 = BenchmarkData.selectFeatures(con2);
+		rs1.absolute(row);
+		rs2.absolute(row);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		con1.close();
+		con2.close();
+	}
+
+	@Benchmark
+	public boolean compareColumns() {
+		return DBUtils.compareColumns(rs1, rs2, column, false);
+	}
+
+}
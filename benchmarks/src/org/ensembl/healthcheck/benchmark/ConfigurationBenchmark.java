@@ -0,0 +1,100 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
+import org.ensembl.healthcheck.configurationmanager.ConfigurationByCascading;
+import org.ensembl.healthcheck.configurationmanager.ConfigurationFactory;
+import org.ensembl.healthcheck.configurationmanager.ConfigurationFactory.ConfigurationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads options from the cascading configuration that the
+ * ConfigurableTestRunner builds from the command line and property files.
+ * Every call goes through {@link ConfigurationByCascading#invoke}, which asks
+ * each configuration in turn until one has the option.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfigurationBenchmark {
+
+	private File properties;
+
+	private ConfigurationUserParameters configuration;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		BenchmarkData.quietLogging();
+
+		properties = File.createTempFile("benchmark", ".properties");
+		FileWriter out = new FileWriter(properties);
+		out.write("host = mysql-ens-sta-1\nport = 4519\nuser = ensro\noutputlevel = Problem\n");
+		out.close();
+
+		String[] args = { "-d", "homo_sapiens_core_90_38" };
+		List<File> propertyFiles = Arrays.asList(properties);
+		configuration = new ConfigurationFactory<ConfigurationUserParameters>(ConfigurationUserParameters.class, args, propertyFiles)
+				.getConfiguration(ConfigurationType.Cascading);
+	}
+
+	@TearDown
+	public void tearDown() {
+		properties.delete();
+	}
+
+	/** An option given on the command line, found by the first configuration. */
+	@Benchmark
+	public List<String> fromCommandLine() {
+		return configuration.getTestDatabases();
+	}
+
+	/** An option from the property file, found by the last configuration. */
+	@Benchmark
+	public String fromPropertyFile() {
+		return configuration.getHost();
+	}
+
+	/** An option that is not set, every configuration is asked. */
+	@Benchmark
+	public boolean notSet() {
+		return configuration.isRepair();
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.ReportDatabaseWriter;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
+import org.ensembl.healthcheck.ReportStore;
+import org.ensembl.healthcheck.Team;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adds reports with {@link ReportManager#add(ReportLine)}. In memory mode
+ * they are kept in a {@link ReportStore}, in database mode they are queued
+ * for a {@link ReportDatabaseWriter} writing to an in-memory H2 database.
+ * The writer drops reports it has already seen, so in database mode every
+ * report gets a new message. Each call adds a batch of 1000 reports. To keep
+ * memory use flat, memory mode binds a new store before every batch, outside
+ * the measured time, and database mode a new writer every iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReportManagerBenchmark {
+
+	@Param({ "memory", "database" })
+	public String mode;
+
+	private static final String DATABASE = "homo_sapiens_core_90_38";
+
+	private static final int BATCH = 1000;
+
+	private final ReportLine[] lines = new ReportLine[BATCH];
+
+	private int next = 0;
+
+	private Connection con;
+
+	private ReportDatabaseWriter writer;
+
+	@Setup
+	public void setUp() throws SQLException {
+
+		BenchmarkData.quietLogging();
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = line("problem " + i);
+		}
+
+		if (isDatabaseMode()) {
+			con = BenchmarkData.openDatabase("reports");
+			Statement stmt = con.createStatement();
+			// H2 has no BINARY() function, comparisons are case sensitive anyway
+			stmt.execute("CREATE ALIAS BINARY FOR \"" + getClass().getName() + ".binary\"");
+			stmt.execute("CREATE TABLE report (report_id INT AUTO_INCREMENT PRIMARY KEY, first_session_id INT, last_session_id INT, "
+					+ "database_name VARCHAR(255), species VARCHAR(255), database_type VARCHAR(255), timestamp DATETIME, "
+					+ "testcase VARCHAR(255), result VARCHAR(10), text TEXT, text_digest CHAR(32), team_responsible VARCHAR(255), "
+					+ "created DATETIME)");
+			stmt.close();
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void bind() {
+
+		if (isDatabaseMode()) {
+			writer = new ReportDatabaseWriter(con, 1, 500, 2000);
+			ReportManager.bindReportSession(new ReportSession(new ReportStore(lines.length), writer, ReportLine.ALL));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void bindStore() {
+
+		if (!isDatabaseMode()) {
+			ReportManager.bindReportStore(new ReportStore(lines.length));
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void unbind() throws SQLException {
+
+		if (isDatabaseMode()) {
+			ReportManager.unbindReportSession();
+			writer.drain();
+			Statement stmt = con.createStatement();
+			stmt.execute("TRUNCATE TABLE report");
+			stmt.close();
+		} else {
+			ReportManager.unbindReportStore();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		if (con != null) {
+			con.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void add() {
+
+		if (isDatabaseMode()) {
+			for (int i = 0; i < BATCH; i++) {
+				ReportManager.add(line("problem " + next++));
+			}
+		} else {
+			for (int i = 0; i < BATCH; i++) {
+				ReportManager.add(lines[i]);
+			}
+		}
+	}
+
+	public static String binary(String text) {
+		return text;
+	}
+
+	private boolean isDatabaseMode() {
+		return "database".equals(mode);
+	}
+
+	private static ReportLine line(String message) {
+		return new ReportLine(BenchmarkData.TEST, DATABASE, ReportLine.PROBLEM, message, Team.GENEBUILD, null);
+	}
+
+}
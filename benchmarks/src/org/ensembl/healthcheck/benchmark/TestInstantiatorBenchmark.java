@@ -0,0 +1,65 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.TestInstantiator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finds the class of a test with {@link TestInstantiator#forName(String)},
+ * by its class name and by its alias. Looking up an alias first fails to
+ * load a class of that name. The packages are scanned once, as the
+ * ConfigurationBasedTestRegistry does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TestInstantiatorBenchmark {
+
+	@Param({ "org.ensembl.healthcheck.testcase.generic.CoreForeignKeys", "CoreForeignKeys" })
+	public String testName;
+
+	private TestInstantiator instantiator;
+
+	@Setup
+	public void setUp() {
+		BenchmarkData.quietLogging();
+		instantiator = new TestInstantiator("org.ensembl.healthcheck.testcase", "org.ensembl.healthcheck.testgroup");
+	}
+
+	@Benchmark
+	public Class<?> forName() {
+		return instantiator.forName(testName);
+	}
+
+}
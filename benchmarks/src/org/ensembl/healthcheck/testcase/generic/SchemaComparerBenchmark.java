@@ -0,0 +1,169 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportStore;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the columns and indexes of every table of a schema with the
+ * master schema, as {@link SchemaComparer#compareTable} does for
+ * CompareSchema. The models are built in memory. With no differences the
+ * tables are found to be equal straight away, otherwise every table differs
+ * in one column or one index and problems are reported. This is in
+ * the package of SchemaComparer so it can build the models and call
+ * compareTable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SchemaComparerBenchmark {
+
+	@Param({ "none", "columns", "indexes" })
+	public String difference;
+
+	private static final int TABLES = 75;
+
+	private static final EnsTestCase TEST = new EnsTestCase() {
+		@Override
+		public String getTestName() {
+			return "org.ensembl.healthcheck.testcase.generic.SchemaComparerBenchmark";
+		}
+	};
+
+	private final SchemaComparer comparer = new SchemaComparer();
+
+	private SchemaModel master;
+
+	private SchemaModel target;
+
+	private Connection con;
+
+	private DatabaseRegistryEntry targetDbre;
+
+	@Setup
+	public void setUp() throws SQLException {
+
+		Logger.getLogger("HealthCheckLogger").setLevel(Level.WARNING);
+		Logger.getLogger("SchemaComparer").setLevel(Level.WARNING);
+
+		master = schema("master_schema_90", "none");
+		target = schema("homo_sapiens_core_90_38", difference);
+
+		// reports are filed against the connection of the target
+		con = DriverManager.getConnection("jdbc:h2:mem:homo_sapiens_core_90_38", "sa", "");
+		targetDbre = new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("homo_sapiens_core_90_38"), con);
+		// the problems are reported, but not kept, so memory use stays flat
+		ReportManager.bindReportStore(new ReportStore(0) {
+			@Override
+			public void add(ReportLine report) {
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		ReportManager.unbindReportStore();
+		con.close();
+	}
+
+	@Benchmark
+	public boolean compareTables() {
+
+		boolean result = true;
+		for (String table : master.getTableNames()) {
+			result &= comparer.compareTable(TEST, master, target, targetDbre, table);
+		}
+		return result;
+	}
+
+	private static SchemaModel schema(String name, String difference) {
+
+		Map<String, Table> tables = new LinkedHashMap<String, Table>();
+		for (int i = 0; i < TABLES; i++) {
+			String table = "table_" + i;
+			tables.put(table, table(table, difference));
+		}
+		return new SchemaModel(name, tables, new LinkedHashSet<String>());
+	}
+
+	private static Table table(String name, String difference) {
+
+		Set<Column> columns = new LinkedHashSet<Column>();
+		columns.add(new Column(name + "_id", "int(10) unsigned", false, null, 0, true));
+		columns.add(new Column("seq_region_id", "int(10) unsigned", false, null, 0, false));
+		columns.add(new Column("seq_region_start", "int(10) unsigned", false, null, 0, false));
+		columns.add(new Column("seq_region_end", "int(10) unsigned", false, null, 0, false));
+		columns.add(new Column("seq_region_strand", "tinyint(2)", false, null, 0, false));
+		columns.add(new Column("analysis_id", "smallint(5) unsigned", false, null, 0, false));
+		columns.add(new Column("display_label", "varchar(128)", true, null, 128, false));
+		columns.add(new Column("score", "double", true, null, 0, false));
+		columns.add(new Column("created_date", "datetime", true, null, 0, false));
+		columns.add(new Column("description", "text", true, null, 65535, false));
+		columns.add(new Column("is_current", "tinyint(1)", false, "1", 0, false));
+		columns.add(new Column("biotype", "varchar(40)", "columns".equals(difference), null, 40, false));
+
+		Set<Index> indexes = new LinkedHashSet<Index>();
+		indexes.add(new Index("PRIMARY", Arrays.asList(name + "_id"), false, "BTREE"));
+		indexes.add(new Index("seq_region_idx", Arrays.asList("seq_region_id", "seq_region_start"), true, "BTREE"));
+		indexes.add(new Index("analysis_idx", Arrays.asList("analysis_id"), true, "BTREE"));
+		if ("indexes".equals(difference)) {
+			indexes.add(new Index("biotype_idx", Arrays.asList("biotype"), true, "BTREE"));
+		}
+
+		Map<SchemaComparer.TestTypes, Object> options = new LinkedHashMap<SchemaComparer.TestTypes, Object>();
+		options.put(SchemaComparer.TestTypes.ENGINE, "MyISAM");
+		options.put(SchemaComparer.TestTypes.CHARSET, "latin1");
+
+		return new Table(name, columns, indexes, options);
+	}
+
+}
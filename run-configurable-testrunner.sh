@@ -16,6 +16,24 @@
 
 home=`dirname $0`
 
+# Send the arguments to a running run-healthcheck-daemon.sh if there is one
+if [ -n "$HC_DAEMON_PORT" ]; then
+    exec 3<>/dev/tcp/127.0.0.1/$HC_DAEMON_PORT || exit 1
+    for arg in "$@"; do
+        echo "$arg" >&3
+    done
+    echo >&3
+    status=0
+    while IFS= read -r line <&3; do
+        case "$line" in
+            ERROR*) echo "${line#ERROR	}" >&2; status=1 ;;
+            END*) ;;
+            *) echo "${line#REPORT	}" ;;
+        esac
+    done
+    exit $status
+fi
+
 : ${JAVA_HOME:?"JAVA_HOME must be set"}
 
 
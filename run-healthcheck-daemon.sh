@@ -0,0 +1,33 @@
+#!/bin/bash
+# Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+# Copyright [2016-2019] EMBL-European Bioinformatics Institute
+# 
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+# 
+#      http://www.apache.org/licenses/LICENSE-2.0
+# 
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+home=`dirname $0`
+
+: ${JAVA_HOME:?"JAVA_HOME must be set"}
+
+
+. $home/setup.sh
+if [ -z "$NO_JAR" ]; then
+    jar
+fi
+classpath
+
+if [ -z "$JAVA_OPTS" ]; then
+    JAVA_OPTS=-Xmx4g
+fi
+
+exec java $JAVA_OPTS -Djava.util.logging.config.file=config/logger/logging.properties org.ensembl.healthcheck.HealthCheckDaemon $*
+
@@ -0,0 +1,25 @@
+-- Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+-- Copyright [2016-2019] EMBL-European Bioinformatics Institute
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--      http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Add the MD5 digest of report.text, so that existing reports can be loaded
+-- into memory at the start of a session without reading the text itself.
+-- The digest is of the UTF-8 encoded text, as computed by the healthchecks.
+-- MySQL's utf8 has no 4-byte characters, so utf8mb4 is used to get the same
+-- bytes as Java for every text.
+
+ALTER TABLE report ADD COLUMN text_digest CHAR(32) AFTER text;
+ALTER TABLE report ADD KEY database_digest_idx(database_name, text_digest);
+
+UPDATE report SET text_digest=MD5(CONVERT(text USING utf8mb4));
@@ -44,6 +44,7 @@ CREATE TABLE report (
   testcase				VARCHAR(255),
   result				ENUM("PROBLEM", "CORRECT", "WARNING", "INFO"),
   text					TEXT,
+  text_digest				CHAR(32),        # MD5 of text, see patch_02_report_text_digest.sql
   team_responsible                      VARCHAR(255),
   created                               DATETIME,
   
@@ -54,7 +55,8 @@ CREATE TABLE report (
   KEY database_name_idx(database_name),
   KEY species_idx(species),
   KEY result_idx(result),
-  KEY text_idx(text(255))
+  KEY text_idx(text(255)),
+  KEY database_digest_idx(database_name, text_digest)
 
 );
 
@@ -0,0 +1,346 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel;
+
+/**
+ * <p>
+ * Keeps what is learnt about each database between runs, so that a run does
+ * not have to find it out again: its type, species and schema version, its
+ * species IDs, and the {@link SchemaModel} of its tables and columns. The
+ * test case classes found in the healthcheck jar are kept as well.
+ * </p>
+ *
+ * <p>
+ * There is one file per database, in a directory per server below the
+ * directory given to {@link #configure(File)}. Each file records a
+ * fingerprint of the database taken from INFORMATION_SCHEMA.TABLES: the
+ * number of tables, when the newest was created and last updated, and the
+ * total data length. If the fingerprint has changed since the file was
+ * written, everything in it is thrown away. MyISAM tables record their
+ * update time, InnoDB tables only do so on newer servers; if the data in a
+ * database can change without the fingerprint changing, delete its file.
+ * </p>
+ *
+ * <p>
+ * Databases are looked up in bulk by {@link DatabaseDiscovery} when the
+ * registry is built. Only databases looked up in this run are served from
+ * the cache.
+ * </p>
+ */
+public class CatalogCache {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Number of databases per query when taking fingerprints. */
+	private static final int NAMES_PER_QUERY = 100;
+
+	private static final String TEST_CLASSES_FILE = "testcases.list";
+
+	private static volatile File directory;
+
+	/** Entries looked up in this run, by server URL and database name. */
+	private static final Map<String, Entry> current = new ConcurrentHashMap<String, Entry>();
+
+	private CatalogCache() {
+	}
+
+	/**
+	 * What is known about one database. Changes are written to disk straight
+	 * away.
+	 */
+	public static final class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String fingerprint;
+
+		private String name;
+		private String alias;
+		private String species;
+		private DatabaseType type;
+		private String schemaVersion;
+		private String genebuildVersion;
+
+		private ArrayList<Integer> speciesIds;
+
+		private SchemaModel schema;
+
+		private transient File file;
+
+		private Entry(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		/**
+		 * @return The type, species and version of the database, or null if
+		 *         not known yet.
+		 */
+		public synchronized DatabaseInfo getInfo() {
+			return name == null ? null : new DatabaseInfo(name, alias, species, type, schemaVersion, genebuildVersion);
+		}
+
+		public synchronized void setInfo(DatabaseInfo info) {
+			name = info.getName();
+			alias = info.getAlias();
+			species = info.getSpecies();
+			type = info.getType();
+			schemaVersion = info.getSchemaVersion();
+			genebuildVersion = info.getGenebuildVersion();
+			SerializedFiles.write(file, this);
+		}
+
+		/**
+		 * @return The species IDs, or null if not known yet.
+		 */
+		public synchronized List<Integer> getSpeciesIds() {
+			return speciesIds == null ? null : new ArrayList<Integer>(speciesIds);
+		}
+
+		public synchronized void setSpeciesIds(List<Integer> speciesIds) {
+			this.speciesIds = new ArrayList<Integer>(speciesIds);
+			SerializedFiles.write(file, this);
+		}
+
+		/**
+		 * @return The tables and columns of the database, or null if not known
+		 *         yet.
+		 */
+		public synchronized SchemaModel getSchema() {
+			return schema;
+		}
+
+		public synchronized void setSchema(SchemaModel schema) {
+			this.schema = schema;
+			SerializedFiles.write(file, this);
+		}
+
+	}
+
+	/**
+	 * Keep databases in dir between runs. A null dir switches the cache off.
+	 */
+	public static void configure(File dir) {
+		directory = dir;
+		current.clear();
+		if (dir != null) {
+			logger.config("Keeping what is known about databases in " + dir);
+		}
+	}
+
+	public static boolean isEnabled() {
+		return directory != null;
+	}
+
+	/**
+	 * Look up databases on a server. The fingerprints of all of them are taken
+	 * with one query per {@link #NAMES_PER_QUERY} databases. Databases that
+	 * have changed since they were cached get an empty entry.
+	 *
+	 * @param server
+	 *          The server the databases are on.
+	 * @param con
+	 *          Connection to the server.
+	 * @param names
+	 *          The databases to look up.
+	 * @return The entry of each database, or an empty map if the cache is off
+	 *         or the fingerprints can't be taken.
+	 */
+	public static Map<String, Entry> lookup(DatabaseServer server, Connection con, List<String> names) {
+
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+
+		File dir = directory;
+		if (dir == null || server == null) {
+			return entries;
+		}
+
+		Map<String, String> fingerprints = new HashMap<String, String>();
+		try {
+			for (int from = 0; from < names.size(); from += NAMES_PER_QUERY) {
+				fingerprints.putAll(fingerprints(con, names.subList(from, Math.min(names.size(), from + NAMES_PER_QUERY))));
+			}
+		} catch (SQLException e) {
+			logger.warning("Can't take fingerprints of the databases on " + server + ", not using the catalog cache: " + e.getMessage());
+			return entries;
+		}
+
+		File serverDir = new File(dir, SerializedFiles.toFileName(server.getDatabaseURL()));
+		int hits = 0;
+
+		for (String name : names) {
+
+			String fingerprint = fingerprints.containsKey(name) ? fingerprints.get(name) : "0";
+			File file = new File(serverDir, SerializedFiles.toFileName(name) + ".catalog");
+
+			Entry entry = file.exists() ? SerializedFiles.read(file, Entry.class) : null;
+			if (entry != null && entry.fingerprint.equals(fingerprint)) {
+				hits++;
+			} else {
+				entry = new Entry(fingerprint);
+			}
+			entry.file = file;
+
+			entries.put(name, entry);
+			current.put(server.getDatabaseURL() + name, entry);
+
+		}
+
+		logger.fine(hits + " of " + names.size() + " databases on " + server + " are unchanged since they were cached");
+
+		return entries;
+
+	}
+
+	/**
+	 * @return The entry of dbre if it was looked up in this run, otherwise
+	 *         null.
+	 */
+	public static Entry get(DatabaseRegistryEntry dbre) {
+		if (directory == null || dbre.getDatabaseServer() == null) {
+			return null;
+		}
+		return current.get(dbre.getDatabaseServer().getDatabaseURL() + dbre.getName());
+	}
+
+	/**
+	 * @return The names of the test case classes in packageName found in
+	 *         jarFile when it was last scanned, or null if it has changed since
+	 *         or was not scanned for that package.
+	 */
+	public static List<String> getTestClasses(File jarFile, String packageName) {
+
+		File dir = directory;
+		if (dir == null) {
+			return null;
+		}
+
+		File file = new File(dir, TEST_CLASSES_FILE);
+		if (!file.exists()) {
+			return null;
+		}
+
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				if (!jarSignature(jarFile, packageName).equals(in.readLine())) {
+					return null;
+				}
+				List<String> classNames = new ArrayList<String>();
+				String line;
+				while ((line = in.readLine()) != null) {
+					classNames.add(line);
+				}
+				return classNames;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warning("Could not read " + file + ": " + e.getMessage());
+			return null;
+		}
+
+	}
+
+	/**
+	 * Remember the names of the test case classes in packageName found in
+	 * jarFile.
+	 */
+	public static void putTestClasses(File jarFile, String packageName, List<String> classNames) {
+
+		File dir = directory;
+		if (dir == null) {
+			return;
+		}
+
+		File file = new File(dir, TEST_CLASSES_FILE);
+		File tmp = new File(dir, TEST_CLASSES_FILE + ".tmp");
+		try {
+			dir.mkdirs();
+			PrintWriter out = new PrintWriter(tmp);
+			try {
+				out.println(jarSignature(jarFile, packageName));
+				for (String className : classNames) {
+					out.println(className);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("can't rename " + tmp);
+			}
+		} catch (IOException e) {
+			logger.warning("Could not write " + file + ": " + e.getMessage());
+		}
+
+	}
+
+	private static String jarSignature(File jarFile, String packageName) {
+		return jarFile.getAbsolutePath() + "\t" + jarFile.length() + "\t" + jarFile.lastModified() + "\t" + packageName;
+	}
+
+	private static Map<String, String> fingerprints(Connection con, List<String> names) throws SQLException {
+
+		StringBuilder sql = new StringBuilder(
+				"SELECT TABLE_SCHEMA, COUNT(*), MAX(CREATE_TIME), MAX(UPDATE_TIME), SUM(DATA_LENGTH) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA IN (");
+		for (int i = 0; i < names.size(); i++) {
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(") GROUP BY TABLE_SCHEMA");
+
+		Map<String, String> fingerprints = new HashMap<String, String>();
+
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+		try {
+			for (int i = 0; i < names.size(); i++) {
+				stmt.setString(i + 1, names.get(i));
+			}
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				fingerprints.put(rs.getString(1), rs.getLong(2) + "/" + rs.getString(3) + "/" + rs.getString(4) + "/" + rs.getLong(5));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return fingerprints;
+
+	}
+
+}
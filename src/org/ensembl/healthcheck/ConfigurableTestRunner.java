@@ -48,8 +48,12 @@ import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.OrderedDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.ConnectionValidator;
 import org.ensembl.healthcheck.util.CreateHealthCheckDB;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.QueryProfiler;
+import org.ensembl.healthcheck.util.QueryResultCache;
 import org.ensembl.healthcheck.util.SqlTemplate;
 
 /**
@@ -118,6 +122,18 @@ public class ConfigurableTestRunner extends TestRunner {
 
 		this.configuration = configuration;
 		this.systemPropertySetter = new SystemPropertySetter(configuration);
+
+		// before the test registry, which may scan the jar
+		if (configuration.isCatalogCacheDir()) {
+			CatalogCache.configure(new File(configuration.getCatalogCacheDir()));
+		}
+
+		if (configuration.isIncrementalDir()) {
+			TestResultCache.configure(new File(configuration.getIncrementalDir()),
+					configuration.isIncrementalFingerprint() ? TestResultCache.Fingerprint.resolve(configuration.getIncrementalFingerprint())
+							: TestResultCache.Fingerprint.INFORMATION_SCHEMA);
+		}
+
 		this.testRegistryType = getTestRegistryType(configuration
 				.getTestRegistryType());
 		this.reporterType = getReporterType(configuration.getReporterType());
@@ -129,12 +145,42 @@ public class ConfigurableTestRunner extends TestRunner {
 		this.doRepair = (repair.equals("do") || repair.equals("1") || repair.equals("yes"));
 		this.showRepair = (repair.equals("show"));
 
+		if (configuration.isThreads()) {
+			this.testThreads = Integer.parseInt(configuration.getThreads());
+		}
+
+		configureConnectionPool(configuration);
+
 		/* configuration is cast to a lesser interface to compartmentalise options for
 		* different packages.
 		* */
 		DBUtils.setHostConfiguration((ConfigureHost) configuration);
 	}
 
+	/**
+	 * Apply the pool.* options to the connection pools and to the validation
+	 * of connections. Times are configured in seconds.
+	 */
+	protected void configureConnectionPool(ConfigurationUserParameters configuration) {
+
+		int minIdle = configuration.isPoolMinIdle() ? Integer.parseInt(configuration.getPoolMinIdle()) : ConnectionPool.DEFAULT_MIN_IDLE;
+		int maxPerServer = configuration.isPoolMaxPerServer() ? Integer.parseInt(configuration.getPoolMaxPerServer()) : ConnectionPool.DEFAULT_MAX_PER_SERVER;
+		long borrowTimeout = configuration.isPoolBorrowTimeout() ? 1000L * Long.parseLong(configuration.getPoolBorrowTimeout()) : ConnectionPool.DEFAULT_BORROW_TIMEOUT;
+		long idleTimeout = configuration.isPoolIdleTimeout() ? 1000L * Long.parseLong(configuration.getPoolIdleTimeout()) : ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+		long leakThreshold = configuration.isPoolLeakThreshold() ? 1000L * Long.parseLong(configuration.getPoolLeakThreshold()) : ConnectionPool.DEFAULT_LEAK_THRESHOLD;
+
+		ConnectionPool.configure(minIdle, maxPerServer, borrowTimeout, idleTimeout, leakThreshold);
+
+		ConnectionValidator.Mode mode = configuration.isPoolValidation() ? ConnectionValidator.Mode.valueOf(configuration.getPoolValidation().trim().toUpperCase())
+				: ConnectionValidator.DEFAULT_MODE;
+		long validationIdle = configuration.isPoolValidationIdle() ? 1000L * Long.parseLong(configuration.getPoolValidationIdle())
+				: ConnectionValidator.DEFAULT_IDLE_THRESHOLD;
+		int validationTimeout = configuration.isPoolValidationTimeout() ? Integer.parseInt(configuration.getPoolValidationTimeout())
+				: ConnectionValidator.DEFAULT_TIMEOUT;
+
+		ConnectionPool.configureValidation(mode, validationIdle, validationTimeout);
+	}
+
 	/**
 	 * @param args
 	 *            - The command line arguments
@@ -406,6 +452,15 @@ public class ConfigurableTestRunner extends TestRunner {
 		DatabaseRegistry databasesToTestRegistry = new DatabaseRegistry(
 				testDatabases, globalDatabaseType, globalSpecies, false);
 
+		if (configuration.isThreadsPerServer()) {
+			int threadsPerServer = Integer.parseInt(configuration.getThreadsPerServer());
+			for (DatabaseRegistryEntry dbre : databasesToTestRegistry.getAll()) {
+				if (dbre.getDatabaseServer() != null) {
+					dbre.getDatabaseServer().setMaxConcurrentTests(threadsPerServer);
+				}
+			}
+		}
+
 		if (databasesToTestRegistry.getAll().length == 0) {
 			logger.warning("Warning: no databases configured!");
                         throw new RuntimeException("No databases configured");
@@ -442,6 +497,7 @@ public class ConfigurableTestRunner extends TestRunner {
                         } else {
 			        ReportManager.createDatabaseSession();
                         }
+			ReportManager.loadReportIndex(databasesToTestRegistry);
 		}
 
 		// When writing to a database, this must only be run after calling
@@ -536,10 +592,17 @@ public class ConfigurableTestRunner extends TestRunner {
 
 		
 		logger.info("Done running tests\n\n");
+
+		ConnectionPool.logStatistics();
+		QueryResultCache.logStatistics();
+		QueryResultCache.clear();
+		QueryProfiler.logReport();
+		QueryProfiler.clear();
 		
 		boolean printFailureText = true;
 
 		if (this.reporterType == ReporterType.DATABASE) {
+                        ReportManager.flushDatabaseReports();
                         if (!configuration.isSessionID()) {
 			        logger.info("Finishing reporter session");
 			        ReportManager.endDatabaseSession();
@@ -660,6 +723,8 @@ public class ConfigurableTestRunner extends TestRunner {
 		// Single-database tests
 
 		// run the appropriate tests on each of them
+		List<ParallelTestScheduler.Task> tasks = new ArrayList<ParallelTestScheduler.Task>();
+
 		for (DatabaseRegistryEntry database : databaseRegistry.getAll()) {
                     logger.info("Processing database "+database.getName());
 			for (SingleDatabaseTestCase testCase : testRegistry.getAllSingle(
@@ -668,50 +733,79 @@ public class ConfigurableTestRunner extends TestRunner {
 				if (!testCase.isLongRunning()
 						|| (testCase.isLongRunning() && !skipSlow)) {
 
-					try {
+					tasks.add(new ParallelTestScheduler.Task(testCase, database));
+
+				} else {
+					logger.info("Skipping long-running test "
+							+ testCase.getName());
+					trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.SKIPPED_LONG_RUNNING);
+
+				}
+
+			} // foreach test
+
+		} // foreach DB
+
+		ParallelTestScheduler scheduler = new ParallelTestScheduler(testThreads);
+		if (testThreads > 1) {
+			scheduler.setTimings(TestTimings.load(TestTimings.getFile()));
+		}
+		scheduler.run(tasks,
+				new ParallelTestScheduler.TaskBody() {
+					public void execute(ParallelTestScheduler.Task task) {
+
+						SingleDatabaseTestCase testCase = task.getTestCase();
+						DatabaseRegistryEntry database = task.getDatabase();
+
                                             logger.info("Executing "+testCase.getTestName()+" on "+database.getName());
 						ReportManager.startTestCase(testCase, database);
 
 						testCase.types();
 						
-						boolean result = testCase.run(database);
+						boolean result = TestResultCache.run(testCase, database);
+						task.setResult(result);
 
-						testsRun.add(testCase.getClass());
-						trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.COMPLETED);
-						
 						ReportManager
 								.finishTestCase(testCase, result, database);
 
 						checkRepair(testCase, database);
-						numberOfTestsRun++;
                                             logger.info("Completed executing "+testCase.getTestName()+" on "+database.getName());
-
-					} catch (Throwable e) {
-						
-						trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.DIED_WITH_EXCEPTION);
-						
-						if (!exceptionToDb.containsKey(testCase.getClass())) {
-							exceptionToDb.put(testCase.getClass(), new ArrayList<DatabaseRegistryEntry>());
-						}
-						
-						exceptionToDb.get(testCase.getClass()).add(database);							
-						
-					  String msg = "Could not execute test "
-                + testCase.getName() + " on "
-                + database.getName() + ": " + e.getMessage();
-					  logger.log(Level.WARNING, msg, e);
 					}
+				});
 
-				} else {
-					logger.info("Skipping long-running test "
-							+ testCase.getName());
-					trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.SKIPPED_LONG_RUNNING);
+		// Account for the results in the order the tests were scheduled, so
+		// the statistics don't depend on which worker finished first.
+		for (ParallelTestScheduler.Task task : tasks) {
 
-				}
+			SingleDatabaseTestCase testCase = task.getTestCase();
+			DatabaseRegistryEntry database = task.getDatabase();
 
-			} // foreach test
+			if (task.isCompleted()) {
+				testsRun.add(testCase.getClass());
+				trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.COMPLETED);
+			}
 
-		} // foreach DB
+			Throwable e = task.getException();
+
+			if (e == null) {
+				numberOfTestsRun++;
+			} else {
+
+				trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.DIED_WITH_EXCEPTION);
+				
+				if (!exceptionToDb.containsKey(testCase.getClass())) {
+					exceptionToDb.put(testCase.getClass(), new ArrayList<DatabaseRegistryEntry>());
+				}
+				
+				exceptionToDb.get(testCase.getClass()).add(database);							
+				
+			  String msg = "Could not execute test "
+                + testCase.getName() + " on "
+                + database.getName() + ": " + e.getMessage();
+			  logger.log(Level.WARNING, msg, e);
+			}
+
+		}
 
 		// --------------------------------
 		// Multi-database tests
@@ -724,6 +818,7 @@ public class ConfigurableTestRunner extends TestRunner {
 
 			if (!testCase.isLongRunning()
 					|| (testCase.isLongRunning() && !skipSlow)) {
+				ConnectionPool.beginUnboundedLease(testCase);
 				try {
 					ReportManager.startTestCase(testCase, null);
 
@@ -745,6 +840,8 @@ public class ConfigurableTestRunner extends TestRunner {
               + testCase.getName() + ": " + e.getMessage();
           logger.log(Level.WARNING, msg, e);
           			trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.DIED_WITH_EXCEPTION);
+				} finally {
+					ConnectionPool.endLease();
 				}
 			} else {
 
@@ -767,6 +864,7 @@ public class ConfigurableTestRunner extends TestRunner {
 
 			ReportManager.startTestCase(testCase, null);
 
+			ConnectionPool.beginUnboundedLease(testCase);
 			try {
 				boolean result = testCase.run(orderedDatabases);
 				testsRun.add(testCase.getClass());
@@ -779,6 +877,8 @@ public class ConfigurableTestRunner extends TestRunner {
         String msg = "Could not execute test "
             + testCase.getName() + ": " + e.getMessage();
         logger.log(Level.WARNING, msg, e);
+			} finally {
+				ConnectionPool.endLease();
 			}
 
 			numberOfTestsRun++;
@@ -0,0 +1,374 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.util.DBUtils;
+
+/**
+ * <p>
+ * Finds the databases on a set of servers for a {@link DatabaseRegistry}.
+ * </p>
+ *
+ * <p>
+ * Each server is asked for all the databases matching any of the regexps in
+ * one query against INFORMATION_SCHEMA.SCHEMATA. Databases whose type can't
+ * be worked out from their name have their meta table read in bulk: one
+ * query finds which of them have a meta table, and the schema_type and
+ * schema_version of up to {@link #NAMES_PER_QUERY} of them are read with one
+ * UNION ALL query. Only databases with unusual names, or where the bulk
+ * query fails, are connected to one by one as before. Servers are queried in
+ * parallel.
+ * </p>
+ *
+ * <p>
+ * If the {@link CatalogCache} is on, databases that have not changed since
+ * the last run are not looked at again.
+ * </p>
+ */
+public class DatabaseDiscovery {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Number of databases per query when reading meta tables. */
+	private static final int NAMES_PER_QUERY = 100;
+
+	/** Maximum number of servers queried at the same time. */
+	private static final int MAX_THREADS = 8;
+
+	/** Names that can be used in SQL without quoting. */
+	private static final Pattern PLAIN_NAME = Pattern.compile("[A-Za-z0-9_$]+");
+
+	private DatabaseDiscovery() {
+	}
+
+	/**
+	 * Find the databases matching regexps on servers.
+	 *
+	 * @param servers
+	 *          The servers to look at.
+	 * @param regexps
+	 *          The databases to look for, as for SHOW DATABASES LIKE with .*
+	 *          standing for %. If null or empty, the databases for the current
+	 *          release are used, see {@link DBUtils#listDatabases(Connection)}.
+	 * @param species
+	 *          Species of all the databases, or null to derive it from the
+	 *          names.
+	 * @param type
+	 *          Type of all the databases, or null to derive it from the names
+	 *          and meta tables.
+	 * @return The entries, ordered by server and then by regexp and name.
+	 *         Names matching several regexps are only listed once per server.
+	 */
+	public static List<DatabaseRegistryEntry> discover(List<DatabaseServer> servers, final List<String> regexps, final String species,
+			final DatabaseType type) {
+
+		List<DatabaseRegistryEntry> result = new ArrayList<DatabaseRegistryEntry>();
+
+		if (servers.isEmpty()) {
+			return result;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(servers.size(), MAX_THREADS), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-database-discovery");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+
+			List<Future<List<DatabaseRegistryEntry>>> futures = new ArrayList<Future<List<DatabaseRegistryEntry>>>();
+			for (final DatabaseServer server : servers) {
+				futures.add(executor.submit(new Callable<List<DatabaseRegistryEntry>>() {
+					public List<DatabaseRegistryEntry> call() throws SQLException {
+						return discover(server, server.getServerConnection(), regexps, species, type);
+					}
+				}));
+			}
+
+			for (int i = 0; i < servers.size(); i++) {
+				try {
+					result.addAll(futures.get(i).get());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					logger.warning("Can't list databases on " + servers.get(i) + ": " + e.getCause().getMessage());
+				}
+			}
+
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			logger.warning("Interrupted while listing databases");
+
+		} finally {
+
+			executor.shutdownNow();
+
+		}
+
+		return result;
+
+	}
+
+	/**
+	 * Find the databases matching regexps on one server.
+	 *
+	 * @param server
+	 *          The server, used to connect to databases whose meta table can't
+	 *          be read in bulk.
+	 * @param con
+	 *          Connection to the server.
+	 * @see #discover(List, List, String, DatabaseType)
+	 */
+	public static List<DatabaseRegistryEntry> discover(DatabaseServer server, Connection con, List<String> regexps, String species,
+			DatabaseType type) throws SQLException {
+
+		List<String> names = listDatabases(con, regexps);
+
+		// cached info is only valid if it was derived from the name
+		Map<String, CatalogCache.Entry> catalog = CatalogCache.lookup(server, con, names);
+		boolean useCatalog = species == null && type == null;
+
+		Map<String, DatabaseInfo> infos = new HashMap<String, DatabaseInfo>();
+		List<String> unresolved = new ArrayList<String>();
+		List<String> uncached = new ArrayList<String>();
+		for (String name : names) {
+			DatabaseInfo info = (useCatalog && catalog.containsKey(name)) ? catalog.get(name).getInfo() : null;
+			if (info == null) {
+				uncached.add(name);
+				info = DatabaseRegistryEntry.getInfoFromName(name, species, type);
+				if (info.getType() == DatabaseType.UNKNOWN) {
+					unresolved.add(name);
+				}
+			}
+			infos.put(name, info);
+		}
+
+		infos.putAll(readMetaTables(server, con, unresolved));
+
+		if (useCatalog) {
+			for (String name : uncached) {
+				if (catalog.containsKey(name)) {
+					catalog.get(name).setInfo(infos.get(name));
+				}
+			}
+		}
+
+		List<DatabaseRegistryEntry> entries = new ArrayList<DatabaseRegistryEntry>();
+		for (String name : names) {
+			entries.add(new DatabaseRegistryEntry(server, infos.get(name)));
+		}
+
+		logger.finest("Found " + entries.size() + " databases on " + server + ", " + (names.size() - uncached.size()) + " of them cached, "
+				+ unresolved.size() + " typed from their meta table");
+
+		return entries;
+
+	}
+
+	/**
+	 * @return The names of the databases matching any of regexps, in the order
+	 *         of the regexps and then by name.
+	 */
+	private static List<String> listDatabases(Connection con, List<String> regexps) throws SQLException {
+
+		if (regexps == null || regexps.isEmpty()) {
+			return Arrays.asList(DBUtils.listDatabases(con));
+		}
+
+		StringBuilder sql = new StringBuilder();
+		for (int i = 0; i < regexps.size(); i++) {
+			if (i > 0) {
+				sql.append(" UNION ALL ");
+			}
+			sql.append("SELECT ").append(i).append(", SCHEMA_NAME FROM INFORMATION_SCHEMA.SCHEMATA WHERE SCHEMA_NAME LIKE ?");
+		}
+		sql.append(" ORDER BY 1, 2");
+
+		Set<String> names = new LinkedHashSet<String>();
+
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+		try {
+			for (int i = 0; i < regexps.size(); i++) {
+				stmt.setString(i + 1, regexps.get(i).replace(".*", "%"));
+			}
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				names.add(rs.getString(2));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return new ArrayList<String>(names);
+
+	}
+
+	/**
+	 * Work out the type and schema version of databases from their meta
+	 * tables.
+	 *
+	 * @return The info for each of names that has a meta table with a
+	 *         schema_type and schema_version.
+	 */
+	private static Map<String, DatabaseInfo> readMetaTables(DatabaseServer server, Connection con, List<String> names) {
+
+		Map<String, DatabaseInfo> infos = new HashMap<String, DatabaseInfo>();
+		List<String> oneByOne = new ArrayList<String>();
+
+		List<String> plain = new ArrayList<String>();
+		for (String name : names) {
+			if (PLAIN_NAME.matcher(name).matches()) {
+				plain.add(name);
+			} else {
+				oneByOne.add(name);
+			}
+		}
+
+		for (int from = 0; from < plain.size(); from += NAMES_PER_QUERY) {
+
+			List<String> chunk = plain.subList(from, Math.min(plain.size(), from + NAMES_PER_QUERY));
+
+			try {
+
+				readMetaTables(con, chunk, infos);
+
+			} catch (SQLException e) {
+
+				logger.fine("Can't read meta tables in bulk on " + server + ", reading them one by one: " + e.getMessage());
+				oneByOne.addAll(chunk);
+
+			}
+		}
+
+		for (String name : oneByOne) {
+
+			try {
+
+				DatabaseInfo info = DatabaseRegistryEntry.getInfoFromDatabase(server, name);
+				if (info != null) {
+					infos.put(name, info);
+				}
+
+			} catch (SQLException e) {
+
+				logger.warning(e.getMessage());
+
+			}
+		}
+
+		return infos;
+
+	}
+
+	private static void readMetaTables(Connection con, List<String> names, Map<String, DatabaseInfo> infos) throws SQLException {
+
+		StringBuilder sql = new StringBuilder("SELECT TABLE_SCHEMA FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME='meta' AND TABLE_SCHEMA IN (");
+		for (int i = 0; i < names.size(); i++) {
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(")");
+
+		Set<String> withMeta = new HashSet<String>();
+
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+		try {
+			for (int i = 0; i < names.size(); i++) {
+				stmt.setString(i + 1, names.get(i));
+			}
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				withMeta.add(rs.getString(1));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		if (withMeta.isEmpty()) {
+			return;
+		}
+
+		// names are plain so can be used as they are
+		sql = new StringBuilder();
+		for (String name : names) {
+			if (!withMeta.contains(name)) {
+				continue;
+			}
+			if (sql.length() > 0) {
+				sql.append(" UNION ALL ");
+			}
+			sql.append("SELECT '").append(name).append("', meta_key, meta_value FROM ").append(name)
+					.append(".meta WHERE meta_key IN ('schema_type','schema_version')");
+		}
+
+		Map<String, String> schemaTypes = new HashMap<String, String>();
+		Map<String, String> schemaVersions = new HashMap<String, String>();
+
+		stmt = con.prepareStatement(sql.toString());
+		try {
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				Map<String, String> values = "schema_type".equals(rs.getString(2)) ? schemaTypes : schemaVersions;
+				if (!values.containsKey(rs.getString(1))) {
+					values.put(rs.getString(1), rs.getString(3));
+				}
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		for (String name : withMeta) {
+			String schemaType = schemaTypes.get(name);
+			String schemaVersion = schemaVersions.get(name);
+			if (schemaType != null && schemaVersion != null) {
+				infos.put(name, new DatabaseInfo(name, null, DatabaseRegistryEntry.UNKNOWN, DatabaseType.resolveAlias(schemaType), schemaVersion, null));
+			}
+		}
+
+	}
+
+}
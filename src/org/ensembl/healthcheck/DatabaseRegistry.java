@@ -17,8 +17,8 @@
 
 package org.ensembl.healthcheck;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -38,6 +38,13 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	// because the order is important
 	private ArrayList<DatabaseRegistryEntry> entries = new ArrayList<DatabaseRegistryEntry>();
 
+	// lookups of the entries, kept up to date by index()
+	private final Map<String, DatabaseRegistryEntry> byName = new HashMap<String, DatabaseRegistryEntry>();
+
+	private final Map<String, List<DatabaseRegistryEntry>> bySpecies = new HashMap<String, List<DatabaseRegistryEntry>>();
+
+	private final Map<DatabaseType, List<DatabaseRegistryEntry>> byType = new HashMap<DatabaseType, List<DatabaseRegistryEntry>>();
+
 	// these global settings override guessing if they are specified
 	private String globalSpecies = null;
 
@@ -67,40 +74,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 		List<DatabaseServer> servers = isSecondary ? DBUtils.getSecondaryDatabaseServers() : DBUtils.getMainDatabaseServers();
 
-		for (DatabaseServer server : servers) {
-
-			if (regexps == null || regexps.size() == 0) {
-
-				String[] names = null;
-				
-				try {
-					
-					names = DBUtils.listDatabases(server.getServerConnection(), null);
-					
-				} catch(SQLException e) {
-					logger.warning(e.getMessage());
-				}
-				addEntriesToRegistry(server, names, isSecondary);
-
-			} else {
-
-				for(String regexp: regexps) {
-
-					String[] names = null;
-					
-					try {
-						
-						names = DBUtils.listDatabases(server.getServerConnection(), regexp);
-					
-					} catch(SQLException e) {
-						logger.warning(e.getMessage());
-					}
-
-					addEntriesToRegistry(server, names, isSecondary);
-
-				}
-			}
-		}
+		addEntriesToRegistry(DatabaseDiscovery.discover(servers, regexps, this.globalSpecies, this.globalType), isSecondary);
 
 	}
 
@@ -115,7 +89,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 		for(DatabaseRegistryEntry dbre: dbres) {
 
-			entries.add(dbre);
+			index(dbre);
 
 		}
 
@@ -132,7 +106,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 		for(DatabaseRegistryEntry dbre: dbres) {
 
-			entries.add(dbre);
+			index(dbre);
 
 		}
 
@@ -140,25 +114,17 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 	// -----------------------------------------------------------------
 
-	private void addEntriesToRegistry(DatabaseServer server, final String[] names, boolean isSecondary) {
-
-		if (names==null) {
-			return;
-		}
-		
-		for (String name : names) {
+	private void addEntriesToRegistry(List<DatabaseRegistryEntry> dbres, boolean isSecondary) {
 
-			DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(server, name, globalSpecies, globalType);
+		for (DatabaseRegistryEntry dbre : dbres) {
 
 			if (!this.contains(dbre)) {
 
-				// logger.finest(dbre.getName() + " appears to be type " + dbre.getType() + " and species " + dbre.getSpecies());
-
 				dbre.setDatabaseRegistry(this);
 
-				entries.add(dbre);
+				index(dbre);
 
-				logger.finest("Added DatabaseRegistryEntry for " + name + " to " + (isSecondary ? "secondary" : "main") + " DatabaseRegistry");
+				logger.finest("Added DatabaseRegistryEntry for " + dbre.getName() + " to " + (isSecondary ? "secondary" : "main") + " DatabaseRegistry");
 
 			} else {
 
@@ -169,6 +135,36 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 	}
 
+	// -----------------------------------------------------------------
+	/**
+	 * Add dbre to the list of entries and to the lookups by name, species and
+	 * type. If there already is an entry with the same name, getByExactName
+	 * keeps returning the first one.
+	 */
+	private void index(DatabaseRegistryEntry dbre) {
+
+		entries.add(dbre);
+
+		if (!byName.containsKey(dbre.getName())) {
+			byName.put(dbre.getName(), dbre);
+		}
+
+		List<DatabaseRegistryEntry> list = bySpecies.get(dbre.getSpecies());
+		if (list == null) {
+			list = new ArrayList<DatabaseRegistryEntry>();
+			bySpecies.put(dbre.getSpecies(), list);
+		}
+		list.add(dbre);
+
+		list = byType.get(dbre.getType());
+		if (list == null) {
+			list = new ArrayList<DatabaseRegistryEntry>();
+			byType.put(dbre.getType(), list);
+		}
+		list.add(dbre);
+
+	}
+
 	// -----------------------------------------------------------------
 	/**
 	 * Add a new DatabaseRegistryEntry to this registry.
@@ -178,7 +174,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public final void add(final DatabaseRegistryEntry dbre) {
 
-		entries.add(dbre);
+		index(dbre);
 		dbre.setDatabaseRegistry(this);
 
 	}
@@ -199,11 +195,11 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	/**
 	 * Get a list of all of the DatabaseRegistryEntries stored in this DatabaseRegistry.
 	 * 
-	 * @return The DatabaseRegistryEntries stored in this DatabaseRegistry.
+	 * @return The DatabaseRegistryEntries stored in this DatabaseRegistry. Use add() to add more.
 	 */
 	public final List<DatabaseRegistryEntry> getAllEntries() {
 
-		return entries;
+		return Collections.unmodifiableList(entries);
 
 	}
 
@@ -217,14 +213,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public final DatabaseRegistryEntry[] getAll(final String species) {
 
-		List<DatabaseRegistryEntry> result = new ArrayList<DatabaseRegistryEntry>();
-		for(DatabaseRegistryEntry dbre: entries) {
-			if (dbre.getSpecies().equals(species)) {
-				result.add(dbre);
-			}
-		}
-
-		return (DatabaseRegistryEntry[]) result.toArray(new DatabaseRegistryEntry[result.size()]);
+		return toArray(bySpecies.get(species));
 
 	}
 
@@ -238,14 +227,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public final DatabaseRegistryEntry[] getAll(final DatabaseType type) {
 
-		List<DatabaseRegistryEntry> result = new ArrayList<DatabaseRegistryEntry>();
-		for(DatabaseRegistryEntry dbre: entries) {
-			if (dbre.getType().equals(type)) {
-				result.add(dbre);
-			}
-		}
-
-		return (DatabaseRegistryEntry[]) result.toArray(new DatabaseRegistryEntry[result.size()]);
+		return toArray(byType.get(type));
 
 	}
 
@@ -261,10 +243,25 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public final DatabaseRegistryEntry[] getAll(final DatabaseType type, final String species) {
 
+		// go through the shorter of the two lists
+		List<DatabaseRegistryEntry> ofSpecies = bySpecies.get(species);
+		List<DatabaseRegistryEntry> ofType = byType.get(type);
+		if (ofSpecies == null || ofType == null) {
+			return new DatabaseRegistryEntry[0];
+		}
+
 		List<DatabaseRegistryEntry> result = new ArrayList<DatabaseRegistryEntry>();
-		for(DatabaseRegistryEntry dbre: entries) {
-			if (dbre.getType().equals(type) && dbre.getSpecies().equals(species)) {
-				result.add(dbre);
+		if (ofSpecies.size() < ofType.size()) {
+			for (DatabaseRegistryEntry dbre : ofSpecies) {
+				if (dbre.getType().equals(type)) {
+					result.add(dbre);
+				}
+			}
+		} else {
+			for (DatabaseRegistryEntry dbre : ofType) {
+				if (dbre.getSpecies().equals(species)) {
+					result.add(dbre);
+				}
 			}
 		}
 
@@ -282,10 +279,9 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public final DatabaseRegistryEntry getByExactName(String name) {
 
-		for(DatabaseRegistryEntry dbre: entries) {
-			if (dbre.getName().equals(name)) {
-				return dbre;
-			}
+		DatabaseRegistryEntry dbre = byName.get(name);
+		if (dbre != null) {
+			return dbre;
 		}
 
 		logger.warning("Can't find database matching name " + name);
@@ -416,14 +412,7 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public boolean contains(DatabaseRegistryEntry dbre) {
 
-		for (DatabaseRegistryEntry entry : entries) {
-
-			if (entry.equals(dbre)) {
-				return true;
-			}
-		}
-
-		return false;
+		return byName.containsKey(dbre.getName());
 
 	}
 
@@ -453,7 +442,18 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 	 */
 	public Iterator<DatabaseRegistryEntry> iterator() {
 
-		return entries.iterator();
+		return getAllEntries().iterator();
+
+	}
+
+	// -----------------------------------------------------------------
+
+	private static DatabaseRegistryEntry[] toArray(List<DatabaseRegistryEntry> dbres) {
+
+		if (dbres == null) {
+			return new DatabaseRegistryEntry[0];
+		}
+		return dbres.toArray(new DatabaseRegistryEntry[dbres.size()]);
 
 	}
 
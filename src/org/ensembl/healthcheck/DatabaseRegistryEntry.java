@@ -32,7 +32,6 @@ package org.ensembl.healthcheck;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -462,6 +461,21 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 		this.info = info;
 	}
 
+	/**
+	 * Create a new DatabaseRegistryEntry for a database whose type and species
+	 * have already been worked out, e.g. by {@link DatabaseDiscovery}. The
+	 * database itself is not queried.
+	 *
+	 * @param server
+	 *            The database server where this database resides.
+	 * @param info
+	 *            Name, type, species and version of the database.
+	 */
+	public DatabaseRegistryEntry(DatabaseServer server, DatabaseInfo info) {
+		this.server = server;
+		this.info = info;
+	}
+
 	public DatabaseRegistryEntry(DatabaseInfo info, Connection con) {
 		this.info = info;
 		this.server = null;
@@ -581,23 +595,12 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 		if (type == null || !type.isGeneric()) {
 			return speciesId;
 		}
-		Statement stmt = null;
-		ResultSet rs = null;
 		try {
-			stmt = con.createStatement();
-			rs = stmt
-					.executeQuery("SELECT DISTINCT(species_id) FROM meta where species_id is not null");
-			if (rs != null) {
-				while (rs.next()) {
-					speciesId.add(rs.getInt(1));
-				}
-			}
-		} catch (SQLException e) {
+			speciesId.addAll(DBUtils.getSqlTemplate(con).queryForCachedDefaultObjectList(
+					"SELECT DISTINCT(species_id) FROM meta where species_id is not null", Integer.class));
+		} catch (SqlUncheckedException e) {
 			throw new UtilUncheckedException(
 					"Problem obtaining list of species IDs", e);
-		} finally {
-			DBUtils.closeQuietly(rs);
-			DBUtils.closeQuietly(stmt);
 		}
 
 		return speciesId;
@@ -611,21 +614,24 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 		return server;
 	}
 
+	/**
+	 * @return A connection to this database. While a test is running this is
+	 *         the connection leased to the test from the pool of the server,
+	 *         see {@link ConnectionPool#beginLease}.
+	 */
 	public Connection getConnection() {
 
-		if (
-			(connection == null)
-			|| !(ConnectionPool.isValidConnection(connection))
-		) {
+		if (server == null) {
+			return connection;
+		}
 
-			try {
-				connection = server.getDatabaseConnection(getName());
-			} catch (SQLException e) {
+		try {
+			return server.getDatabaseConnection(getName());
+		} catch (SQLException e) {
 
-				logger.warning(e.getMessage());
-			}
+			logger.warning(e.getMessage());
+			return null;
 		}
-		return connection;
 	}
 
 	/**
@@ -662,7 +668,16 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 	 */
 	public List<Integer> getSpeciesIds() {
 		if (speciesIds == null) {
-			speciesIds = getSpeciesIds(getConnection(), getSpecies(), getType());
+			// only generic databases have species IDs to look up
+			CatalogCache.Entry cached = (getType() != null && getType().isGeneric()) ? CatalogCache.get(this) : null;
+			List<Integer> ids = (cached == null) ? null : cached.getSpeciesIds();
+			if (ids == null) {
+				ids = getSpeciesIds(getConnection(), getSpecies(), getType());
+				if (cached != null) {
+					cached.setSpeciesIds(ids);
+				}
+			}
+			speciesIds = ids;
 		}
 		return speciesIds;
 	}
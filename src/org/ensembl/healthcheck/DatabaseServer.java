@@ -21,7 +21,9 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.logging.Logger;
 
+import org.ensembl.healthcheck.util.ConnectionPool;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.ServerConnectionPool;
 
 /**
  * Class to represent a physical database server.
@@ -45,6 +47,20 @@ public class DatabaseServer {
 	
 	protected boolean connectedSuccessfully;
 
+	/**
+	 * Maximum number of tests that may run against this server at the same
+	 * time when tests are run in parallel. 0 means no limit.
+	 */
+	protected int maxConcurrentTests = 0;
+
+	public int getMaxConcurrentTests() {
+		return maxConcurrentTests;
+	}
+
+	public void setMaxConcurrentTests(int maxConcurrentTests) {
+		this.maxConcurrentTests = maxConcurrentTests;
+	}
+
 	public boolean isConnectedSuccessfully() {
 		return connectedSuccessfully;
 	}
@@ -108,6 +124,18 @@ public class DatabaseServer {
 
 	// -------------------------------------------------------------------------
 
+	/**
+	 * @return The pool that connections to databases on this server are
+	 *         borrowed from while a test is running.
+	 */
+	public ServerConnectionPool getConnectionPool() {
+
+		return ConnectionPool.getServerPool(driver, databaseURL, user, pass);
+
+	}
+
+	// -------------------------------------------------------------------------
+
 	private String buildDatabaseURL() {
 
 		databaseURL = "jdbc:mysql://" + host + ":" + port + "/";
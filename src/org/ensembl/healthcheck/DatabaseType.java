@@ -29,12 +29,23 @@
  */
 package org.ensembl.healthcheck;
 
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.ensembl.healthcheck.util.Utils;
 
 /**
  * Typesafe "enum" to store information about the type of a database. Declared final since it only has private constructors.
+ * Serializable so it can be kept by the {@link CatalogCache}; a deserialized type is replaced by the constant of the same name.
  */
-public final class DatabaseType {
+public final class DatabaseType implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The types by name; declared first so the constants below can add themselves. */
+	private static final Map<String, DatabaseType> TYPES = new HashMap<String, DatabaseType>();
 
 	/** A core database */
 	public static final DatabaseType CORE = new DatabaseType("core");
@@ -122,6 +133,16 @@ public final class DatabaseType {
 	private DatabaseType(final String name) {
 
 		this.name = name;
+		TYPES.put(name, this);
+	}
+
+	/**
+	 * @return The constant of the same name, so types can still be compared with ==.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+
+		DatabaseType type = TYPES.get(name);
+		return type == null ? UNKNOWN : type;
 	}
 
 	/**
@@ -335,6 +335,25 @@ public class DiscoveryBasedTestRegistry implements TestRegistry {
 
 		ArrayList<EnsTestCase> tests = new ArrayList<EnsTestCase>();
 
+		// only load the classes that were test cases last time the jar was scanned
+		List<String> cachedClassNames = CatalogCache.getTestClasses(new File(jarFileName), packageName);
+		if (cachedClassNames != null) {
+			for (String fullName : cachedClassNames) {
+				try {
+					EnsTestCase testCase = Class.forName(fullName).asSubclass(EnsTestCase.class).getDeclaredConstructor().newInstance();
+					String[] bits = fullName.split("\\.");
+					testCase.setTypeFromDirName(bits[bits.length - 2]);
+					tests.add(testCase);
+				} catch (Exception e) {
+					logger.log(Level.WARNING, fullName + " had an issue whilst trying to create an instance", e);
+				}
+			}
+			logger.finest("Found " + tests.size() + " tests in " + jarFileName + " using the catalog cache");
+			return tests;
+		}
+
+		List<String> classNames = new ArrayList<String>();
+
 		try {
 
 			JarFile jarFile = new JarFile(jarFileName);
@@ -390,10 +409,14 @@ public class DiscoveryBasedTestRegistry implements TestRegistry {
 
 							// store the test instance
 							tests.add(testCase);
+							classNames.add(obj.getClass().getName());
 						}
 					}
 				}
 			}
+
+			CatalogCache.putTestClasses(new File(jarFileName), packageName, classNames);
+
 		} catch (IOException ioe) {
 
 			ioe.printStackTrace(System.err);
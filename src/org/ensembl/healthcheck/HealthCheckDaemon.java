@@ -0,0 +1,321 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
+import org.ensembl.healthcheck.configurationmanager.ConfigurationException;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.QueryProfiler;
+import org.ensembl.healthcheck.util.QueryResultCache;
+
+/**
+ * <p>
+ * Runs healthchecks for clients on the same machine, so that a short check
+ * does not pay for starting a JVM, loading the test classes, connecting to
+ * every server and reading master schemas. Connection pools and the
+ * {@link CatalogCache} stay warm between requests. Master
+ * {@link SchemaModel}s are looked up again for each request, in case a
+ * master has been edited, and are taken from the CatalogCache if it has not.
+ * </p>
+ *
+ * <p>
+ * The daemon is started with the same options as the
+ * {@link ConfigurableTestRunner}, plus daemon.port. The servers to test and
+ * the output database are taken from these options. A client connects to
+ * daemon.port on 127.0.0.1 and sends the arguments it would have given
+ * run-configurable-testrunner.sh, one per line, followed by an empty line.
+ * The databases, groups, tests, type, species, output level and session ID
+ * are taken from these arguments, anything else in them is ignored.
+ * </p>
+ *
+ * <p>
+ * Up to daemon.requests requests are run at the same time, each with a
+ * {@link ReportSession} of its own. If the request has a sessionID its
+ * reports are written to that session of the output database, which must
+ * already exist. Otherwise they are sent back to the client, one per line:
+ * </p>
+ *
+ * <pre>
+ * REPORT&lt;tab&gt;level&lt;tab&gt;database&lt;tab&gt;test case&lt;tab&gt;message
+ * </pre>
+ *
+ * <p>
+ * with newlines in the message sent as \n. The last line is
+ * END&lt;tab&gt;number of problems, or ERROR&lt;tab&gt;message if the request
+ * could not be run.
+ * </p>
+ */
+public class HealthCheckDaemon extends ConfigurableTestRunner {
+
+	/** Default number of requests run at the same time. */
+	public static final int DEFAULT_REQUESTS = 4;
+
+	private final int port;
+
+	private final int maxRequests;
+
+	public HealthCheckDaemon(ConfigurationUserParameters configuration) {
+
+		super(configuration);
+
+		if (!configuration.isDaemonPort()) {
+			throw new ConfigurationException("daemon.port must be set to run the healthcheck daemon");
+		}
+		this.port = Integer.parseInt(configuration.getDaemonPort());
+		this.maxRequests = configuration.isDaemonRequests() ? Integer.parseInt(configuration.getDaemonRequests()) : DEFAULT_REQUESTS;
+
+	}
+
+	public static void main(String[] args) {
+
+		HealthCheckDaemon daemon = new HealthCheckDaemon(createConfigurationObj(args));
+		try {
+
+			daemon.serve();
+
+		} catch (IOException e) {
+
+			daemon.logger.log(Level.SEVERE, "Healthcheck daemon stopped: " + e.getMessage(), e);
+
+		}
+	}
+
+	/**
+	 * Accept requests until the JVM is stopped.
+	 */
+	public void serve() throws IOException {
+
+		systemPropertySetter.setPropertiesForHealthchecks();
+		setOutputLevel(configuration.getOutputLevel());
+		ReportManager.setOutputLevel(outputLevel);
+
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		logger.info("Healthcheck daemon listening on 127.0.0.1:" + port + ", running up to " + maxRequests + " requests at a time");
+
+		ExecutorService requests = Executors.newFixedThreadPool(maxRequests, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "healthcheck-request-" + count.incrementAndGet());
+			}
+		});
+
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				requests.execute(new Runnable() {
+					public void run() {
+						handle(socket);
+					}
+				});
+			}
+		} finally {
+			requests.shutdownNow();
+			serverSocket.close();
+		}
+
+	}
+
+	/**
+	 * Read one request from socket, run it and send back the result.
+	 */
+	void handle(Socket socket) {
+
+		try {
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+			List<String> args = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+				args.add(line);
+			}
+
+			try {
+
+				int problems = runRequest(args.toArray(new String[args.size()]), out);
+				out.println("END\t" + problems);
+
+			} catch (Throwable e) {
+
+				logger.log(Level.WARNING, "Request " + args + " failed: " + e.getMessage(), e);
+				out.println("ERROR\t" + escape(String.valueOf(e.getMessage())));
+
+			}
+
+			out.flush();
+
+		} catch (IOException e) {
+
+			logger.warning("Lost connection to client: " + e.getMessage());
+
+		} finally {
+
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+
+		}
+
+	}
+
+	/**
+	 * Run the tests asked for by args and write the reports to out, or to the
+	 * output database if a session ID is given.
+	 *
+	 * @return The number of problems reported.
+	 */
+	int runRequest(String[] args, PrintWriter out) {
+
+		ConfigurationUserParameters request = createConfigurationObj(args);
+
+		if (!request.isTestDatabases() || request.getTestDatabases().isEmpty()) {
+			throw new ConfigurationException("No databases given, use -d");
+		}
+
+		DatabaseType type = null;
+		if (request.isDbType()) {
+			type = DatabaseType.resolveAlias(request.getDbType());
+			if (type == DatabaseType.UNKNOWN) {
+				throw new ConfigurationException("Argument " + request.getDbType() + " to -type not recognised");
+			}
+		}
+
+		String species = request.isSpecies() ? request.getSpecies() : null;
+
+		Integer level = request.isOutputLevel() ? parseOutputLevel(request.getOutputLevel()) : null;
+		int requestLevel = level == null ? outputLevel : level;
+
+		TestRegistry testRegistry = getTestRegistry(getTestRegistryType(request.getTestRegistryType()), request);
+
+		SchemaModel.clearCache();
+
+		DatabaseRegistry databaseRegistry = new DatabaseRegistry(new ArrayList<String>(request.getTestDatabases()), type, species, false);
+		if (databaseRegistry.isEmpty()) {
+			throw new ConfigurationException("No databases found matching " + request.getTestDatabases());
+		}
+
+		ReportStore store = new ReportStore(ReportManager.MAX_BUFFER_SIZE);
+		ReportDatabaseWriter writer = null;
+		ReportSession session = null;
+		Connection outputConnection = null;
+
+		try {
+
+			if (request.isSessionID()) {
+				outputConnection = openOutputDatabase();
+				List<String> names = new ArrayList<String>();
+				for (DatabaseRegistryEntry dbre : databaseRegistry.getAll()) {
+					names.add(dbre.getName());
+				}
+				writer = new ReportDatabaseWriter(outputConnection, Long.parseLong(request.getSessionID()),
+						Integer.parseInt(System.getProperty("output.batchsize", String.valueOf(ReportManager.DEFAULT_OUTPUT_BATCH_SIZE))),
+						Long.parseLong(System.getProperty("output.flushinterval", String.valueOf(ReportManager.DEFAULT_OUTPUT_FLUSH_INTERVAL))),
+						ReportIndex.load(outputConnection, names));
+			}
+
+			logger.info("Running " + testRegistry.getAll().size() + " tests on " + databaseRegistry.getEntryCount() + " databases for "
+					+ Thread.currentThread().getName());
+
+			session = new ReportSession(store, writer, requestLevel);
+			// other requests are running at the same time, keep the queries of this one apart
+			QueryProfiler.startSession(session);
+			ReportManager.bindReportSession(session);
+			try {
+				runAllTestsWithAccounting(databaseRegistry, testRegistry, false);
+			} finally {
+				ReportManager.unbindReportSession();
+				if (writer != null) {
+					writer.drain();
+				}
+				// the next request may come after the databases have changed
+				for (DatabaseRegistryEntry dbre : databaseRegistry.getAll()) {
+					QueryResultCache.invalidate(dbre);
+				}
+				QueryProfiler.logReport(session);
+				QueryProfiler.endSession(session);
+			}
+
+		} catch (SQLException e) {
+
+			throw new RuntimeException("Can't connect to the output database", e);
+
+		} finally {
+
+			DBUtils.closeQuietly(outputConnection);
+
+		}
+
+		for (List<ReportLine> lines : store.getAllByTestCase().values()) {
+			for (ReportLine line : lines) {
+				if (line.getLevel() >= requestLevel) {
+					out.println("REPORT\t" + line.getLevelAsString() + "\t" + line.getDatabaseName() + "\t" + line.getShortTestCaseName() + "\t"
+							+ escape(line.getMessage()));
+				}
+			}
+		}
+
+		return session.getProblemCount();
+
+	}
+
+	/**
+	 * Open a connection to the output database of its own for a request, so
+	 * its reports are written independently of other requests.
+	 */
+	private Connection openOutputDatabase() throws SQLException {
+
+		try {
+			Class.forName(configuration.getOutputDriver());
+		} catch (ClassNotFoundException e) {
+			throw new ConfigurationException("Can't load class " + configuration.getOutputDriver());
+		}
+
+		return DriverManager.getConnection("jdbc:mysql://" + configuration.getOutputHost() + ":" + configuration.getOutputPort() + "/"
+				+ configuration.getOutputDatabase(), configuration.getOutputUser(), configuration.getOutputPassword());
+
+	}
+
+	private static String escape(String message) {
+		return message.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", " ");
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Runs the jobs the {@link ParallelConfigurableTestRunner} splits a session
+ * into: one job per database regexp, then a job that ends the session once
+ * all of them have finished.
+ * </p>
+ *
+ * <p>
+ * Jobs are commands as they would be run on the command line. Output file
+ * names may contain %J, which is replaced by an identifier of the job.
+ * </p>
+ */
+public interface JobExecutor {
+
+	/**
+	 * Start a job.
+	 *
+	 * @param jobName
+	 *          Name of the job, used by {@link #submitAfter}.
+	 * @param cmd
+	 *          The command to run.
+	 * @param out
+	 *          File to write the standard output of the job to.
+	 * @param err
+	 *          File to write the standard error of the job to.
+	 */
+	void submit(String jobName, String[] cmd, String out, String err);
+
+	/**
+	 * Start a job once the jobs in dependencies have ended, whether they
+	 * succeeded or not.
+	 *
+	 * @see #submit(String, String[], String, String)
+	 */
+	void submitAfter(String jobName, List<String> dependencies, String[] cmd, String out, String err);
+
+	/**
+	 * Called once all jobs have been submitted. Returns when the executor no
+	 * longer needs the submitting JVM, which may be before the jobs have
+	 * finished.
+	 */
+	void finish();
+
+}
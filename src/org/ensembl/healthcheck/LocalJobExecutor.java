@@ -0,0 +1,176 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Runs jobs as processes on this machine, at most a given number at a time,
+ * for running a session in parallel without a cluster.
+ * </p>
+ *
+ * <p>
+ * Jobs submitted with {@link #submitAfter} don't take up a worker while they
+ * wait for their dependencies. {@link #finish()} returns once all jobs have
+ * ended.
+ * </p>
+ */
+public class LocalJobExecutor implements JobExecutor {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private final ExecutorService workers;
+
+	private final ExecutorService waiting;
+
+	private final Map<String, Future<Integer>> jobs = new HashMap<String, Future<Integer>>();
+
+	private final AtomicInteger jobIds = new AtomicInteger();
+
+	/**
+	 * @param workers
+	 *          Maximum number of jobs running at the same time.
+	 */
+	public LocalJobExecutor(int workers) {
+
+		this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "healthcheck-job-" + count.incrementAndGet());
+			}
+		});
+
+		this.waiting = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "healthcheck-job-dependency");
+			}
+		});
+
+	}
+
+	public synchronized void submit(String jobName, String[] cmd, String out, String err) {
+
+		jobs.put(jobName, workers.submit(job(jobName, cmd, out, err)));
+
+	}
+
+	public synchronized void submitAfter(final String jobName, List<String> dependencies, String[] cmd, String out, String err) {
+
+		final List<Future<Integer>> before = new ArrayList<Future<Integer>>();
+		for (String dependency : dependencies) {
+			if (!jobs.containsKey(dependency)) {
+				throw new IllegalArgumentException("No job called " + dependency + " has been submitted");
+			}
+			before.add(jobs.get(dependency));
+		}
+
+		final Callable<Integer> job = job(jobName, cmd, out, err);
+
+		jobs.put(jobName, waiting.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				for (Future<Integer> dependency : before) {
+					try {
+						dependency.get();
+					} catch (ExecutionException e) {
+						// ended is enough, as with LSF
+					}
+				}
+				return workers.submit(job).get();
+			}
+		}));
+
+	}
+
+	public void finish() {
+
+		List<Map.Entry<String, Future<Integer>>> submitted;
+		synchronized (this) {
+			submitted = new ArrayList<Map.Entry<String, Future<Integer>>>(jobs.entrySet());
+		}
+
+		try {
+
+			for (Map.Entry<String, Future<Integer>> job : submitted) {
+				try {
+					job.getValue().get();
+				} catch (ExecutionException e) {
+					logger.warning("Job " + job.getKey() + " failed: " + e.getCause().getMessage());
+				}
+			}
+
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			logger.warning("Interrupted while waiting for jobs, stopping them");
+
+		} finally {
+
+			waiting.shutdownNow();
+			workers.shutdownNow();
+
+		}
+
+	}
+
+	private Callable<Integer> job(final String jobName, final String[] cmd, String out, String err) {
+
+		String id = Integer.toString(jobIds.incrementAndGet());
+		final File outFile = new File(out.replace("%J", id));
+		final File errFile = new File(err.replace("%J", id));
+
+		return new Callable<Integer>() {
+			public Integer call() throws IOException, InterruptedException {
+
+				logger.info("Starting job " + jobName + ": " + Arrays.toString(cmd));
+
+				Process process = new ProcessBuilder(cmd).redirectOutput(outFile).redirectError(errFile).start();
+				try {
+					int exitCode = process.waitFor();
+					if (exitCode != 0) {
+						logger.warning("Job " + jobName + " exited with " + exitCode + ", see " + errFile);
+					} else {
+						logger.info("Job " + jobName + " finished");
+					}
+					return exitCode;
+				} finally {
+					process.destroy();
+				}
+
+			}
+		};
+
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.ensembl.healthcheck.configuration.ConfigureHost;
+
+/**
+ * Submits jobs to LSF with bsub. Database jobs go to the long queue and
+ * reserve capacity on the database servers being tested; the session job
+ * waits for them with an ended() dependency. Returns as soon as everything
+ * is submitted.
+ */
+public class LsfJobExecutor implements JobExecutor {
+
+	private static final String MEMORY_RUSAGE = "select[mem>2000] rusage[mem=2000]";
+	private static final String MEMORY_RESERVATION = "2000";
+
+	private final ConfigureHost configuration;
+
+	public LsfJobExecutor(ConfigureHost configuration) {
+		this.configuration = configuration;
+	}
+
+	public void submit(String jobName, String[] cmd, String out, String err) {
+
+		String host = configuration.getHost().replace("-", "_");
+		String secondaryHost = configuration.getSecondaryHost().replace("-", "_");
+
+		List<String> bsub = new ArrayList<String>();
+
+		if (configuration.getHost1() != null) {
+			String host1 = configuration.getHost1().replace("-", "_");
+			bsub.addAll(Arrays.asList("bsub", "-q", "long", "-J", jobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + host
+					+ "<=800]", "-R", "select[my" + host1 + "<=800]", "-R", "select[my" + secondaryHost + "<=400]", "-R", "rusage[my" + host + "=10:my"
+					+ host1 + "=10:my" + secondaryHost + "=50]", "-o", out, "-e", err));
+		} else {
+			bsub.addAll(Arrays.asList("bsub", "-q", "long", "-J", jobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + host
+					+ "<=800]", "-R", "select[my" + secondaryHost + "<=400]", "-R", "rusage[my" + host + "=10:my" + secondaryHost + "=50]", "-o", out,
+					"-e", err));
+		}
+
+		bsub.addAll(Arrays.asList(cmd));
+		execCmd(bsub.toArray(new String[bsub.size()]));
+
+	}
+
+	public void submitAfter(String jobName, List<String> dependencies, String[] cmd, String out, String err) {
+
+		Iterator<String> jobNameIterator = dependencies.iterator();
+		StringBuffer bsubConditionClause = new StringBuffer();
+		while (jobNameIterator.hasNext()) {
+
+			bsubConditionClause.append("ended(\"" + jobNameIterator.next() + "\")");
+
+			if (jobNameIterator.hasNext()) {
+				bsubConditionClause.append(" && ");
+			}
+		}
+
+		List<String> bsub = new ArrayList<String>(Arrays.asList("bsub", "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-o", out, "-e", err,
+				"-J", jobName, "-w", bsubConditionClause.toString()));
+		bsub.addAll(Arrays.asList(cmd));
+		execCmd(bsub.toArray(new String[bsub.size()]));
+
+	}
+
+	public void finish() {
+		// LSF runs the jobs
+	}
+
+	/**
+	 * Used for executing bsub commands.
+	 */
+	protected void execCmd(String[] cmd) {
+
+		try {
+
+			Process p = Runtime.getRuntime().exec(cmd);
+
+			BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+
+			String s = null;
+
+			while ((s = stdInput.readLine()) != null) {
+				System.out.println(s);
+			}
+
+			while ((s = stdError.readLine()) != null) {
+				System.out.println(s);
+			}
+
+			stdInput.close();
+			stdError.close();
+
+		} catch (Exception ioe) {
+			System.err.println("Error in head job " + ioe.getMessage());
+		}
+	}
+
+}
@@ -19,13 +19,14 @@ package org.ensembl.healthcheck;
 
 
 import java.io.File;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.List;
-import java.util.Iterator;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.ensembl.healthcheck.configuration.ConfigureHealthcheckDatabase;
 import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
@@ -57,9 +58,6 @@ public class ParallelConfigurableTestRunner extends TestRunner {
         protected final static String DEFAULT_PROPERTIES_FILE = "database.release.defaults.properties";
         protected final ConfigurationUserParameters configuration;
 
-        private static final String MEMORY_RUSAGE = "select[mem>2000] rusage[mem=2000]";
-        private static final String MEMORY_RESERVATION = "2000";
-
         static final Logger log = Logger.getLogger(ParallelConfigurableTestRunner.class.getCanonicalName());
         protected final SystemPropertySetter systemPropertySetter;
 
@@ -157,50 +155,26 @@ public class ParallelConfigurableTestRunner extends TestRunner {
          */
         protected void submitJobs() {
 
-                int numberOfTestsRun = 0;
                 int jobNumber = 0;
-                String[] cmd;
                 List<String> jobNames = new ArrayList<String>();
                 String dir = System.getProperty("user.dir");
                 String runConfigurable = dir + File.separator + "run-configurable-testrunner.sh";
                 long sessionID = ReportManager.getSessionID();
 
-                for (String database : configuration.getTestDatabases()) {
+                JobExecutor executor = getJobExecutor();
 
-                        String currentJobName = "Job_" + jobNumber;
+                for (String database : longestFirst(configuration.getTestDatabases())) {
 
-                        if ( configuration.getHost1() != null ) {  
-                                 cmd = new String[] {"bsub", "-q", "long", "-J", currentJobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + configuration.getHost().replace("-", "_") + "<=800]", "-R",
-                                 "select[my" + configuration.getHost1().replace("-", "_") + "<=800]", "-R",  "select[my" + configuration.getSecondaryHost().replace("-", "_") + "<=400]", "-R",
-                                 "rusage[my" + configuration.getHost().replace("-", "_") + "=10:my" + configuration.getHost1().replace("-", "_") + "=10:my" + configuration.getSecondaryHost().replace("-", "_") + "=50]", "-o", "healthcheck_%J.out", "-e", 
-                                 "healthcheck_%J.err", runConfigurable, "-d", database, "--sessionID", "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE };
-                        }
-                        else {
-                                 cmd = new String[] {"bsub", "-q", "long", "-J", currentJobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + configuration.getHost().replace("-", "_") + "<=800]", "-R", 
-                                 "select[my" + configuration.getSecondaryHost().replace("-", "_") + "<=400]", "-R", "rusage[my" + configuration.getHost().replace("-", "_") + "=10:my" + configuration.getSecondaryHost().replace("-", "_") + "=50]",
-                                 "-o", "healthcheck_%J.out", "-e", "healthcheck_%J.err", runConfigurable, "-d", database, "--sessionID", "" + sessionID, "-c", 
-                                 DEFAULT_PROPERTIES_FILE };
-                        }
+                        String currentJobName = "Job_" + jobNumber;
 
                         jobNames.add(currentJobName);
 
-                        execCmd(cmd);
+                        executor.submit(currentJobName, new String[] { runConfigurable, "-d", database, "--sessionID", "" + sessionID, "-c",
+                                        DEFAULT_PROPERTIES_FILE }, "healthcheck_%J.out", "healthcheck_%J.err");
                         System.out.println("Submitted job with database regexp " + database);
                         jobNumber++;
 
                  }
- 
-                 Iterator<String> jobNameIterator = jobNames.iterator();
-                 StringBuffer bsubConditionClause = new StringBuffer();
-                 while (jobNameIterator.hasNext()) {
-
-                        String currentJobName = jobNameIterator.next();
-                        bsubConditionClause.append("ended(\"" + currentJobName + "\")");
-
-                        if (jobNameIterator.hasNext()) {
-                                bsubConditionClause.append(" && ");
-                        }
-                }
 
                 String session = "" + sessionID;
 
@@ -209,14 +183,63 @@ public class ParallelConfigurableTestRunner extends TestRunner {
 
                 String jobName = String.format("hc_%s", session);
 
-                String[] sessionEndTimeCmd = { "bsub", "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-o", out, "-e", err, "-J", jobName, "-w", bsubConditionClause.toString(), runConfigurable, "--endSession", "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE };
-
-                execCmd(sessionEndTimeCmd);
+                executor.submitAfter(jobName, jobNames, new String[] { runConfigurable, "--endSession", "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE },
+                                out, err);
 
                 System.out.println("Submitted session dependency job");
 
+                executor.finish();
+
         } // submitJobs
 
+        /**
+         * @return databases, the ones whose tests took longest in earlier runs
+         *         first, so that they are not left to run on their own at the
+         *         end.
+         */
+        protected List<String> longestFirst(List<String> databases) {
+
+                TestTimings timings = TestTimings.load(TestTimings.getFile());
+                final Map<String, Long> estimates = new HashMap<String, Long>();
+                for (String database : databases) {
+                        estimates.put(database, timings.estimateDatabases(database));
+                }
+
+                List<String> ordered = new ArrayList<String>(databases);
+                Collections.sort(ordered, new Comparator<String>() {
+                        public int compare(String a, String b) {
+                                long estimateA = estimates.get(a);
+                                long estimateB = estimates.get(b);
+                                return estimateA > estimateB ? -1 : (estimateA == estimateB ? 0 : 1);
+                        }
+                });
+                return ordered;
+
+        }
+
+        /**
+         * @return The executor configured with parallel.executor, LSF by
+         *         default.
+         */
+        protected JobExecutor getJobExecutor() {
+
+                String executor = configuration.isParallelExecutor() ? configuration.getParallelExecutor() : "lsf";
+
+                if (executor.equalsIgnoreCase("lsf")) {
+                        return new LsfJobExecutor(configuration);
+                }
+
+                if (executor.equalsIgnoreCase("local")) {
+                        int workers = configuration.isParallelWorkers() ? Integer.parseInt(configuration.getParallelWorkers())
+                                        : Runtime.getRuntime().availableProcessors();
+                        log.info("Running jobs on this machine, " + workers + " at a time");
+                        return new LocalJobExecutor(workers);
+                }
+
+                throw new ConfigurationException("Argument " + executor + " to parallel.executor not recognised, use lsf or local");
+
+        }
+
         /**
          * Used for creating layered constructors.
          */
@@ -294,39 +317,4 @@ public class ParallelConfigurableTestRunner extends TestRunner {
                 return configuration;
         }
 
-        /**
-         * Used for executing bsub commands.
-         *
-         * @param cmd
-         *
-         */
-        protected void execCmd(String[] cmd) {
-
-                try {
-
-                        Process p = Runtime.getRuntime().exec(cmd);
-
-                        BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                        BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-
-                        String s = null;
-
-                        while ((s = stdInput.readLine()) != null) {
-                                System.out.println(s);
-                        }
-
-                        while ((s = stdError.readLine()) != null) {
-                                System.out.println(s);
-                        }
-
-                        stdInput.close();
-                        stdError.close();
-
-                } catch (Exception ioe) {
-                        System.err.println("Error in head job " + ioe.getMessage());
-                }
-        }
-
 }
-
-
@@ -0,0 +1,421 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.Utils;
+
+/**
+ * <p>
+ * Runs (SingleDatabaseTestCase, DatabaseRegistryEntry) pairs on a bounded
+ * number of worker threads.
+ * </p>
+ *
+ * <p>
+ * Two constraints are applied when picking the next pair to run:
+ * </p>
+ *
+ * <ul>
+ * <li>A test case instance is never run on two databases at the same time.
+ * Test registries hand out one instance per test class and many tests keep
+ * state in fields while they run.</li>
+ * <li>No more than {@link DatabaseServer#getMaxConcurrentTests()} pairs run
+ * against the same server at the same time.</li>
+ * </ul>
+ *
+ * <p>
+ * Pairs are otherwise started in the order they were submitted or, given
+ * {@link TestTimings} of earlier runs, the pairs expected to take longest are
+ * started first. This keeps a long test from being started last and holding
+ * up the end of the run. The outcome of each pair is stored in its
+ * {@link Task} so callers can do their accounting in submission order once
+ * {@link #run(List, TaskBody)} returns, which keeps the results independent
+ * of the order in which workers happened to finish.
+ * </p>
+ *
+ * <p>
+ * With a single worker the pairs are run one after another on the calling
+ * thread, exactly as the test runners have always done. Workers use the
+ * {@link ReportSession} bound to the calling thread, if any.
+ * </p>
+ */
+public class ParallelTestScheduler {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/**
+	 * The work to be done for a single pair. Implemented by the test runners
+	 * so each can keep its own logging and reporting around the test.
+	 */
+	public interface TaskBody {
+
+		/**
+		 * Run the test case of task on its database. Implementations should
+		 * call {@link Task#setResult(boolean)} as soon as the test case has
+		 * returned.
+		 */
+		void execute(Task task) throws Throwable;
+
+	}
+
+	/**
+	 * A single (test case, database) pair and, once run, its outcome.
+	 */
+	public static class Task {
+
+		private final SingleDatabaseTestCase testCase;
+
+		private final DatabaseRegistryEntry database;
+
+		private boolean completed = false;
+
+		private boolean result = false;
+
+		private Throwable exception;
+
+		public Task(SingleDatabaseTestCase testCase, DatabaseRegistryEntry database) {
+			this.testCase = testCase;
+			this.database = database;
+		}
+
+		public SingleDatabaseTestCase getTestCase() {
+			return testCase;
+		}
+
+		public DatabaseRegistryEntry getDatabase() {
+			return database;
+		}
+
+		/**
+		 * Record the value returned by the test case. Marks the task as
+		 * completed even if something fails afterwards, e.g. in the reporter.
+		 */
+		public void setResult(boolean result) {
+			this.result = result;
+			this.completed = true;
+		}
+
+		/**
+		 * @return true if the test case returned normally from its run method.
+		 */
+		public boolean isCompleted() {
+			return completed;
+		}
+
+		public boolean getResult() {
+			return result;
+		}
+
+		/**
+		 * @return The Throwable thrown while running this task, or null.
+		 */
+		public Throwable getException() {
+			return exception;
+		}
+
+		void setException(Throwable exception) {
+			this.exception = exception;
+		}
+
+	}
+
+	private final int workers;
+
+	private TestTimings timings;
+
+	private final LinkedList<Task> pending = new LinkedList<Task>();
+
+	private final Map<SingleDatabaseTestCase, Boolean> runningTests = new IdentityHashMap<SingleDatabaseTestCase, Boolean>();
+
+	private final Map<DatabaseServer, Integer> runningPerServer = new HashMap<DatabaseServer, Integer>();
+
+	/**
+	 * @param workers
+	 *          The maximum number of pairs run at the same time. Values below
+	 *          1 are treated as 1.
+	 */
+	public ParallelTestScheduler(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Start the pairs expected to take longest first when running on more
+	 * than one worker.
+	 */
+	public void setTimings(TestTimings timings) {
+		this.timings = timings;
+	}
+
+	/**
+	 * Run all tasks and return once every one of them has finished. Exceptions
+	 * thrown by body are caught and stored in the task.
+	 *
+	 * @param tasks
+	 *          The pairs to run, in the order they should be started.
+	 * @param body
+	 *          The work to do for each pair.
+	 */
+	public void run(List<Task> tasks, final TaskBody body) {
+
+		if (workers == 1 || tasks.size() < 2) {
+			for (Task task : tasks) {
+				runTask(task, body);
+			}
+			return;
+		}
+
+		int threads = Math.min(workers, tasks.size());
+		logger.info("Running " + tasks.size() + " tests on " + threads + " worker threads");
+
+		List<Task> ordered = tasks;
+		long expected = -1;
+		if (timings != null) {
+			Map<Task, Long> estimates = new IdentityHashMap<Task, Long>();
+			int unknown = 0;
+			for (Task task : tasks) {
+				estimates.put(task, timings.estimate(task.getTestCase(), task.getDatabase()));
+				if (!timings.isKnown(task.getTestCase().getShortTestName())) {
+					unknown++;
+				}
+			}
+			ordered = longestFirst(tasks, estimates);
+			expected = estimateRunTime(ordered, estimates, threads);
+			logger.info("Expected to take about " + Utils.formatTimeString(expected) + ", " + unknown + " of the tests have not been timed before");
+		}
+
+		synchronized (this) {
+			pending.addAll(ordered);
+		}
+		long start = System.currentTimeMillis();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+
+		// workers report to the same session as the thread that started them
+		final ReportSession session = ReportManager.getBoundReportSession();
+
+		for (int i = 0; i < threads; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (session != null) {
+						ReportManager.bindReportSession(session);
+					}
+					Task task;
+					while ((task = nextTask()) != null) {
+						try {
+							runTask(task, body);
+						} finally {
+							release(task);
+						}
+					}
+				}
+			});
+		}
+
+		executor.shutdown();
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				synchronized (this) {
+					logger.fine(pending.size() + " tests waiting to be run");
+				}
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for tests to finish", e);
+		}
+
+		if (expected >= 0) {
+			logger.info("Tests took " + Utils.formatTimeString(System.currentTimeMillis() - start) + ", expected "
+					+ Utils.formatTimeString(expected));
+		}
+
+	}
+
+	/**
+	 * @return tasks sorted by decreasing estimate, tasks with the same
+	 *         estimate in the order given.
+	 */
+	static List<Task> longestFirst(List<Task> tasks, final Map<Task, Long> estimates) {
+
+		List<Task> ordered = new ArrayList<Task>(tasks);
+		Collections.sort(ordered, new Comparator<Task>() {
+			public int compare(Task a, Task b) {
+				long estimateA = estimates.get(a);
+				long estimateB = estimates.get(b);
+				return estimateA > estimateB ? -1 : (estimateA == estimateB ? 0 : 1);
+			}
+		});
+		return ordered;
+
+	}
+
+	/**
+	 * Work out when the last of tasks would finish if each were started, in
+	 * order, on the first worker to become free, but not before the same test
+	 * case has finished on another database. Limits per server are not taken
+	 * into account.
+	 *
+	 * @return The expected run time in milliseconds.
+	 */
+	static long estimateRunTime(List<Task> tasks, Map<Task, Long> estimates, int threads) {
+
+		long[] free = new long[threads];
+		Map<SingleDatabaseTestCase, Long> testFree = new IdentityHashMap<SingleDatabaseTestCase, Long>();
+		long end = 0;
+
+		for (Task task : tasks) {
+
+			int worker = 0;
+			for (int i = 1; i < threads; i++) {
+				if (free[i] < free[worker]) {
+					worker = i;
+				}
+			}
+
+			Long testFinished = testFree.get(task.getTestCase());
+			long start = testFinished == null ? free[worker] : Math.max(free[worker], testFinished);
+			long finish = start + estimates.get(task);
+
+			free[worker] = finish;
+			testFree.put(task.getTestCase(), finish);
+			end = Math.max(end, finish);
+		}
+
+		return end;
+
+	}
+
+	/**
+	 * Run a single task. Database connections opened by the test are leased
+	 * to it for the duration of the task and then given back to the pool.
+	 */
+	private void runTask(Task task, TaskBody body) {
+		ConnectionPool.beginLease(task.getTestCase());
+		try {
+			body.execute(task);
+		} catch (Throwable e) {
+			task.setException(e);
+		} finally {
+			ConnectionPool.endLease();
+		}
+	}
+
+	/**
+	 * Block until a task can be started without breaking one of the
+	 * constraints. Returns null once there is nothing left to run.
+	 */
+	private synchronized Task nextTask() {
+
+		while (!pending.isEmpty()) {
+
+			Iterator<Task> it = pending.iterator();
+			while (it.hasNext()) {
+				Task task = it.next();
+				if (canStart(task)) {
+					it.remove();
+					runningTests.put(task.getTestCase(), Boolean.TRUE);
+					DatabaseServer server = task.getDatabase().getDatabaseServer();
+					if (server != null) {
+						runningPerServer.put(server, runningOn(server) + 1);
+					}
+					return task;
+				}
+			}
+
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		return null;
+
+	}
+
+	private synchronized void release(Task task) {
+
+		runningTests.remove(task.getTestCase());
+		DatabaseServer server = task.getDatabase().getDatabaseServer();
+		if (server != null) {
+			runningPerServer.put(server, runningOn(server) - 1);
+		}
+		notifyAll();
+
+	}
+
+	private boolean canStart(Task task) {
+
+		if (runningTests.containsKey(task.getTestCase())) {
+			return false;
+		}
+
+		DatabaseServer server = task.getDatabase().getDatabaseServer();
+		if (server == null || server.getMaxConcurrentTests() < 1) {
+			return true;
+		}
+
+		return runningOn(server) < server.getMaxConcurrentTests();
+
+	}
+
+	private int runningOn(DatabaseServer server) {
+		Integer running = runningPerServer.get(server);
+		return running == null ? 0 : running;
+	}
+
+	/**
+	 * Names the worker threads so log output can be attributed.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "healthcheck-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+
+}
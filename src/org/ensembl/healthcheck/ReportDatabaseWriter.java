@@ -0,0 +1,527 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.util.DBUtils;
+
+/**
+ * <p>
+ * Writes reports to the healthcheck output database on a background thread,
+ * so that tests producing many report lines are not held up by the output
+ * database.
+ * </p>
+ *
+ * <p>
+ * Reports are deduplicated in memory on (database, testcase, result, text
+ * digest); only the first copy of a report in a session is written. Reports
+ * are put on a bounded queue, so a test that reports faster than the
+ * database can take them is slowed down rather than filling the heap. The
+ * writer thread collects reports until it has batchSize of them or
+ * flushInterval milliseconds have passed, looks up which of them already
+ * exist and then writes the whole batch with one batched INSERT and one
+ * batched UPDATE in a single transaction.
+ * </p>
+ *
+ * <p>
+ * The time a report was added is written to the timestamp column, so the
+ * timings derived from the #Started and #Ended markers are not affected by
+ * when the batch happened to be flushed.
+ * </p>
+ *
+ * <p>
+ * If a {@link ReportIndex} is given, existing reports are looked up in it
+ * instead of in the report table. Reports found there, other than the
+ * markers, are moved to the new session with a few set-based UPDATEs when
+ * the writer is drained, rather than one UPDATE each.
+ * </p>
+ *
+ * <p>
+ * Reports in a batch that can't be written, and existing reports that can't
+ * be moved to the new session, are dropped and counted, see
+ * {@link #getDroppedCount()}; the writer carries on with the next batch.
+ * </p>
+ */
+public class ReportDatabaseWriter {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private static final String SELECT_SQL = "SELECT report_id FROM report WHERE database_name=? AND testcase=? AND result=? AND BINARY(text)=BINARY(?)";
+
+	private static final String INSERT_SQL = "INSERT INTO report (first_session_id, last_session_id, database_name, species, database_type, testcase, result, text, timestamp, team_responsible, created) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_WITH_DIGEST_SQL = "INSERT INTO report (first_session_id, last_session_id, database_name, species, database_type, testcase, result, text, timestamp, team_responsible, created, text_digest) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE_SQL = "UPDATE report SET last_session_id=?, timestamp=? WHERE report_id=?";
+
+	private static final String CARRY_OVER_SQL = "UPDATE report SET last_session_id=?, timestamp=? WHERE report_id IN ";
+
+	/** Number of report_ids per set-based UPDATE. */
+	private static final int IDS_PER_UPDATE = 1000;
+
+	/** Put on the queue by drain() to tell the writer thread to finish. */
+	private static final PendingReport END_OF_REPORTS = new PendingReport(null, null);
+
+	private final Connection connection;
+
+	private final long sessionID;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	private final BlockingQueue<PendingReport> queue;
+
+	private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ReportIndex index;
+
+	private final boolean digestColumn;
+
+	/** Reports found in the index, to be moved to this session on drain. Only used by the writer thread until it has finished. */
+	private final List<Long> carriedOver = new ArrayList<Long>();
+
+	private final Thread writerThread;
+
+	private volatile boolean draining = false;
+
+	private long reportsInserted = 0;
+
+	private long reportsUpdated = 0;
+
+	private long reportsDropped = 0;
+
+	/**
+	 * @param connection
+	 *          Connection to the output database.
+	 * @param sessionID
+	 *          The session reports are written for.
+	 * @param batchSize
+	 *          The number of reports written in one batch. The queue holds up to
+	 *          four batches.
+	 * @param flushInterval
+	 *          The longest time in milliseconds a report waits on the queue
+	 *          before it is written.
+	 */
+	public ReportDatabaseWriter(Connection connection, long sessionID, int batchSize, long flushInterval) {
+		this(connection, sessionID, batchSize, flushInterval, null);
+	}
+
+	/**
+	 * @param connection
+	 *          Connection to the output database.
+	 * @param sessionID
+	 *          The session reports are written for.
+	 * @param batchSize
+	 *          The number of reports written in one batch. The queue holds up to
+	 *          four batches.
+	 * @param flushInterval
+	 *          The longest time in milliseconds a report waits on the queue
+	 *          before it is written.
+	 * @param index
+	 *          The reports already in the output database, or null to look
+	 *          them up in the report table.
+	 */
+	public ReportDatabaseWriter(Connection connection, long sessionID, int batchSize, long flushInterval, ReportIndex index) {
+
+		this.connection = connection;
+		this.index = index;
+		this.digestColumn = index != null || (connection != null && ReportIndex.hasDigestColumn(connection));
+		this.sessionID = sessionID;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = Math.max(1, flushInterval);
+		this.queue = new ArrayBlockingQueue<PendingReport>(4 * this.batchSize);
+
+		writerThread = new Thread("healthcheck-report-writer") {
+			public void run() {
+				writeReports();
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+	}
+
+	/**
+	 * Queue a report to be written. Blocks while the queue is full. Reports
+	 * that have already been added in this session are ignored, as are all
+	 * reports once the writer thread has died.
+	 *
+	 * @param report
+	 *          The ReportLine to write.
+	 */
+	public void add(ReportLine report) {
+
+		if (draining) {
+			throw new IllegalStateException("Report added after the report writer was drained: " + report.getMessage());
+		}
+
+		if (!seen.add(key(report))) {
+			return;
+		}
+
+		try {
+			if (!put(new PendingReport(report, new Timestamp(System.currentTimeMillis())))) {
+				logger.severe("Report writer has stopped, not writing report to the output database: " + report.getMessage());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while queueing report for the output database", e);
+		}
+
+	}
+
+	/**
+	 * Put pending on the queue, waiting while it is full for as long as the
+	 * writer thread is alive to empty it.
+	 *
+	 * @return false if the writer thread has died.
+	 */
+	private boolean put(PendingReport pending) throws InterruptedException {
+
+		while (!queue.offer(pending, 100, TimeUnit.MILLISECONDS)) {
+			if (!writerThread.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+
+	}
+
+	/**
+	 * Write everything still on the queue and stop the writer thread. Returns
+	 * once all reports have been written.
+	 */
+	public void drain() {
+
+		if (draining) {
+			return;
+		}
+		draining = true;
+
+		try {
+			put(END_OF_REPORTS);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing reports to the output database", e);
+		}
+
+		carryOver();
+
+		logger.info("Wrote " + reportsInserted + " new and " + reportsUpdated + " existing reports to the output database"
+				+ (reportsDropped > 0 ? ", " + reportsDropped + " could not be written" : ""));
+
+	}
+
+	/**
+	 * @return The number of reports that could not be written. Only complete
+	 *         once the writer has been drained.
+	 */
+	public long getDroppedCount() {
+		return reportsDropped;
+	}
+
+	/**
+	 * The key reports are deduplicated on.
+	 */
+	private static String key(ReportLine report) {
+		return report.getDatabaseName() + "\t" + report.getShortTestCaseName() + "\t" + report.getLevelAsString() + "\t" + digest(report.getMessage());
+	}
+
+	/**
+	 * @return The hex encoded MD5 digest of text.
+	 */
+	public static String digest(String text) {
+
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			byte[] hash = md5.digest((text == null ? "" : text).getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	private void writeReports() {
+
+		List<PendingReport> batch = new ArrayList<PendingReport>(batchSize);
+		long lastFlush = System.currentTimeMillis();
+		boolean finished = false;
+
+		while (!finished) {
+
+			long wait = Math.max(1, lastFlush + flushInterval - System.currentTimeMillis());
+			PendingReport pending;
+			try {
+				pending = queue.poll(wait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				pending = END_OF_REPORTS;
+			}
+
+			if (pending == END_OF_REPORTS) {
+				finished = true;
+			} else if (pending != null) {
+				batch.add(pending);
+			}
+
+			if (finished || batch.size() >= batchSize || System.currentTimeMillis() - lastFlush >= flushInterval) {
+				if (!batch.isEmpty()) {
+					try {
+						flush(batch);
+					} catch (RuntimeException e) {
+						// keep consuming, otherwise add() and drain() would block on a full queue
+						logger.log(Level.SEVERE, "Error writing " + batch.size() + " reports to the output database", e);
+						reportsDropped += batch.size();
+					}
+					batch.clear();
+				}
+				lastFlush = System.currentTimeMillis();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Write a batch of reports in one transaction. Protected so that tests can
+	 * make it fail.
+	 */
+	protected void flush(List<PendingReport> batch) {
+
+		if (connection == null) {
+			logger.severe("No connection to output database!");
+			reportsDropped += batch.size();
+			return;
+		}
+
+		logger.fine("Writing " + batch.size() + " reports to the output database");
+
+		String sql = SELECT_SQL;
+
+		try {
+
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			PreparedStatement select = null;
+			PreparedStatement insert = null;
+			PreparedStatement update = null;
+
+			try {
+
+				long[] reportIDs = new long[batch.size()];
+
+				select = connection.prepareStatement(SELECT_SQL);
+				for (int i = 0; i < batch.size(); i++) {
+					ReportLine report = batch.get(i).report;
+					if (index != null && index.covers(report.getDatabaseName())) {
+						reportIDs[i] = index.get(report);
+						continue;
+					}
+					select.setString(1, report.getDatabaseName());
+					select.setString(2, report.getShortTestCaseName());
+					select.setString(3, report.getLevelAsString());
+					select.setString(4, report.getMessage());
+					ResultSet rs = select.executeQuery();
+					reportIDs[i] = rs.next() ? rs.getLong(1) : -1;
+					rs.close();
+				}
+
+				String insertSQL = digestColumn ? INSERT_WITH_DIGEST_SQL : INSERT_SQL;
+				sql = insertSQL;
+				insert = connection.prepareStatement(insertSQL);
+				sql = UPDATE_SQL;
+				update = connection.prepareStatement(UPDATE_SQL);
+				int inserts = 0;
+				int updates = 0;
+
+				for (int i = 0; i < batch.size(); i++) {
+
+					ReportLine report = batch.get(i).report;
+					Timestamp added = batch.get(i).added;
+
+					if (reportIDs[i] > -1 && index != null && !isMarker(report)) {
+
+						carriedOver.add(reportIDs[i]);
+
+					} else if (reportIDs[i] > -1) {
+
+						update.setLong(1, sessionID);
+						update.setTimestamp(2, added);
+						update.setLong(3, reportIDs[i]);
+						update.addBatch();
+						updates++;
+
+					} else {
+
+						insert.setLong(1, sessionID);
+						insert.setLong(2, sessionID);
+						insert.setString(3, report.getDatabaseName());
+						// EG Store species name and db type from explicit report line, not from database
+						insert.setString(4, report.getSpeciesName());
+						insert.setString(5, report.getType().toString());
+						insert.setString(6, report.getShortTestCaseName());
+						insert.setString(7, report.getLevelAsString());
+						insert.setString(8, report.getMessage());
+						insert.setTimestamp(9, added);
+						insert.setString(10, report.getPrintableTeamResponsibleString());
+						insert.setTimestamp(11, added);
+						if (digestColumn) {
+							insert.setString(12, digest(report.getMessage()));
+						}
+						insert.addBatch();
+						inserts++;
+
+					}
+				}
+
+				sql = insertSQL;
+				if (inserts > 0) {
+					insert.executeBatch();
+				}
+				sql = UPDATE_SQL;
+				if (updates > 0) {
+					update.executeBatch();
+				}
+
+				connection.commit();
+
+				reportsInserted += inserts;
+				reportsUpdated += updates;
+
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				DBUtils.closeQuietly(select);
+				DBUtils.closeQuietly(insert);
+				DBUtils.closeQuietly(update);
+				connection.setAutoCommit(autoCommit);
+			}
+
+		} catch (SQLException e) {
+
+			logger.log(Level.SEVERE, "Error writing " + batch.size() + " reports to the output database, executing:\n" + sql, e);
+			reportsDropped += batch.size();
+
+		}
+
+	}
+
+	/**
+	 * The #Started and #Ended markers keep their own timestamps, the timings
+	 * view is derived from them.
+	 */
+	private static boolean isMarker(ReportLine report) {
+		return report.getMessage() != null && report.getMessage().startsWith("#");
+	}
+
+	/**
+	 * Move the reports found in the index to this session.
+	 */
+	private void carryOver() {
+
+		if (carriedOver.isEmpty()) {
+			return;
+		}
+
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+
+		for (int from = 0; from < carriedOver.size(); from += IDS_PER_UPDATE) {
+
+			List<Long> ids = carriedOver.subList(from, Math.min(carriedOver.size(), from + IDS_PER_UPDATE));
+
+			StringBuilder sql = new StringBuilder(CARRY_OVER_SQL).append("(");
+			for (int i = 0; i < ids.size(); i++) {
+				sql.append(i == 0 ? "?" : ",?");
+			}
+			sql.append(")");
+
+			PreparedStatement stmt = null;
+
+			try {
+
+				stmt = connection.prepareStatement(sql.toString());
+				stmt.setLong(1, sessionID);
+				stmt.setTimestamp(2, now);
+				for (int i = 0; i < ids.size(); i++) {
+					stmt.setLong(i + 3, ids.get(i));
+				}
+				stmt.executeUpdate();
+				reportsUpdated += ids.size();
+
+			} catch (SQLException e) {
+
+				logger.log(Level.SEVERE, "Error carrying " + ids.size() + " reports over to session " + sessionID + ", executing:\n" + sql, e);
+				reportsDropped += ids.size();
+
+			} finally {
+				DBUtils.closeQuietly(stmt);
+			}
+
+		}
+
+		carriedOver.clear();
+
+	}
+
+	/**
+	 * A report waiting to be written, with the time it was added.
+	 */
+	protected static class PendingReport {
+
+		public final ReportLine report;
+
+		public final Timestamp added;
+
+		PendingReport(ReportLine report, Timestamp added) {
+			this.report = report;
+			this.added = added;
+		}
+
+	}
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * In-memory index of the reports already in the output database for a set of
+ * databases, mapping (database_name, testcase, result, text_digest) to
+ * report_id. Loaded once at the start of a session so that
+ * {@link ReportDatabaseWriter} does not have to query the report table for
+ * every report line.
+ * </p>
+ *
+ * <p>
+ * Needs the text_digest column of the report table (see
+ * sql/patch_02_report_text_digest.sql). A database for which any report has
+ * no digest yet is left out of the index and its reports are looked up in
+ * the database as before, see {@link #covers(String)}.
+ * </p>
+ */
+public class ReportIndex {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Number of database names per query when loading the index. */
+	private static final int NAMES_PER_QUERY = 100;
+
+	private final Map<Key, Long> reportIDs = new HashMap<Key, Long>();
+
+	private final Set<String> databases = new HashSet<String>();
+
+	private ReportIndex() {
+	}
+
+	/**
+	 * @return true if the report table of the output database has a
+	 *         text_digest column.
+	 */
+	public static boolean hasDigestColumn(Connection con) {
+
+		try {
+			Statement stmt = con.createStatement();
+			try {
+				stmt.executeQuery("SELECT text_digest FROM report WHERE 1=0").close();
+			} finally {
+				stmt.close();
+			}
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+
+	}
+
+	/**
+	 * Load the reports for databaseNames from the output database.
+	 *
+	 * @param con
+	 *          Connection to the output database.
+	 * @param databaseNames
+	 *          The databases to load reports for.
+	 * @return The index, or null if the report table has no text_digest
+	 *         column.
+	 */
+	public static ReportIndex load(Connection con, Collection<String> databaseNames) {
+
+		if (!hasDigestColumn(con)) {
+			logger.warning("The report table has no text_digest column, apply sql/patch_02_report_text_digest.sql to speed up writing reports");
+			return null;
+		}
+
+		ReportIndex index = new ReportIndex();
+		Set<String> incomplete = new HashSet<String>();
+
+		List<String> names = new ArrayList<String>(new HashSet<String>(databaseNames));
+		for (int from = 0; from < names.size(); from += NAMES_PER_QUERY) {
+			List<String> chunk = names.subList(from, Math.min(names.size(), from + NAMES_PER_QUERY));
+			index.load(con, chunk, incomplete);
+		}
+
+		for (String name : names) {
+			if (!incomplete.contains(name)) {
+				index.databases.add(name);
+			}
+		}
+		if (!incomplete.isEmpty()) {
+			logger.info(incomplete.size() + " databases have reports without a text digest, their reports will be looked up one by one");
+		}
+
+		// drop what was loaded for databases that can't be used
+		Iterator<Key> it = index.reportIDs.keySet().iterator();
+		while (it.hasNext()) {
+			if (!index.databases.contains(it.next().database)) {
+				it.remove();
+			}
+		}
+
+		logger.info("Loaded " + index.size() + " existing reports for " + index.databases.size() + " databases");
+
+		return index;
+
+	}
+
+	private void load(Connection con, List<String> names, Set<String> incomplete) {
+
+		StringBuilder sql = new StringBuilder("SELECT report_id, database_name, testcase, result, text_digest FROM report WHERE database_name IN (");
+		for (int i = 0; i < names.size(); i++) {
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(")");
+
+		try {
+
+			PreparedStatement stmt = con.prepareStatement(sql.toString());
+			for (int i = 0; i < names.size(); i++) {
+				stmt.setString(i + 1, names.get(i));
+			}
+
+			Map<String, String> strings = new HashMap<String, String>();
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				String database = canonical(strings, rs.getString(2));
+				String digest = rs.getString(5);
+				if (digest == null || digest.length() != 32) {
+					incomplete.add(database);
+					continue;
+				}
+				reportIDs.put(new Key(database, canonical(strings, rs.getString(3)), canonical(strings, rs.getString(4)), digest), rs.getLong(1));
+			}
+			rs.close();
+			stmt.close();
+
+		} catch (SQLException e) {
+
+			System.err.println("Error executing:\n" + sql);
+			e.printStackTrace();
+			incomplete.addAll(names);
+
+		}
+
+	}
+
+	/**
+	 * @return true if existing reports for databaseName can be looked up in
+	 *         this index.
+	 */
+	public boolean covers(String databaseName) {
+		return databases.contains(databaseName);
+	}
+
+	/**
+	 * @return The report_id of the existing report matching report, or -1 if
+	 *         there is none.
+	 */
+	public long get(ReportLine report) {
+		Long reportID = reportIDs.get(new Key(report.getDatabaseName(), report.getShortTestCaseName(), report.getLevelAsString(), ReportDatabaseWriter.digest(report.getMessage())));
+		return reportID == null ? -1 : reportID;
+	}
+
+	/**
+	 * @return The number of reports in the index.
+	 */
+	public int size() {
+		return reportIDs.size();
+	}
+
+	/**
+	 * Share one String instance between all the keys with the same database,
+	 * testcase or result.
+	 */
+	private static String canonical(Map<String, String> strings, String s) {
+		if (s == null) {
+			return null;
+		}
+		String existing = strings.get(s);
+		if (existing == null) {
+			strings.put(s, s);
+			existing = s;
+		}
+		return existing;
+	}
+
+	/**
+	 * A report as looked up in the index. The digest is kept as two longs
+	 * rather than as a 32 character String.
+	 */
+	private static class Key {
+
+		final String database;
+
+		final String testcase;
+
+		final String result;
+
+		final long digestHigh;
+
+		final long digestLow;
+
+		Key(String database, String testcase, String result, String digest) {
+			this.database = database;
+			this.testcase = testcase;
+			this.result = result;
+			this.digestHigh = Long.parseUnsignedLong(digest.substring(0, 16), 16);
+			this.digestLow = Long.parseUnsignedLong(digest.substring(16, 32), 16);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (digestLow ^ (digestLow >>> 32)) * 31 + (database == null ? 0 : database.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return digestHigh == other.digestHigh && digestLow == other.digestLow && equal(database, other.database) && equal(testcase, other.testcase)
+					&& equal(result, other.result);
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+	}
+
+}
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import org.ensembl.healthcheck.testcase.EnsTestCase;
@@ -39,6 +41,11 @@ import org.ensembl.healthcheck.util.Utils;
 /**
  * ReportManager is the main class for reporting in the Ensj Healthcheck system. It provides methods for storing reports - single
  * items of information - and retrieving them in various formats.
+ * <p>
+ * Reports kept in memory are stored in a {@link ReportStore}, which is safe to use from several threads at once. By default all
+ * threads share one store. A thread can be given a store of its own with {@link #bindReportStore(ReportStore)}, so that
+ * independent runs in the same JVM don't see each other's reports. With {@link #bindReportSession(ReportSession)} a thread's
+ * reports can also be written to a session of the output database of their own.
  */
 public class ReportManager {
 
@@ -52,19 +59,14 @@ public class ReportManager {
 	 */
 	public static void initialise() {
 
-		reportsByTest = new HashMap<String,List<ReportLine>>();
-		reportsByDatabase = new HashMap<String,List<ReportLine>>();
+		globalStore = new ReportStore(MAX_BUFFER_SIZE);
 
+		flushDatabaseReports();
+		reportIndex = null;
 		outputDatabaseConnection = null;
 		sessionID = -1;
 	}
 
-	/** A hash of lists keyed on the test name. */
-	protected static Map<String,List<ReportLine>> reportsByTest = new HashMap<String,List<ReportLine>>();
-
-	/** A hash of lists keyed on the database name */
-	protected static Map<String,List<ReportLine>> reportsByDatabase = new HashMap<String,List<ReportLine>>();
-
 	/** The logger to use for this class */
 	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
 
@@ -73,17 +75,50 @@ public class ReportManager {
 	 */
 	protected static final int MAX_BUFFER_SIZE = 2000;
 
-	private static boolean bufferSizeWarningPrinted = false;
+	/** The store used by all threads that have not been bound to a store of their own. */
+	private static volatile ReportStore globalStore = new ReportStore(MAX_BUFFER_SIZE);
+
+	/** Sessions bound to individual threads, see bindReportSession. */
+	private static final ThreadLocal<ReportSession> threadSession = new ThreadLocal<ReportSession>();
+
+	/** Reports added by the current thread while recording, see startRecording. */
+	private static final ThreadLocal<List<ReportLine>> threadRecording = new ThreadLocal<List<ReportLine>>();
+
+	/** Reporters are not expected to be thread-safe, so all calls to them are made holding this lock. */
+	private static final Object reporterLock = new Object();
+
+	/** Guards creating and replacing databaseWriter. */
+	private static final Object outputDatabaseLock = new Object();
+
+	/**
+	 * Writes reports to the output database in the background. Created when the first report of a session is added and drained by
+	 * flushDatabaseReports.
+	 */
+	private static ReportDatabaseWriter databaseWriter;
+
+	/** The reports already in the output database, see loadReportIndex. */
+	private static volatile ReportIndex reportIndex;
+
+	/**
+	 * Threads adding reports to databaseWriter hold the read lock, flushDatabaseReports holds the write lock while draining it.
+	 */
+	private static final ReadWriteLock databaseWriterLock = new ReentrantReadWriteLock();
+
+	/** Default number of reports written to the output database in one batch, see output.batchsize */
+	protected static final int DEFAULT_OUTPUT_BATCH_SIZE = 500;
+
+	/** Default time in milliseconds after which queued reports are written, see output.flushinterval */
+	protected static final long DEFAULT_OUTPUT_FLUSH_INTERVAL = 2000;
 
-	private static Reporter reporter;
+	private static volatile Reporter reporter;
 
-	private static boolean usingDatabase = false;
+	private static volatile boolean usingDatabase = false;
 
-        private static int outputLevel = 0;
+        private static volatile int outputLevel = 0;
 
-	private static Connection outputDatabaseConnection;
+	private static volatile Connection outputDatabaseConnection;
 
-	private static long sessionID = -1;
+	private static volatile long sessionID = -1;
 
 	// hide constructor to stop instantiation
 	private ReportManager() {
@@ -105,6 +140,80 @@ public class ReportManager {
                 outputLevel = level;
         }
 
+	/**
+	 * Make the current thread store its reports in store instead of the store shared by all threads.
+	 * 
+	 * @param store
+	 *          The ReportStore to use for reports added by the current thread.
+	 */
+	public static void bindReportStore(ReportStore store) {
+
+		bindReportSession(new ReportSession(store));
+	}
+
+	/**
+	 * Make the current thread go back to using the store shared by all threads.
+	 */
+	public static void unbindReportStore() {
+
+		unbindReportSession();
+	}
+
+	/**
+	 * Make the current thread use session for its reports instead of the store and output database shared by all threads.
+	 * 
+	 * @param session
+	 *          The ReportSession to use for reports added by the current thread.
+	 */
+	public static void bindReportSession(ReportSession session) {
+
+		threadSession.set(session);
+	}
+
+	/**
+	 * Make the current thread go back to using the store and output database shared by all threads.
+	 */
+	public static void unbindReportSession() {
+
+		threadSession.remove();
+	}
+
+	/**
+	 * @return The ReportSession bound to the current thread, or null if it uses the one shared by all threads.
+	 */
+	public static ReportSession getBoundReportSession() {
+
+		return threadSession.get();
+	}
+
+	/**
+	 * Keep a copy of every report the current thread adds from now on, until stopRecording is called. Reports are still added as
+	 * usual.
+	 */
+	public static void startRecording() {
+
+		threadRecording.set(new ArrayList<ReportLine>());
+	}
+
+	/**
+	 * @return The reports added by the current thread since startRecording, in the order they were added.
+	 */
+	public static List<ReportLine> stopRecording() {
+
+		List<ReportLine> recorded = threadRecording.get();
+		threadRecording.remove();
+		return recorded == null ? new ArrayList<ReportLine>() : recorded;
+	}
+
+	/**
+	 * @return The ReportStore used by the current thread.
+	 */
+	public static ReportStore getReportStore() {
+
+		ReportSession session = threadSession.get();
+		return session != null ? session.getStore() : globalStore;
+	}
+
 	/**
 	 * Should be called before a test case is run.
 	 * 
@@ -115,8 +224,11 @@ public class ReportManager {
 	 */
 	public static void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
 
+		Reporter reporter = ReportManager.reporter;
 		if (reporter != null) {
-			reporter.startTestCase(testCase, dbre);
+			synchronized (reporterLock) {
+				reporter.startTestCase(testCase, dbre);
+			}
 		}
 	}
 
@@ -132,78 +244,56 @@ public class ReportManager {
 	 */
 	public static void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
 
+		Reporter reporter = ReportManager.reporter;
 		if (reporter != null) {
-			reporter.finishTestCase(testCase, result, dbre);
+			synchronized (reporterLock) {
+				reporter.finishTestCase(testCase, result, dbre);
+			}
 		}
 	}
 
 	// -------------------------------------------------------------------------
 	/**
-	 * Add a test case report.
+	 * Add a test case report. Safe to call from several threads at once.
 	 * 
 	 * @param report
 	 *          The ReportLine to add.
 	 */
 	public static void add(ReportLine report) {
 
-		if (usingDatabase) {
-
-			checkAndAddToDatabase(report);
-			return;
+		List<ReportLine> recording = threadRecording.get();
+		if (recording != null) {
+			recording.add(report);
+		}
 
+		ReportSession session = threadSession.get();
+		if (session != null) {
+			session.count(report);
 		}
 
-		String testCaseName = report.getTestCaseName();
-		String databaseName = report.getDatabaseName();
-
-		List<ReportLine> lines;
-
-		// add to each hash
-		if (testCaseName != null && testCaseName.length() > 0) {
-			// create the lists if they're not there already
-			if (reportsByTest.get(testCaseName) == null) {
-				lines = new ArrayList<ReportLine>();
-				lines.add(report);
-				reportsByTest.put(testCaseName, lines);
-			} else {
-				// get the relevant list, update it, and re-add it
-				lines = reportsByTest.get(testCaseName);
-
-				// prevent the buffer getting too big
-				if (lines.size() > MAX_BUFFER_SIZE) {
-					if (!bufferSizeWarningPrinted) {
-						System.err.println("\n\nReportManager has reached its maximum buffer size (" + MAX_BUFFER_SIZE + " lines) - no more output will be stored\n");
-						bufferSizeWarningPrinted = true;
-					}
-				} else {
-					// buffer small enough, add it
-					lines.add(report);
-					reportsByTest.put(testCaseName, lines);
-				}
+		if (session != null && session.getDatabaseWriter() != null) {
 
+			if (report.getLevel() >= session.getOutputLevel()) {
+				session.getDatabaseWriter().add(report);
 			}
+			return;
 
-		} else {
-			logger.warning("Cannot add report with test case name not set");
 		}
 
-		if (databaseName != null && databaseName.length() > 0) {
-			// create the lists if they're not there already
-			if (reportsByDatabase.get(databaseName) == null) {
-				lines = new ArrayList<ReportLine>();
-				lines.add(report);
-				reportsByDatabase.put(databaseName, lines);
-			} else {
-				// get the relevant list, update it, and re-add it
-				lines = reportsByDatabase.get(databaseName);
-				lines.add(report);
-				reportsByDatabase.put(databaseName, lines);
-			}
+		if (usingDatabase) {
+
+			checkAndAddToDatabase(report);
+			return;
 
 		}
 
+		getReportStore().add(report);
+
+		Reporter reporter = ReportManager.reporter;
 		if (reporter != null) {
-			reporter.message(report);
+			synchronized (reporterLock) {
+				reporter.message(report);
+			}
 		}
 	} // add
 
@@ -385,7 +475,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByTestCase() {
 
-		return reportsByTest;
+		return getReportStore().getAllByTestCase();
 
 	} // getAllReportsByTestCase
 
@@ -399,7 +489,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByTestCase(int level) {
 
-		return filterMap(reportsByTest, level);
+		return filterMap(getReportStore().getAllByTestCase(), level);
 
 	} // getAllReportsByTestCase
 
@@ -411,7 +501,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByDatabase() {
 
-		return reportsByDatabase;
+		return getReportStore().getAllByDatabase();
 
 	} // getReportsByDatabase
 
@@ -425,7 +515,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByDatabase(int level) {
 
-		return filterMap(reportsByDatabase, level);
+		return filterMap(getReportStore().getAllByDatabase(), level);
 
 	} // getAllReportsByTestCase
 
@@ -441,7 +531,7 @@ public class ReportManager {
 	 */
 	public static List<ReportLine> getReportsByTestCase(String testCaseName, int level) {
 
-		List<ReportLine> allReports = reportsByTest.get(testCaseName);
+		List<ReportLine> allReports = getReportStore().getByTestCase(testCaseName);
 
 		return filterList(allReports, level);
 
@@ -459,7 +549,7 @@ public class ReportManager {
 	 */
 	public static List<ReportLine> getReportsByDatabase(String databaseName, int level) {
 
-		return filterList(reportsByDatabase.get(databaseName), level);
+		return filterList(getReportStore().getByDatabase(databaseName), level);
 
 	} // getReportsByDatabase
 
@@ -675,7 +765,7 @@ public class ReportManager {
 
 		List<ReportLine> result = new ArrayList<ReportLine>();
 
-		for(ReportLine line: reportsByTest.get(test)) {
+		for(ReportLine line: getReportStore().getByTestCase(test)) {
 			if (database.equals(line.getDatabaseName())) {
 				result.add(line);
 			}
@@ -853,12 +943,39 @@ public class ReportManager {
         }
 
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Load the reports already in the output database for the databases in registry, so that finding out whether a report is new
+	 * does not need a query per report. Should be called after the session has been created or reused and before any tests are
+	 * run.
+	 * 
+	 * @param registry
+	 *          The databases that will be tested.
+	 */
+	public static void loadReportIndex(DatabaseRegistry registry) {
+
+		if (!usingDatabase) {
+			return;
+		}
+
+		List<String> names = new ArrayList<String>();
+		for (DatabaseRegistryEntry dbre : registry.getAll()) {
+			names.add(dbre.getName());
+		}
+
+		flushDatabaseReports();
+		reportIndex = ReportIndex.load(outputDatabaseConnection, names);
+
+	}
+
 	// -------------------------------------------------------------------------
 	/**
 	 * End a database session. Write the end time into the database.
 	 */
 	public static void endDatabaseSession() {
 
+		flushDatabaseReports();
+
 		String sql = "UPDATE session SET end_time=NOW() WHERE session_id=" + sessionID;
 
 		try {
@@ -909,22 +1026,68 @@ public class ReportManager {
 	/**
 	 * Update a report in the database. Two possible actions: 1. If the report already exists and hasn't changed, just update it. 2.
 	 * If the report is new, add a new record.
+	 * <p>
+	 * Reports are written in batches by a background {@link ReportDatabaseWriter}, so they may not be in the database until
+	 * {@link #flushDatabaseReports()} or {@link #endDatabaseSession()} has been called.
 	 */
 	public static void checkAndAddToDatabase(ReportLine report) {
 
-		long reportID = reportExistsInDatabase(report);
+		if (report.getLevel() < outputLevel) {
+			return;
+		}
+
+		if (outputDatabaseConnection == null) {
+			logger.severe("No connection to output database!");
+			return;
+		}
+
+		databaseWriterLock.readLock().lock();
+		try {
+			getDatabaseWriter().add(report);
+		} finally {
+			databaseWriterLock.readLock().unlock();
+		}
+
+	}
 
-                if (report.getLevel() >= outputLevel) {
+	private static ReportDatabaseWriter getDatabaseWriter() {
 
-		        if (reportID > -1) {
+		synchronized (outputDatabaseLock) {
 
-			          updateReportInDatabase(report, reportID);
+			if (databaseWriter == null) {
+				databaseWriter = new ReportDatabaseWriter(
+					outputDatabaseConnection,
+					sessionID,
+					Integer.parseInt(System.getProperty("output.batchsize", String.valueOf(DEFAULT_OUTPUT_BATCH_SIZE))),
+					Long.parseLong(System.getProperty("output.flushinterval", String.valueOf(DEFAULT_OUTPUT_FLUSH_INTERVAL))),
+					reportIndex
+				);
+			}
+			return databaseWriter;
 
-		        } else {
+		}
 
-			          addReportToDatabase(report);
-                        }
+	}
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Write all reports that are still queued for the output database and wait until they have been written. Reports added
+	 * afterwards are queued again.
+	 */
+	public static void flushDatabaseReports() {
+
+		databaseWriterLock.writeLock().lock();
+		try {
+			ReportDatabaseWriter writer;
+			synchronized (outputDatabaseLock) {
+				writer = databaseWriter;
+				databaseWriter = null;
+			}
+			if (writer != null) {
+				writer.drain();
+			}
+		} finally {
+			databaseWriterLock.writeLock().unlock();
 		}
 
 	}
@@ -1057,6 +1220,7 @@ public class ReportManager {
 	}
 
 	public static void setSessionID(long sessionID) {
+		flushDatabaseReports();
 		ReportManager.sessionID = sessionID;
 	}
 
@@ -0,0 +1,103 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Where the reports of one run go when several runs share a JVM, see
+ * {@link ReportManager#bindReportSession(ReportSession)}. Reports are kept
+ * in a {@link ReportStore}, or written to a session of the output database
+ * if the session has a {@link ReportDatabaseWriter}. Problems are counted
+ * whichever of the two the reports go to.
+ * </p>
+ *
+ * <p>
+ * A session is bound to the thread that starts the run, and to the worker
+ * threads of the {@link ParallelTestScheduler} while they run its tests.
+ * </p>
+ */
+public class ReportSession {
+
+	private final ReportStore store;
+
+	private final ReportDatabaseWriter databaseWriter;
+
+	private final int outputLevel;
+
+	private final AtomicInteger problems = new AtomicInteger();
+
+	/**
+	 * A session that keeps its reports in memory.
+	 */
+	public ReportSession(ReportStore store) {
+		this(store, null, ReportLine.ALL);
+	}
+
+	/**
+	 * @param store
+	 *          Where reports are kept when they are not written to the output
+	 *          database.
+	 * @param databaseWriter
+	 *          Writes the reports to a session of the output database, or null
+	 *          to keep them in store.
+	 * @param outputLevel
+	 *          Reports below this level are not written to the output
+	 *          database.
+	 */
+	public ReportSession(ReportStore store, ReportDatabaseWriter databaseWriter, int outputLevel) {
+		this.store = store;
+		this.databaseWriter = databaseWriter;
+		this.outputLevel = outputLevel;
+	}
+
+	public ReportStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return The writer for the output database, or null if reports are kept
+	 *         in memory.
+	 */
+	public ReportDatabaseWriter getDatabaseWriter() {
+		return databaseWriter;
+	}
+
+	public int getOutputLevel() {
+		return outputLevel;
+	}
+
+	/**
+	 * Count report if it is a problem. Called by {@link ReportManager} for
+	 * every report added in this session.
+	 */
+	void count(ReportLine report) {
+		if (report.getLevel() == ReportLine.PROBLEM) {
+			problems.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of problems reported in this session.
+	 */
+	public int getProblemCount() {
+		return problems.get();
+	}
+
+}
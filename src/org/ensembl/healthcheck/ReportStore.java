@@ -0,0 +1,177 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Thread-safe collection of {@link ReportLine}s, indexed by test case name and
+ * by database name. This is the storage behind the static methods of
+ * {@link ReportManager} when reports are kept in memory.
+ * </p>
+ *
+ * <p>
+ * Each test case and each database has its own bucket. Buckets are created
+ * lock-free and every bucket has its own lock, so threads reporting for
+ * different tests or databases never wait for each other. Within a bucket
+ * lines are kept in the order in which they were added.
+ * </p>
+ *
+ * <p>
+ * Everything returned by the getters is a copy, so callers can iterate over
+ * the results while tests are still adding to the store.
+ * </p>
+ */
+public class ReportStore {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private final ConcurrentMap<String, Bucket> byTest = new ConcurrentHashMap<String, Bucket>();
+
+	private final ConcurrentMap<String, Bucket> byDatabase = new ConcurrentHashMap<String, Bucket>();
+
+	private final int maxLinesPerTest;
+
+	private final AtomicBoolean bufferSizeWarningPrinted = new AtomicBoolean(false);
+
+	/**
+	 * @param maxLinesPerTest
+	 *          The number of lines above which no more lines are stored for a
+	 *          test case. Prevents very verbose test cases causing memory
+	 *          problems. Lines are always stored by database.
+	 */
+	public ReportStore(int maxLinesPerTest) {
+		this.maxLinesPerTest = maxLinesPerTest;
+	}
+
+	/**
+	 * Store a report under its test case and its database.
+	 *
+	 * @param report
+	 *          The ReportLine to add.
+	 */
+	public void add(ReportLine report) {
+
+		String testCaseName = report.getTestCaseName();
+		String databaseName = report.getDatabaseName();
+
+		if (testCaseName != null && testCaseName.length() > 0) {
+			if (!bucket(byTest, testCaseName).append(report, maxLinesPerTest)) {
+				if (bufferSizeWarningPrinted.compareAndSet(false, true)) {
+					System.err.println("\n\nReportManager has reached its maximum buffer size (" + maxLinesPerTest + " lines) - no more output will be stored\n");
+				}
+			}
+		} else {
+			logger.warning("Cannot add report with test case name not set");
+		}
+
+		if (databaseName != null && databaseName.length() > 0) {
+			bucket(byDatabase, databaseName).append(report, -1);
+		}
+
+	}
+
+	/**
+	 * @return A copy of all the reports, keyed on test case name.
+	 */
+	public Map<String, List<ReportLine>> getAllByTestCase() {
+		return snapshot(byTest);
+	}
+
+	/**
+	 * @return A copy of all the reports, keyed on database name.
+	 */
+	public Map<String, List<ReportLine>> getAllByDatabase() {
+		return snapshot(byDatabase);
+	}
+
+	/**
+	 * @return A copy of the reports for testCaseName, or null if there are none.
+	 */
+	public List<ReportLine> getByTestCase(String testCaseName) {
+		Bucket bucket = byTest.get(testCaseName);
+		return bucket == null ? null : bucket.snapshot();
+	}
+
+	/**
+	 * @return A copy of the reports for databaseName, or null if there are none.
+	 */
+	public List<ReportLine> getByDatabase(String databaseName) {
+		Bucket bucket = byDatabase.get(databaseName);
+		return bucket == null ? null : bucket.snapshot();
+	}
+
+	private static Bucket bucket(ConcurrentMap<String, Bucket> buckets, String key) {
+
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			Bucket created = new Bucket();
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+
+	}
+
+	private static Map<String, List<ReportLine>> snapshot(ConcurrentMap<String, Bucket> buckets) {
+
+		Map<String, List<ReportLine>> result = new HashMap<String, List<ReportLine>>();
+		for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return result;
+
+	}
+
+	/**
+	 * The lines for a single test case or database.
+	 */
+	private static class Bucket {
+
+		private final List<ReportLine> lines = new ArrayList<ReportLine>();
+
+		/**
+		 * @return false if the line was not stored because the bucket already
+		 *         holds more than limit lines.
+		 */
+		synchronized boolean append(ReportLine line, int limit) {
+			if (limit >= 0 && lines.size() > limit) {
+				return false;
+			}
+			lines.add(line);
+			return true;
+		}
+
+		synchronized ArrayList<ReportLine> snapshot() {
+			return new ArrayList<ReportLine>(lines);
+		}
+
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes the serialised files that {@link CatalogCache} and
+ * {@link TestResultCache} keep between runs.
+ */
+final class SerializedFiles {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private SerializedFiles() {
+	}
+
+	/**
+	 * @return s with anything that can't be used in a file name replaced.
+	 */
+	static String toFileName(String s) {
+		return s.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * @return The object of class type in file, or null if it can't be read.
+	 */
+	static <T> T read(File file, Class<T> type) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try {
+				return type.cast(in.readObject());
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			// e.g. written by an incompatible version, it will be replaced
+			logger.fine("Could not read " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write object to a temporary file first so a run that is killed does not
+	 * leave a partial file behind.
+	 */
+	static void write(File file, Serializable object) {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp));
+			try {
+				out.writeObject(object);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("can't rename " + tmp);
+			}
+		} catch (IOException e) {
+			logger.warning("Could not write " + file + ": " + e.getMessage());
+		}
+	}
+
+}
@@ -82,6 +82,13 @@ public class SystemPropertySetter {
 		System.setProperty("output.database",    configuration.getOutputDatabase());
 		System.setProperty("output.user",        configuration.getOutputUser());
 		System.setProperty("output.password",    configuration.getOutputPassword());
+
+		if (configuration.isOutputBatchSize()) {
+			System.setProperty("output.batchsize",     configuration.getOutputBatchSize());
+		}
+		if (configuration.isOutputFlushInterval()) {
+			System.setProperty("output.flushinterval", configuration.getOutputFlushInterval());
+		}
 	}
 	
 	/**
@@ -105,6 +112,48 @@ public class SystemPropertySetter {
 		} else {
 			System.setProperty("dataFileBasePath", "");
 		}
+		if (configuration.isDataFileCheckThreads()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier
+			//
+			System.setProperty("datafile.check.threads", configuration.getDataFileCheckThreads());
+		}
+		if (configuration.isDataFileCheckMagic()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier
+			//
+			System.setProperty("datafile.check.magic", configuration.getDataFileCheckMagic());
+		}
+		if (configuration.isQueryCacheSize()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.util.QueryResultCache
+			//
+			System.setProperty("query.cache.size", configuration.getQueryCacheSize());
+		}
+		if (configuration.isSqlProfileTop()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.util.QueryProfiler
+			//
+			System.setProperty("sql.profile.top", configuration.getSqlProfileTop());
+		}
+		if (configuration.isSqlProfileExplain()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.util.QueryProfiler
+			//
+			System.setProperty("sql.profile.explain", configuration.getSqlProfileExplain());
+		}
+		if (configuration.isTimingsFile()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.TestTimings
+			//
+			System.setProperty("timings.file", configuration.getTimingsFile());
+		}
 		
 		if (configuration.isRepair()) {
 			// Used in:
@@ -146,6 +195,17 @@ public class SystemPropertySetter {
 			//
 			System.setProperty("master.schema",    configuration.getMasterSchema());
 		}
+
+		if (configuration.isSchemaModelDir()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.testcase.generic.SchemaModel
+			//
+			System.setProperty(
+				org.ensembl.healthcheck.testcase.generic.SchemaModel.MODEL_DIR,
+				configuration.getSchemaModelDir()
+			);
+		}
 		
 		
 		if (configuration.isPerl()) {
@@ -0,0 +1,348 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.File;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+
+/**
+ * <p>
+ * Reuses the result of a single database test when none of the tables it
+ * reads has changed since it was last run on the database. The reports of
+ * the last run are added again instead of running the test.
+ * </p>
+ *
+ * <p>
+ * Only test cases that declare their tables with
+ * {@link EnsTestCase#setTablesRead(String...)} are affected. Before such a
+ * test is run the tables are fingerprinted, and the fingerprint, the result
+ * and the reports are kept in one file per test and database below the
+ * directory given to {@link #configure(File, Fingerprint)}. A test is run
+ * again if any of the code on the class path has changed, which includes the
+ * helper classes it uses, or if any of the system properties it declares
+ * with {@link EnsTestCase#setPropertiesRead(String...)} has.
+ * </p>
+ *
+ * <p>
+ * How tables are fingerprinted is set with incremental.fingerprint, see
+ * {@link Fingerprint}. The information_schema fingerprint costs one query
+ * but relies on the server recording when tables are updated, which MyISAM
+ * does and InnoDB only does on newer servers.
+ * </p>
+ */
+public class TestResultCache {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Ways of telling whether tables have changed. */
+	public enum Fingerprint {
+
+		/**
+		 * Data length, create and update time from INFORMATION_SCHEMA.TABLES.
+		 * TABLE_ROWS is left out, it is only an estimate for InnoDB tables.
+		 */
+		INFORMATION_SCHEMA,
+
+		/** CHECKSUM TABLE, which is quick for tables with a live checksum. */
+		CHECKSUM,
+
+		/** CHECKSUM TABLE ... EXTENDED, which reads every row. */
+		EXTENDED;
+
+		/**
+		 * @return The fingerprint called name, ignoring case, e.g.
+		 *         "information_schema".
+		 */
+		public static Fingerprint resolve(String name) {
+			for (Fingerprint f : values()) {
+				if (f.name().equalsIgnoreCase(name)) {
+					return f;
+				}
+			}
+			throw new IllegalArgumentException("Unknown fingerprint " + name + ", use information_schema, checksum or extended");
+		}
+
+	}
+
+	private static volatile File directory;
+
+	private static volatile Fingerprint fingerprint = Fingerprint.INFORMATION_SCHEMA;
+
+	/** Fingerprint of the class path, which can't change while the JVM runs. */
+	private static volatile String classPathFingerprint;
+
+	private TestResultCache() {
+	}
+
+	/**
+	 * The outcome of running a test on a database.
+	 */
+	private static final class Result implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String fingerprint;
+
+		private final boolean passed;
+
+		private final ArrayList<String> databaseNames = new ArrayList<String>();
+
+		private final ArrayList<Integer> levels = new ArrayList<Integer>();
+
+		private final ArrayList<String> messages = new ArrayList<String>();
+
+		private Result(String fingerprint, boolean passed, List<ReportLine> lines) {
+			this.fingerprint = fingerprint;
+			this.passed = passed;
+			for (ReportLine line : lines) {
+				databaseNames.add(line.getDatabaseName());
+				levels.add(line.getLevel());
+				messages.add(line.getMessage());
+			}
+		}
+
+	}
+
+	/**
+	 * Keep test results in dir between runs. A null dir switches this off.
+	 */
+	public static void configure(File dir, Fingerprint f) {
+		directory = dir;
+		fingerprint = f;
+		if (dir != null) {
+			logger.config("Reusing results of tests whose tables have not changed, kept in " + dir + ", fingerprint " + f);
+		}
+	}
+
+	public static boolean isEnabled() {
+		return directory != null;
+	}
+
+	/**
+	 * Run testCase on dbre, or add the reports of its last run on dbre again
+	 * if the tables it reads have not changed since.
+	 *
+	 * @return The result of the test.
+	 */
+	public static boolean run(SingleDatabaseTestCase testCase, DatabaseRegistryEntry dbre) {
+
+		File dir = directory;
+		List<String> tables = testCase.getTablesRead();
+
+		if (dir == null || tables == null || dbre.getDatabaseServer() == null) {
+			return testCase.run(dbre);
+		}
+
+		String current;
+		try {
+			current = codeFingerprint(testCase.getClass()) + "|" + propertyFingerprint(testCase.getPropertiesRead()) + "|" + tableFingerprint(dbre.getConnection(), dbre.getName(), tables, fingerprint);
+		} catch (SQLException e) {
+			logger.warning("Can't fingerprint tables of " + dbre.getName() + " for " + testCase.getShortTestName() + ", running it: "
+					+ e.getMessage());
+			return testCase.run(dbre);
+		}
+
+		File file = new File(new File(new File(dir, SerializedFiles.toFileName(dbre.getDatabaseServer().getDatabaseURL())), SerializedFiles.toFileName(dbre.getName())),
+				testCase.getClass().getName() + ".result");
+
+		Result last = file.exists() ? SerializedFiles.read(file, Result.class) : null;
+		if (last != null && last.fingerprint.equals(current)) {
+
+			logger.info(testCase.getShortTestName() + " [" + dbre.getName() + "] tables unchanged since last run, reusing its result");
+			for (int i = 0; i < last.levels.size(); i++) {
+				ReportManager.add(new ReportLine(testCase, last.databaseNames.get(i), last.levels.get(i), last.messages.get(i), testCase
+						.getTeamResponsible(), testCase.getSecondTeamResponsible()));
+			}
+			return last.passed;
+
+		}
+
+		// not kept if the test throws an exception
+		ReportManager.startRecording();
+		boolean passed;
+		List<ReportLine> lines;
+		try {
+			passed = testCase.run(dbre);
+		} finally {
+			lines = ReportManager.stopRecording();
+		}
+
+		SerializedFiles.write(file, new Result(current, passed, lines));
+
+		return passed;
+
+	}
+
+	/**
+	 * @return A fingerprint of tables in database, taken with f.
+	 */
+	static String tableFingerprint(Connection con, String database, List<String> tables, Fingerprint f) throws SQLException {
+
+		Map<String, String> values = new HashMap<String, String>();
+
+		if (f == Fingerprint.INFORMATION_SCHEMA) {
+
+			StringBuilder sql = new StringBuilder(
+					"SELECT TABLE_NAME, DATA_LENGTH, CREATE_TIME, UPDATE_TIME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_NAME IN (");
+			for (int i = 0; i < tables.size(); i++) {
+				sql.append(i == 0 ? "?" : ",?");
+			}
+			sql.append(")");
+
+			PreparedStatement stmt = con.prepareStatement(sql.toString());
+			try {
+				stmt.setString(1, database);
+				for (int i = 0; i < tables.size(); i++) {
+					stmt.setString(i + 2, tables.get(i));
+				}
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()) {
+					values.put(rs.getString(1), rs.getString(2) + "/" + rs.getString(3) + "/" + rs.getString(4));
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+
+		} else {
+
+			StringBuilder sql = new StringBuilder("CHECKSUM TABLE ");
+			for (int i = 0; i < tables.size(); i++) {
+				sql.append(i == 0 ? "" : ", ").append("`").append(database).append("`.`").append(tables.get(i)).append("`");
+			}
+			if (f == Fingerprint.EXTENDED) {
+				sql.append(" EXTENDED");
+			}
+
+			Statement stmt = con.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(sql.toString());
+				while (rs.next()) {
+					// reported as database.table
+					String table = rs.getString(1);
+					values.put(table.substring(table.lastIndexOf('.') + 1), rs.getString(2));
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+
+		}
+
+		// tables that don't exist are part of the fingerprint too
+		StringBuilder result = new StringBuilder();
+		for (String table : tables) {
+			result.append(table).append('=').append(values.get(table)).append(';');
+		}
+		return result.toString();
+
+	}
+
+	/**
+	 * @return A fingerprint of the class path and of where testClass was
+	 *         loaded from, so results are not reused once the test, or any
+	 *         code it uses, has been changed.
+	 */
+	private static String codeFingerprint(Class<?> testClass) {
+
+		String classPath = classPathFingerprint;
+		if (classPath == null) {
+			List<File> locations = new ArrayList<File>();
+			for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+				if (entry.length() > 0) {
+					locations.add(new File(entry));
+				}
+			}
+			classPath = fingerprintLocations(locations);
+			classPathFingerprint = classPath;
+		}
+
+		CodeSource source = testClass.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null || !"file".equals(source.getLocation().getProtocol())) {
+			return classPath;
+		}
+		try {
+			return classPath + "/" + fingerprintLocations(Arrays.asList(new File(source.getLocation().toURI())));
+		} catch (URISyntaxException e) {
+			return classPath;
+		}
+
+	}
+
+	/**
+	 * @return A checksum of the names, sizes and modification times of the
+	 *         files in locations, which are jars or directories of classes.
+	 */
+	public static String fingerprintLocations(List<File> locations) {
+
+		CRC32 crc = new CRC32();
+		for (File location : locations) {
+			addToFingerprint(crc, location);
+		}
+		return Long.toHexString(crc.getValue());
+
+	}
+
+	private static void addToFingerprint(CRC32 crc, File file) {
+
+		File[] children = file.listFiles();
+		if (children == null) {
+			crc.update((file.getPath() + ":" + file.length() + ":" + file.lastModified() + ";").getBytes());
+			return;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			addToFingerprint(crc, child);
+		}
+
+	}
+
+	/**
+	 * @return The values of the system properties called names.
+	 */
+	private static String propertyFingerprint(List<String> names) {
+
+		StringBuilder result = new StringBuilder();
+		if (names != null) {
+			for (String name : names) {
+				result.append(name).append('=').append(System.getProperty(name)).append(';');
+			}
+		}
+		return result.toString();
+
+	}
+
+}
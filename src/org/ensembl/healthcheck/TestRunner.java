@@ -30,6 +30,7 @@ import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.OrderedDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.Repair;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.QueryResultCache;
 
 /**
  * <p>
@@ -72,6 +73,20 @@ public class TestRunner {
 	/** Flag to determine whether repairs will be carried out if appropriate */
 	protected boolean doRepair = false;
 
+	/**
+	 * Number of worker threads used to run single-database tests. With the
+	 * default of 1 tests are run one after another.
+	 */
+	protected int testThreads = 1;
+
+	public int getTestThreads() {
+		return testThreads;
+	}
+
+	public void setTestThreads(int testThreads) {
+		this.testThreads = testThreads;
+	}
+
 	// -------------------------------------------------------------------------
 	/** Creates a new instance of TestRunner */
 
@@ -103,6 +118,8 @@ public class TestRunner {
 		// Single-database tests
 
 		// run the appropriate tests on each of them
+		List<ParallelTestScheduler.Task> tasks = new ArrayList<ParallelTestScheduler.Task>();
+
 		for (DatabaseRegistryEntry database : databaseRegistry.getAll()) {
 
 // If a healthcheck database is being used and nothing has been propagated for the database being tested, skip
@@ -119,14 +136,37 @@ public class TestRunner {
 				if (!testCase.isLongRunning()
 						|| (testCase.isLongRunning() && !skipSlow)) {
 
-					try {
+					tasks.add(new ParallelTestScheduler.Task(testCase, database));
+
+				} else {
+					logger.info("Skipping long-running test "
+							+ testCase.getName());
+
+				}
+
+			} // foreach test
+
+		} // foreach DB
+
+		ParallelTestScheduler scheduler = new ParallelTestScheduler(testThreads);
+		if (testThreads > 1) {
+			scheduler.setTimings(TestTimings.load(TestTimings.getFile()));
+		}
+		scheduler.run(tasks,
+				new ParallelTestScheduler.TaskBody() {
+					public void execute(ParallelTestScheduler.Task task) {
+
+						SingleDatabaseTestCase testCase = task.getTestCase();
+						DatabaseRegistryEntry database = task.getDatabase();
+
 						ReportManager.startTestCase(testCase, database);
 						logger.info("Running " + testCase.getName() + " ["
 								+ database.getName() + "]");
 
 						testCase.types();
-						
-						boolean result = testCase.run(database);
+
+						boolean result = TestResultCache.run(testCase, database);
+						task.setResult(result);
 
 						ReportManager
 								.finishTestCase(testCase, result, database);
@@ -135,26 +175,24 @@ public class TestRunner {
 								+ (result ? "PASSED" : "FAILED"));
 
 						checkRepair(testCase, database);
-						numberOfTestsRun++;
-
-					} catch (Throwable e) {
-					  String msg = "Could not execute test "
-                + testCase.getName() + " on "
-                + database.getName() + ": " + e.getMessage();
-					  logger.log(Level.WARNING, msg, e);
-					  //TODO Get the logger to do this
-					  e.printStackTrace();
 					}
+				});
 
-				} else {
-					logger.info("Skipping long-running test "
-							+ testCase.getName());
-
-				}
+		for (ParallelTestScheduler.Task task : tasks) {
 
-			} // foreach test
+			Throwable e = task.getException();
+			if (e == null) {
+				numberOfTestsRun++;
+			} else {
+			  String msg = "Could not execute test "
+                + task.getTestCase().getName() + " on "
+                + task.getDatabase().getName() + ": " + e.getMessage();
+			  logger.log(Level.WARNING, msg, e);
+			  //TODO Get the logger to do this
+			  e.printStackTrace();
+			}
 
-		} // foreach DB
+		}
 
 		// --------------------------------
 		// Multi-database tests
@@ -249,6 +287,8 @@ public class TestRunner {
 			}
 			if (doRepair) {
 				((Repair) testCase).repair(database);
+				// results cached before the repair may be out of date
+				QueryResultCache.invalidate(database);
 			}
 		}
 
@@ -415,25 +455,40 @@ public class TestRunner {
 	 */
 	protected void setOutputLevel(String str) {
 
+		Integer level = parseOutputLevel(str);
+		if (level != null) {
+			outputLevel = level;
+		} else {
+			logger.warning("Output level " + str
+					+ " not recognised; using 'all'");
+		}
+
+	} // setOutputLevel
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return The ReportLine level named by str, or null if str is not
+	 *         recognised.
+	 */
+	protected static Integer parseOutputLevel(String str) {
+
 		String lstr = str.toLowerCase();
 		if (lstr.equals("all")) {
-			outputLevel = ReportLine.ALL;
+			return ReportLine.ALL;
 		} else if (lstr.equals("none")) {
-			outputLevel = ReportLine.NONE;
+			return ReportLine.NONE;
 		} else if (lstr.equals("problem")) {
-			outputLevel = ReportLine.PROBLEM;
+			return ReportLine.PROBLEM;
 		} else if (lstr.equals("correct")) {
-			outputLevel = ReportLine.CORRECT;
+			return ReportLine.CORRECT;
 		} else if (lstr.equals("warning")) {
-			outputLevel = ReportLine.WARNING;
+			return ReportLine.WARNING;
 		} else if (lstr.equals("info")) {
-			outputLevel = ReportLine.INFO;
-		} else {
-			logger.warning("Output level " + str
-					+ " not recognised; using 'all'");
+			return ReportLine.INFO;
 		}
+		return null;
 
-	} // setOutputLevel
+	}
 
 	// -------------------------------------------------------------------------
 	/**
@@ -0,0 +1,237 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+
+/**
+ * <p>
+ * How long tests took in earlier runs, read from the timings file that
+ * {@link org.ensembl.healthcheck.reporter.DatabaseReporter} appends a line to
+ * after every test:
+ * </p>
+ *
+ * <pre>
+ * milliseconds&lt;tab&gt;database&lt;tab&gt;test&lt;tab&gt;formatted duration
+ * </pre>
+ *
+ * <p>
+ * The time a test will take on a database is estimated from its earlier runs
+ * on the same database, giving recent runs more weight. Without those the
+ * average over databases of the same type is used, then the average over all
+ * databases. Tests that have never been timed are assumed to take
+ * {@link #DEFAULT_ESTIMATE}, or {@link #DEFAULT_LONG_RUNNING_ESTIMATE} if they
+ * are long running.
+ * </p>
+ */
+public class TestTimings {
+
+	/** Timings file used unless the timings.file property is set. */
+	public static final String DEFAULT_FILE = "timings.txt";
+
+	public static final long DEFAULT_ESTIMATE = 30 * 1000L;
+
+	public static final long DEFAULT_LONG_RUNNING_ESTIMATE = 30 * 60 * 1000L;
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Weighted by recency, keyed by test and database. */
+	private final Map<String, Long> byDatabase = new HashMap<String, Long>();
+
+	/** Sum and count, keyed by test and database type. */
+	private final Map<String, long[]> byType = new HashMap<String, long[]>();
+
+	/** Sum and count, keyed by test. */
+	private final Map<String, long[]> byTest = new HashMap<String, long[]>();
+
+	private final Map<String, DatabaseType> types = new HashMap<String, DatabaseType>();
+
+	/**
+	 * @return The file timings are written to and read from.
+	 */
+	public static String getFile() {
+		return System.getProperty("timings.file", DEFAULT_FILE);
+	}
+
+	/**
+	 * Read the timings in file. Lines that can't be parsed are skipped, a
+	 * missing file gives no timings.
+	 */
+	public static TestTimings load(String file) {
+
+		TestTimings timings = new TestTimings();
+
+		if (!new File(file).exists()) {
+			logger.fine("No test timings in " + file);
+			return timings;
+		}
+
+		int lines = 0;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (timings.parse(line)) {
+						lines++;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warning("Can't read test timings from " + file + ": " + e.getMessage());
+		}
+
+		logger.fine("Read " + lines + " test timings from " + file);
+		return timings;
+
+	}
+
+	/**
+	 * Add one line of the timings file.
+	 *
+	 * @return false if the line could not be parsed.
+	 */
+	boolean parse(String line) {
+
+		String[] fields = line.split("\t");
+		if (fields.length < 3) {
+			return false;
+		}
+
+		long duration;
+		try {
+			duration = Long.parseLong(fields[0]);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+
+		// multi-database tests are written without a database
+		if (fields.length == 3) {
+			add(fields[1], null, duration);
+		} else {
+			add(fields[2], fields[1], duration);
+		}
+		return true;
+
+	}
+
+	/**
+	 * Record that test took duration milliseconds on database, which may be
+	 * null.
+	 */
+	public void add(String test, String database, long duration) {
+
+		if (database != null) {
+			String key = test + "\t" + database;
+			Long previous = byDatabase.get(key);
+			byDatabase.put(key, previous == null ? duration : (previous + duration) / 2);
+
+			DatabaseType type = types.get(database);
+			if (type == null) {
+				type = DatabaseRegistryEntry.getInfoFromName(database).getType();
+				types.put(database, type);
+			}
+			addTo(byType, test + "\t" + type, duration);
+		}
+		addTo(byTest, test, duration);
+
+	}
+
+	private static void addTo(Map<String, long[]> totals, String key, long duration) {
+		long[] total = totals.get(key);
+		if (total == null) {
+			total = new long[2];
+			totals.put(key, total);
+		}
+		total[0] += duration;
+		total[1]++;
+	}
+
+	/**
+	 * @return true if test has been timed before.
+	 */
+	public boolean isKnown(String test) {
+		return byTest.containsKey(test);
+	}
+
+	/**
+	 * @return The number of milliseconds test is expected to take on database.
+	 */
+	public long estimate(String test, String database, DatabaseType type, boolean longRunning) {
+
+		Long recent = byDatabase.get(test + "\t" + database);
+		if (recent != null) {
+			return recent;
+		}
+
+		long[] total = byType.get(test + "\t" + type);
+		if (total == null) {
+			total = byTest.get(test);
+		}
+		if (total != null) {
+			return total[0] / total[1];
+		}
+
+		return longRunning ? DEFAULT_LONG_RUNNING_ESTIMATE : DEFAULT_ESTIMATE;
+
+	}
+
+	/**
+	 * @return The number of milliseconds the tests timed on databases whose
+	 *         names match regexp took there, 0 if none have been timed.
+	 */
+	public long estimateDatabases(String regexp) {
+
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(regexp);
+		} catch (PatternSyntaxException e) {
+			return 0;
+		}
+
+		long total = 0;
+		for (Map.Entry<String, Long> entry : byDatabase.entrySet()) {
+			String database = entry.getKey().substring(entry.getKey().indexOf('\t') + 1);
+			if (pattern.matcher(database).matches()) {
+				total += entry.getValue();
+			}
+		}
+		return total;
+
+	}
+
+	/**
+	 * @return The number of milliseconds test is expected to take on dbre.
+	 */
+	public long estimate(EnsTestCase test, DatabaseRegistryEntry dbre) {
+		return estimate(test.getShortTestName(), dbre.getName(), dbre.getType(), test.isLongRunning());
+	}
+
+}
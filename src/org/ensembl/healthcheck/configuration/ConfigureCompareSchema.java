@@ -19,6 +19,7 @@ package org.ensembl.healthcheck.configuration;
 
 import org.ensembl.healthcheck.testcase.funcgen.CompareFuncgenSchema;
 import org.ensembl.healthcheck.testcase.generic.CompareSchema;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel;
 import org.ensembl.healthcheck.testcase.variation.CompareVariationSchema;
 
 import uk.co.flamingpenguin.jewel.cli.Option;
@@ -64,4 +65,15 @@ public interface ConfigureCompareSchema {
 
 	boolean isMasterFuncgenSchema();
 
+	// Used in:
+	//
+	// org.ensembl.healthcheck.testcase.generic.SchemaModel
+	//
+	@Option(longName = SchemaModel.MODEL_DIR, description = "Directory in which "
+			+ "the structure of master schemas is kept between runs, by schema "
+			+ "version. Master schemas are read again on every run if not set.")
+	String getSchemaModelDir();
+
+	boolean isSchemaModelDir();
+
 }
@@ -102,6 +102,23 @@ public interface ConfigureHealthcheckDatabase {
 		String getOutputDriver();
 		boolean isOutputDriver();
 		
+		@Option(
+			longName    = "output.batchsize",
+			description = "The number of reports written to the output "
+				+ "database in one batch, if the database reporter is used."
+		)
+		String getOutputBatchSize();
+		boolean isOutputBatchSize();
+
+		@Option(
+			longName    = "output.flushinterval",
+			description = "The longest time in milliseconds a report is "
+				+ "queued before it is written to the output database, if "
+				+ "the database reporter is used."
+		)
+		String getOutputFlushInterval();
+		boolean isOutputFlushInterval();
+
 		@Option(
 			longName    = "output.schemafile",
 			description = "If output.database does not exist, it will be "
@@ -51,6 +51,57 @@ public interface ConfigureMiscProperties {
 	String getDataFileBasePath();
 	boolean isDataFileBasePath();
 
+	// Used in:
+	//
+	// org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier
+	//
+	@Option(longName = "datafile.check.threads", description = "Number of "
+			+ "threads checking the files listed in funcgen data_file tables"
+	)
+	String getDataFileCheckThreads();
+	boolean isDataFileCheckThreads();
+
+	// Used in:
+	//
+	// org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier
+	//
+	@Option(longName = "datafile.check.magic", description = "Set to true to "
+			+ "check the first bytes of BAM, bigWig and bigBed data files"
+	)
+	String getDataFileCheckMagic();
+	boolean isDataFileCheckMagic();
+
+	// Used in:
+	//
+	// org.ensembl.healthcheck.util.QueryResultCache
+	//
+	@Option(longName = "query.cache.size", description = "Number of query "
+			+ "results shared between tests during a run, 0 to turn this off"
+	)
+	String getQueryCacheSize();
+	boolean isQueryCacheSize();
+
+	// Used in:
+	//
+	// org.ensembl.healthcheck.util.QueryProfiler
+	//
+	@Option(longName = "sql.profile.top", description = "Number of the "
+			+ "slowest kinds of query reported at the end of a run, 0 to stop "
+			+ "timing queries"
+	)
+	String getSqlProfileTop();
+	boolean isSqlProfileTop();
+
+	// Used in:
+	//
+	// org.ensembl.healthcheck.util.QueryProfiler
+	//
+	@Option(longName = "sql.profile.explain", description = "Seconds after "
+			+ "which the plan of a query is kept for the report of slow queries"
+	)
+	String getSqlProfileExplain();
+	boolean isSqlProfileExplain();
+
 	// Used in:
 	//
 	// org.ensembl.healthcheck.testcase.generic.CompareSchema
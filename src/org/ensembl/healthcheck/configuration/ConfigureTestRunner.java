@@ -44,4 +44,109 @@ public interface ConfigureTestRunner {
                         + "The allowed options are \"All\", \"None\", \"Problem\", \"Current\", \"Warning\" and \"Info\", .")
         String getOutputLevel();
         boolean isOutputLevel();
+
+	@Option(longName = "threads", description = "Number of worker threads "
+			+ "used to run single database tests. With 1 the tests are run "
+			+ "one after another.")
+	String getThreads();
+	boolean isThreads();
+
+	@Option(longName = "threads.per.server", description = "Maximum number "
+			+ "of tests run at the same time against any one database server, "
+			+ "when more than one worker thread is used. 0 means no limit.")
+	String getThreadsPerServer();
+	boolean isThreadsPerServer();
+
+	@Option(longName = "timings.file", description = "File with the times "
+			+ "tests took in earlier runs, used to start the longest tests "
+			+ "first. Written by the Database reporter.")
+	String getTimingsFile();
+	boolean isTimingsFile();
+
+	@Option(longName = "pool.max.per.server", description = "Maximum number "
+			+ "of connections that running tests may hold to any one database "
+			+ "server. Multi-database tests may go over it. 0 means no limit.")
+	String getPoolMaxPerServer();
+	boolean isPoolMaxPerServer();
+
+	@Option(longName = "pool.min.idle", description = "Number of idle "
+			+ "connections per database server that are kept open however "
+			+ "long they have been idle.")
+	String getPoolMinIdle();
+	boolean isPoolMinIdle();
+
+	@Option(longName = "pool.borrow.timeout", description = "Seconds a test "
+			+ "waits for a connection when all connections to a server are in "
+			+ "use.")
+	String getPoolBorrowTimeout();
+	boolean isPoolBorrowTimeout();
+
+	@Option(longName = "pool.idle.timeout", description = "Seconds after "
+			+ "which an idle connection is closed.")
+	String getPoolIdleTimeout();
+	boolean isPoolIdleTimeout();
+
+	@Option(longName = "pool.leak.threshold", description = "Seconds after "
+			+ "which a connection still held by a test is reported as "
+			+ "possibly leaked. 0 means never.")
+	String getPoolLeakThreshold();
+	boolean isPoolLeakThreshold();
+
+	@Option(longName = "pool.validation", description = "When connections "
+			+ "are checked before being handed to a test: idle (only if unused "
+			+ "for pool.validation.idle seconds), keepalive (checked in the "
+			+ "background while idle) or always.")
+	String getPoolValidation();
+	boolean isPoolValidation();
+
+	@Option(longName = "pool.validation.idle", description = "Seconds a "
+			+ "connection may be unused before it is checked again.")
+	String getPoolValidationIdle();
+	boolean isPoolValidationIdle();
+
+	@Option(longName = "pool.validation.timeout", description = "Seconds to "
+			+ "wait for the server to answer when checking a connection.")
+	String getPoolValidationTimeout();
+	boolean isPoolValidationTimeout();
+
+	@Option(longName = "catalog.cache.dir", description = "Directory in which "
+			+ "what is known about each database is kept between runs. Databases "
+			+ "are looked at again on every run if not set.")
+	String getCatalogCacheDir();
+	boolean isCatalogCacheDir();
+
+	@Option(longName = "incremental.dir", description = "Directory in which "
+			+ "the results of tests that declare the tables they read are kept. "
+			+ "Tests are not run again on databases where none of their tables "
+			+ "has changed. Every test is run if not set.")
+	String getIncrementalDir();
+	boolean isIncrementalDir();
+
+	@Option(longName = "incremental.fingerprint", description = "How to tell "
+			+ "whether tables have changed: \"information_schema\" (default), "
+			+ "\"checksum\" or \"extended\", which reads every row.")
+	String getIncrementalFingerprint();
+	boolean isIncrementalFingerprint();
+
+	@Option(longName = "daemon.port", description = "Port on 127.0.0.1 on "
+			+ "which the healthcheck daemon accepts requests.")
+	String getDaemonPort();
+	boolean isDaemonPort();
+
+	@Option(longName = "daemon.requests", description = "Number of requests "
+			+ "the healthcheck daemon runs at the same time.")
+	String getDaemonRequests();
+	boolean isDaemonRequests();
+
+	@Option(longName = "parallel.executor", description = "How the parallel "
+			+ "test runner runs its jobs: \"lsf\" submits them with bsub, "
+			+ "\"local\" runs them as processes on this machine.")
+	String getParallelExecutor();
+	boolean isParallelExecutor();
+
+	@Option(longName = "parallel.workers", description = "Number of jobs the "
+			+ "local executor runs at the same time. Defaults to the number of "
+			+ "processors.")
+	String getParallelWorkers();
+	boolean isParallelWorkers();
 }
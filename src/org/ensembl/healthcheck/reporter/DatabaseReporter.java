@@ -21,13 +21,18 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportLine;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Reporter;
+import org.ensembl.healthcheck.TestTimings;
 import org.ensembl.healthcheck.testcase.EnsTestCase;
 import org.ensembl.healthcheck.util.Utils;
 
 public class DatabaseReporter implements Reporter {
 
-	private long testStartTime;
-	private static String TIMINGS_FILE = "timings.txt";
+	/**
+	 * Start time of the test running on the current thread. Tests may be run
+	 * on several threads at once, see
+	 * {@link org.ensembl.healthcheck.ParallelTestScheduler}.
+	 */
+	private final ThreadLocal<Long> testStartTime = new ThreadLocal<Long>();
 
 	/**
 	 * Should be called just after a test case has been run.
@@ -42,7 +47,7 @@ public class DatabaseReporter implements Reporter {
 	 */
 	public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
 
-		long duration = System.currentTimeMillis() - testStartTime;
+		long duration = System.currentTimeMillis() - testStartTime.get();
 
 		String str = duration + "\t";
 		if (dbre != null) {
@@ -51,7 +56,7 @@ public class DatabaseReporter implements Reporter {
 		str += testCase.getShortTestName() + "\t";
 		str += Utils.formatTimeString(duration);
 
-		Utils.writeStringToFile(TIMINGS_FILE, str, true, true);
+		Utils.writeStringToFile(TestTimings.getFile(), str, true, true);
 		
 		// Copied over from the NodeDatabaseTestRunner so we have the markers
 		// in the database that the webcode needs
@@ -91,7 +96,7 @@ public class DatabaseReporter implements Reporter {
 	 */
 	public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
 
-		testStartTime = System.currentTimeMillis();
+		testStartTime.set(System.currentTimeMillis());
 		
 		// Copied over from the NodeDatabaseTestRunner so we have the markers
 		// in the database that the webcode needs
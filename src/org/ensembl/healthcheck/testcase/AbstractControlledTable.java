@@ -85,7 +85,9 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 	protected enum ComparisonStrategy { 
 		/**
 		 * Compares two tables row by row. Rows are fetched iteratively in 
-		 * batches of size {@link AbstractControlledTable#batchSize}
+		 * batches of size {@link AbstractControlledTable#batchSize} and 
+		 * looked up in the master by primary key, see 
+		 * {@link AbstractControlledRows#checkRowsInTableByKey}.
 		 */
 		RowByRow, 
 
@@ -289,23 +291,14 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 			logger.log(Level.INFO, "Columns are ok.");
 		}
 		
-		int limit = batchSize;
-		boolean allRowsInMaster = true;
-		
-		for(int currentOffset = 0; currentOffset<rowCount && !numReportedRowsExceedsMaximum(); currentOffset+=limit) {
-			
-			logger.info("Checking rows " + currentOffset + " out of " + rowCount);
-			
-			allRowsInMaster &= checkRangeOfRowsInTable(
-				controlledTableToTest,
-				masterTable,
-				testDbre,
-				masterDbRe,
-				limit,
-				currentOffset
-			);			
-		}
-		return allRowsInMaster;
+		return checkRowsInTable(
+			controlledTableToTest,
+			masterTable,
+			testDbre,
+			masterDbRe,
+			"",
+			rowCount
+		);
 	}
 
 	/**
@@ -55,6 +55,7 @@ import org.ensembl.healthcheck.configurationmanager.ConfigurationException;
 import org.ensembl.healthcheck.util.CollectionUtils;
 import org.ensembl.healthcheck.util.DBUtils;
 import org.ensembl.healthcheck.util.MapRowMapper;
+import org.ensembl.healthcheck.util.QueryProfiler;
 import org.ensembl.healthcheck.util.SQLParser;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.SqlUncheckedException;
@@ -119,6 +120,18 @@ public abstract class EnsTestCase {
 	 */
 	protected boolean hintLongRunning = false;
 
+	/**
+	 * The tables of the database under test that this test case reads, or
+	 * null if not known. See setTablesRead.
+	 */
+	protected List<String> tablesRead = null;
+
+	/**
+	 * The system properties that change what this test case reports, see
+	 * setPropertiesRead.
+	 */
+	protected List<String> propertiesRead = null;
+
 	/**
 	 * Store a list of which types of database this test applies to.
 	 */
@@ -621,15 +634,19 @@ public abstract class EnsTestCase {
 	public ResultSet getWholeTable(Connection con, String table, String key) {
 
 		ResultSet rs = null;
+		String sql = "SELECT * FROM " + table + " ORDER BY " + key;
+		// the rows are read by the caller, only the query itself is timed
+		QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
 		try {
 
 			Statement stmt = con.createStatement();
-			rs = stmt.executeQuery("SELECT * FROM " + table + " ORDER BY "
-					+ key);
+			rs = stmt.executeQuery(sql);
+			sample.executed(rs);
 
 		} catch (Exception e) {
 			throw new SqlUncheckedException("Could not retrieve whole table", e);
 		} finally {
+			sample.end();
 		}
 		return rs;
 
@@ -653,22 +670,25 @@ public abstract class EnsTestCase {
 
 		ResultSet rs = null;
 
-		List<String> allColumns = DBUtils.getColumnsInTable(con, table);
+		List<String> allColumns = new ArrayList<String>(DBUtils.getColumnsInTable(con, table));
 		allColumns.removeAll(exceptionColumns);
 
 		String columns = StringUtils.join(allColumns, ",");
 
+		String sql = String.format("SELECT %s FROM %s %s ORDER BY %s",
+				columns, table, whereClause, key);
+		QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
 		try {
 
 			Statement stmt = con.createStatement();
-			rs = stmt.executeQuery(String.format(
-					"SELECT %s FROM %s %s ORDER BY %s", columns, table,
-					whereClause, key));
+			rs = stmt.executeQuery(sql);
+			sample.executed(rs);
 
 		} catch (Exception e) {
 			throw new SqlUncheckedException("Could not retrieve whole table "
 					+ table, e);
 		} finally {
+			sample.end();
 		}
 
 		return rs;
@@ -897,6 +917,67 @@ public abstract class EnsTestCase {
 
 	}
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Declare the tables of the database under test that this test case
+	 * reads. If none of them has changed since the test was last run on a
+	 * database, its result can be reused, see
+	 * {@link org.ensembl.healthcheck.TestResultCache}. Only declare tables
+	 * for tests whose result depends on nothing else, e.g. not on a master
+	 * or production database.
+	 * 
+	 * @param tables
+	 *            The names of the tables.
+	 */
+	public void setTablesRead(String... tables) {
+
+		tablesRead = new ArrayList<String>();
+		for (String table : tables) {
+			tablesRead.add(table);
+		}
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return The tables this test case reads, or null if they have not been
+	 *         declared.
+	 */
+	public List<String> getTablesRead() {
+
+		return tablesRead;
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Declare the system properties that change what this test case reports.
+	 * A result reused because its tables have not changed is only reused if
+	 * these properties have not changed either.
+	 * 
+	 * @param names
+	 *            The names of the properties.
+	 */
+	public void setPropertiesRead(String... names) {
+
+		propertiesRead = new ArrayList<String>();
+		for (String name : names) {
+			propertiesRead.add(name);
+		}
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return The system properties this test case reads, or null if none
+	 *         have been declared.
+	 */
+	public List<String> getPropertiesRead() {
+
+		return propertiesRead;
+
+	}
+
 	// ---------------------------------------------------------------------
 	/**
 	 * Check if this test case applies to a particular DatabaseType.
@@ -1675,7 +1756,9 @@ public abstract class EnsTestCase {
 	 *            The database to find the equivalent for.
 	 * @return The database on the secondary server with the same type and
 	 *         species, and the highest version number, or null if none is
-	 *         found.
+	 *         found. The answer is kept for as long as the secondary database
+	 *         registry is, so other tests asking for the same type and species
+	 *         do not look through it again.
 	 */
 	public DatabaseRegistryEntry getEquivalentFromSecondaryServer(
 			DatabaseRegistryEntry dbre) {
@@ -1683,6 +1766,42 @@ public abstract class EnsTestCase {
 		DatabaseRegistry secondaryDatabaseRegistry = DBUtils
 				.getSecondaryDatabaseRegistry();
 
+		String key = dbre.getType() + "\t" + dbre.getSpecies() + "\t"
+				+ (dbre.getSpecies() == DatabaseRegistryEntry.UNKNOWN ? dbre.getAlias() : "");
+
+		synchronized (equivalents) {
+			if (equivalentsRegistry != secondaryDatabaseRegistry) {
+				equivalents.clear();
+				equivalentsRegistry = secondaryDatabaseRegistry;
+			}
+			if (equivalents.containsKey(key)) {
+				return equivalents.get(key);
+			}
+		}
+
+		DatabaseRegistryEntry result = findEquivalent(dbre, secondaryDatabaseRegistry);
+
+		synchronized (equivalents) {
+			if (equivalentsRegistry == secondaryDatabaseRegistry) {
+				equivalents.put(key, result);
+			}
+		}
+
+		return result;
+
+	}
+
+	/**
+	 * Equivalents found by {@link #getEquivalentFromSecondaryServer(DatabaseRegistryEntry)},
+	 * by type, species and alias, valid for equivalentsRegistry.
+	 */
+	private static final Map<String, DatabaseRegistryEntry> equivalents = new HashMap<String, DatabaseRegistryEntry>();
+
+	private static DatabaseRegistry equivalentsRegistry;
+
+	private DatabaseRegistryEntry findEquivalent(DatabaseRegistryEntry dbre,
+			DatabaseRegistry secondaryDatabaseRegistry) {
+
 		// find any databases matching type and species
 		TreeSet<DatabaseRegistryEntry> matchingDBs = new TreeSet<DatabaseRegistryEntry>(); // get
 		// sorting
@@ -1757,11 +1876,12 @@ public abstract class EnsTestCase {
 	 * 
 	 * @param con
 	 *            The connection to use.
-	 * @return A map of analysis IDs (keys) and logic names (values).
+	 * @return A map of analysis IDs (keys) and logic names (values). The map
+	 *         is cached for the run and can't be changed.
 	 */
 	public Map<Integer, String> getLogicNamesFromAnalysisTable(Connection con) {
 
-		return DBUtils.getSqlTemplate(con).queryForMap(
+		return DBUtils.getSqlTemplate(con).queryForCachedMap(
 				"SELECT analysis_id, logic_name FROM analysis",
 				new MapRowMapper<Integer, String>() {
 
@@ -1918,20 +2038,18 @@ public abstract class EnsTestCase {
 
 	// ----------------------------------------------------------------------
 	/**
-	 * Get the names of the top level seq_regions.
+	 * Get the names of the top level seq_regions. The names are cached for the
+	 * run.
 	 */
 	public List<String> getTopLevelNames(Connection con) {
 
 		List<String> names = new ArrayList<String>();
 
 		try {
-			Statement stmt = con.createStatement();
-			ResultSet rs = stmt
-					.executeQuery("SELECT sr.name FROM seq_region sr, seq_region_attrib sra, attrib_type at WHERE sra.seq_region_id=sr.seq_region_id AND sra.attrib_type_id=at.attrib_type_id AND at.code='toplevel'");
-			while (rs.next()) {
-				names.add(rs.getString(1));
-			}
-		} catch (SQLException se) {
+			names.addAll(DBUtils.getSqlTemplate(con).queryForCachedDefaultObjectList(
+					"SELECT sr.name FROM seq_region sr, seq_region_attrib sra, attrib_type at WHERE sra.seq_region_id=sr.seq_region_id AND sra.attrib_type_id=at.attrib_type_id AND at.code='toplevel'",
+					String.class));
+		} catch (SqlUncheckedException se) {
 			se.printStackTrace();
 		}
 
@@ -2312,11 +2430,14 @@ public abstract class EnsTestCase {
 
 		Map<String,String> values = new HashMap<String,String>();
 
+		QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
 		try {
 			Statement stmt = con.createStatement();
 			ResultSet rs = stmt.executeQuery(sql);
+			sample.executed(rs);
 
 			while (rs.next()) {
+				sample.addRows(1);
 				StringBuffer buf = new StringBuffer(rs.getString(1));
 				for (int a = 2; a <= rs.getMetaData().getColumnCount(); a++) {
 					buf.append("::");
@@ -2329,6 +2450,8 @@ public abstract class EnsTestCase {
 
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			sample.end();
 		}
 
 		return values;
@@ -0,0 +1,209 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+
+/**
+ * <p>
+ * The foreign key relations a test checks for orphans, declared as data so
+ * that an {@link OrphanCheckExecutor} can check them concurrently. Each
+ * relation reports the same way as the {@link EnsTestCase} method it
+ * replaces:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #oneWay} and {@link #twoWay}:
+ * {@link EnsTestCase#checkForOrphans(java.sql.Connection, String, String, String, String, boolean)}</li>
+ * <li>{@link #withConstraint(String, String, String, String, String)}:
+ * {@link EnsTestCase#checkForOrphansWithConstraint}</li>
+ * <li>{@link #optional}: {@link EnsTestCase#checkOptionalRelation}</li>
+ * </ul>
+ *
+ * <pre>
+ * ForeignKeyCatalog relations = new ForeignKeyCatalog();
+ * relations.twoWay("gene", "gene_id", "transcript", "gene_id");
+ * relations.optional("unmapped_object", "external_db_id", "external_db", "external_db_id");
+ * result &amp;= relations.check(this, dbre);
+ * </pre>
+ */
+public class ForeignKeyCatalog {
+
+	/**
+	 * A column of one table whose values must all be found in a column of
+	 * another.
+	 */
+	public static class Relation {
+
+		private final String table1;
+
+		private final String col1;
+
+		private final String table2;
+
+		private final String col2;
+
+		private final boolean oneWay;
+
+		private final String constraint;
+
+		private final String failureFormat;
+
+		Relation(String table1, String col1, String table2, String col2, boolean oneWay, String constraint, String failureFormat) {
+			this.table1 = table1;
+			this.col1 = col1;
+			this.table2 = table2;
+			this.col2 = col2;
+			this.oneWay = oneWay;
+			this.constraint = constraint;
+			this.failureFormat = failureFormat;
+		}
+
+		public String getTable1() {
+			return table1;
+		}
+
+		public String getCol1() {
+			return col1;
+		}
+
+		public String getTable2() {
+			return table2;
+		}
+
+		public String getCol2() {
+			return col2;
+		}
+
+		/**
+		 * @return false if values of col2 must also all be found in col1.
+		 */
+		public boolean isOneWay() {
+			return oneWay;
+		}
+
+		/**
+		 * @return Condition on a column of table1 limiting the rows checked,
+		 *         without the table name, or null.
+		 */
+		public String getConstraint() {
+			return constraint;
+		}
+
+		/**
+		 * @return Format of the only problem reported for orphans, given their
+		 *         number, or null for the usual FAILED / FAILURE DETAILS /
+		 *         USEFUL SQL problems.
+		 */
+		public String getFailureFormat() {
+			return failureFormat;
+		}
+
+		/**
+		 * @return The FROM and WHERE clauses selecting the orphans of table1.
+		 */
+		String getOrphanClauses() {
+			String sql = " FROM " + table1 + " LEFT JOIN " + table2 + " ON " + table1 + "." + col1 + " = " + table2 + "." + col2 + " WHERE "
+					+ table2 + "." + col2 + " IS NULL";
+			if (constraint != null && constraint.length() > 0) {
+				sql += " AND " + table1 + "." + constraint;
+			}
+			return sql;
+		}
+
+		/**
+		 * @return The FROM and WHERE clauses selecting the orphans of table2.
+		 */
+		String getReverseOrphanClauses() {
+			return " FROM " + table2 + " LEFT JOIN " + table1 + " ON " + table2 + "." + col2 + " = " + table1 + "." + col1 + " WHERE " + table1
+					+ "." + col1 + " IS NULL";
+		}
+
+		public String toString() {
+			return table1 + "." + col1 + (oneWay ? " -> " : " <-> ") + table2 + "." + col2 + (constraint == null ? "" : " (" + constraint + ")");
+		}
+	}
+
+	private final List<Relation> relations = new ArrayList<Relation>();
+
+	/**
+	 * Every table1.col1 must be in table2.col2.
+	 */
+	public ForeignKeyCatalog oneWay(String table1, String col1, String table2, String col2) {
+		relations.add(new Relation(table1, col1, table2, col2, true, null, null));
+		return this;
+	}
+
+	/**
+	 * Every table1.col1 must be in table2.col2 and the other way round.
+	 */
+	public ForeignKeyCatalog twoWay(String table1, String col1, String table2, String col2) {
+		relations.add(new Relation(table1, col1, table2, col2, false, null, null));
+		return this;
+	}
+
+	/**
+	 * Every table1.col1 of the rows of table1 matching constraint must be in
+	 * table2.col2.
+	 *
+	 * @param constraint
+	 *          Condition starting with a column of table1, which is prefixed
+	 *          with the table name.
+	 */
+	public ForeignKeyCatalog withConstraint(String table1, String col1, String table2, String col2, String constraint) {
+		relations.add(new Relation(table1, col1, table2, col2, true, constraint, null));
+		return this;
+	}
+
+	/**
+	 * As {@link #withConstraint(String, String, String, String, String)}, but
+	 * orphans are reported with one problem.
+	 *
+	 * @param failureFormat
+	 *          Format of the problem, given the number of orphans as %d.
+	 */
+	public ForeignKeyCatalog withConstraint(String table1, String col1, String table2, String col2, String constraint, String failureFormat) {
+		relations.add(new Relation(table1, col1, table2, col2, true, constraint, failureFormat));
+		return this;
+	}
+
+	/**
+	 * Every table1.col1 that is not NULL must be in table2.col2.
+	 */
+	public ForeignKeyCatalog optional(String table1, String col1, String table2, String col2) {
+		return withConstraint(table1, col1, table2, col2, col1 + " IS NOT NULL");
+	}
+
+	public List<Relation> getRelations() {
+		return Collections.unmodifiableList(relations);
+	}
+
+	/**
+	 * Check all the relations on dbre, reporting problems against test.
+	 *
+	 * @return true if there are no orphans.
+	 */
+	public boolean check(EnsTestCase test, DatabaseRegistryEntry dbre) {
+		return new OrphanCheckExecutor(test).check(dbre, relations);
+	}
+
+}
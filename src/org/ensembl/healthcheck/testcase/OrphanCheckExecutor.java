@@ -0,0 +1,293 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog.Relation;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.QueryProfiler;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
+
+/**
+ * <p>
+ * Checks the relations of a {@link ForeignKeyCatalog} for orphans. Up to
+ * {@link #THREADS} relations are checked at the same time, each on a
+ * connection leased from the pool. The relations between the largest tables,
+ * going by the row counts in INFORMATION_SCHEMA.TABLES, are started first so
+ * that they do not hold up the end of the test.
+ * </p>
+ *
+ * <p>
+ * Each direction of a relation is checked with one streamed query, which
+ * counts the orphans and keeps the first {@link #SAMPLE_SIZE} of them.
+ * Reports are made on the calling thread, in the order the relations were
+ * declared.
+ * </p>
+ */
+public class OrphanCheckExecutor {
+
+	/** Maximum number of relations checked at the same time. */
+	public static final int THREADS = 4;
+
+	/** Number of orphans listed for each relation. */
+	public static final int SAMPLE_SIZE = 20;
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private final EnsTestCase test;
+
+	public OrphanCheckExecutor(EnsTestCase test) {
+		this.test = test;
+	}
+
+	/**
+	 * The orphans found in one direction of a relation.
+	 */
+	static class Orphans {
+
+		final int count;
+
+		final List<String> sample;
+
+		Orphans(int count, List<String> sample) {
+			this.count = count;
+			this.sample = sample;
+		}
+	}
+
+	/**
+	 * Check relations on dbre and report what is found.
+	 *
+	 * @return true if there are no orphans.
+	 */
+	public boolean check(final DatabaseRegistryEntry dbre, List<Relation> relations) {
+
+		if (relations.isEmpty()) {
+			return true;
+		}
+
+		List<Relation> byCost = orderByCost(dbre, relations);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(relations.size(), THREADS), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-orphan-check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		Map<Relation, Future<Orphans[]>> futures = new HashMap<Relation, Future<Orphans[]>>();
+		try {
+
+			for (final Relation relation : byCost) {
+				futures.put(relation, executor.submit(new Callable<Orphans[]>() {
+					public Orphans[] call() {
+						ConnectionPool.beginUnboundedLease(test);
+						try {
+							Connection con = dbre.getConnection();
+							Orphans left = findOrphans(con, relation.getTable1() + "." + relation.getCol1(), relation.getOrphanClauses());
+							Orphans right = (relation.isOneWay() || left.count < 0) ? null : findOrphans(con,
+									relation.getTable2() + "." + relation.getCol2(), relation.getReverseOrphanClauses());
+							return new Orphans[] { left, right };
+						} finally {
+							ConnectionPool.endLease();
+						}
+					}
+				}));
+			}
+
+			Connection con = dbre.getConnection();
+			boolean result = true;
+			for (Relation relation : relations) {
+				result &= report(con, relation, futures.get(relation).get());
+			}
+			return result;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while checking foreign keys", e);
+		} catch (ExecutionException e) {
+			throw new SqlUncheckedException("Could not check foreign keys", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Count the rows selected by clauses and keep the first values of column.
+	 *
+	 * @return The orphans, with a count of -1 if the query failed.
+	 */
+	Orphans findOrphans(Connection con, String column, String clauses) {
+
+		String sql = "SELECT " + column + clauses;
+		List<String> sample = new ArrayList<String>();
+		int count = 0;
+
+		Statement stmt = null;
+		QueryProfiler.Sample profile = QueryProfiler.start(con, sql);
+		try {
+			stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(ConnectionBasedSqlTemplateImpl.defaultStreamingFetchSize(con.getMetaData().getURL()));
+			ResultSet rs = stmt.executeQuery(sql);
+			profile.executed(rs);
+			while (rs.next()) {
+				if (count < SAMPLE_SIZE) {
+					sample.add(rs.getString(1));
+				}
+				count++;
+			}
+			rs.close();
+		} catch (SQLException e) {
+			logger.warning("Could not check for orphans with " + sql + ": " + e.getMessage());
+			return new Orphans(-1, sample);
+		} finally {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					// nothing to do
+				}
+			}
+			profile.addRows(count);
+			profile.end();
+		}
+
+		logger.finest(count + " orphans for " + sql);
+		return new Orphans(count, sample);
+
+	}
+
+	/**
+	 * Report the orphans of relation the way the {@link EnsTestCase} methods
+	 * do.
+	 *
+	 * @return true if there are none.
+	 */
+	private boolean report(Connection con, Relation relation, Orphans[] orphans) {
+
+		Orphans left = orphans[0];
+		Orphans right = orphans[1];
+
+		for (String value : left.sample) {
+			ReportManager.info(test, con, relation.getTable1() + "." + relation.getCol1() + " " + value + " is not linked.");
+		}
+		if (right != null) {
+			for (String value : right.sample) {
+				ReportManager.info(test, con, relation.getTable2() + "." + relation.getCol2() + " " + value + " is not linked.");
+			}
+		}
+
+		if (left.count < 0 || (right != null && right.count < 0)) {
+			ReportManager.problem(test, con, "TEST NOT COMPLETED " + relation.getTable1() + " -> " + relation.getTable2() + " using FK "
+					+ relation.getCol1() + ", look at the StackTrace if any");
+			return false;
+		}
+
+		int count = left.count + (right == null ? 0 : right.count);
+		if (count == 0) {
+			return true;
+		}
+
+		if (relation.getFailureFormat() != null) {
+			ReportManager.problem(test, con, String.format(relation.getFailureFormat(), count));
+			return false;
+		}
+
+		ReportManager.problem(test, con, "FAILED " + relation.getTable1() + " -> " + relation.getTable2() + " using FK " + relation.getCol1()
+				+ "(" + relation.getCol2() + ")" + " relationships");
+		ReportManager.problem(test, con, "FAILURE DETAILS: " + count + " " + relation.getTable1() + " entries are not linked to "
+				+ relation.getTable2());
+		ReportManager.problem(test, con, "USEFUL SQL: SELECT " + relation.getTable1() + "." + relation.getCol1() + relation.getOrphanClauses());
+		if (!relation.isOneWay()) {
+			ReportManager.problem(test, con, "alternate useful SQL: SELECT " + relation.getTable2() + "." + relation.getCol2()
+					+ relation.getReverseOrphanClauses());
+		}
+		return false;
+
+	}
+
+	/**
+	 * @return relations, the ones between the largest tables first.
+	 */
+	private List<Relation> orderByCost(DatabaseRegistryEntry dbre, List<Relation> relations) {
+
+		final Map<String, Long> rows = new HashMap<String, Long>();
+
+		try {
+			PreparedStatement stmt = dbre.getConnection().prepareStatement(
+					"SELECT TABLE_NAME, TABLE_ROWS FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ?");
+			try {
+				stmt.setString(1, dbre.getName());
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()) {
+					rows.put(rs.getString(1), rs.getLong(2));
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			logger.fine("Can't estimate table sizes of " + dbre.getName() + ", checking foreign keys in the order given: " + e.getMessage());
+		}
+
+		List<Relation> ordered = new ArrayList<Relation>(relations);
+		Collections.sort(ordered, new Comparator<Relation>() {
+			public int compare(Relation a, Relation b) {
+				long costA = cost(a, rows);
+				long costB = cost(b, rows);
+				return costA > costB ? -1 : (costA == costB ? 0 : 1);
+			}
+		});
+		return ordered;
+
+	}
+
+	private static long cost(Relation relation, Map<String, Long> rows) {
+		long cost = rows(relation.getTable1(), rows) + rows(relation.getTable2(), rows);
+		return relation.isOneWay() ? cost : 2 * cost;
+	}
+
+	private static long rows(String table, Map<String, Long> rows) {
+		Long count = rows.get(table);
+		return count == null ? 0 : count;
+	}
+
+}
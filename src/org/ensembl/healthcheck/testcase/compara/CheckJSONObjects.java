@@ -20,7 +20,7 @@ package org.ensembl.healthcheck.testcase.compara;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 
 import com.google.gson.Gson;
 
@@ -28,8 +28,8 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
-import org.ensembl.healthcheck.util.DBUtils;
-import org.ensembl.healthcheck.util.SqlUncheckedException;
+import org.ensembl.healthcheck.util.RowMapper;
+import org.ensembl.healthcheck.util.SqlTemplate;
 
 /**
  * An EnsEMBL Healthcheck test case that checks the validity of JSON
@@ -59,34 +59,25 @@ public class CheckJSONObjects extends SingleDatabaseTestCase {
 		return result;
 	}
 
-    public boolean checkAllJSONs(Connection con) {
+    public boolean checkAllJSONs(final Connection con) {
 
-		boolean result = true;
-        Statement stmt = null;
-        ResultSet rs = null;
+		final boolean[] result = { true };
 		String sql = "SELECT root_id, data_label, UNCOMPRESS(compressed_data) FROM gene_tree_object_store";
-        try {
-            stmt = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-            stmt.setFetchSize(Integer.MIN_VALUE);
-            rs = stmt.executeQuery(sql);
-
-			while (result && rs.next()) {
-				String json = rs.getString(3);
-				if (!isJSONValid(json)) {
-					ReportManager.problem(this, con, "FAILED JSON not valid for root_id=" + rs.getString(1) + " / data_label=" + rs.getString(2));
-					result = false;
+		getSqlTemplate(con).streamEach(sql, new RowMapper<String[]>() {
+			public String[] mapRow(ResultSet rs, int position) throws SQLException {
+				return new String[] { rs.getString(1), rs.getString(2), rs.getString(3) };
+			}
+		}, new SqlTemplate.RowCallback<String[]>() {
+			public boolean process(String[] row) {
+				if (!isJSONValid(row[2])) {
+					ReportManager.problem(CheckJSONObjects.this, con, "FAILED JSON not valid for root_id=" + row[0] + " / data_label=" + row[1]);
+					result[0] = false;
 				}
+				return result[0];
 			}
-            rs.close();
-            stmt.close();
-        } catch (Exception e) {
-            throw new SqlUncheckedException("Could not execute query", e);
-        } finally {
-            DBUtils.closeQuietly(rs);
-            DBUtils.closeQuietly(stmt);
-        }
-
-        return result;
+		});
+
+        return result[0];
 
     } // checkAllJSONs 
 
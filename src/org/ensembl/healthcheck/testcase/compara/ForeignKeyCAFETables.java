@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 
 /**
@@ -41,11 +42,13 @@ public class ForeignKeyCAFETables extends SingleDatabaseTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 
-		result &= checkForOrphans(con, "CAFE_species_gene", "cafe_gene_family_id", "CAFE_gene_family", "cafe_gene_family_id");
-		result &= checkForOrphans(con, "CAFE_gene_family", "gene_tree_root_id", "gene_tree_root", "root_id");
-		result &= checkForOrphans(con, "CAFE_gene_family", "lca_id", "species_tree_node", "node_id");
-		result &= checkForOrphans(con, "CAFE_gene_family", "root_id", "species_tree_root", "root_id");
+		relations.oneWay("CAFE_species_gene", "cafe_gene_family_id", "CAFE_gene_family", "cafe_gene_family_id");
+		relations.oneWay("CAFE_gene_family", "gene_tree_root_id", "gene_tree_root", "root_id");
+		relations.oneWay("CAFE_gene_family", "lca_id", "species_tree_node", "node_id");
+		relations.oneWay("CAFE_gene_family", "root_id", "species_tree_root", "root_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
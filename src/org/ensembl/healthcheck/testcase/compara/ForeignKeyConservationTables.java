@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -42,8 +43,10 @@ public class ForeignKeyConservationTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
-		result &= checkForOrphans(con, "constrained_element", "dnafrag_id", "dnafrag", "dnafrag_id");
-		result &= checkForOrphans(con, "conservation_score", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id");
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
+		relations.oneWay("constrained_element", "dnafrag_id", "dnafrag", "dnafrag_id");
+		relations.oneWay("conservation_score", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,9 +42,11 @@ public class ForeignKeyFamilyTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
-		result &= checkForOrphans(con, "family", "family_id", "family_member", "family_id");
-		result &= checkForOrphans(con, "family_member", "family_id", "family", "family_id");
-		result &= checkForOrphans(con, "family_member", "seq_member_id", "seq_member", "seq_member_id");
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
+		relations.oneWay("family", "family_id", "family_member", "family_id");
+		relations.oneWay("family_member", "family_id", "family", "family_id");
+		relations.oneWay("family_member", "seq_member_id", "seq_member", "seq_member_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,13 +42,15 @@ public class ForeignKeyGeneAlignTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 
-		result &= checkForOrphans(con, "gene_align_member", "gene_align_id", "gene_align", "gene_align_id");
-		result &= checkForOrphans(con, "gene_align_member", "gene_align_id", "gene_align", "gene_align_id");
-		result &= checkForOrphans(con, "gene_align_member", "seq_member_id", "seq_member", "seq_member_id");
-		result &= checkOptionalRelation(con, "gene_tree_root", "gene_align_id", "gene_align", "gene_align_id");
-		result &= checkForOrphansWithConstraint(con, "gene_tree_root_attr", "mcoffee_scores_gene_align_id", "gene_align", "gene_align_id", "mcoffee_scores_gene_align_id IS NOT NULL");
+		relations.oneWay("gene_align_member", "gene_align_id", "gene_align", "gene_align_id");
+		relations.oneWay("gene_align_member", "gene_align_id", "gene_align", "gene_align_id");
+		relations.oneWay("gene_align_member", "seq_member_id", "seq_member", "seq_member_id");
+		relations.optional("gene_tree_root", "gene_align_id", "gene_align", "gene_align_id");
+		relations.withConstraint("gene_tree_root_attr", "mcoffee_scores_gene_align_id", "gene_align", "gene_align_id", "mcoffee_scores_gene_align_id IS NOT NULL");
 
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
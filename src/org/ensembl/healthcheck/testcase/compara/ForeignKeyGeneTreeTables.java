@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,19 +42,21 @@ public class ForeignKeyGeneTreeTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 
 		result &= checkForOrphansSameTable(con, "gene_tree_node", "root_id", "node_id", false);
 		result &= checkForOrphansSameTable(con, "gene_tree_node", "parent_id", "node_id", true);
-		result &= checkOptionalRelation(con, "gene_tree_node", "seq_member_id", "seq_member", "seq_member_id");
-		result &= checkForOrphans(con, "gene_tree_node_tag", "node_id", "gene_tree_node", "node_id");
-		result &= checkForOrphans(con, "gene_tree_node_attr", "node_id", "gene_tree_node", "node_id");
-		result &= checkOptionalRelation(con, "gene_tree_node_attr", "species_tree_node_id", "species_tree_node", "node_id");
-		result &= checkForOrphans(con, "gene_tree_root", "root_id", "gene_tree_node", "node_id");
+		relations.optional("gene_tree_node", "seq_member_id", "seq_member", "seq_member_id");
+		relations.oneWay("gene_tree_node_tag", "node_id", "gene_tree_node", "node_id");
+		relations.oneWay("gene_tree_node_attr", "node_id", "gene_tree_node", "node_id");
+		relations.optional("gene_tree_node_attr", "species_tree_node_id", "species_tree_node", "node_id");
+		relations.oneWay("gene_tree_root", "root_id", "gene_tree_node", "node_id");
 
 		result &= checkForOrphansSameTable(con, "gene_tree_root", "ref_root_id", "root_id", true);
-		result &= checkForOrphans(con, "gene_tree_root_attr", "root_id", "gene_tree_root", "root_id");
-		result &= checkForOrphans(con, "gene_tree_root_tag", "root_id", "gene_tree_root", "root_id");
+		relations.oneWay("gene_tree_root_attr", "root_id", "gene_tree_root", "root_id");
+		relations.oneWay("gene_tree_root_tag", "root_id", "gene_tree_root", "root_id");
 
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
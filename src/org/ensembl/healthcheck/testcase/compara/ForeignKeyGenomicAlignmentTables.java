@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -42,18 +43,20 @@ public class ForeignKeyGenomicAlignmentTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 		// genomic_align -> dnafrag
-		result &= checkForOrphans(con, "genomic_align", "dnafrag_id", "dnafrag", "dnafrag_id");
+		relations.oneWay("genomic_align", "dnafrag_id", "dnafrag", "dnafrag_id");
 		// genomic_align <-> genomic_align_block
-		result &= checkForOrphans(con, "genomic_align_block", "genomic_align_block_id", "genomic_align", "genomic_align_block_id");
-		result &= checkForOrphans(con, "genomic_align", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id");
+		relations.oneWay("genomic_align_block", "genomic_align_block_id", "genomic_align", "genomic_align_block_id");
+		relations.oneWay("genomic_align", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id");
 		// genomic_align -> genomic_align_tree
-		result &= checkOptionalRelation(con, "genomic_align", "node_id", "genomic_align_tree", "node_id");
+		relations.optional("genomic_align", "node_id", "genomic_align_tree", "node_id");
 		// genomic_align_tree internal relationships
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "parent_id", "node_id", true);
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "root_id", "node_id", false);
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "left_node_id", "node_id", true);
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "right_node_id", "node_id", true);
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,15 +42,17 @@ public class ForeignKeyHomologyTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 
-		result &= checkForOrphans(con, "homology_member", "homology_id", "homology", "homology_id");
-		result &= checkForOrphans(con, "homology", "homology_id", "homology_member", "homology_id");
-		result &= checkForOrphans(con, "homology_member", "seq_member_id", "seq_member", "seq_member_id");
-		result &= checkForOrphans(con, "homology_member", "gene_member_id", "gene_member", "gene_member_id");
-		result &= checkOptionalRelation(con, "homology", "gene_tree_node_id", "gene_tree_node", "node_id");
-		result &= checkOptionalRelation(con, "homology", "gene_tree_root_id", "gene_tree_root", "root_id");
-		result &= checkOptionalRelation(con, "homology", "species_tree_node_id", "species_tree_node", "node_id");
+		relations.oneWay("homology_member", "homology_id", "homology", "homology_id");
+		relations.oneWay("homology", "homology_id", "homology_member", "homology_id");
+		relations.oneWay("homology_member", "seq_member_id", "seq_member", "seq_member_id");
+		relations.oneWay("homology_member", "gene_member_id", "gene_member", "gene_member_id");
+		relations.optional("homology", "gene_tree_node_id", "gene_tree_node", "node_id");
+		relations.optional("homology", "gene_tree_root_id", "gene_tree_root", "root_id");
+		relations.optional("homology", "species_tree_node_id", "species_tree_node", "node_id");
 
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,30 +42,32 @@ public class ForeignKeyMasterTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 		// dnafrag
-		result &= checkForOrphans(con, "dnafrag", "genome_db_id", "genome_db", "genome_db_id");
+		relations.oneWay("dnafrag", "genome_db_id", "genome_db", "genome_db_id");
 		// species set
-		result &= checkForOrphans(con, "species_set", "species_set_id", "species_set_header", "species_set_id");
-		result &= checkForOrphans(con, "species_set", "genome_db_id", "genome_db", "genome_db_id");
+		relations.oneWay("species_set", "species_set_id", "species_set_header", "species_set_id");
+		relations.oneWay("species_set", "genome_db_id", "genome_db", "genome_db_id");
 		// method_link_species_set
-		result &= checkForOrphans(con, "method_link_species_set", "method_link_id", "method_link", "method_link_id");
-		result &= checkForOrphans(con, "method_link_species_set", "species_set_id", "species_set_header", "species_set_id");
+		relations.oneWay("method_link_species_set", "method_link_id", "method_link", "method_link_id");
+		relations.oneWay("method_link_species_set", "species_set_id", "species_set_header", "species_set_id");
 		// genome_db
 		// NOTE: "taxon_id != 0" is not needed by Ensembl. Maybe by EG ?
-		result &= checkForOrphansWithConstraint(con, "genome_db", "taxon_id", "ncbi_taxa_node", "taxon_id", "taxon_id != 0 AND (last_release IS NULL)");
-		result &= checkForOrphansWithConstraint(con, "genome_db", "taxon_id", "ncbi_taxa_name", "taxon_id", "taxon_id != 0 AND (last_release IS NULL)");
+		relations.withConstraint("genome_db", "taxon_id", "ncbi_taxa_node", "taxon_id", "taxon_id != 0 AND (last_release IS NULL)");
+		relations.withConstraint("genome_db", "taxon_id", "ncbi_taxa_name", "taxon_id", "taxon_id != 0 AND (last_release IS NULL)");
 
 		if (!isMasterDB(con)) {
 			// The master database has the history of all method_links.
 			// Some of them are not used any more, but they must stay
 			// there. The following check would not apply in that case
-			result &= checkForOrphans(con, "method_link", "method_link_id", "method_link_species_set", "method_link_id");
+			relations.oneWay("method_link", "method_link_id", "method_link_species_set", "method_link_id");
 			// Again, because the master database has the almost-complete
 			// of Compara, some GenomeDBs are not in any species-sets
-			result &= checkForOrphansWithConstraint(con, "genome_db", "genome_db_id", "species_set", "genome_db_id", "taxon_id != 0");
+			relations.withConstraint("genome_db", "genome_db_id", "species_set", "genome_db_id", "taxon_id != 0");
 			// Finally, all the species-sets must be used by a MLSS
-			result &= checkForOrphans(con, "species_set", "species_set_id", "method_link_species_set", "species_set_id");
+			relations.oneWay("species_set", "species_set_id", "method_link_species_set", "species_set_id");
 		}
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
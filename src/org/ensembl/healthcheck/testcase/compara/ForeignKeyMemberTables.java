@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,19 +42,21 @@ public class ForeignKeyMemberTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 		// gene_member table
-		result &= checkForOrphans(con, "gene_member", "genome_db_id", "genome_db", "genome_db_id");
-		result &= checkForOrphans(con, "gene_member", "taxon_id", "ncbi_taxa_node", "taxon_id");
-		result &= checkForOrphans(con, "gene_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
-		result &= checkOptionalRelation(con, "gene_member", "dnafrag_id", "dnafrag", "dnafrag_id");
+		relations.oneWay("gene_member", "genome_db_id", "genome_db", "genome_db_id");
+		relations.oneWay("gene_member", "taxon_id", "ncbi_taxa_node", "taxon_id");
+		relations.oneWay("gene_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
+		relations.optional("gene_member", "dnafrag_id", "dnafrag", "dnafrag_id");
 		// seq_member table
-		result &= checkOptionalRelation(con, "seq_member", "gene_member_id", "gene_member", "gene_member_id");
-		result &= checkOptionalRelation(con, "seq_member", "genome_db_id", "genome_db", "genome_db_id");
-		result &= checkForOrphans(con, "seq_member", "taxon_id", "ncbi_taxa_node", "taxon_id");
-		result &= checkForOrphans(con, "seq_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
-		result &= checkOptionalRelation(con, "seq_member", "dnafrag_id", "dnafrag", "dnafrag_id");
-		result &= checkOptionalRelation(con, "seq_member", "sequence_id", "sequence", "sequence_id");
-		result &= checkForOrphans(con, "other_member_sequence", "seq_member_id", "seq_member", "seq_member_id");
+		relations.optional("seq_member", "gene_member_id", "gene_member", "gene_member_id");
+		relations.optional("seq_member", "genome_db_id", "genome_db", "genome_db_id");
+		relations.oneWay("seq_member", "taxon_id", "ncbi_taxa_node", "taxon_id");
+		relations.oneWay("seq_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
+		relations.optional("seq_member", "dnafrag_id", "dnafrag", "dnafrag_id");
+		relations.optional("seq_member", "sequence_id", "sequence", "sequence_id");
+		relations.oneWay("other_member_sequence", "seq_member_id", "seq_member", "seq_member_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
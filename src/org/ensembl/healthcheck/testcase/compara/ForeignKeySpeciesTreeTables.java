@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,14 +42,16 @@ public class ForeignKeySpeciesTreeTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
 		result &= checkForOrphansSameTable(con, "species_tree_node", "root_id", "node_id", false);
 		result &= checkForOrphansSameTable(con, "species_tree_node", "parent_id", "node_id", true);
-		result &= checkForOrphans(con, "species_tree_node_tag", "node_id", "species_tree_node", "node_id");
-		result &= checkForOrphans(con, "species_tree_root", "root_id", "species_tree_node", "node_id");
-		result &= checkForOrphans(con, "species_tree_node", "root_id", "species_tree_root", "root_id");
-		result &= checkOptionalRelation(con, "species_tree_node", "genome_db_id", "genome_db", "genome_db_id");
-		result &= checkOptionalRelation(con, "species_tree_node", "taxon_id", "ncbi_taxa_node", "taxon_id");
-		result &= checkOptionalRelation(con, "species_tree_node", "taxon_id", "ncbi_taxa_name", "taxon_id");
+		relations.oneWay("species_tree_node_tag", "node_id", "species_tree_node", "node_id");
+		relations.oneWay("species_tree_root", "root_id", "species_tree_node", "node_id");
+		relations.oneWay("species_tree_node", "root_id", "species_tree_root", "root_id");
+		relations.optional("species_tree_node", "genome_db_id", "genome_db", "genome_db_id");
+		relations.optional("species_tree_node", "taxon_id", "ncbi_taxa_node", "taxon_id");
+		relations.optional("species_tree_node", "taxon_id", "ncbi_taxa_name", "taxon_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
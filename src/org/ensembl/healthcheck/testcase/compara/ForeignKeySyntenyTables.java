@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
 
 /**
@@ -41,9 +42,11 @@ public class ForeignKeySyntenyTables extends AbstractComparaTestCase {
 		Connection con = dbre.getConnection();
 
 		boolean result = true;
-		result &= checkForOrphans(con, "dnafrag_region", "synteny_region_id", "synteny_region", "synteny_region_id");
-		result &= checkForOrphans(con, "synteny_region", "synteny_region_id", "dnafrag_region", "synteny_region_id");
-		result &= checkForOrphans(con, "dnafrag_region", "dnafrag_id", "dnafrag", "dnafrag_id");
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
+		relations.oneWay("dnafrag_region", "synteny_region_id", "synteny_region", "synteny_region_id");
+		relations.oneWay("synteny_region", "synteny_region_id", "dnafrag_region", "synteny_region_id");
+		relations.oneWay("dnafrag_region", "dnafrag_id", "dnafrag", "dnafrag_id");
+		result &= relations.check(this, dbre);
 		return result;
 	}
 
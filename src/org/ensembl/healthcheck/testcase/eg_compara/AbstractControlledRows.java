@@ -21,15 +21,20 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.testcase.AbstractTemplatedTestCase;
 import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.RowMapper;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.SqlTemplate.ResultSetCallback;
 
@@ -44,6 +49,287 @@ abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
 		masterSqlTemplate = getSqlTemplate(masterDbConn);		
 	}
 
+	/**
+	 * Checks that the rowCount rows of the table controlledTableToTest in
+	 * testDbre that match whereClause also exist in the table masterTable of
+	 * masterDbRe. Uses {@link #checkRowsInTableByKey} if the table has a
+	 * primary key and {@link #checkRangeOfRowsInTable} for batches of
+	 * batchSize rows otherwise.
+	 * 
+	 * @param whereClause
+	 *          Either empty or of the form "where ...".
+	 * @return true if all rows exist
+	 */
+	protected boolean checkRowsInTable(
+			final String controlledTableToTest,
+			final String masterTable,
+			DatabaseRegistryEntry testDbre,
+			DatabaseRegistryEntry masterDbRe,
+			String whereClause,
+			int rowCount
+		) {
+
+		List<String> keyColumns = getPrimaryKeyOfTable(testDbre.getConnection(), controlledTableToTest);
+
+		if (!keyColumns.isEmpty()) {
+			return checkRowsInTableByKey(controlledTableToTest, masterTable, testDbre, masterDbRe, whereClause, keyColumns);
+		}
+
+		logger.info("No primary key on " + controlledTableToTest + ", checking rows one by one");
+
+		int limit = batchSize;
+		boolean allRowsInMaster = true;
+
+		for(int currentOffset = 0; currentOffset<rowCount && !numReportedRowsExceedsMaximum(); currentOffset+=limit) {
+
+			logger.info("Checking rows " + currentOffset + " out of " + rowCount);
+
+			allRowsInMaster &= checkRangeOfRowsInTable(
+				controlledTableToTest,
+				masterTable,
+				testDbre,
+				masterDbRe,
+				whereClause,
+				limit,
+				currentOffset
+			);
+		}
+		return allRowsInMaster;
+	}
+
+	/**
+	 * <p>
+	 * 	Compares the rows of controlledTableToTest matching whereClause to the
+	 * rows of masterTable with the same primary key.
+	 * </p>
+	 * 
+	 * <p>
+	 * 	The test table is read in batches of batchSize rows in primary key 
+	 * order, each batch starting after the last key of the previous one, so 
+	 * the server never has to skip over rows that have already been checked. 
+	 * The master rows with the keys of a batch are fetched with one query. 
+	 * Rows missing from the master and rows with different values are 
+	 * reported, up to {@link #getMaxReportedMismatches()}.
+	 * </p>
+	 * 
+	 * <p>
+	 * 	Values are compared the way the server compares them by default: 
+	 * numbers by value and strings ignoring case and trailing spaces.
+	 * </p>
+	 * 
+	 * @return true if all rows exist in the master with the same values
+	 */
+	protected boolean checkRowsInTableByKey(
+			final String controlledTableToTest,
+			final String masterTable,
+			DatabaseRegistryEntry testDbre,
+			DatabaseRegistryEntry masterDbRe,
+			String whereClause,
+			List<String> keyColumns
+		) {
+
+		final Connection testDbConn = testDbre.getConnection();
+
+		final SqlTemplate sqlTemplateTestDb        = getSqlTemplate(testDbConn);
+		final SqlTemplate sqlTemplateComparaMaster = getSqlTemplate(masterDbRe.getConnection());
+
+		final List<String> columns = getColumnsOfTable(testDbConn, controlledTableToTest);
+
+		int[] keyIndexes = new int[keyColumns.size()];
+		for (int i = 0; i < keyIndexes.length; i++) {
+			keyIndexes[i] = columns.indexOf(keyColumns.get(i));
+		}
+
+		String condition = whereClause.trim().replaceFirst("(?i)^where\\s+", "");
+
+		String fetchBatchSql = "select " + asCommaSeparatedString(columns) + " from " + controlledTableToTest + " where ";
+		String orderBySql = " order by " + asCommaSeparatedString(keyColumns) + " limit " + batchSize;
+
+		RowMapper<Object[]> rowMapper = new RowMapper<Object[]>() {
+			@Override public Object[] mapRow(ResultSet rs, int position) throws SQLException {
+				Object[] row = new Object[columns.size()];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = rs.getObject(i + 1);
+				}
+				return row;
+			}
+		};
+
+		boolean allRowsInMaster = true;
+		Object[] lastRow = null;
+		int numCheckedRows = 0;
+
+		while (!numReportedRowsExceedsMaximum()) {
+
+			List<Object> args = new ArrayList<Object>();
+			StringBuffer sql = new StringBuffer(fetchBatchSql);
+			sql.append(condition.length() > 0 ? "(" + condition + ")" : "1=1");
+			if (lastRow != null) {
+				sql.append(" and (" + keysetCondition(keyColumns, keyIndexes, lastRow, args) + ")");
+			}
+			sql.append(orderBySql);
+
+			List<Object[]> batch = sqlTemplateTestDb.queryForList(sql.toString(), rowMapper, args.toArray());
+			if (batch.isEmpty()) {
+				break;
+			}
+
+			logger.info("Checking rows " + numCheckedRows + " to " + (numCheckedRows + batch.size()) + " of " + controlledTableToTest);
+
+			Map<List<Object>, Object[]> masterRows = fetchRowsByKey(sqlTemplateComparaMaster, masterTable, columns, keyColumns, keyIndexes, batch, rowMapper);
+
+			for (Object[] row : batch) {
+
+				Object[] masterRow = masterRows.get(normalisedKey(row, keyIndexes));
+				if (masterRow != null && rowsAreEqual(row, masterRow)) {
+					continue;
+				}
+
+				allRowsInMaster = false;
+				numReportedRows++;
+
+				if (numReportedRowsExceedsMaximum()) {
+					ReportManager.problem(
+							this,
+							testDbConn,
+							"The maximum of " + getMaxReportedMismatches() + " reported rows has been reached, no further rows will be tested."
+					);
+					break;
+				} else if (masterRow == null) {
+					ReportManager.problem(
+						this,
+						testDbConn,
+						"Row not found in master: " + rowAsString(columns, row)
+					);
+				} else {
+					ReportManager.problem(
+						this,
+						testDbConn,
+						"Row differs from master: " + rowAsString(columns, row) + "\n"
+						+ "The row in the master is: " + rowAsString(columns, masterRow)
+					);
+				}
+			}
+
+			numCheckedRows += batch.size();
+			lastRow = batch.get(batch.size() - 1);
+
+			if (batch.size() < batchSize) {
+				break;
+			}
+		}
+		return allRowsInMaster;
+	}
+
+	/**
+	 * Creates the condition selecting the rows that come after lastRow in 
+	 * order of keyColumns, e.g. "a>? or (a=? and b>?)", and adds the values 
+	 * to bind to args.
+	 */
+	private String keysetCondition(List<String> keyColumns, int[] keyIndexes, Object[] lastRow, List<Object> args) {
+
+		List<String> alternatives = new ArrayList<String>();
+		for (int i = 0; i < keyColumns.size(); i++) {
+			List<String> terms = new ArrayList<String>();
+			for (int j = 0; j < i; j++) {
+				terms.add(keyColumns.get(j) + "=?");
+				args.add(lastRow[keyIndexes[j]]);
+			}
+			terms.add(keyColumns.get(i) + ">?");
+			args.add(lastRow[keyIndexes[i]]);
+			alternatives.add("(" + joinListOfStrings(terms, " and ") + ")");
+		}
+		return joinListOfStrings(alternatives, " or ");
+	}
+
+	/**
+	 * Fetches the rows of table that have the same key as one of the rows in 
+	 * batch.
+	 * 
+	 * @return The rows found, by {@link #normalisedKey(Object[], int[])}
+	 */
+	private Map<List<Object>, Object[]> fetchRowsByKey(
+			SqlTemplate sqlTemplate,
+			String table,
+			List<String> columns,
+			List<String> keyColumns,
+			int[] keyIndexes,
+			List<Object[]> batch,
+			RowMapper<Object[]> rowMapper
+		) {
+
+		List<Object> args = new ArrayList<Object>();
+		List<String> alternatives = new ArrayList<String>();
+
+		for (Object[] row : batch) {
+			for (int keyIndex : keyIndexes) {
+				args.add(row[keyIndex]);
+			}
+			if (keyColumns.size() == 1) {
+				alternatives.add("?");
+			} else {
+				alternatives.add("(" + joinListOfStrings(keyColumns, "=? and ") + "=?)");
+			}
+		}
+
+		String sql = "select " + asCommaSeparatedString(columns) + " from " + table + " where ";
+		if (keyColumns.size() == 1) {
+			sql += keyColumns.get(0) + " in (" + joinListOfStrings(alternatives, ",") + ")";
+		} else {
+			sql += joinListOfStrings(alternatives, " or ");
+		}
+
+		Map<List<Object>, Object[]> rows = new HashMap<List<Object>, Object[]>();
+		for (Object[] row : sqlTemplate.queryForList(sql, rowMapper, args.toArray())) {
+			rows.put(normalisedKey(row, keyIndexes), row);
+		}
+		return rows;
+	}
+
+	private List<Object> normalisedKey(Object[] row, int[] keyIndexes) {
+		List<Object> key = new ArrayList<Object>(keyIndexes.length);
+		for (int keyIndex : keyIndexes) {
+			key.add(normalise(row[keyIndex]));
+		}
+		return key;
+	}
+
+	private boolean rowsAreEqual(Object[] row, Object[] otherRow) {
+		for (int i = 0; i < row.length; i++) {
+			Object value = normalise(row[i]);
+			Object otherValue = normalise(otherRow[i]);
+			if (value == null ? otherValue != null : !value.equals(otherValue)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a column value to an object that is equal to the values that 
+	 * the server would consider equal to it.
+	 */
+	private Object normalise(Object value) {
+		if (value instanceof Number) {
+			return new BigDecimal(value.toString()).stripTrailingZeros();
+		}
+		if (value instanceof String) {
+			return ((String) value).replaceFirst(" +$", "").toLowerCase();
+		}
+		if (value instanceof byte[]) {
+			return Arrays.toString((byte[]) value);
+		}
+		return value;
+	}
+
+	private String rowAsString(List<String> columns, Object[] row) {
+		List<String> columnValuesStringy = new ArrayList<String>(row.length);
+		for (int i = 0; i < row.length; i++) {
+			columnValuesStringy.add(columns.get(i) + "=" + (row[i] == null ? "<null>" : row[i].toString()));
+		}
+		return asCommaSeparatedString(columnValuesStringy);
+	}
+
 	protected boolean checkRangeOfRowsInTable(
 			final String controlledTableToTest,
 			final String masterTable,
@@ -437,6 +723,31 @@ abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
 		return masterHasAllNecessaryColumns;
 	}
 
+	/**
+	 * 
+	 * Returns the names of the primary key columns of a table, in key order.
+	 * The list is empty if the table has no primary key.
+	 * 
+	 * @param conn
+	 * @param table
+	 * @return names of primary key columns
+	 */
+	protected List<String> getPrimaryKeyOfTable(Connection conn, String table) {
+
+		Map<Integer, String> columnsBySequence = new TreeMap<Integer, String>();
+
+		try {
+			ResultSet rs = conn.getMetaData().getPrimaryKeys(null, null, table);
+			while (rs.next()) {
+				columnsBySequence.put(rs.getInt(5), rs.getString(4));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		return new ArrayList<String>(columnsBySequence.values());
+	}
+
 	/**
 	 * 
 	 * Returns the names of all columns for a given table.
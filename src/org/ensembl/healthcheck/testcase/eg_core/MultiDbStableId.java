@@ -17,9 +17,20 @@
 
 package org.ensembl.healthcheck.testcase.eg_core;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.lang.StringUtils;
 import org.ensembl.healthcheck.DatabaseRegistry;
@@ -30,10 +41,22 @@ import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
 import org.ensembl.healthcheck.util.CollectionUtils;
 import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.RowMapper;
+import org.ensembl.healthcheck.util.SqlTemplate.RowCallback;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 
 /**
  * EG specific test that does not use species to
  * 
+ * <p>
+ * Stable IDs are not held in memory. The stable IDs of each database are
+ * first streamed and reduced to a sorted array of 64 bit hashes, and the
+ * hashes found more than once are merged out of these. Only the stable IDs
+ * with one of those hashes are then read again and compared as strings, so
+ * hash collisions are never reported. Databases are read in parallel.
+ * </p>
+ * 
  * @author dstaines
  * 
  */
@@ -50,69 +73,307 @@ public class MultiDbStableId extends MultiDatabaseTestCase {
 			"translation", "exon" };
 	private final int MAX_REPORTS = 10;
 
+	/** Maximum number of databases read at the same time. */
+	private final static int THREADS = 8;
+
+	private final static RowMapper<String> STRING_MAPPER = new RowMapper<String>() {
+		public String mapRow(ResultSet resultSet, int position) throws SQLException {
+			return resultSet.getString(1);
+		}
+	};
+
 	@Override
 	public boolean run(DatabaseRegistry dbr) throws SQLException {
 		boolean result = true;
+
+		List<DatabaseRegistryEntry> coreDbs = new ArrayList<DatabaseRegistryEntry>();
+		for (DatabaseRegistryEntry coreDb : dbr.getAll(DatabaseType.CORE)) {
+			System.out.println("TYPE:"+coreDb.getType()+" from "+coreDb.getName());
+			if (!coreDb.getName().contains(
+					DatabaseType.OTHERFEATURES.getName())) {
+				coreDbs.add(coreDb);
+			}
+		}
+
 		for (String objectType : OBJ_TYPES) {
 			String query = STABLE_ID.replaceAll("%obj%", objectType);
+
+			List<long[]> hashes = readAll(coreDbs, new HashReader(query));
+			final long[] duplicated = findDuplicated(hashes);
+			List<List<String>> candidates = readAll(coreDbs, new CandidateReader(query, duplicated, hashes));
+
 			Map<String, Collection<String>> stableIds = CollectionUtils
 					.createHashMap();
-			for (DatabaseRegistryEntry coreDb : dbr.getAll(DatabaseType.CORE)) {
-				System.out.println("TYPE:"+coreDb.getType()+" from "+coreDb.getName());
-				if (!coreDb.getName().contains(
-						DatabaseType.OTHERFEATURES.getName())) {
-					ReportManager.info(this, coreDb.getConnection(),
-							"Checking " + objectType + " stable ID for "
-									+ coreDb.getName());
-					ConnectionBasedSqlTemplateImpl template = new ConnectionBasedSqlTemplateImpl(
-							coreDb.getConnection());
-					int checked = 0;
-					int dups = 0;
-					for (String stableId : template.queryForDefaultObjectList(
-							query, String.class)) {
-						checked++;
-						Collection<String> dbs = stableIds.get(stableId);
-						if (dbs == null) {
-							dbs = CollectionUtils.createArrayList(1);
-							stableIds.put(stableId, dbs);
-						} else {
-							dups++;
-							if (dups <= MAX_REPORTS) {
+			for (int i = 0; i < coreDbs.size(); i++) {
+				DatabaseRegistryEntry coreDb = coreDbs.get(i);
+				ReportManager.info(this, coreDb.getName(),
+						"Checking " + objectType + " stable ID for "
+								+ coreDb.getName());
+				int dups = 0;
+				for (String stableId : candidates.get(i)) {
+					Collection<String> dbs = stableIds.get(stableId);
+					if (dbs == null) {
+						dbs = CollectionUtils.createArrayList(1);
+						stableIds.put(stableId, dbs);
+					} else {
+						dups++;
+						if (dups <= MAX_REPORTS) {
+							ReportManager
+									.problem(
+											this,
+											coreDb.getName(),
+											"The "
+													+ objectType
+													+ " stable ID "
+													+ stableId
+													+ " has been found in the following core databases :"
+													+ StringUtils.join(dbs,
+															", "));
+							if (dups == MAX_REPORTS) {
 								ReportManager
 										.problem(
 												this,
-												coreDb.getConnection(),
-												"The "
+												coreDb.getName(),
+												MAX_REPORTS
+														+ " duplications have been found for  "
 														+ objectType
-														+ " stable ID "
-														+ stableId
-														+ " has been found in the following core databases :"
-														+ StringUtils.join(dbs,
-																", "));
-								if (dups == MAX_REPORTS) {
-									ReportManager
-											.problem(
-													this,
-													coreDb.getConnection(),
-													MAX_REPORTS
-															+ " duplications have been found for  "
-															+ objectType
-															+ " stable ID in this database - no more will be reported");
-								}
+														+ " stable ID in this database - no more will be reported");
 							}
-							result = false;
 						}
-						dbs.add(coreDb.getName());
+						result = false;
 					}
-					ReportManager.info(this, coreDb.getConnection(), "Checked "
-							+ checked + " " + objectType + " stable IDs for "
-							+ coreDb.getName() + ": found " + dups
-							+ " duplicates");
-                                        coreDb.getConnection().close();
+					dbs.add(coreDb.getName());
 				}
+				ReportManager.info(this, coreDb.getName(), "Checked "
+						+ hashes.get(i).length + " " + objectType + " stable IDs for "
+						+ coreDb.getName() + ": found " + dups
+						+ " duplicates");
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Reads something from one database.
+	 */
+	private interface Reader<T> {
+		T read(int index, ConnectionBasedSqlTemplateImpl template);
+	}
+
+	/**
+	 * Reads the hashes of the stable IDs of a database, sorted.
+	 */
+	private class HashReader implements Reader<long[]> {
+
+		private final String query;
+
+		HashReader(String query) {
+			this.query = query;
+		}
+
+		public long[] read(int index, ConnectionBasedSqlTemplateImpl template) {
+			final long[][] values = { new long[1024] };
+			final int[] size = { 0 };
+			template.streamEach(query, STRING_MAPPER, new RowCallback<String>() {
+				public boolean process(String stableId) {
+					if (size[0] == values[0].length) {
+						values[0] = Arrays.copyOf(values[0], size[0] * 2);
+					}
+					values[0][size[0]++] = hashStableId(stableId);
+					return true;
+				}
+			});
+			long[] sorted = Arrays.copyOf(values[0], size[0]);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+
+	/**
+	 * Reads the stable IDs of a database whose hash is one of duplicated, in
+	 * the order the database returns them. Databases without any of these
+	 * hashes are not read again.
+	 */
+	private class CandidateReader implements Reader<List<String>> {
+
+		private final String query;
+
+		private final long[] duplicated;
+
+		private final List<long[]> hashes;
+
+		CandidateReader(String query, long[] duplicated, List<long[]> hashes) {
+			this.query = query;
+			this.duplicated = duplicated;
+			this.hashes = hashes;
+		}
+
+		public List<String> read(int index, ConnectionBasedSqlTemplateImpl template) {
+			final List<String> candidates = new ArrayList<String>();
+			if (!containsAny(hashes.get(index), duplicated)) {
+				return candidates;
+			}
+			template.streamEach(query, STRING_MAPPER, new RowCallback<String>() {
+				public boolean process(String stableId) {
+					if (Arrays.binarySearch(duplicated, hashStableId(stableId)) >= 0) {
+						candidates.add(stableId);
+					}
+					return true;
+				}
+			});
+			return candidates;
+		}
+	}
+
+	/**
+	 * Run reader on each of coreDbs, a few at a time, each with a connection
+	 * of its own.
+	 * 
+	 * @return The results in the order of coreDbs.
+	 */
+	private <T> List<T> readAll(List<DatabaseRegistryEntry> coreDbs, final Reader<T> reader) {
+
+		List<T> results = new ArrayList<T>();
+		if (coreDbs.isEmpty()) {
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(coreDbs.size(), THREADS), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-multidb-stable-id");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (int i = 0; i < coreDbs.size(); i++) {
+				final int index = i;
+				final DatabaseRegistryEntry coreDb = coreDbs.get(i);
+				futures.add(executor.submit(new Callable<T>() {
+					public T call() {
+						ConnectionPool.beginUnboundedLease(MultiDbStableId.this);
+						try {
+							return reader.read(index, new ConnectionBasedSqlTemplateImpl(coreDb.getConnection()));
+						} finally {
+							ConnectionPool.endLease();
+						}
+					}
+				}));
+			}
+
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while reading stable IDs", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SqlUncheckedException) {
+				throw (SqlUncheckedException) e.getCause();
+			}
+			throw new SqlUncheckedException("Could not read stable IDs", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Merge sorted arrays of hashes.
+	 * 
+	 * @return The hashes found more than once, in one array or across
+	 *         arrays, sorted.
+	 */
+	static long[] findDuplicated(List<long[]> hashes) {
+
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>();
+		for (long[] values : hashes) {
+			if (values.length > 0) {
+				queue.add(new Cursor(values));
+			}
+		}
+
+		long[] duplicated = new long[16];
+		int size = 0;
+		boolean first = true;
+		long previous = 0;
+		while (!queue.isEmpty()) {
+			Cursor cursor = queue.poll();
+			long value = cursor.values[cursor.position];
+			if (!first && value == previous && (size == 0 || duplicated[size - 1] != value)) {
+				if (size == duplicated.length) {
+					duplicated = Arrays.copyOf(duplicated, size * 2);
+				}
+				duplicated[size++] = value;
+			}
+			first = false;
+			previous = value;
+			if (++cursor.position < cursor.values.length) {
+				queue.add(cursor);
+			}
+		}
+		return Arrays.copyOf(duplicated, size);
+	}
+
+	private static class Cursor implements Comparable<Cursor> {
+
+		final long[] values;
+
+		int position;
+
+		Cursor(long[] values) {
+			this.values = values;
+		}
+
+		public int compareTo(Cursor other) {
+			long a = values[position];
+			long b = other.values[other.position];
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	}
+
+	/**
+	 * @return true if the sorted arrays a and b have a value in common.
+	 */
+	private static boolean containsAny(long[] a, long[] b) {
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] == b[j]) {
+				return true;
+			} else if (a[i] < b[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The hash stable IDs are compared by. Tests can make it collide.
+	 */
+	long hashStableId(String stableId) {
+		return hash(stableId);
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of s, null stable IDs hashing like empty ones.
+	 */
+	static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		if (s == null) {
+			return h;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
 }
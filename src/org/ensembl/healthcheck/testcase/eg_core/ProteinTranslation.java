@@ -24,43 +24,94 @@
 package org.ensembl.healthcheck.testcase.eg_core;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
-import org.ensembl.healthcheck.testcase.AbstractPerlModuleBasedTestCase;
+import org.ensembl.healthcheck.TestResultCache;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.ChecksumDatabase;
+import org.ensembl.healthcheck.util.CodonTable;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.SequenceFetcher;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
+import org.ensembl.healthcheck.util.TranscriptTranslator;
+import org.ensembl.healthcheck.util.TranscriptTranslator.Exon;
+import org.ensembl.healthcheck.util.TranscriptTranslator.SeqEdit;
 
 /**
+ * <p>
+ * Translates every protein coding transcript of protein coding genes and
+ * fails if a peptide contains a stop codon or consists only of X. This used
+ * to be done by Bio::EnsEMBL::Healthcheck::Translation through the Perl
+ * API; the transcripts are now read and translated here, see
+ * {@link TranscriptTranslator}, several genes at a time.
+ * </p>
+ *
+ * <p>
+ * Details of the problems are written to
+ * external_reports/&lt;database&gt;/Translation.log in the same format as
+ * before.
+ * </p>
+ *
  * @author dstaines
  *
  */
-public class ProteinTranslation extends AbstractPerlModuleBasedTestCase {
+public class ProteinTranslation extends SingleDatabaseTestCase {
+
+	/** Number of threads translating genes. */
+	private static final int THREADS = 8;
+
+	/** Number of genes each thread translates at a time. */
+	private static final int GENES_PER_TASK = 50;
+
+	private static final String TABLE_HEADER = "transcript\tdbID\tstart\tinternal_stop_position\tend\tseq_region_name\tdisplay_id\tstable_id\tprotein_sequence_position";
+
+	private static final String TRANSCRIPTS_SQL = "SELECT g.gene_id, t.transcript_id, t.stable_id, t.seq_region_id, sr.name, "
+			+ "t.seq_region_start, t.seq_region_end, t.seq_region_strand, tl.translation_id, tl.start_exon_id, tl.seq_start, "
+			+ "tl.end_exon_id, tl.seq_end, e.exon_id, e.seq_region_start, e.seq_region_end, e.phase "
+			+ "FROM gene g JOIN transcript t USING (gene_id) JOIN seq_region sr ON (sr.seq_region_id = t.seq_region_id) "
+			+ "JOIN exon_transcript et ON (et.transcript_id = t.transcript_id) JOIN exon e ON (e.exon_id = et.exon_id) "
+			+ "LEFT JOIN translation tl ON (tl.translation_id = t.canonical_translation_id) "
+			+ "WHERE g.biotype = 'protein_coding' AND t.biotype = 'protein_coding' ORDER BY g.gene_id, t.transcript_id, et.rank";
 
 	public ProteinTranslation() {
 		super();
-		setSpeciesIdAware(true);
 		setTeamResponsible(Team.GENEBUILD);
-		setSpeciesIdAware(true);
+		setDescription("Check that protein coding transcripts translate without stop codons");
+		setTablesRead("coord_system", "seq_region", "gene", "transcript", "translation", "exon", "exon_transcript", "attrib_type",
+				"transcript_attrib", "translation_attrib", "seq_region_attrib", "dna", "assembly");
 	}
 
-	@Override
-	protected String getModule() {
-		return "Bio::EnsEMBL::Healthcheck::Translation";
-	}
-	
 	@Override
 	public boolean run(final DatabaseRegistryEntry dbre) {
+		if (TestResultCache.isEnabled()) {
+			// the runner skips this test if its tables haven't changed
+			return translate(dbre);
+		}
 		ChecksumDatabase db = new ChecksumDatabase(
 				dbre, new File("db_checksums/"+this.getClass().getSimpleName()),
-				Arrays.asList(new String[] { "seq_region", "gene",
-						"transcript", "translation", "exon", "exon_transcript",
-						"transcript_attrib", "translation_attrib",
-						"seq_region_attrib","dna","assembly" }));
+				getTablesRead());
 		boolean passed = true;
 		if(db.isUpdated()) {
-			passed = super.run(dbre);
+			passed = translate(dbre);
 			if(passed) {
 				db.setRead();
 			}
@@ -70,4 +121,382 @@ public class ProteinTranslation extends AbstractPerlModuleBasedTestCase {
 		}
 		return passed;
 	}
+
+	/** A transcript as read from the database. */
+	private static final class Transcript {
+
+		private long id;
+		private String stableId;
+		private long seqRegionId;
+		private String seqRegionName;
+		private int start;
+		private int end;
+		private int strand;
+		private boolean translated;
+		private long startExonId;
+		private int seqStart;
+		private long endExonId;
+		private int seqEnd;
+		private List<Exon> exons = new ArrayList<Exon>();
+		private long translationId;
+
+		private String getDisplayId() {
+			return stableId != null ? stableId : Long.toString(id);
+		}
+
+	}
+
+	/** What was found wrong with some genes. */
+	private static final class Problems {
+
+		private final StringBuilder details = new StringBuilder();
+		private final StringBuilder table = new StringBuilder();
+		private boolean passed = true;
+
+	}
+
+	/**
+	 * Translate all the transcripts of dbre and report the problems.
+	 */
+	private boolean translate(final DatabaseRegistryEntry dbre) {
+
+		Connection con = dbre.getConnection();
+
+		File file = new File(new File(new File("external_reports"), dbre.getName()), "Translation.log").getAbsoluteFile();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-protein-translation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		List<Future<Problems>> futures = new ArrayList<Future<Problems>>();
+
+		try {
+
+			final Map<Long, Integer> codonTables = getCodonTables(con);
+			final Map<Long, List<SeqEdit>> rnaEdits = getSeqEdits(con, "transcript", "'_rna_edit'");
+			final Map<Long, List<SeqEdit>> translationEdits = getSeqEdits(con, "translation",
+					"'_selenocysteine','amino_acid_sub','initial_met','_stop_codon_rt'");
+			final SequenceFetcher fetcher = new SequenceFetcher(con);
+
+			// limits how many genes are held in memory waiting to be translated
+			final Semaphore waiting = new Semaphore(THREADS * 4);
+
+			Statement stmt = con.createStatement();
+			stmt.setFetchSize(Integer.MIN_VALUE);
+			try {
+
+				ResultSet rs = stmt.executeQuery(TRANSCRIPTS_SQL);
+
+				List<List<Transcript>> genes = new ArrayList<List<Transcript>>();
+				List<Transcript> gene = null;
+				Transcript transcript = null;
+				long geneId = -1;
+
+				while (rs.next()) {
+
+					if (rs.getLong(1) != geneId) {
+						if (genes.size() == GENES_PER_TASK) {
+							waiting.acquire();
+							futures.add(executor.submit(translateGenes(dbre, genes, codonTables, rnaEdits, translationEdits, fetcher, waiting)));
+							genes = new ArrayList<List<Transcript>>();
+						}
+						geneId = rs.getLong(1);
+						gene = new ArrayList<Transcript>();
+						genes.add(gene);
+						transcript = null;
+					}
+
+					if (transcript == null || transcript.id != rs.getLong(2)) {
+						transcript = new Transcript();
+						transcript.id = rs.getLong(2);
+						transcript.stableId = rs.getString(3);
+						transcript.seqRegionId = rs.getLong(4);
+						transcript.seqRegionName = rs.getString(5);
+						transcript.start = rs.getInt(6);
+						transcript.end = rs.getInt(7);
+						transcript.strand = rs.getInt(8);
+						transcript.translationId = rs.getLong(9);
+						transcript.translated = !rs.wasNull();
+						transcript.startExonId = rs.getLong(10);
+						transcript.seqStart = rs.getInt(11);
+						transcript.endExonId = rs.getLong(12);
+						transcript.seqEnd = rs.getInt(13);
+						gene.add(transcript);
+					}
+
+					transcript.exons.add(new Exon(rs.getLong(14), rs.getInt(15), rs.getInt(16), rs.getInt(17)));
+
+				}
+				rs.close();
+
+				if (!genes.isEmpty()) {
+					waiting.acquire();
+					futures.add(executor.submit(translateGenes(dbre, genes, codonTables, rnaEdits, translationEdits, fetcher, waiting)));
+				}
+
+			} finally {
+				stmt.close();
+			}
+
+			Problems all = new Problems();
+			for (Future<Problems> future : futures) {
+				Problems problems = future.get();
+				all.details.append(problems.details);
+				all.table.append(problems.table);
+				all.passed &= problems.passed;
+			}
+
+			writeReport(file, all);
+
+			if (!all.passed) {
+				ReportManager.problem(this, con, "This database contains transcripts with incorrect translations. See " + file
+						+ " for detailed error messages.");
+			}
+
+			logger.fine("Translated the transcripts of " + futures.size() * GENES_PER_TASK + " genes at most in " + dbre.getName());
+
+			return all.passed;
+
+		} catch (SQLException e) {
+
+			throw new SqlUncheckedException("Could not read transcripts of " + dbre.getName(), e);
+
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while translating transcripts of " + dbre.getName(), e);
+
+		} catch (ExecutionException e) {
+
+			throw new SqlUncheckedException("Could not translate transcripts of " + dbre.getName(), e.getCause());
+
+		} finally {
+
+			executor.shutdownNow();
+
+		}
+
+	}
+
+	/**
+	 * @return A task translating the transcripts of genes on a connection of
+	 *         its own.
+	 */
+	private Callable<Problems> translateGenes(final DatabaseRegistryEntry dbre, final List<List<Transcript>> genes,
+			final Map<Long, Integer> codonTables, final Map<Long, List<SeqEdit>> rnaEdits, final Map<Long, List<SeqEdit>> translationEdits,
+			final SequenceFetcher fetcher, final Semaphore waiting) {
+
+		final ProteinTranslation test = this;
+
+		return new Callable<Problems>() {
+			public Problems call() throws SQLException {
+
+				ConnectionPool.beginUnboundedLease(test);
+				try {
+
+					Connection con = dbre.getConnection();
+					Problems problems = new Problems();
+
+					for (List<Transcript> gene : genes) {
+						translateGene(con, gene, codonTables, rnaEdits, translationEdits, fetcher, problems);
+					}
+
+					return problems;
+
+				} finally {
+					ConnectionPool.endLease();
+					waiting.release();
+				}
+
+			}
+		};
+
+	}
+
+	private void translateGene(Connection con, List<Transcript> gene, Map<Long, Integer> codonTables, Map<Long, List<SeqEdit>> rnaEdits,
+			Map<Long, List<SeqEdit>> translationEdits, SequenceFetcher fetcher, Problems problems) throws SQLException {
+
+		List<TranscriptTranslator> translators = new ArrayList<TranscriptTranslator>();
+		int start = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+
+		for (Transcript transcript : gene) {
+
+			CodonTable codonTable = getCodonTable(codonTables, transcript.seqRegionId);
+			TranscriptTranslator translator = new TranscriptTranslator(transcript.strand, transcript.exons, transcript.startExonId,
+					transcript.seqStart, transcript.endExonId, transcript.seqEnd, getSeqEdits(rnaEdits, transcript.id), getSeqEdits(
+							translationEdits, transcript.translationId), codonTable);
+			translators.add(translator);
+			start = Math.min(start, translator.getStart());
+			end = Math.max(end, translator.getEnd());
+
+		}
+
+		// all transcripts of a gene are on the same sequence region
+		String genomic = fetcher.getSequence(con, gene.get(0).seqRegionId, start, end);
+
+		for (int i = 0; i < gene.size(); i++) {
+
+			Transcript transcript = gene.get(i);
+			TranscriptTranslator translator = translators.get(i);
+
+			String sequence = transcript.translated ? translator.translate(genomic, start) : null;
+
+			if (sequence == null) {
+				problems.details.append("No translation found for transcript ID " + transcript.id);
+				continue;
+			}
+
+			if (sequence.matches("^X+$")) {
+
+				problems.passed = false;
+				problems.details.append("Transcript for " + "\ndbID: " + transcript.id + "\ndisplay_id: " + transcript.getDisplayId()
+						+ "\ntranscript stable_id: " + transcript.stableId + "\ncomprises only of X's\n");
+
+			}
+
+			if (sequence.indexOf('*') >= 0) {
+
+				problems.passed = false;
+				problems.table.append(reportStops(transcript, translator, sequence));
+				problems.details.append("Transcript for " + "\ndbID: " + transcript.id + "\ndisplay_id: " + transcript.getDisplayId()
+						+ "\ntranscript stable_id: " + transcript.stableId + "\ncontains stop codons: " + sequence + "\n");
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return One line per stop codon, as report_problem_for_transcript in
+	 *         Bio::EnsEMBL::Healthcheck::Translation writes them. Like it, a
+	 *         stop at the very start is not listed and positions are taken as
+	 *         counting from 0.
+	 */
+	private static String reportStops(Transcript transcript, TranscriptTranslator translator, String sequence) {
+
+		StringBuilder result = new StringBuilder();
+
+		for (int index = sequence.indexOf('*', 1); index != -1; index = sequence.indexOf('*', index + 1)) {
+
+			StringBuilder coordinates = new StringBuilder();
+			for (int genomic : translator.pep2genomic(index)) {
+				if (coordinates.length() > 0) {
+					coordinates.append(',');
+				}
+				coordinates.append(genomic);
+			}
+
+			result.append("transcript\t" + transcript.id + "\t" + transcript.start + "\t" + coordinates + "\t" + transcript.end + "\t"
+					+ transcript.seqRegionName + "\t" + transcript.getDisplayId() + "\t" + transcript.stableId + "\t" + index + "\t\n");
+
+		}
+
+		return result.toString();
+
+	}
+
+	private void writeReport(File file, Problems problems) {
+
+		try {
+
+			file.getParentFile().mkdirs();
+			PrintWriter out = new PrintWriter(file);
+			try {
+				out.print(problems.details);
+				if (!problems.passed) {
+					out.print("\n\n---------------- problems: -------------------\n\n" + TABLE_HEADER + "\n" + problems.table);
+				}
+			} finally {
+				out.close();
+			}
+
+		} catch (IOException e) {
+
+			logger.warning("Could not write " + file + ": " + e.getMessage());
+
+		}
+
+	}
+
+	private CodonTable getCodonTable(Map<Long, Integer> codonTables, long seqRegionId) {
+
+		Integer id = codonTables.get(seqRegionId);
+		CodonTable codonTable = CodonTable.get(id == null ? CodonTable.STANDARD : id);
+		if (codonTable == null) {
+			logger.warning("Unknown codon table " + id + " for seq_region " + seqRegionId + ", using the standard code");
+			codonTable = CodonTable.get(CodonTable.STANDARD);
+		}
+		return codonTable;
+
+	}
+
+	private static List<SeqEdit> getSeqEdits(Map<Long, List<SeqEdit>> edits, long id) {
+		List<SeqEdit> result = edits.get(id);
+		return result != null ? result : new ArrayList<SeqEdit>();
+	}
+
+	/**
+	 * @return The codon table of each sequence region that has one.
+	 */
+	private static Map<Long, Integer> getCodonTables(Connection con) throws SQLException {
+
+		Map<Long, Integer> codonTables = new HashMap<Long, Integer>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT sra.seq_region_id, sra.value FROM seq_region_attrib sra JOIN attrib_type at "
+					+ "USING (attrib_type_id) WHERE at.code = 'codon_table'");
+			while (rs.next()) {
+				try {
+					codonTables.put(rs.getLong(1), Integer.valueOf(rs.getString(2).trim()));
+				} catch (NumberFormatException e) {
+					// left to the standard code
+				}
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return codonTables;
+
+	}
+
+	/**
+	 * @return The edits of each transcript or translation with attributes of
+	 *         the given codes.
+	 */
+	private static Map<Long, List<SeqEdit>> getSeqEdits(Connection con, String table, String codes) throws SQLException {
+
+		Map<Long, List<SeqEdit>> edits = new HashMap<Long, List<SeqEdit>>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT a." + table + "_id, a.value FROM " + table + "_attrib a JOIN attrib_type at "
+					+ "USING (attrib_type_id) WHERE at.code IN (" + codes + ")");
+			while (rs.next()) {
+				SeqEdit edit = SeqEdit.parse(rs.getString(2));
+				if (edit == null) {
+					continue;
+				}
+				if (!edits.containsKey(rs.getLong(1))) {
+					edits.put(rs.getLong(1), new ArrayList<SeqEdit>());
+				}
+				edits.get(rs.getLong(1)).add(edit);
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return edits;
+
+	}
+
 }
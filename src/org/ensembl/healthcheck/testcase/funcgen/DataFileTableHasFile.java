@@ -23,12 +23,12 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.MissingMetaKeyException;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier.Status;
 
-import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -37,6 +37,9 @@ import java.util.Map;
  * every id has an associated file entry stored in data_file table.
  * Check that the file actually exists on the disk.
  *
+ * The data_file entries of the table are read with one query and the files
+ * are checked concurrently by the {@link DataFileVerifier}.
+ *
  * @author ilavidas
  */
 
@@ -66,55 +69,78 @@ abstract class DataFileTableHasFile extends AbstractExternalFileUsingTestcase {
         HashMap<Integer, String> tableIDs = getTableIDs(dbre);
 
         try {
-            for (Object o : tableIDs.entrySet()) {
-                Map.Entry<Integer, String> pair = (Map.Entry<Integer,
-                        String>) o;
+            //fetch the file paths of all table_ids at once
+            Map<Integer, String> filePaths = new HashMap<Integer, String>();
+            PreparedStatement stmt = con.prepareStatement("SELECT table_id, " +
+                    "path FROM data_file WHERE table_name=? AND file_type=?");
+            try {
+                stmt.setString(1, tableName.toString());
+                stmt.setString(2, fileType.toString());
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    if (!filePaths.containsKey(rs.getInt(1))) {
+                        filePaths.put(rs.getInt(1), rs.getString(2));
+                    }
+                }
+                rs.close();
+            } finally {
+                stmt.close();
+            }
+
+            String parentFuncgenDir = null;
+            Map<Integer, String> files = new HashMap<Integer, String>();
+
+            for (Map.Entry<Integer, String> pair : tableIDs.entrySet()) {
                 int tableID = pair.getKey();
                 String name = pair.getValue();
 
-                //fetch file path for every table_id
-                Statement stmt = con.createStatement();
-                ResultSet filePath = stmt.executeQuery("SELECT path FROM " +
-                        "data_file WHERE table_name='" + tableName.toString() +
-                        "' AND file_type='" + fileType.toString() +
-                        "' AND table_id=" + tableID);
-
-                if (!filePath.next()) {
+                if (!filePaths.containsKey(tableID)) {
                     ReportManager.problem(this, con, "No " +
                             fileType.toString() + " file entry found in " +
                             "data_file table for " + tableName.toString() +
                             " " + name + " with id " + tableID);
                     result = false;
+                    continue;
+                }
+
+                if (parentFuncgenDir == null) {
+                    try {
+
+                        parentFuncgenDir = getSpeciesAssemblyDataFileBasePath(dbre);
+
+                    } catch (CoreDbNotFoundException e) {
+
+                        ReportManager.problem(this, dbre.getConnection(), e.getMessage());
+                        return false;
+
+                    } catch (MissingMetaKeyException e) {
+
+                        ReportManager.problem(this, dbre.getConnection(), e.getMessage());
+                        return false;
 
-                } else {
-                    //check that the file actually exists on the disk
-                    String parentFuncgenDir;
-					try {
-						
-						parentFuncgenDir = getSpeciesAssemblyDataFileBasePath(dbre);
-						
-					} catch (CoreDbNotFoundException e) {
-						
-						ReportManager.problem(this, dbre.getConnection(), e.getMessage());
-						result = false;
-						continue;
-						
-					} catch (MissingMetaKeyException e) {
-						
-						ReportManager.problem(this, dbre.getConnection(), e.getMessage());
-						result = false;
-						continue;
-						
-					}
-                    File file = new File(parentFuncgenDir + filePath
-                            .getString(1));
-
-                    if (!file.exists()) {
-                        ReportManager.problem(this, con, " File " + file
-                                .getPath() + " does not exist on the disk.");
-                        result = false;
                     }
                 }
+                files.put(tableID, parentFuncgenDir + filePaths.get(tableID));
+            }
+
+            //check that the files actually exist on the disk
+            Map<String, Status> statuses = DataFileVerifier.verify(files.values(), fileType);
+
+            for (Map.Entry<Integer, String> file : files.entrySet()) {
+                String path = file.getValue();
+                Status status = statuses.get(path);
+
+                if (status == Status.MISSING) {
+                    ReportManager.problem(this, con, " File " + path +
+                            " does not exist on the disk.");
+                    result = false;
+                } else if (status != Status.OK) {
+                    ReportManager.problem(this, con, " File " + path +
+                            " for " + tableName.toString() + " with id " +
+                            file.getKey() + " is not a valid " +
+                            fileType.toString() + " file: " + status);
+                    result = false;
+                }
             }
 
         } catch (SQLException e) {
@@ -0,0 +1,252 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.funcgen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.testcase.funcgen.DataFileTableHasFile.FileType;
+
+/**
+ * <p>
+ * Checks the files listed in data_file tables on a bounded pool of I/O
+ * threads, so that many files on a network file system are looked at
+ * concurrently rather than one after the other. Results are kept for
+ * {@link #CACHE_MILLIS}, so tests checking the same files in one run look at
+ * each of them once, while a long running daemon still sees files that have
+ * been fixed. Expired results are dropped whenever files are checked, so
+ * the cache only holds the files checked recently.
+ * </p>
+ *
+ * <p>
+ * The number of threads is set by the datafile.check.threads property. If
+ * datafile.check.magic is true the first bytes of BAM, bigWig and bigBed
+ * files are also checked.
+ * </p>
+ */
+class DataFileVerifier {
+
+	/** The outcome of checking a file. */
+	enum Status {
+		OK, MISSING, NOT_A_FILE, EMPTY, UNREADABLE, WRONG_FORMAT
+	}
+
+	public static final String THREADS = "datafile.check.threads";
+
+	public static final String MAGIC = "datafile.check.magic";
+
+	private static final int DEFAULT_THREADS = 16;
+
+	/** How long the result of checking a file is used for. */
+	static final long CACHE_MILLIS = 10 * 60 * 1000;
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private static final ConcurrentMap<String, Check> cache = new ConcurrentHashMap<String, Check>();
+
+	private static ExecutorService executor;
+
+	private DataFileVerifier() {
+	}
+
+	/**
+	 * Check paths, waiting until all of them have been checked.
+	 *
+	 * @param type
+	 *          The type of all the files, used to check their first bytes, or
+	 *          null to only check that they are non-empty files.
+	 * @return The status of each path, in the order of paths.
+	 */
+	static Map<String, Status> verify(Collection<String> paths, final FileType type) {
+
+		boolean magic = type != null && Boolean.parseBoolean(System.getProperty(MAGIC, "false"));
+		final FileType checkedType = magic ? type : null;
+
+		purgeExpired(System.currentTimeMillis());
+
+		Map<String, Future<Status>> futures = new LinkedHashMap<String, Future<Status>>();
+		for (final String path : paths) {
+			String key = checkedType + ":" + path;
+			Check check = cache.get(key);
+			if (check != null && check.isExpired(System.currentTimeMillis())) {
+				cache.remove(key, check);
+				check = null;
+			}
+			if (check == null) {
+				Check task = new Check(new Callable<Status>() {
+					public Status call() {
+						return check(new File(path), checkedType);
+					}
+				});
+				check = cache.putIfAbsent(key, task);
+				if (check == null) {
+					check = task;
+					getExecutor().execute(task);
+				}
+			}
+			futures.put(path, check);
+		}
+
+		Map<String, Status> result = new LinkedHashMap<String, Status>();
+		for (Map.Entry<String, Future<Status>> future : futures.entrySet()) {
+			try {
+				result.put(future.getKey(), future.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while checking data files", e);
+			} catch (ExecutionException e) {
+				logger.warning("Could not check " + future.getKey() + ": " + e.getCause().getMessage());
+				result.put(future.getKey(), Status.UNREADABLE);
+			}
+		}
+		return result;
+
+	}
+
+	/**
+	 * Drop the results that have expired at now.
+	 */
+	static void purgeExpired(long now) {
+		for (Map.Entry<String, Check> entry : cache.entrySet()) {
+			if (entry.getValue().isExpired(now)) {
+				cache.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return The number of files whose result is kept.
+	 */
+	static int cacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * A check of a file, run or waiting to be run.
+	 */
+	private static class Check extends FutureTask<Status> {
+
+		private final long created = System.currentTimeMillis();
+
+		Check(Callable<Status> callable) {
+			super(callable);
+		}
+
+		boolean isExpired(long now) {
+			return isDone() && now - created > CACHE_MILLIS;
+		}
+	}
+
+	static Status check(File file, FileType type) {
+
+		if (!file.exists()) {
+			return Status.MISSING;
+		}
+		if (!file.isFile()) {
+			return Status.NOT_A_FILE;
+		}
+		if (file.length() == 0) {
+			return Status.EMPTY;
+		}
+		if (type == null) {
+			return Status.OK;
+		}
+
+		byte[] header = new byte[16];
+		int read = 0;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while (read < header.length && (n = in.read(header, read, header.length - read)) > 0) {
+					read += n;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return Status.UNREADABLE;
+		}
+
+		return hasMagic(header, read, type) ? Status.OK : Status.WRONG_FORMAT;
+
+	}
+
+	/**
+	 * @return true if header, of which length bytes were read, starts the way
+	 *         files of type do.
+	 */
+	static boolean hasMagic(byte[] header, int length, FileType type) {
+
+		switch (type) {
+		case BAM:
+			// BGZF: gzip with a BC extra subfield
+			return length >= 14 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[3] == 4 && header[12] == 'B'
+					&& header[13] == 'C';
+		case BIGWIG:
+			return length >= 4 && hasMagic(header, 0x888FFC26);
+		case BIGBED:
+			return length >= 4 && hasMagic(header, 0x8789F2EB);
+		default:
+			return true;
+		}
+
+	}
+
+	/**
+	 * @return true if header starts with magic in either byte order.
+	 */
+	private static boolean hasMagic(byte[] header, int magic) {
+
+		int bigEndian = (header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff);
+		return bigEndian == magic || Integer.reverseBytes(bigEndian) == magic;
+
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+
+		if (executor == null) {
+			int threads = Integer.parseInt(System.getProperty(THREADS, String.valueOf(DEFAULT_THREADS)));
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "healthcheck-datafile-check");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+
+	}
+
+}
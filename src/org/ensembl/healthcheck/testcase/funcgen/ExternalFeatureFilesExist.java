@@ -17,16 +17,19 @@
 
 package org.ensembl.healthcheck.testcase.funcgen;
 
-import java.io.File;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import org.ensembl.CoreDbNotFoundException;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseType;
 import org.ensembl.healthcheck.MissingMetaKeyException;
 import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier.Status;
 
 import java.lang.NullPointerException;
 
@@ -61,28 +64,34 @@ public class ExternalFeatureFilesExist extends AbstractExternalFileUsingTestcase
 			
 		}
 
+		List<String> fullFileNames = new ArrayList<String>();
 		try {
 			Statement stmt = dbre.getConnection().createStatement();
 			ResultSet rs = stmt.executeQuery(sql);
 			while (rs.next()) {
 				
 				String relativeFilePath = rs.getString("path");
-				String fullFileName = speciesAssemblyDbFileRootDir + relativeFilePath;
-				
-				boolean fileExists = new File(fullFileName).isFile();
-				
-				if (fileExists) {
-					logger.info("ok " + fullFileName);
-				} else {
-					logger.severe("not ok " + fullFileName);
-					testPassed = false;
-				}
+				fullFileNames.add(speciesAssemblyDbFileRootDir + relativeFilePath);
 			}
+			rs.close();
+			stmt.close();
 		} catch (SQLException e) {
 			testPassed = false;
 			e.printStackTrace();
 			return testPassed;
 		}
+
+		for (Map.Entry<String, Status> file : DataFileVerifier.verify(fullFileNames, null).entrySet()) {
+			
+			String fullFileName = file.getKey();
+			
+			if (file.getValue() == Status.OK) {
+				logger.info("ok " + fullFileName);
+			} else {
+				logger.severe("not ok " + fullFileName);
+				testPassed = false;
+			}
+		}
 		return testPassed;
 	}
 
@@ -18,10 +18,20 @@
 package org.ensembl.healthcheck.testcase.funcgen;
 
 import java.sql.Connection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import org.ensembl.CoreDbNotFoundException;
@@ -31,10 +41,30 @@ import org.ensembl.healthcheck.MissingMetaKeyException;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.Priority;
+import org.ensembl.healthcheck.util.ConnectionPool;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.IntLongMap;
+import org.ensembl.healthcheck.util.QueryResultCache;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 
+/**
+ * Checks that features lie within the toplevel seq_regions of the core
+ * database. Each feature table is scanned once for the smallest start and
+ * largest end on each seq_region, and these are compared with the lengths
+ * from the core database. Features are only counted on the seq_regions where
+ * the scan finds them out of bounds. The feature tables are scanned in
+ * parallel.
+ */
 public class FeaturePosition extends AbstractCoreDatabaseUsingTestCase {
-	
+
+	private static final String[] FEATURE_TABLES = { "peak", "regulatory_feature", "motif_feature", "external_feature",
+			"mirna_target_feature" };
+
+	private static final String TOPLEVEL_SQL = "select seq_region_id, length from seq_region join seq_region_attrib using (seq_region_id) join attrib_type using (attrib_type_id) where code=\"toplevel\"";
+
+	/** Length returned for seq_regions that are not toplevel. */
+	private static final long NOT_TOPLEVEL = -1;
+
 	public FeaturePosition() {	
 		setTeamResponsible(Team.FUNCGEN);
 		setDescription("Checks if features lie within bounds of seq_region i.e. start >=0 and end <= seq_region length.");
@@ -55,7 +85,7 @@ public class FeaturePosition extends AbstractCoreDatabaseUsingTestCase {
 	 * @return true if the test passed.
 	 * 
 	 */
-	public boolean run(DatabaseRegistryEntry dbre) {
+	public boolean run(final DatabaseRegistryEntry dbre) {
 
         if (Pattern.matches("master_schema_funcgen_\\d+", dbre.getName())) {
             logger.fine("Skipping " + dbre.getName());
@@ -80,78 +110,78 @@ public class FeaturePosition extends AbstractCoreDatabaseUsingTestCase {
 		}
 		
 		logger.info("Using core database " + coreDbre.getName() + " " + coreDbre.getDatabaseServer().getDatabaseURL());
-						
-        String sql = "select seq_region_id, seq_region.name, length from seq_region join seq_region_attrib using (seq_region_id) join attrib_type using (attrib_type_id) where code=\"toplevel\"";
-		HashMap<String, String> coreSeqRegionIDName = new HashMap<String, String>();
-		HashMap<String, String> seqRegionIdToLength = new HashMap<String, String>();
- 
+
+		final IntLongMap seqRegionLengths;
 		try {
-			ResultSet rs = coreDbre.getConnection().createStatement().executeQuery(sql);
+			seqRegionLengths = getToplevelLengths(coreDbre.getConnection());
+		}
+		catch (SQLException e) {
+			e.printStackTrace();
+			ReportManager.problem(this, dbConnection, "SQL Failed:\t" + TOPLEVEL_SQL);
+			return false;
+		}
+		catch (SqlUncheckedException e) {
+			e.printStackTrace();
+			ReportManager.problem(this, dbConnection, "SQL Failed:\t" + TOPLEVEL_SQL);
+			return false;
+		}
 
-			while (rs.next()) {
-				coreSeqRegionIDName.put( rs.getString(1), rs.getString(2) );
-				seqRegionIdToLength.put( rs.getString(1), rs.getString(3) );
-			}
+		List<TableResult> tableResults;
+		try {
+			tableResults = checkTables(dbre, seqRegionLengths);
 		}
 		catch (SQLException e) {
 			e.printStackTrace();
 			return false;
 		}
-				  
-	    String [] featureTables = {"peak", "regulatory_feature", "motif_feature",
-	                               "external_feature",  "mirna_target_feature"};
-    
-	    for(String featureTable : featureTables) {
-	    	
-	    	logger.info("Checking " + featureTable);
-	    	
+
+		List<Integer> outOfBounds = new ArrayList<Integer>();
+		for (TableResult tableResult : tableResults) {
+			outOfBounds.addAll(tableResult.counts.keySet());
+		}
+		Map<Integer, String> seqRegionNames = new HashMap<Integer, String>();
+		if (!outOfBounds.isEmpty()) {
+			String namesSQL = seqRegionNamesSQL(outOfBounds);
+			try {
+				seqRegionNames = getSeqRegionNames(coreDbre.getConnection(), namesSQL);
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+				ReportManager.problem(this, dbConnection, "SQL Failed:\t" + namesSQL);
+				return false;
+			}
+		}
+
+	    for(TableResult tableResult : tableResults) {
+
+	        if(tableResult.failedSQL != null) {
+	            ReportManager.problem(this, dbConnection, "SQL Failed:\t" + tableResult.failedSQL);
+	            return false;
+	        }
+
+	        String featureTable  = tableResult.featureTable;
 	        String problemString = "";
 	        String usefulSQL     = "";
 	        String updateSQL     = "";
 	        int    totalNumberOfFailedFeatures = 0;
-	        
-	        Iterator<String> seqRegionIdIterator = seqRegionIdToLength.keySet().iterator();
-	
-	        while(seqRegionIdIterator.hasNext()) {
-	        	
-	            String seqRegionId     = seqRegionIdIterator.next();
-	            String seqRegionName   = coreSeqRegionIDName.get(seqRegionId);
-	            String seqRegionLength = seqRegionIdToLength.get(seqRegionId);
-	     
-	            if(featureTable.equals("regulatory_feature")) {
-	                sql = "select count(" + featureTable + "_id) from " + featureTable + " WHERE seq_region_id=" + 
-	                		seqRegionId + " AND  ((seq_region_start - bound_start_length) <= 0 " +
-	                    "OR (seq_region_end + bound_end_length) > " + seqRegionLength + ")";
-	            } else {
-	                sql = "select count(" + featureTable + "_id) from " + featureTable + " WHERE seq_region_id=" + 
-	                		seqRegionId + " AND  (seq_region_start <= 0 OR seq_region_end > " + seqRegionLength + ")";  
-	            }
-	
-	            Integer numberOfFailedFeatures  = DBUtils.getRowCount(dbConnection, sql); 	
-	            totalNumberOfFailedFeatures    += numberOfFailedFeatures;
-	
-	            //This is already being 'caught' higher in the stack, but no exit
-	            //but still shows as 'PASSED' as result is true by default!
-	            //featCount is -1 not null if sql failed
-	
-	            if(numberOfFailedFeatures == -1) {
-	                ReportManager.problem(this, dbConnection, "SQL Failed:\t" + sql);
-	                return false;
-	            }
-				
-	            if(numberOfFailedFeatures > 0) {
-	                updateSQL += "UPDATE " + featureTable + " set seq_region_end =" + seqRegionLength +  " WHERE seq_region_id=" + 
-	                		seqRegionId + " AND seq_region_end  > " + seqRegionLength + ";\n";
-	
-	                updateSQL += "UPDATE " + featureTable + " set seq_region_start=1 WHERE seq_region_id=" + 
-	                		seqRegionId + " AND seq_region_start = 0;\n";
-	            
-	                usefulSQL += sql + ";\n";			
-	                problemString = problemString + " " + seqRegionName + "(" + numberOfFailedFeatures + ")";
-	                result =  false;
-	            }
+
+	        for(Map.Entry<Integer, Integer> count : tableResult.counts.entrySet()) {
+
+	            int    seqRegionId     = count.getKey();
+	            long   seqRegionLength = seqRegionLengths.get(seqRegionId, NOT_TOPLEVEL);
+	            int    numberOfFailedFeatures = count.getValue();
+	            totalNumberOfFailedFeatures  += numberOfFailedFeatures;
+
+	            updateSQL += "UPDATE " + featureTable + " set seq_region_end =" + seqRegionLength +  " WHERE seq_region_id=" + 
+	                    seqRegionId + " AND seq_region_end  > " + seqRegionLength + ";\n";
+
+	            updateSQL += "UPDATE " + featureTable + " set seq_region_start=1 WHERE seq_region_id=" + 
+	                    seqRegionId + " AND seq_region_start = 0;\n";
+
+	            usefulSQL += countSQL(featureTable, seqRegionId, seqRegionLength) + ";\n";
+	            problemString = problemString + " " + seqRegionNames.get(seqRegionId) + "(" + numberOfFailedFeatures + ")";
 	        }
-	
+
 	        if(! problemString.isEmpty() ) {
 	            ReportManager.problem(this, dbConnection, 
 	                 "Found " + totalNumberOfFailedFeatures + " " + featureTable + "s exceeding seq_region bounds:\t" + problemString +
@@ -161,4 +191,214 @@ public class FeaturePosition extends AbstractCoreDatabaseUsingTestCase {
 	    }
 		return result;
 	}
+
+	/**
+	 * Out of bounds features found in one feature table.
+	 */
+	private static class TableResult {
+
+		final String featureTable;
+
+		/** Number of out of bounds features by seq_region_id, in id order. */
+		final Map<Integer, Integer> counts = new LinkedHashMap<Integer, Integer>();
+
+		/** The scan or count query that failed, if any. */
+		String failedSQL;
+
+		TableResult(String featureTable) {
+			this.featureTable = featureTable;
+		}
+	}
+
+	/**
+	 * @return The length of each toplevel seq_region of the core database,
+	 *         shared with other funcgen databases of the same species.
+	 */
+	private IntLongMap getToplevelLengths(final Connection coreConnection) throws SQLException {
+
+		final String sql = TOPLEVEL_SQL;
+
+		return QueryResultCache.get(coreConnection.getMetaData().getURL(), IntLongMap.class.getName(), sql, null,
+				new QueryResultCache.Loader<IntLongMap>() {
+					public IntLongMap load() throws SQLException {
+						IntLongMap lengths = new IntLongMap();
+						Statement stmt = coreConnection.createStatement();
+						try {
+							ResultSet rs = stmt.executeQuery(sql);
+							while (rs.next()) {
+								lengths.put(rs.getInt(1), rs.getLong(2));
+							}
+							rs.close();
+						} finally {
+							stmt.close();
+						}
+						return lengths;
+					}
+				});
+	}
+
+	/**
+	 * @return SQL fetching the names of seqRegionIds, which must not be empty.
+	 */
+	private static String seqRegionNamesSQL(List<Integer> seqRegionIds) {
+
+		StringBuilder sql = new StringBuilder("select seq_region_id, name from seq_region where seq_region_id in (");
+		for (int i = 0; i < seqRegionIds.size(); i++) {
+			sql.append(i == 0 ? "" : ",").append(seqRegionIds.get(i));
+		}
+		sql.append(")");
+		return sql.toString();
+	}
+
+	/**
+	 * @return The names of seq_regions in the core database, by id.
+	 */
+	private Map<Integer, String> getSeqRegionNames(Connection coreConnection, String sql) throws SQLException {
+
+		Map<Integer, String> names = new HashMap<Integer, String>();
+
+		Statement stmt = coreConnection.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			while (rs.next()) {
+				names.put(rs.getInt(1), rs.getString(2));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		return names;
+	}
+
+	/**
+	 * Scan all the feature tables at the same time, each on a connection of
+	 * its own. A table whose scan fails gets a result with the scan as its
+	 * failedSQL.
+	 *
+	 * @return The results in the order of {@link #FEATURE_TABLES}.
+	 */
+	private List<TableResult> checkTables(final DatabaseRegistryEntry dbre, final IntLongMap seqRegionLengths) throws SQLException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(FEATURE_TABLES.length, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-feature-position");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		try {
+
+			List<Future<TableResult>> futures = new ArrayList<Future<TableResult>>();
+			for (final String featureTable : FEATURE_TABLES) {
+				futures.add(executor.submit(new Callable<TableResult>() {
+					public TableResult call() throws SQLException {
+						ConnectionPool.beginUnboundedLease(FeaturePosition.this);
+						try {
+							logger.info("Checking " + featureTable);
+							return checkTable(dbre.getConnection(), featureTable, seqRegionLengths);
+						} catch (SQLException e) {
+							e.printStackTrace();
+							TableResult failed = new TableResult(featureTable);
+							failed.failedSQL = scanSQL(featureTable);
+							return failed;
+						} finally {
+							ConnectionPool.endLease();
+						}
+					}
+				}));
+			}
+
+			List<TableResult> results = new ArrayList<TableResult>();
+			for (Future<TableResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while checking feature positions", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Find the toplevel seq_regions whose features in featureTable start or
+	 * end out of bounds, and count those features.
+	 */
+	private TableResult checkTable(Connection con, String featureTable, IntLongMap seqRegionLengths) throws SQLException {
+
+		String sql = scanSQL(featureTable);
+
+		List<Integer> outOfBounds = new ArrayList<Integer>();
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			while (rs.next()) {
+				long length = seqRegionLengths.get(rs.getInt(1), NOT_TOPLEVEL);
+				if (length == NOT_TOPLEVEL) {
+					continue;
+				}
+				// min and max are null if all bounds are null
+				long minStart = rs.getLong(2);
+				boolean startOut = !rs.wasNull() && minStart <= 0;
+				long maxEnd = rs.getLong(3);
+				boolean endOut = !rs.wasNull() && maxEnd > length;
+				if (startOut || endOut) {
+					outOfBounds.add(rs.getInt(1));
+				}
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		TableResult result = new TableResult(featureTable);
+		for (int seqRegionId : outOfBounds) {
+			String countSQL = countSQL(featureTable, seqRegionId, seqRegionLengths.get(seqRegionId, NOT_TOPLEVEL));
+			int numberOfFailedFeatures = DBUtils.getRowCount(con, countSQL);
+			if (numberOfFailedFeatures == -1) {
+				result.failedSQL = countSQL;
+				break;
+			}
+			if (numberOfFailedFeatures > 0) {
+				result.counts.put(seqRegionId, numberOfFailedFeatures);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return SQL finding the smallest start and largest end of the features
+	 *         of featureTable on each seq_region.
+	 */
+	private static String scanSQL(String featureTable) {
+
+		String start = featureTable.equals("regulatory_feature") ? "seq_region_start - bound_start_length" : "seq_region_start";
+		String end = featureTable.equals("regulatory_feature") ? "seq_region_end + bound_end_length" : "seq_region_end";
+		return "select seq_region_id, min(" + start + "), max(" + end + ") from " + featureTable
+				+ " group by seq_region_id order by seq_region_id";
+	}
+
+	/**
+	 * @return SQL counting the features of featureTable that are out of
+	 *         bounds on seqRegionId.
+	 */
+	private static String countSQL(String featureTable, int seqRegionId, long seqRegionLength) {
+
+		if(featureTable.equals("regulatory_feature")) {
+			return "select count(" + featureTable + "_id) from " + featureTable + " WHERE seq_region_id=" + 
+					seqRegionId + " AND  ((seq_region_start - bound_start_length) <= 0 " +
+					"OR (seq_region_end + bound_end_length) > " + seqRegionLength + ")";
+		} else {
+			return "select count(" + featureTable + "_id) from " + featureTable + " WHERE seq_region_id=" + 
+					seqRegionId + " AND  (seq_region_start <= 0 OR seq_region_end > " + seqRegionLength + ")";  
+		}
+	}
 }
@@ -36,6 +36,7 @@ import java.sql.SQLException;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.generic.CoreForeignKeys;
 import org.ensembl.healthcheck.Team;
 
@@ -72,27 +73,29 @@ public class FuncgenForeignKeys extends CoreForeignKeys {
 
         Connection con = dbre.getConnection();
 
+        ForeignKeyCatalog relations = new ForeignKeyCatalog();
+
         try{
 
-            result &= checkForOrphans(con, "alignment", "analysis_id", "analysis", "analysis_id", true);
+            relations.oneWay("alignment", "analysis_id", "analysis", "analysis_id");
 //            result &= checkForOrphans(con, "alignment", "bam_file_id", "data_file", "data_file_id", true);
 //            result &= checkForOrphans(con, "alignment", "bigwig_file_id", "data_file", "data_file_id", true);
 
-            result &= checkForOrphans(con, "alignment_read_file", "alignment_id", "alignment", "alignment_id", true);
-            result &= checkForOrphans(con, "alignment_read_file", "read_file_id", "read_file", "read_file_id", true);
+            relations.oneWay("alignment_read_file", "alignment_id", "alignment", "alignment_id");
+            relations.oneWay("alignment_read_file", "read_file_id", "read_file", "read_file_id");
 
-            result &= checkForOrphans(con, "analysis_description", "analysis_id", "analysis", "analysis_id", true);
+            relations.oneWay("analysis_description", "analysis_id", "analysis", "analysis_id");
 
-            result &= checkForOrphans(con, "array_chip", "array_id", "array", "array_id", true);
+            relations.oneWay("array_chip", "array_id", "array", "array_id");
 
-            result &= checkForOrphans(con, "associated_feature_type", "feature_type_id", "feature_type", "feature_type_id", true);
+            relations.oneWay("associated_feature_type", "feature_type_id", "feature_type", "feature_type_id");
 
             try {
                 ResultSet rs = con.createStatement().executeQuery("SELECT distinct(table_name) from associated_feature_type");
 
                 while (rs.next()) {
                     String tableName = rs.getString(1);
-                    result &= checkForOrphansWithConstraint(con, "associated_feature_type", "table_id", tableName, tableName + "_id", "table_name='" + tableName + "'");
+                    relations.withConstraint("associated_feature_type", "table_id", tableName, tableName + "_id", "table_name='" + tableName + "'");
                 }
                 rs.close();
             } catch (SQLException se) {
@@ -100,18 +103,18 @@ public class FuncgenForeignKeys extends CoreForeignKeys {
                 return false;
             }
 
-            result &= checkForOrphans(con, "associated_motif_feature", "motif_feature_id", "motif_feature", "motif_feature_id", true);
+            relations.oneWay("associated_motif_feature", "motif_feature_id", "motif_feature", "motif_feature_id");
 
-            result &= checkForOrphans(con, "associated_xref", "object_xref_id", "object_xref", "object_xref_id", true);
-            result &= checkForOrphans(con, "associated_xref", "xref_id", "xref", "xref_id", true);
-            result &= checkForOrphans(con, "associated_xref", "associated_group_id", "associated_group", "associated_group_id", true);
+            relations.oneWay("associated_xref", "object_xref_id", "object_xref", "object_xref_id");
+            relations.oneWay("associated_xref", "xref_id", "xref", "xref_id");
+            relations.oneWay("associated_xref", "associated_group_id", "associated_group", "associated_group_id");
 
             try {
                 ResultSet rs = con.createStatement().executeQuery("SELECT distinct(table_name) from data_file where table_name != 'alignment' and table_name != 'motif_feature'");
 
                 while (rs.next()){
                     String tableName   = rs.getString(1);
-                    result &= checkForOrphansWithConstraint(con, "data_file", "table_id", tableName, tableName + "_id", "table_name='" + tableName + "'");
+                    relations.withConstraint("data_file", "table_id", tableName, tableName + "_id", "table_name='" + tableName + "'");
                 }
                 rs.close();
             }
@@ -120,37 +123,37 @@ public class FuncgenForeignKeys extends CoreForeignKeys {
                 return false;
             }
 
-            result &= checkForOrphans(con, "experiment", "experimental_group_id", "experimental_group", "experimental_group_id", true);
-            result &= checkForOrphans(con, "experiment", "feature_type_id", "feature_type", "feature_type_id", true);
-            result &= checkForOrphansWithConstraint(con, "experiment", "epigenome_id", "epigenome", "epigenome_id", "epigenome_id != 0");
+            relations.oneWay("experiment", "experimental_group_id", "experimental_group", "experimental_group_id");
+            relations.oneWay("experiment", "feature_type_id", "feature_type", "feature_type_id");
+            relations.withConstraint("experiment", "epigenome_id", "epigenome", "epigenome_id", "epigenome_id != 0");
 
-            result &= checkForOrphans(con, "external_feature", "feature_set_id", "feature_set", "feature_set_id", true);
-            result &= checkForOrphans(con, "external_feature", "feature_type_id", "feature_type", "feature_type_id", true);
+            relations.oneWay("external_feature", "feature_set_id", "feature_set", "feature_set_id");
+            relations.oneWay("external_feature", "feature_type_id", "feature_type", "feature_type_id");
 
-            result &= checkForOrphans(con, "external_feature_file", "analysis_id", "analysis", "analysis_id", true);
-            result &= checkForOrphansWithConstraint(con, "external_feature_file", "epigenome_id", "epigenome", "epigenome_id", "epigenome_id != 0");
-            result &= checkForOrphansWithConstraint(con, "external_feature_file", "feature_type_id", "feature_type", "feature_type_id", "feature_type_id != 0");
+            relations.oneWay("external_feature_file", "analysis_id", "analysis", "analysis_id");
+            relations.withConstraint("external_feature_file", "epigenome_id", "epigenome", "epigenome_id", "epigenome_id != 0");
+            relations.withConstraint("external_feature_file", "feature_type_id", "feature_type", "feature_type_id", "feature_type_id != 0");
 
-            result &= checkForOrphans(con, "external_synonym", "xref_id", "xref", "xref_id", true);
+            relations.oneWay("external_synonym", "xref_id", "xref", "xref_id");
 
-            result &= checkForOrphans(con, "feature_set", "feature_type_id", "feature_type", "feature_type_id", true);
-            result &= checkForOrphans(con, "feature_set", "analysis_id", "analysis", "analysis_id", true);
+            relations.oneWay("feature_set", "feature_type_id", "feature_type", "feature_type_id");
+            relations.oneWay("feature_set", "analysis_id", "analysis", "analysis_id");
 
 //            result &= checkForOrphans(con, "feature_type", "analysis_id", "analysis", "analysis_id", true);
 
-            result &= checkForOrphans(con, "identity_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+            relations.oneWay("identity_xref", "object_xref_id", "object_xref", "object_xref_id");
 
-            result &= checkForOrphans(con, "mirna_target_feature", "feature_type_id", "feature_type", "feature_type_id", true);
+            relations.oneWay("mirna_target_feature", "feature_type_id", "feature_type", "feature_type_id");
 
-            result &= checkForOrphans(con, "motif_feature", "binding_matrix_id", "binding_matrix", "binding_matrix_id", true);
+            relations.oneWay("motif_feature", "binding_matrix_id", "binding_matrix", "binding_matrix_id");
 
-            result &= checkForOrphans(con, "object_xref", "xref_id", "xref", "xref_id", true);
+            relations.oneWay("object_xref", "xref_id", "xref", "xref_id");
             try {
                 ResultSet rs = con.createStatement().executeQuery("SELECT distinct(ensembl_object_type) from object_xref");
 
                 while (rs.next()){
                     String objType   = rs.getString(1);
-                    result &= checkKeysByEnsemblObjectType(con, "object_xref", objType);
+                    addKeysByEnsemblObjectType(relations, "object_xref", objType);
                 }
 
                 rs.close();
@@ -161,51 +164,53 @@ public class FuncgenForeignKeys extends CoreForeignKeys {
             }
 //            result &= checkForOrphans(con, "object_xref", "analysis_id", "analysis", "analysis_id", true);
 
-            result &= checkForOrphans(con, "ontology_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+            relations.oneWay("ontology_xref", "object_xref_id", "object_xref", "object_xref_id");
 
-            result &= checkForOrphans(con, "peak", "peak_calling_id", "peak_calling", "peak_calling_id", true);
+            relations.oneWay("peak", "peak_calling_id", "peak_calling", "peak_calling_id");
 
 //            result &= checkForOrphans(con, "probe", "probe_set_id", "probe_set", "probe_set_id", false);
-            result &= checkForOrphansWithConstraint(con, "probe", "probe_set_id", "probe_set", "probe_set_id", "probe_set_id !=0");
-            result &= checkForOrphans(con, "probe", "array_chip_id", "array_chip", "array_chip_id", false);
-            result &= checkForOrphans(con, "probe", "probe_seq_id", "probe_seq", "probe_seq_id", false);
+            relations.withConstraint("probe", "probe_set_id", "probe_set", "probe_set_id", "probe_set_id !=0");
+            relations.twoWay("probe", "array_chip_id", "array_chip", "array_chip_id");
+            relations.twoWay("probe", "probe_seq_id", "probe_seq", "probe_seq_id");
+
+            relations.oneWay("probe_feature", "probe_id", "probe", "probe_id");
+            relations.oneWay("probe_feature", "analysis_id", "analysis", "analysis_id");
 
-            result &= checkForOrphans(con, "probe_feature", "probe_id", "probe", "probe_id", true);
-            result &= checkForOrphans(con, "probe_feature", "analysis_id", "analysis", "analysis_id", true);
+            relations.oneWay("probe_feature_transcript", "probe_feature_id", "probe_feature", "probe_feature_id");
 
-            result &= checkForOrphans(con, "probe_feature_transcript", "probe_feature_id", "probe_feature", "probe_feature_id", true);
+            relations.oneWay("probe_set", "array_chip_id", "array_chip", "array_chip_id");
 
-            result &= checkForOrphans(con, "probe_set", "array_chip_id", "array_chip", "array_chip_id", true);
+            relations.oneWay("probe_set_transcript", "probe_set_id", "probe_set", "probe_set_id");
 
-            result &= checkForOrphans(con, "probe_set_transcript", "probe_set_id", "probe_set", "probe_set_id", true);
+            relations.oneWay("read_file", "analysis_id", "analysis", "analysis_id");
 
-            result &= checkForOrphans(con, "read_file", "analysis_id", "analysis", "analysis_id", true);
+            relations.oneWay("read_file_experimental_configuration", "read_file_id", "read_file", "read_file_id");
+            relations.oneWay("read_file_experimental_configuration", "experiment_id", "experiment", "experiment_id");
 
-            result &= checkForOrphans(con, "read_file_experimental_configuration", "read_file_id", "read_file", "read_file_id", true);
-            result &= checkForOrphans(con, "read_file_experimental_configuration", "experiment_id", "experiment", "experiment_id", true);
+            relations.oneWay("regulatory_activity", "regulatory_feature_id", "regulatory_feature", "regulatory_feature_id");
+            relations.oneWay("regulatory_activity", "epigenome_id", "epigenome", "epigenome_id");
 
-            result &= checkForOrphans(con, "regulatory_activity", "regulatory_feature_id", "regulatory_feature", "regulatory_feature_id", true);
-            result &= checkForOrphans(con, "regulatory_activity", "epigenome_id", "epigenome", "epigenome_id", true);
+            relations.oneWay("regulatory_build", "feature_type_id", "feature_type", "feature_type_id");
+            relations.oneWay("regulatory_build", "analysis_id", "analysis", "analysis_id");
+            relations.oneWay("regulatory_build", "sample_regulatory_feature_id", "regulatory_feature", "regulatory_feature_id");
 
-            result &= checkForOrphans(con, "regulatory_build", "feature_type_id", "feature_type", "feature_type_id", true);
-            result &= checkForOrphans(con, "regulatory_build", "analysis_id", "analysis", "analysis_id", true);
-            result &= checkForOrphans(con, "regulatory_build", "sample_regulatory_feature_id", "regulatory_feature", "regulatory_feature_id", true);
+            relations.oneWay("regulatory_build_epigenome", "regulatory_build_id", "regulatory_build", "regulatory_build_id");
+            relations.oneWay("regulatory_build_epigenome", "epigenome_id", "epigenome", "epigenome_id");
 
-            result &= checkForOrphans(con, "regulatory_build_epigenome", "regulatory_build_id", "regulatory_build", "regulatory_build_id", true);
-            result &= checkForOrphans(con, "regulatory_build_epigenome", "epigenome_id", "epigenome", "epigenome_id", true);
+            relations.oneWay("regulatory_feature", "feature_type_id", "feature_type", "feature_type_id");
+            relations.oneWay("regulatory_feature", "regulatory_build_id", "regulatory_build", "regulatory_build_id");
 
-            result &= checkForOrphans(con, "regulatory_feature", "feature_type_id", "feature_type", "feature_type_id", true);
-            result &= checkForOrphans(con, "regulatory_feature", "regulatory_build_id", "regulatory_build", "regulatory_build_id", true);
+            relations.oneWay("segmentation_file", "regulatory_build_id", "regulatory_build", "regulatory_build_id");
+            relations.oneWay("segmentation_file", "analysis_id", "analysis", "analysis_id");
+            relations.oneWay("segmentation_file", "epigenome_id", "epigenome", "epigenome_id");
 
-            result &= checkForOrphans(con, "segmentation_file", "regulatory_build_id", "regulatory_build", "regulatory_build_id", true);
-            result &= checkForOrphans(con, "segmentation_file", "analysis_id", "analysis", "analysis_id", true);
-            result &= checkForOrphans(con, "segmentation_file", "epigenome_id", "epigenome", "epigenome_id", true);
+            relations.oneWay("unmapped_object", "analysis_id", "analysis", "analysis_id");
+            relations.optional("unmapped_object", "external_db_id", "external_db", "external_db_id");
+            relations.oneWay("unmapped_object", "unmapped_reason_id", "unmapped_reason", "unmapped_reason_id");
 
-            result &= checkForOrphans(con, "unmapped_object", "analysis_id", "analysis", "analysis_id", true);
-            result &= checkOptionalRelation(con, "unmapped_object", "external_db_id", "external_db", "external_db_id");
-            result &= checkForOrphans(con, "unmapped_object", "unmapped_reason_id", "unmapped_reason", "unmapped_reason_id", true);
+            relations.oneWay("xref", "external_db_id", "external_db", "external_db_id");//shouldn't this be false?
 
-            result &= checkForOrphans(con, "xref", "external_db_id", "external_db", "external_db_id", true);//shouldn't this be false?
+            result &= relations.check(this, dbre);
 		}
 		catch (Exception e) { //Catch all possible exceptions
             ReportManager.problem(this, con, "HealthCheck generated an " +
@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
@@ -46,8 +47,9 @@ public abstract class RegulationComparePreviousVersion extends ComparePreviousVe
 
 		logger.finest("Equivalent database on secondary server is " + sec.getName());
 
+		Future<Map<String, Integer>> previous = submitPreviousCounts(sec);
 		Map currentCounts = getCounts(dbre);
-		Map secondaryCounts = getCounts(sec);
+		Map secondaryCounts = getPreviousCounts(previous);
 
 		// compare each of the secondary (previous release, probably) with current
 		Set externalDBs = secondaryCounts.keySet();
@@ -36,20 +36,45 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 
 /**
  * Base class to compare a certain set of things (e.g. biotypes, xrefs) from one database with the equivalent things in the previous
  * database.
  * 
  * Extending classes should implement the description, threshold and getCounts() methods. See individual Javadocs for details.
+ * 
+ * The counts of the previous database are read on another thread while those of the current database are read. Counts read
+ * from a previous database with {@link #getCountsBySQL(DatabaseRegistryEntry, String)} are kept for the rest of the run, so other
+ * tests and later runs in the same JVM asking the same query of the same database do not go back to the secondary server.
  */
 
 public abstract class ComparePreviousVersionBase extends SingleDatabaseTestCase {
 
+	/** Maximum number of previous databases read at the same time. */
+	private static final int PREVIOUS_THREADS = 8;
+
+	private static ExecutorService previousExecutor;
+
+	/** Counts read from previous databases, by database and SQL. */
+	private static final Map<String, Map<String, Integer>> previousCounts = new ConcurrentHashMap<String, Map<String, Integer>>();
+
+	/** The previous database whose counts are being read on this thread. */
+	private static final ThreadLocal<DatabaseRegistryEntry> readingPrevious = new ThreadLocal<DatabaseRegistryEntry>();
+
 	/**
 	 * Run the test.
 	 * 
@@ -83,8 +108,9 @@ public abstract class ComparePreviousVersionBase extends SingleDatabaseTestCase
 
 		logger.finest("Equivalent database on secondary server is " + sec.getName());
 
+		Future<Map<String, Integer>> previous = submitPreviousCounts(sec);
 		Map currentCounts = getCounts(dbre);
-		Map secondaryCounts = getCounts(sec);
+		Map secondaryCounts = getPreviousCounts(previous);
 
 		// compare each of the secondary (previous release, probably) with current
 		Set externalDBs = secondaryCounts.keySet();
@@ -137,8 +163,107 @@ public abstract class ComparePreviousVersionBase extends SingleDatabaseTestCase
 
 	// ----------------------------------------------------------------------
 
+	/**
+	 * Start reading the counts of the previous database sec on another thread.
+	 */
+	protected Future<Map<String, Integer>> submitPreviousCounts(final DatabaseRegistryEntry sec) {
+
+		// report to the same session as the thread asking for the counts
+		final ReportSession session = ReportManager.getBoundReportSession();
+
+		return getPreviousExecutor().submit(new Callable<Map<String, Integer>>() {
+			public Map<String, Integer> call() {
+				if (session != null) {
+					ReportManager.bindReportSession(session);
+				}
+				ConnectionPool.beginUnboundedLease(ComparePreviousVersionBase.this);
+				readingPrevious.set(sec);
+				try {
+					return countsOf(sec);
+				} finally {
+					readingPrevious.remove();
+					ConnectionPool.endLease();
+					ReportManager.unbindReportSession();
+				}
+			}
+		});
+
+	}
+
+	/**
+	 * getCounts is declared with a raw Map for the subclasses, which all count by name.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Integer> countsOf(DatabaseRegistryEntry dbre) {
+
+		return getCounts(dbre);
+	}
+
+	/**
+	 * Wait for the counts started by {@link #submitPreviousCounts(DatabaseRegistryEntry)}.
+	 */
+	protected Map<String, Integer> getPreviousCounts(Future<Map<String, Integer>> previous) {
+
+		try {
+			return previous.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while reading previous " + entityDescription() + " counts", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SqlUncheckedException("Could not read previous " + entityDescription() + " counts", e.getCause());
+		}
+
+	}
+
+	private static synchronized ExecutorService getPreviousExecutor() {
+
+		if (previousExecutor == null) {
+			previousExecutor = Executors.newFixedThreadPool(PREVIOUS_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "healthcheck-previous-counts");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return previousExecutor;
+
+	}
+
+	// ----------------------------------------------------------------------
+
 	protected Map<String, Integer> getCountsBySQL(DatabaseRegistryEntry dbre, String sql) {
 
+		if (dbre != readingPrevious.get()) {
+			Map<String, Integer> counts = readCountsBySQL(dbre, sql);
+			return counts == null ? new HashMap<String, Integer>() : counts;
+		}
+
+		String key = (dbre.getDatabaseServer() == null ? "" : dbre.getDatabaseServer().getDatabaseURL()) + dbre.getName() + "\n" + sql;
+		Map<String, Integer> counts = previousCounts.get(key);
+		if (counts == null) {
+			counts = readCountsBySQL(dbre, sql);
+			if (counts == null) {
+				// not kept, so the next test asking tries the secondary server again
+				return new HashMap<String, Integer>();
+			}
+			previousCounts.put(key, counts);
+		} else {
+			logger.finest("Using " + entityDescription() + " counts for " + dbre.getName() + " read earlier in this run");
+		}
+		// callers may add to the map
+		return new HashMap<String, Integer>(counts);
+
+	}
+
+	/**
+	 * @return The counts, or null if they could not be read.
+	 */
+	private Map<String, Integer> readCountsBySQL(DatabaseRegistryEntry dbre, String sql) {
+
 		Map<String, Integer> result = new HashMap<String, Integer>();
 
 		try {
@@ -157,7 +282,8 @@ public abstract class ComparePreviousVersionBase extends SingleDatabaseTestCase
 			stmt.close();
 
 		} catch (SQLException e) {
-			e.printStackTrace();
+			logger.warning("Could not read " + entityDescription() + " counts for " + dbre.getName() + ": " + e.getMessage());
+			return null;
 		}
 
 		return result;
@@ -36,11 +36,13 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseType;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
 
 /**
- * An EnsEMBL Healthcheck test case that looks for broken foreign-key relationships.
+ * An EnsEMBL Healthcheck test case that looks for broken foreign-key relationships. The relations are declared in a
+ * {@link ForeignKeyCatalog} and checked concurrently.
  */
 
 public class CoreForeignKeys extends SingleDatabaseTestCase {
@@ -68,94 +70,96 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 
 		Connection con = dbre.getConnection();
 
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
+
 		// ----------------------------
 
-		result &= checkForOrphans(con, "exon", "exon_id", "exon_transcript", "exon_id", false);
+		relations.twoWay("exon", "exon_id", "exon_transcript", "exon_id");
 
-		result &= checkForOrphans(con, "transcript", "transcript_id", "exon_transcript", "transcript_id", false);
+		relations.twoWay("transcript", "transcript_id", "exon_transcript", "transcript_id");
 
-		result &= checkForOrphans(con, "gene", "gene_id", "transcript", "gene_id", false);
+		relations.twoWay("gene", "gene_id", "transcript", "gene_id");
 
-		result &= checkForOrphans(con, "object_xref", "xref_id", "xref", "xref_id", true);
+		relations.oneWay("object_xref", "xref_id", "xref", "xref_id");
 
-		result &= checkForOrphans(con, "xref", "external_db_id", "external_db", "external_db_id", true);
+		relations.oneWay("xref", "external_db_id", "external_db", "external_db_id");
 
-		result &= checkForOrphans(con, "dna", "seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("dna", "seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "seq_region", "coord_system_id", "coord_system", "coord_system_id", true);
+		relations.oneWay("seq_region", "coord_system_id", "coord_system", "coord_system_id");
 
-		result &= checkForOrphans(con, "assembly", "cmp_seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("assembly", "cmp_seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "marker_feature", "marker_id", "marker", "marker_id", true);
+		relations.oneWay("marker_feature", "marker_id", "marker", "marker_id");
 
-		result &= checkForOrphans(con, "seq_region_attrib", "seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("seq_region_attrib", "seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "seq_region_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
+		relations.oneWay("seq_region_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
 
-		result &= checkForOrphans(con, "misc_feature_misc_set", "misc_feature_id", "misc_feature", "misc_feature_id", true);
+		relations.oneWay("misc_feature_misc_set", "misc_feature_id", "misc_feature", "misc_feature_id");
 
-		result &= checkForOrphans(con, "misc_feature_misc_set", "misc_set_id", "misc_set", "misc_set_id", true);
+		relations.oneWay("misc_feature_misc_set", "misc_set_id", "misc_set", "misc_set_id");
 
 		// for a sangervega db, ignore misc_featres whcih have no annotation
 		if (dbre.getType() == DatabaseType.SANGER_VEGA) {
-			result &= checkForOrphansWithConstraint(con, "misc_feature", "misc_feature_id", "misc_attrib", "misc_feature_id",
+			relations.withConstraint("misc_feature", "misc_feature_id", "misc_attrib", "misc_feature_id",
 					"misc_feature_id NOT IN (select mfms.misc_feature_id from misc_feature_misc_set as mfms join misc_set as ms on mfms.misc_set_id=ms.misc_set_id and ms.code='noAnnotation')");
 		} else {
-			result &= checkForOrphans(con, "misc_feature", "misc_feature_id", "misc_attrib", "misc_feature_id", true);
+			relations.oneWay("misc_feature", "misc_feature_id", "misc_attrib", "misc_feature_id");
 		}
 
-		result &= checkForOrphans(con, "misc_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
+		relations.oneWay("misc_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
 
-		result &= checkForOrphans(con, "assembly_exception", "seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("assembly_exception", "seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "assembly_exception", "exc_seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("assembly_exception", "exc_seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "protein_feature", "translation_id", "translation", "translation_id", true);
+		relations.oneWay("protein_feature", "translation_id", "translation", "translation_id");
 
-		result &= checkForOrphans(con, "marker_synonym", "marker_id", "marker", "marker_id", true);
+		relations.oneWay("marker_synonym", "marker_id", "marker", "marker_id");
 
-		result &= checkForOrphans(con, "translation_attrib", "translation_id", "translation", "translation_id", true);
+		relations.oneWay("translation_attrib", "translation_id", "translation", "translation_id");
 
-		result &= checkForOrphans(con, "transcript_attrib", "transcript_id", "transcript", "transcript_id", true);
+		relations.oneWay("transcript_attrib", "transcript_id", "transcript", "transcript_id");
 
 		/*
 		 * // now redundant (done for all tables with analysis_id) result &= checkForOrphans(con, "analysis_id", "analysis",
 		 * "analysis_id", true); result &= checkForOrphans(con, "transcript", "analysis_id", "analysis", "analysis_id", true);
 		 */
 
-		result &= checkForOrphans(con, "external_synonym", "xref_id", "xref", "xref_id", true);
+		relations.oneWay("external_synonym", "xref_id", "xref", "xref_id");
 
-		result &= checkForOrphans(con, "identity_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+		relations.oneWay("identity_xref", "object_xref_id", "object_xref", "object_xref_id");
 
-		result &= checkForOrphans(con, "supporting_feature", "exon_id", "exon", "exon_id", true);
+		relations.oneWay("supporting_feature", "exon_id", "exon", "exon_id");
 
-		result &= checkForOrphans(con, "translation", "transcript_id", "transcript", "transcript_id", true);
+		relations.oneWay("translation", "transcript_id", "transcript", "transcript_id");
 
-		result &= checkForOrphans(con, "ontology_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+		relations.oneWay("ontology_xref", "object_xref_id", "object_xref", "object_xref_id");
 		
-		result &= checkForOrphans(con, "associated_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+		relations.oneWay("associated_xref", "object_xref_id", "object_xref", "object_xref_id");
 
-		result &= checkForOrphans(con, "associated_xref", "xref_id", "xref", "xref_id", true);
+		relations.oneWay("associated_xref", "xref_id", "xref", "xref_id");
 
-		result &= checkForOrphans(con, "associated_xref", "source_xref_id", "xref", "xref_id", true);
+		relations.oneWay("associated_xref", "source_xref_id", "xref", "xref_id");
 
-		result &= checkForOrphans(con, "dependent_xref", "object_xref_id", "object_xref", "object_xref_id", true);
+		relations.oneWay("dependent_xref", "object_xref_id", "object_xref", "object_xref_id");
 
-		result &= checkForOrphans(con, "dependent_xref", "master_xref_id", "xref", "xref_id", true);
+		relations.oneWay("dependent_xref", "master_xref_id", "xref", "xref_id");
 
-		result &= checkForOrphans(con, "dependent_xref", "dependent_xref_id", "xref", "xref_id", true);
+		relations.oneWay("dependent_xref", "dependent_xref_id", "xref", "xref_id");
 
 		// stable ID archive
-		result &= checkForOrphansWithConstraint(con, "gene_archive", "peptide_archive_id", "peptide_archive", "peptide_archive_id", "peptide_archive_id != 0");
-		result &= checkForOrphans(con, "peptide_archive", "peptide_archive_id", "gene_archive", "peptide_archive_id", true);
-		result &= checkForOrphans(con, "stable_id_event", "mapping_session_id", "mapping_session", "mapping_session_id", false);
-		result &= checkForOrphans(con, "gene_archive", "mapping_session_id", "mapping_session", "mapping_session_id", true);
+		relations.withConstraint("gene_archive", "peptide_archive_id", "peptide_archive", "peptide_archive_id", "peptide_archive_id != 0");
+		relations.oneWay("peptide_archive", "peptide_archive_id", "gene_archive", "peptide_archive_id");
+		relations.twoWay("stable_id_event", "mapping_session_id", "mapping_session", "mapping_session_id");
+		relations.oneWay("gene_archive", "mapping_session_id", "mapping_session", "mapping_session_id");
 
 		// ----------------------------
 		// Check object xrefs point to existing objects
 		String[] types = { "Gene", "Transcript", "Translation" };
 		for (int i = 0; i < types.length; i++) {
-			result &= checkKeysByEnsemblObjectType(con, "object_xref", types[i]);
+			addKeysByEnsemblObjectType(relations, "object_xref", types[i]);
 		}
 
 		// ----------------------------
@@ -168,56 +172,56 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 			// if (featTab.equals("protein_align_feature") || featTab.equals("dna_align_feature") || featTab.equals("repeat_feature")) {
 			// continue;
 			// }
-			result &= checkForOrphans(con, featTab, "seq_region_id", "seq_region", "seq_region_id", true);
+			relations.oneWay(featTab, "seq_region_id", "seq_region", "seq_region_id");
 		}
 
-		result &= checkForOrphans(con, "analysis_description", "analysis_id", "analysis", "analysis_id", true);
+		relations.oneWay("analysis_description", "analysis_id", "analysis", "analysis_id");
 
-		result &= checkForOrphans(con, "gene_attrib", "gene_id", "gene", "gene_id", true);
-		result &= checkForOrphans(con, "gene_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
-		result &= checkForOrphans(con, "transcript_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
-		result &= checkForOrphans(con, "translation_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
+		relations.oneWay("gene_attrib", "gene_id", "gene", "gene_id");
+		relations.oneWay("gene_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
+		relations.oneWay("transcript_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
+		relations.oneWay("translation_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
 
-		result &= checkForOrphans(con, "translation", "end_exon_id", "exon", "exon_id", true);
-		result &= checkForOrphans(con, "translation", "start_exon_id", "exon", "exon_id", true);
+		relations.oneWay("translation", "end_exon_id", "exon", "exon_id");
+		relations.oneWay("translation", "start_exon_id", "exon", "exon_id");
 
-		result &= checkForOrphans(con, "alt_allele", "gene_id", "gene", "gene_id", true);
+		relations.oneWay("alt_allele", "gene_id", "gene", "gene_id");
 
-		result &= checkForOrphans(con, "marker_map_location", "map_id", "map", "map_id", true);
-		result &= checkForOrphans(con, "marker_map_location", "marker_id", "marker", "marker_id", true);
-		result &= checkForOrphans(con, "marker_map_location", "marker_synonym_id", "marker_synonym", "marker_synonym_id", true);
+		relations.oneWay("marker_map_location", "map_id", "map", "map_id");
+		relations.oneWay("marker_map_location", "marker_id", "marker", "marker_id");
+		relations.oneWay("marker_map_location", "marker_synonym_id", "marker_synonym", "marker_synonym_id");
 
 		// 73 -> 74 core schema patch: qtl* removed
 		// result &= checkForOrphans(con, "qtl_feature", "qtl_id", "qtl", "qtl_id", true);
 		// result &= checkForOrphans(con, "qtl_synonym", "qtl_id", "qtl", "qtl_id", true);
 
-		result &= checkForOrphans(con, "assembly", "asm_seq_region_id", "seq_region", "seq_region_id", true);
+		relations.oneWay("assembly", "asm_seq_region_id", "seq_region", "seq_region_id");
 
-		result &= checkForOrphans(con, "unmapped_object", "unmapped_reason_id", "unmapped_reason", "unmapped_reason_id", true);
-		result &= checkForOrphans(con, "unmapped_object", "analysis_id", "analysis", "analysis_id", true);
+		relations.oneWay("unmapped_object", "unmapped_reason_id", "unmapped_reason", "unmapped_reason_id");
+		relations.oneWay("unmapped_object", "analysis_id", "analysis", "analysis_id");
 
-		result &= checkForOrphansWithConstraint(con, "supporting_feature", "feature_id", "dna_align_feature", "dna_align_feature_id", "feature_type = 'dna_align_feature'");
+		relations.withConstraint("supporting_feature", "feature_id", "dna_align_feature", "dna_align_feature_id", "feature_type = 'dna_align_feature'");
 
-		result &= checkForOrphansWithConstraint(con, "supporting_feature", "feature_id", "protein_align_feature", "protein_align_feature_id", "feature_type = 'protein_align_feature'");
+		relations.withConstraint("supporting_feature", "feature_id", "protein_align_feature", "protein_align_feature_id", "feature_type = 'protein_align_feature'");
 
-		result &= checkForOrphansWithConstraint(con, "transcript_supporting_feature", "feature_id", "dna_align_feature", "dna_align_feature_id", "feature_type = 'dna_align_feature'");
+		relations.withConstraint("transcript_supporting_feature", "feature_id", "dna_align_feature", "dna_align_feature_id", "feature_type = 'dna_align_feature'");
 
-		result &= checkForOrphansWithConstraint(con, "transcript_supporting_feature", "feature_id", "protein_align_feature", "protein_align_feature_id", "feature_type = 'protein_align_feature'");
+		relations.withConstraint("transcript_supporting_feature", "feature_id", "protein_align_feature", "protein_align_feature_id", "feature_type = 'protein_align_feature'");
 
-		result &= checkForOrphans(con, "density_feature", "density_type_id", "density_type", "density_type_id");
+		relations.oneWay("density_feature", "density_type_id", "density_type", "density_type_id");
 
-		result &= checkForOrphans(con, "prediction_exon", "prediction_transcript_id", "prediction_transcript", "prediction_transcript_id");
+		relations.oneWay("prediction_exon", "prediction_transcript_id", "prediction_transcript", "prediction_transcript_id");
 
 		// result &= checkForOrphans(con, "prediction_exon", "prediction_exon_id", "exon", "exon_id");
 
-		result &= checkForOrphans(con, "marker", "display_marker_synonym_id", "marker_synonym", "marker_synonym_id");
+		relations.oneWay("marker", "display_marker_synonym_id", "marker_synonym", "marker_synonym_id");
 
 		// optional relations
 		// 73 -> 74 core schema patch: qtl* removed
 		// result &= checkOptionalRelation(con, "qtl", "flank_marker_id_1", "marker", "marker_id");
 		// result &= checkOptionalRelation(con, "qtl", "flank_marker_id_2", "marker", "marker_id");
 		// result &= checkOptionalRelation(con, "qtl", "peak_marker_id", "marker", "marker_id");
-		result &= checkOptionalRelation(con, "unmapped_object", "external_db_id", "external_db", "external_db_id");
+		relations.optional("unmapped_object", "external_db_id", "external_db", "external_db_id");
 
 		/*
 		 * don't test
@@ -241,15 +245,15 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 			  constraint += " and "+analysisTab+".analysis_id <> 0";
 			}
 
-			if (countOrphansWithConstraint(con, analysisTab, "analysis_id", "analysis", "analysis_id", constraint) > 0) {
-				ReportManager.problem(this, con, "FAILED " + analysisTab + " -> analysis using FK analysis_id relationships");
-				result = false;
-			}
+			relations.withConstraint(analysisTab, "analysis_id", "analysis", "analysis_id", constraint, "FAILED " + analysisTab
+					+ " -> analysis using FK analysis_id relationships");
 
 		}
 
 		// end new tests
 
+		result &= relations.check(this, dbre);
+
 
 		// added by dr2: check that the foreign key display_marker_synonym_id points to a synonym
 		// for the marker
@@ -260,6 +264,20 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 	}
 
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Add the relation checked by {@link #checkKeysByEnsemblObjectType(Connection, String, String)}
+	 * to relations.
+	 */
+	protected void addKeysByEnsemblObjectType(ForeignKeyCatalog relations, String baseTable, String type) {
+
+		String table = type.replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase();
+		String column = baseTable.equals("object_xref") ? "ensembl_id" : "ensembl_object_id";
+
+		relations.withConstraint(baseTable, column, table, table + "_id", "ensembl_object_type=\'" + type + "\'");
+
+	}
+
 	// -------------------------------------------------------------------------
 	public boolean checkKeysByEnsemblObjectType(Connection con, String baseTable, String type) {
 
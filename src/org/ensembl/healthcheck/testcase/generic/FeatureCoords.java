@@ -73,7 +73,7 @@ public class FeatureCoords extends SingleDatabaseTestCase {
         String sql = "SELECT s.seq_region_id,s.length FROM seq_region s join seq_region_attrib a USING (seq_region_id) WHERE a.attrib_type_id = 6";
         DefaultMapRowMapper<String, Integer> mapper = new DefaultMapRowMapper<String, Integer>(String.class, Integer.class);
                              
-        seq_regions = t.queryForMap(sql,mapper);
+        seq_regions = t.queryForCachedMap(sql,mapper);
         
 		for (int tableIndex = 0; tableIndex < featureTables.length; tableIndex++) {
 
@@ -0,0 +1,555 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.ensembl.healthcheck.CatalogCache;
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.ensembl.healthcheck.util.SqlTemplate.ResultSetCallback;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
+
+/**
+ * <p>
+ * Immutable snapshot of the structure of a database: its tables with their
+ * columns, indexes and create table options, and its views. It is read with
+ * three bulk queries on information_schema, rather than with metadata calls
+ * and SHOW CREATE TABLE for every table.
+ * </p>
+ *
+ * <p>
+ * Master schemas are read once per run with {@link #getCached} and shared by
+ * all the threads comparing databases to them, until {@link #clearCache()}
+ * is called. If the system property
+ * {@value #MODEL_DIR} names a directory, they are also kept there between
+ * runs, in a file named after the database and its schema version. Delete
+ * the file if the master changes without a new schema version. Models are
+ * also kept in the {@link CatalogCache} if it is on.
+ * </p>
+ */
+public final class SchemaModel implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** System property naming the directory to keep master schemas in. */
+	public static final String MODEL_DIR = "schema.model.dir";
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Master schemas read in this run, or being read, by server and name. */
+	private static final ConcurrentMap<String, FutureTask<SchemaModel>> cache = new ConcurrentHashMap<String, FutureTask<SchemaModel>>();
+
+	private static final Pattern MAX_ROWS = Pattern.compile("max_rows=(\\d+)", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern AVG_ROW_LENGTH = Pattern.compile("avg_row_length=(\\d+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * A column of a table. Columns are equal if they have the same name and
+	 * definition.
+	 */
+	public static final class Column implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final String columnType;
+		private final boolean nullable;
+		private final String columnDefault;
+		private final long charOctetLength;
+		private final boolean autoIncrement;
+
+		public Column(String name, String columnType, boolean nullable, String columnDefault, long charOctetLength,
+				boolean autoIncrement) {
+			this.name = name;
+			this.columnType = columnType;
+			this.nullable = nullable;
+			this.columnDefault = columnDefault;
+			this.charOctetLength = charOctetLength;
+			this.autoIncrement = autoIncrement;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The full type, e.g. "int(10) unsigned"
+		 */
+		public String getColumnType() {
+			return columnType;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Column))
+				return false;
+			Column other = (Column) obj;
+			return autoIncrement == other.autoIncrement && charOctetLength == other.charOctetLength
+					&& nullable == other.nullable && StringUtils.equals(name, other.name)
+					&& StringUtils.equals(columnType, other.columnType)
+					&& StringUtils.equals(columnDefault, other.columnDefault);
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (autoIncrement ? 1231 : 1237);
+			result = prime * result + (int) charOctetLength;
+			result = prime * result + ((columnDefault == null) ? 0 : columnDefault.hashCode());
+			result = prime * result + ((columnType == null) ? 0 : columnType.hashCode());
+			result = prime * result + ((name == null) ? 0 : name.hashCode());
+			result = prime * result + (nullable ? 1231 : 1237);
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	/**
+	 * An index of a table. Equality does not take the name into account, only
+	 * the columns, uniqueness and type.
+	 */
+	public static final class Index implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final List<String> columns;
+		private final boolean nonUnique;
+		private final String type;
+
+		public Index(String name, List<String> columns, boolean nonUnique, String type) {
+			this.name = name;
+			this.columns = Collections.unmodifiableList(new ArrayList<String>(columns));
+			this.nonUnique = nonUnique;
+			this.type = type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Index))
+				return false;
+			Index other = (Index) obj;
+			return columns.equals(other.columns) && nonUnique == other.nonUnique && StringUtils.equals(type, other.type);
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + columns.hashCode();
+			result = prime * result + (nonUnique ? 1231 : 1237);
+			result = prime * result + ((type == null) ? 0 : type.hashCode());
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return name + "=[" + StringUtils.join(columns, ',') + "]";
+		}
+	}
+
+	/**
+	 * A table with its columns, indexes and create table options.
+	 */
+	public static final class Table implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final Set<Column> columns;
+		private final Set<Index> indexes;
+		private final Map<SchemaComparer.TestTypes, Object> options;
+
+		Table(String name, Set<Column> columns, Set<Index> indexes, Map<SchemaComparer.TestTypes, Object> options) {
+			this.name = name;
+			this.columns = Collections.unmodifiableSet(columns);
+			this.indexes = Collections.unmodifiableSet(indexes);
+			this.options = Collections.unmodifiableMap(options);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Set<Column> getColumns() {
+			return columns;
+		}
+
+		public Set<Index> getIndexes() {
+			return indexes;
+		}
+
+		/**
+		 * @param option
+		 *          One of {@link SchemaComparer.TestTypes#AVG_ROW_LENGTH},
+		 *          {@link SchemaComparer.TestTypes#MAX_ROWS},
+		 *          {@link SchemaComparer.TestTypes#CHARSET} or
+		 *          {@link SchemaComparer.TestTypes#ENGINE}.
+		 * @return The value of the option, an Integer for the numeric options
+		 *         and a String otherwise. The empty String if it is not set.
+		 */
+		public Object getOption(SchemaComparer.TestTypes option) {
+			Object value = options.get(option);
+			return (value == null) ? StringUtils.EMPTY : value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Table))
+				return false;
+			Table other = (Table) obj;
+			return name.equals(other.name) && columns.equals(other.columns) && indexes.equals(other.indexes)
+					&& options.equals(other.options);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	private final String name;
+
+	private final Map<String, Table> tables;
+
+	private final Set<String> views;
+
+	SchemaModel(String name, Map<String, Table> tables, Set<String> views) {
+		this.name = name;
+		this.tables = Collections.unmodifiableMap(tables);
+		this.views = Collections.unmodifiableSet(views);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The names of the base tables.
+	 */
+	public Set<String> getTableNames() {
+		return tables.keySet();
+	}
+
+	/**
+	 * @return The table, or null if there is no base table called name.
+	 */
+	public Table getTable(String name) {
+		return tables.get(name);
+	}
+
+	public Set<String> getViews() {
+		return views;
+	}
+
+	/**
+	 * Read the structure of the current database of con.
+	 */
+	public static SchemaModel load(Connection con, String name) {
+
+		SqlTemplate template = new ConnectionBasedSqlTemplateImpl(con);
+
+		final Map<String, Map<SchemaComparer.TestTypes, Object>> options = new LinkedHashMap<String, Map<SchemaComparer.TestTypes, Object>>();
+		final Set<String> views = new LinkedHashSet<String>();
+
+		template.execute("SELECT t.TABLE_NAME, t.TABLE_TYPE, t.ENGINE, t.CREATE_OPTIONS, c.CHARACTER_SET_NAME "
+				+ "FROM information_schema.TABLES t "
+				+ "LEFT JOIN information_schema.COLLATION_CHARACTER_SET_APPLICABILITY c ON (t.TABLE_COLLATION = c.COLLATION_NAME) "
+				+ "WHERE t.TABLE_SCHEMA = DATABASE() ORDER BY t.TABLE_NAME", new ResultSetCallback<Void>() {
+					public Void process(ResultSet rs) throws SQLException {
+						while (rs.next()) {
+							String table = rs.getString(1);
+							if ("VIEW".equals(rs.getString(2))) {
+								views.add(table);
+								continue;
+							}
+							if (!"BASE TABLE".equals(rs.getString(2))) {
+								continue;
+							}
+							Map<SchemaComparer.TestTypes, Object> tableOptions = new LinkedHashMap<SchemaComparer.TestTypes, Object>();
+							putOption(tableOptions, SchemaComparer.TestTypes.ENGINE, rs.getString(3));
+							putOption(tableOptions, SchemaComparer.TestTypes.CHARSET, rs.getString(5));
+							String createOptions = StringUtils.defaultString(rs.getString(4));
+							putOption(tableOptions, SchemaComparer.TestTypes.MAX_ROWS, matchInteger(MAX_ROWS, createOptions));
+							putOption(tableOptions, SchemaComparer.TestTypes.AVG_ROW_LENGTH, matchInteger(AVG_ROW_LENGTH, createOptions));
+							options.put(table, tableOptions);
+						}
+						return null;
+					}
+				});
+
+		final Map<String, Set<Column>> columns = new LinkedHashMap<String, Set<Column>>();
+
+		template.execute("SELECT TABLE_NAME, COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, COLUMN_DEFAULT, CHARACTER_OCTET_LENGTH, EXTRA "
+				+ "FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() ORDER BY TABLE_NAME, ORDINAL_POSITION",
+				new ResultSetCallback<Void>() {
+					public Void process(ResultSet rs) throws SQLException {
+						while (rs.next()) {
+							Set<Column> tableColumns = columns.get(rs.getString(1));
+							if (tableColumns == null) {
+								tableColumns = new LinkedHashSet<Column>();
+								columns.put(rs.getString(1), tableColumns);
+							}
+							String extra = StringUtils.defaultString(rs.getString(7));
+							tableColumns.add(new Column(rs.getString(2), rs.getString(3), "YES".equals(rs.getString(4)),
+									rs.getString(5), rs.getLong(6), extra.toLowerCase().contains("auto_increment")));
+						}
+						return null;
+					}
+				});
+
+		final Map<String, Map<String, List<Object>>> indexes = new LinkedHashMap<String, Map<String, List<Object>>>();
+
+		template.execute("SELECT TABLE_NAME, INDEX_NAME, NON_UNIQUE, INDEX_TYPE, COLUMN_NAME "
+				+ "FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() ORDER BY TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX",
+				new ResultSetCallback<Void>() {
+					public Void process(ResultSet rs) throws SQLException {
+						while (rs.next()) {
+							Map<String, List<Object>> tableIndexes = indexes.get(rs.getString(1));
+							if (tableIndexes == null) {
+								tableIndexes = new LinkedHashMap<String, List<Object>>();
+								indexes.put(rs.getString(1), tableIndexes);
+							}
+							List<Object> index = tableIndexes.get(rs.getString(2));
+							if (index == null) {
+								// non-unique flag, type, then the columns
+								index = new ArrayList<Object>();
+								index.add(rs.getInt(3) != 0);
+								index.add(rs.getString(4));
+								tableIndexes.put(rs.getString(2), index);
+							}
+							index.add(rs.getString(5));
+						}
+						return null;
+					}
+				});
+
+		Map<String, Table> tables = new LinkedHashMap<String, Table>();
+		for (Map.Entry<String, Map<SchemaComparer.TestTypes, Object>> entry : options.entrySet()) {
+			String table = entry.getKey();
+			Set<Column> tableColumns = columns.containsKey(table) ? columns.get(table) : new LinkedHashSet<Column>();
+			Set<Index> tableIndexes = new LinkedHashSet<Index>();
+			if (indexes.containsKey(table)) {
+				for (Map.Entry<String, List<Object>> index : indexes.get(table).entrySet()) {
+					List<Object> definition = index.getValue();
+					List<String> indexColumns = new ArrayList<String>();
+					for (Object column : definition.subList(2, definition.size())) {
+						indexColumns.add((String) column);
+					}
+					tableIndexes.add(new Index(index.getKey(), indexColumns, (Boolean) definition.get(0), (String) definition.get(1)));
+				}
+			}
+			tables.put(table, new Table(table, tableColumns, tableIndexes, entry.getValue()));
+		}
+
+		return new SchemaModel(name, tables, views);
+
+	}
+
+	/**
+	 * Return the model of dbre. It is taken from the {@link CatalogCache} if
+	 * the database has not changed since it was cached, otherwise it is read
+	 * and cached.
+	 */
+	public static SchemaModel get(DatabaseRegistryEntry dbre) {
+
+		CatalogCache.Entry catalogued = CatalogCache.get(dbre);
+		SchemaModel model = (catalogued == null) ? null : catalogued.getSchema();
+		if (model == null) {
+			model = load(dbre.getConnection(), dbre.getName());
+			if (catalogued != null) {
+				catalogued.setSchema(model);
+			}
+		}
+		return model;
+
+	}
+
+	/**
+	 * Return the model of a master schema, reading it the first time it is
+	 * asked for in this run. Concurrent callers asking for the same master
+	 * wait for the first one to finish reading it, other masters are read at
+	 * the same time.
+	 */
+	public static SchemaModel getCached(final DatabaseRegistryEntry dbre) {
+
+		String key = dbre.getDatabaseServer() == null ? dbre.getName()
+				: dbre.getDatabaseServer().getDatabaseURL() + dbre.getName();
+
+		FutureTask<SchemaModel> task = cache.get(key);
+		if (task == null) {
+			FutureTask<SchemaModel> created = new FutureTask<SchemaModel>(new Callable<SchemaModel>() {
+				public SchemaModel call() {
+					return readMaster(dbre);
+				}
+			});
+			task = cache.putIfAbsent(key, created);
+			if (task == null) {
+				task = created;
+				task.run();
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while reading the schema of " + dbre.getName(), e);
+		} catch (ExecutionException e) {
+			// not kept, so the next caller tries again
+			cache.remove(key, task);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SqlUncheckedException("Could not read the schema of " + dbre.getName(), e.getCause());
+		}
+
+	}
+
+	/**
+	 * Forget the master schemas read so far, so they are read again the next
+	 * time they are asked for. Called by the daemon for each request, as
+	 * masters may have been edited since the last one.
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	private static SchemaModel readMaster(DatabaseRegistryEntry dbre) {
+
+		SchemaModel model = null;
+		CatalogCache.Entry catalogued = CatalogCache.get(dbre);
+		if (catalogued != null) {
+			model = catalogued.getSchema();
+		}
+		File file = getModelFile(dbre);
+		if (model == null && file != null && file.exists()) {
+			model = read(file);
+		}
+		if (model == null) {
+			logger.info("Reading the schema of " + dbre.getName());
+			model = load(dbre.getConnection(), dbre.getName());
+			if (file != null) {
+				write(model, file);
+			}
+		}
+		if (catalogued != null && catalogued.getSchema() == null) {
+			catalogued.setSchema(model);
+		}
+		return model;
+
+	}
+
+	/**
+	 * @return Where to keep the model of dbre between runs, or null if models
+	 *         should not be kept.
+	 */
+	private static File getModelFile(DatabaseRegistryEntry dbre) {
+		String dir = System.getProperty(MODEL_DIR);
+		String version = dbre.getSchemaVersion();
+		if (StringUtils.isEmpty(dir) || StringUtils.isEmpty(version)) {
+			return null;
+		}
+		return new File(dir, dbre.getName() + "_" + version + ".schema");
+	}
+
+	private static SchemaModel read(File file) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try {
+				logger.info("Read schema from " + file);
+				return (SchemaModel) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warning("Could not read schema from " + file + ": " + e.getMessage());
+		} catch (ClassNotFoundException e) {
+			logger.warning("Could not read schema from " + file + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	private static void write(SchemaModel model, File file) {
+		try {
+			file.getParentFile().mkdirs();
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+			try {
+				out.writeObject(model);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			logger.warning("Could not write schema to " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void putOption(Map<SchemaComparer.TestTypes, Object> options, SchemaComparer.TestTypes option, Object value) {
+		if (value != null) {
+			options.put(option, value);
+		}
+	}
+
+	private static Integer matchInteger(Pattern p, String s) {
+		Matcher matcher = p.matcher(s);
+		return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+	}
+
+}
@@ -23,6 +23,7 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
 
@@ -56,97 +57,92 @@ public class VariationForeignKeys extends SingleDatabaseTestCase {
 
 		Connection con = dbre.getConnection();
 
+		ForeignKeyCatalog relations = new ForeignKeyCatalog();
+
 		try {
 			
 			/*
 			 * This is allowed allele can have null population_id 
 			 * result &= checkForOrphans(con, "allele", "population_id", "population", "population_id",true);
 			 */
-			result &= checkForOrphans(con, "allele", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "allele_synonym", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "compressed_genotype_region", "sample_id", "sample", "sample_id", true);
-			result &= checkForOrphans(con, "compressed_genotype_region", "seq_region_id", "seq_region", "seq_region_id", true);
-			result &= checkForOrphans(con, "compressed_genotype_var", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "failed_allele", "failed_description_id", "failed_description", "failed_description_id", true);
-			result &= checkForOrphans(con, "failed_allele", "allele_id", "allele", "allele_id", true);
-			result &= checkForOrphans(con, "failed_variation", "failed_description_id", "failed_description", "failed_description_id", true);
-			result &= checkForOrphans(con, "failed_variation", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "failed_structural_variation", "failed_description_id", "failed_description", "failed_description_id", true);
-			result &= checkForOrphans(con, "failed_structural_variation", "structural_variation_id", "structural_variation", "structural_variation_id", true);
-			result &= checkForOrphans(con, "sample_genotype_multiple_bp", "sample_id", "sample_population", "sample_id", true);
-			result &= checkForOrphans(con, "sample_genotype_multiple_bp", "sample_id", "sample", "sample_id", true);
-			result &= checkForOrphans(con, "sample_population", "sample_id", "sample", "sample_id", true);
-			result &= checkForOrphans(con, "sample_population", "population_id", "population", "population_id", true);
-			result &= checkForOrphans(con, "sample_synonym", "sample_id", "sample", "sample_id", true);
-			result &= checkForOrphans(con, "sample_synonym", "source_id", "source", "source_id", true);
-			result &= checkForOrphans(con, "individual_synonym", "individual_id", "individual", "individual_id", true);
-			result &= checkForOrphans(con, "phenotype", "phenotype_id", "phenotype_feature", "phenotype_id", true);
-			result &= checkForOrphans(con, "phenotype_feature", "phenotype_id", "phenotype", "phenotype_id", true);
-			result &= checkForOrphans(con, "phenotype_feature", "seq_region_id", "seq_region", "seq_region_id", true);
-			result &= checkForOrphans(con, "phenotype_feature", "source_id", "source", "source_id", true);
+			relations.oneWay("allele", "variation_id", "variation", "variation_id");
+			relations.oneWay("allele_synonym", "variation_id", "variation", "variation_id");
+			relations.oneWay("compressed_genotype_region", "sample_id", "sample", "sample_id");
+			relations.oneWay("compressed_genotype_region", "seq_region_id", "seq_region", "seq_region_id");
+			relations.oneWay("compressed_genotype_var", "variation_id", "variation", "variation_id");
+			relations.oneWay("failed_allele", "failed_description_id", "failed_description", "failed_description_id");
+			relations.oneWay("failed_allele", "allele_id", "allele", "allele_id");
+			relations.oneWay("failed_variation", "failed_description_id", "failed_description", "failed_description_id");
+			relations.oneWay("failed_variation", "variation_id", "variation", "variation_id");
+			relations.oneWay("failed_structural_variation", "failed_description_id", "failed_description", "failed_description_id");
+			relations.oneWay("failed_structural_variation", "structural_variation_id", "structural_variation", "structural_variation_id");
+			relations.oneWay("sample_genotype_multiple_bp", "sample_id", "sample_population", "sample_id");
+			relations.oneWay("sample_genotype_multiple_bp", "sample_id", "sample", "sample_id");
+			relations.oneWay("sample_population", "sample_id", "sample", "sample_id");
+			relations.oneWay("sample_population", "population_id", "population", "population_id");
+			relations.oneWay("sample_synonym", "sample_id", "sample", "sample_id");
+			relations.oneWay("sample_synonym", "source_id", "source", "source_id");
+			relations.oneWay("individual_synonym", "individual_id", "individual", "individual_id");
+			relations.oneWay("phenotype", "phenotype_id", "phenotype_feature", "phenotype_id");
+			relations.oneWay("phenotype_feature", "phenotype_id", "phenotype", "phenotype_id");
+			relations.oneWay("phenotype_feature", "seq_region_id", "seq_region", "seq_region_id");
+			relations.oneWay("phenotype_feature", "source_id", "source", "source_id");
 			//result &= checkForOrphans(con, "phenotype_feature", "study_id", "study", "study_id", true);
-			result &= checkForOrphans(con, "phenotype_feature_attrib", "phenotype_feature_id", "phenotype_feature", "phenotype_feature_id", true);
-			result &= checkForOrphans(con, "phenotype_feature_attrib", "attrib_type_id", "attrib_type", "attrib_type_id", true);
-			result &= checkForOrphans(con, "phenotype_ontology_accession", "phenotype_id", "phenotype", "phenotype_id", true);
-			result &= checkForOrphans(con, "population_genotype", "population_id", "population", "population_id", true);
-			result &= checkForOrphans(con, "population_genotype", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "population_synonym", "population_id", "population", "population_id", true);
-			result &= checkForOrphans(con, "read_coverage", "seq_region_id", "seq_region", "seq_region_id", true);
-			result &= checkForOrphans(con, "read_coverage", "sample_id", "sample", "sample_id", true);
+			relations.oneWay("phenotype_feature_attrib", "phenotype_feature_id", "phenotype_feature", "phenotype_feature_id");
+			relations.oneWay("phenotype_feature_attrib", "attrib_type_id", "attrib_type", "attrib_type_id");
+			relations.oneWay("phenotype_ontology_accession", "phenotype_id", "phenotype", "phenotype_id");
+			relations.oneWay("population_genotype", "population_id", "population", "population_id");
+			relations.oneWay("population_genotype", "variation_id", "variation", "variation_id");
+			relations.oneWay("population_synonym", "population_id", "population", "population_id");
+			relations.oneWay("read_coverage", "seq_region_id", "seq_region", "seq_region_id");
+			relations.oneWay("read_coverage", "sample_id", "sample", "sample_id");
 
 			//  result &= checkForOrphans(con, "tmp_sample_genotype_single_bp", "variation_id", "variation", "variation_id", true);
 
-			result &= checkForOrphans(con, "tmp_sample_genotype_single_bp", "sample_id", "sample", "sample_id",true);
-			result &= checkForOrphans(con, "transcript_variation", "variation_feature_id", "variation_feature", "variation_feature_id", true);
-			result &= checkForOrphans(con, "variation", "source_id", "source", "source_id", true);
-			result &= checkForOrphans(con, "variation", "class_attrib_id", "attrib", "attrib_id", true);
-			result &= checkForOrphans(con, "variation_citation", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "variation_citation", "publication_id", "publication", "publication_id", true);
-			result &= checkForOrphans(con, "variation_feature", "source_id", "source", "source_id", true);
+			relations.oneWay("tmp_sample_genotype_single_bp", "sample_id", "sample", "sample_id");
+			relations.oneWay("transcript_variation", "variation_feature_id", "variation_feature", "variation_feature_id");
+			relations.oneWay("variation", "source_id", "source", "source_id");
+			relations.oneWay("variation", "class_attrib_id", "attrib", "attrib_id");
+			relations.oneWay("variation_citation", "variation_id", "variation", "variation_id");
+			relations.oneWay("variation_citation", "publication_id", "publication", "publication_id");
+			relations.oneWay("variation_feature", "source_id", "source", "source_id");
 			//result &= checkForOrphans(con, "variation_feature", "variation_id", "allele", "variation_id", true);
-			result &= checkForOrphans(con, "variation_feature", "class_attrib_id", "attrib", "attrib_id", true);
-			result &= checkForOrphans(con, "variation_feature", "seq_region_id", "seq_region", "seq_region_id", true);
-			result &= checkForOrphans(con, "variation_set_structure", "variation_set_sub", "variation_set", "variation_set_id", true);
-			result &= checkForOrphans(con, "variation_set_structure", "variation_set_super", "variation_set", "variation_set_id", true);
-			result &= checkForOrphans(con, "variation_set_variation", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "variation_set_variation", "variation_set_id", "variation_set", "variation_set_id", true);
-			result &= checkForOrphans(con, "variation_synonym", "source_id", "source", "source_id", true);
-			result &= checkForOrphans(con, "variation_synonym", "variation_id", "variation", "variation_id", true);
-			result &= checkForOrphans(con, "structural_variation_feature", "structural_variation_id", "structural_variation", "structural_variation_id", true);
-			result &= checkForOrphans(con, "structural_variation_feature", "source_id", "source", "source_id", true);
-			result &= checkForOrphans(con, "structural_variation_feature", "study_id", "study", "study_id", true);
-			result &= checkForOrphans(con, "structural_variation_feature", "class_attrib_id", "attrib", "attrib_id", true);
-			result &= checkForOrphans(con, "structural_variation_feature", "seq_region_id", "seq_region", "seq_region_id", true);
-			result &= checkForOrphans(con, "structural_variation", "source_id", "source", "source_id", true);
-			result &= checkForOrphans(con, "structural_variation", "study_id", "study", "study_id", true);
-			result &= checkForOrphans(con, "structural_variation", "class_attrib_id", "attrib", "attrib_id", true);
-			result &= checkForOrphans(con, "structural_variation_sample", "structural_variation_id", "structural_variation", "structural_variation_id", true);
-			result &= checkForOrphans(con, "structural_variation_association", "structural_variation_id", "structural_variation", "structural_variation_id", true);
+			relations.oneWay("variation_feature", "class_attrib_id", "attrib", "attrib_id");
+			relations.oneWay("variation_feature", "seq_region_id", "seq_region", "seq_region_id");
+			relations.oneWay("variation_set_structure", "variation_set_sub", "variation_set", "variation_set_id");
+			relations.oneWay("variation_set_structure", "variation_set_super", "variation_set", "variation_set_id");
+			relations.oneWay("variation_set_variation", "variation_id", "variation", "variation_id");
+			relations.oneWay("variation_set_variation", "variation_set_id", "variation_set", "variation_set_id");
+			relations.oneWay("variation_synonym", "source_id", "source", "source_id");
+			relations.oneWay("variation_synonym", "variation_id", "variation", "variation_id");
+			relations.oneWay("structural_variation_feature", "structural_variation_id", "structural_variation", "structural_variation_id");
+			relations.oneWay("structural_variation_feature", "source_id", "source", "source_id");
+			relations.oneWay("structural_variation_feature", "study_id", "study", "study_id");
+			relations.oneWay("structural_variation_feature", "class_attrib_id", "attrib", "attrib_id");
+			relations.oneWay("structural_variation_feature", "seq_region_id", "seq_region", "seq_region_id");
+			relations.oneWay("structural_variation", "source_id", "source", "source_id");
+			relations.oneWay("structural_variation", "study_id", "study", "study_id");
+			relations.oneWay("structural_variation", "class_attrib_id", "attrib", "attrib_id");
+			relations.oneWay("structural_variation_sample", "structural_variation_id", "structural_variation", "structural_variation_id");
+			relations.oneWay("structural_variation_association", "structural_variation_id", "structural_variation", "structural_variation_id");
 
 			
 			// alleles and genotypes
-			result &= checkForOrphans(con, "allele", "allele_code_id", "allele_code", "allele_code_id", true);
-			result &= checkForOrphans(con, "population_genotype", "genotype_code_id", "genotype_code", "genotype_code_id", true);
-			result &= checkForOrphans(con, "genotype_code", "allele_code_id", "allele_code", "allele_code_id", true);
+			relations.oneWay("allele", "allele_code_id", "allele_code", "allele_code_id");
+			relations.oneWay("population_genotype", "genotype_code_id", "genotype_code", "genotype_code_id");
+			relations.oneWay("genotype_code", "allele_code_id", "allele_code", "allele_code_id");
             
       // check phenotype_feature (special case since it can contain links to multiple tables)
-      rows = countOrphansWithConstraint(con,"phenotype_feature","object_id","variation","name","type = 'Variation'");
-			if (rows > 0) {
-				ReportManager.problem(this, con, rows + "entries in phenotype_feature table without entries in variation");
-				result = false;
-			}
-            
-      rows = countOrphansWithConstraint(con,"phenotype_feature","object_id","structural_variation","variation_name","type IN ('StructuralVariation','SupportingStructuralVariation')");
-			if (rows > 0) {
-				ReportManager.problem(this, con, rows + "entries in phenotype_feature table without entries in structural_variation");
-				result = false;
-			}
+      relations.withConstraint("phenotype_feature", "object_id", "variation", "name", "type = 'Variation'",
+          "%dentries in phenotype_feature table without entries in variation");
+      relations.withConstraint("phenotype_feature", "object_id", "structural_variation", "variation_name",
+          "type IN ('StructuralVariation','SupportingStructuralVariation')",
+          "%dentries in phenotype_feature table without entries in structural_variation");
 
-			rows = countOrphansWithConstraint(con,"compressed_genotype_region","seq_region_id","variation_feature","seq_region_id","seq_region_start = variation_feature.seq_region_start");
-			if (rows > 0) {
-				ReportManager.problem(this, con, rows + "entries in Compressed genotype table without variation features");
-				result = false;
-			}
+			relations.withConstraint("compressed_genotype_region", "seq_region_id", "variation_feature", "seq_region_id",
+					"seq_region_start = variation_feature.seq_region_start", "%dentries in Compressed genotype table without variation features");
+
+			result &= relations.check(this, dbre);
 	
 			// Hmmm.. this is not really a foreign key check.. [pontus]
 			if (DBUtils.getRowCount(con, "SHOW TABLES like 'tmp_sample%'") > 0) {
@@ -0,0 +1,204 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The NCBI genetic codes, for translating coding sequences the way
+ * Bio::Tools::CodonTable does for the Perl API. Codons containing ambiguity
+ * codes are translated to the amino acid all the codons they stand for
+ * code for, or X if they code for different ones.
+ * </p>
+ *
+ * <p>
+ * See http://www.ncbi.nlm.nih.gov/Taxonomy/Utils/wprintgc.cgi
+ * </p>
+ */
+public final class CodonTable {
+
+	/** The standard code, used for sequence regions without a codon_table attribute. */
+	public static final int STANDARD = 1;
+
+	/**
+	 * Amino acids of the codons TTT, TTC, TTA, TTG, TCT, ... GGG, i.e. in the
+	 * order T, C, A, G at each position, by table ID.
+	 */
+	private static final Map<Integer, String> CODES = new HashMap<Integer, String>();
+
+	static {
+		CODES.put(1, "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(2, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSS**VVVVAAAADDEEGGGG");
+		CODES.put(3, "FFLLSSSSYY**CCWWTTTTPPPPHHQQRRRRIIMMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(4, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(5, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSSSSVVVVAAAADDEEGGGG");
+		CODES.put(6, "FFLLSSSSYYQQCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(9, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNNKSSSSVVVVAAAADDEEGGGG");
+		CODES.put(10, "FFLLSSSSYY**CCCWLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(11, "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(12, "FFLLSSSSYY**CC*WLLLSPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(13, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSSGGVVVVAAAADDEEGGGG");
+		CODES.put(14, "FFLLSSSSYYY*CCWWLLLLPPPPHHQQRRRRIIIMTTTTNNNKSSSSVVVVAAAADDEEGGGG");
+		CODES.put(15, "FFLLSSSSYY*QCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(16, "FFLLSSSSYY*LCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(21, "FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNNKSSSSVVVVAAAADDEEGGGG");
+		CODES.put(22, "FFLLSS*SYY*LCC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+		CODES.put(23, "FF*LSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG");
+	}
+
+	private static final Map<Integer, CodonTable> TABLES = new HashMap<Integer, CodonTable>();
+
+	static {
+		for (Map.Entry<Integer, String> code : CODES.entrySet()) {
+			TABLES.put(code.getKey(), new CodonTable(code.getKey(), code.getValue()));
+		}
+	}
+
+	private final int id;
+
+	private final String aminoAcids;
+
+	private CodonTable(int id, String aminoAcids) {
+		this.id = id;
+		this.aminoAcids = aminoAcids;
+	}
+
+	/**
+	 * @return The table with NCBI ID id, or null if there is no such table.
+	 */
+	public static CodonTable get(int id) {
+		return TABLES.get(id);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Translate a sequence codon by codon. As Bio::PrimarySeqI::translate
+	 * does, a final partial codon of two bases is translated if it can only
+	 * code for one amino acid, and dropped otherwise.
+	 */
+	public String translate(CharSequence dna) {
+
+		int codons = dna.length() / 3;
+		StringBuilder protein = new StringBuilder(codons + 1);
+
+		for (int i = 0; i < codons; i++) {
+			protein.append(translateCodon(dna.charAt(3 * i), dna.charAt(3 * i + 1), dna.charAt(3 * i + 2)));
+		}
+
+		if (dna.length() % 3 == 2) {
+			char aa = translateCodon(dna.charAt(3 * codons), dna.charAt(3 * codons + 1), 'N');
+			if (aa != 'X') {
+				protein.append(aa);
+			}
+		}
+
+		return protein.toString();
+
+	}
+
+	/**
+	 * @return True if codon is a stop codon whatever its ambiguous bases stand
+	 *         for. Codons shorter than three bases are padded with N.
+	 */
+	public boolean isStop(CharSequence codon) {
+		char b1 = codon.length() > 0 ? codon.charAt(0) : 'N';
+		char b2 = codon.length() > 1 ? codon.charAt(1) : 'N';
+		char b3 = codon.length() > 2 ? codon.charAt(2) : 'N';
+		return translateCodon(b1, b2, b3) == '*';
+	}
+
+	/**
+	 * @return The amino acid coded for by all the codons b1 b2 b3 can stand
+	 *         for, or X if they code for different ones.
+	 */
+	public char translateCodon(char b1, char b2, char b3) {
+
+		int[] first = bases(b1);
+		int[] second = bases(b2);
+		int[] third = bases(b3);
+
+		if (first.length == 1 && second.length == 1 && third.length == 1) {
+			return aminoAcids.charAt(16 * first[0] + 4 * second[0] + third[0]);
+		}
+
+		char aa = 0;
+		for (int i : first) {
+			for (int j : second) {
+				for (int k : third) {
+					char next = aminoAcids.charAt(16 * i + 4 * j + k);
+					if (aa == 0) {
+						aa = next;
+					} else if (aa != next) {
+						return 'X';
+					}
+				}
+			}
+		}
+		return aa == 0 ? 'X' : aa;
+
+	}
+
+	private static final int[] T = { 0 }, C = { 1 }, A = { 2 }, G = { 3 }, ANY = { 0, 1, 2, 3 }, NONE = {};
+
+	/**
+	 * @return The bases base stands for, as indexes in T, C, A, G order.
+	 */
+	private static int[] bases(char base) {
+		switch (Character.toUpperCase(base)) {
+		case 'T':
+		case 'U':
+			return T;
+		case 'C':
+			return C;
+		case 'A':
+			return A;
+		case 'G':
+			return G;
+		case 'R':
+			return new int[] { 2, 3 };
+		case 'Y':
+			return new int[] { 0, 1 };
+		case 'S':
+			return new int[] { 1, 3 };
+		case 'W':
+			return new int[] { 0, 2 };
+		case 'K':
+			return new int[] { 0, 3 };
+		case 'M':
+			return new int[] { 1, 2 };
+		case 'B':
+			return new int[] { 0, 1, 3 };
+		case 'D':
+			return new int[] { 0, 2, 3 };
+		case 'H':
+			return new int[] { 0, 1, 2 };
+		case 'V':
+			return new int[] { 1, 2, 3 };
+		case 'N':
+			return ANY;
+		default:
+			return NONE;
+		}
+	}
+
+}
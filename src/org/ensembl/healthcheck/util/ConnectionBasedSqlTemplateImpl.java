@@ -32,10 +32,12 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -46,7 +48,9 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
  * basic functionality that should be expected from a class which implements
  * this class. A {@link Connection} is passed into the constructor that is used
  * for all queries. Note that this should not be closed independently. You can
- * initialise with a {@link DatabaseRegistryEntry}
+ * initialise with a {@link DatabaseRegistryEntry}, in which case the
+ * connection is asked for again for each query, so the template always uses
+ * the connection leased to the test currently running on the thread.
  * 
  * @author ayates
  * @author dstaines
@@ -56,24 +60,67 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 	public static final int FIRST_COLUMN_INDEX = 1;
 	public static final int NO_ROW_LIMIT_CHECKS = -1;
 
+	/**
+	 * Rows fetched at a time by {@link #stream(String, RowMapper, Object...)}
+	 * on servers other than MySQL.
+	 */
+	public static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+
 	private final Connection connection;
+	private final DatabaseRegistryEntry dbre;
 	private final String uri;
+	private int streamingFetchSize;
 
 	public String getUri() {
 		return uri;
 	}
 
 	public ConnectionBasedSqlTemplateImpl(DatabaseRegistryEntry dbre) {
-		this(dbre.getConnection());
+		this(dbre.getConnection(), dbre);
 	}
 
 	public ConnectionBasedSqlTemplateImpl(Connection connection) {
+		this(connection, null);
+	}
+
+	private ConnectionBasedSqlTemplateImpl(Connection connection, DatabaseRegistryEntry dbre) {
 		this.connection = connection;
+		this.dbre = (dbre != null && dbre.getDatabaseServer() != null) ? dbre : null;
 		try {
 			this.uri = connection.getMetaData().getURL();
 		} catch (SQLException e) {
 			throw new SqlUncheckedException("Could not get URL for connection");
 		}
+		this.streamingFetchSize = defaultStreamingFetchSize(uri);
+	}
+
+	/**
+	 * @return The fetch size that streams rows from the database at uri.
+	 */
+	public static int defaultStreamingFetchSize(String uri) {
+		// MySQL Connector/J only streams rows with a fetch size of
+		// Integer.MIN_VALUE, any other value reads the whole result
+		return (uri != null && uri.startsWith("jdbc:mysql")) ? Integer.MIN_VALUE : DEFAULT_STREAMING_FETCH_SIZE;
+	}
+
+	public int getStreamingFetchSize() {
+		return streamingFetchSize;
+	}
+
+	/**
+	 * Set the fetch size used by {@link #stream(String, RowMapper, Object...)}.
+	 * Defaults to Integer.MIN_VALUE, i.e. row by row streaming, for MySQL and
+	 * {@link #DEFAULT_STREAMING_FETCH_SIZE} otherwise.
+	 */
+	public void setStreamingFetchSize(int streamingFetchSize) {
+		this.streamingFetchSize = streamingFetchSize;
+	}
+
+	/**
+	 * @return The connection to run the next statement on.
+	 */
+	protected Connection getConnection() {
+		return (dbre == null) ? connection : dbre.getConnection();
 	}
 	
 	/**
@@ -122,6 +169,7 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 				output.add(mapper.mapRow(resultSet, position));
 				position++;
 			}
+			QueryProfiler.addRows(position);
 
 			if (inspectRowCount && position == 0) {
 				String message = formatExceptionMessage(
@@ -165,13 +213,18 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 	public int execute(String sql) {
 		int updatedRows = -1;
 		Statement st = null;
+		Connection con = getConnection();
+		QueryProfiler.Sample sample = QueryProfiler.start(con, uri, sql);
 		try {
-			st = connection.createStatement();
+			st = con.createStatement();
 			updatedRows = st.executeUpdate(sql);
+			sample.executed();
 		} catch (SQLException e) {
 			createUncheckedException(sql, new Object[] {}, e);
 		} finally {
 			closeDbObject(st);
+			sample.end();
+			QueryResultCache.invalidate(uri);
 		}
 		return updatedRows;
 	}
@@ -184,20 +237,71 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 		T object;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		Connection con = getConnection();
+		QueryProfiler.Sample sample = QueryProfiler.start(con, uri, sql, args);
 		try {
-			ps = connection.prepareStatement(sql);
+			ps = con.prepareStatement(sql);
 			bindParamsToPreparedStatement(ps, args);
 			rs = ps.executeQuery();
+			sample.executed(rs);
 			object = callback.process(rs);
 		} catch (SQLException e) {
 			throw createUncheckedException(sql, args, e);
 		} finally {
 			closeDbObject(rs);
 			closeDbObject(ps);
+			sample.end();
 		}
 		return object;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> RowIterator<T> stream(String sql, RowMapper<T> mapper,
+			Object... args) {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		Connection con = getConnection();
+		QueryProfiler.Sample sample = QueryProfiler.startStreaming(con, uri, sql, args);
+		try {
+			ps = con.prepareStatement(sql,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			ps.setFetchSize(streamingFetchSize);
+			bindParamsToPreparedStatement(ps, args);
+			rs = ps.executeQuery();
+			sample.executed(rs);
+			return new StreamingRowIterator<T>(ps, rs, mapper, sql, args, sample);
+		} catch (SQLException e) {
+			closeDbObject(rs);
+			closeDbObject(ps);
+			sample.end();
+			throw createUncheckedException(sql, args, e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> int streamEach(String sql, RowMapper<T> mapper,
+			RowCallback<T> callback, Object... args) {
+		int rows = 0;
+		RowIterator<T> it = stream(sql, mapper, args);
+		try {
+			while (it.hasNext()) {
+				rows++;
+				if (!callback.process(it.next())) {
+					break;
+				}
+			}
+		} catch (SQLException e) {
+			throw createUncheckedException(sql, args, e);
+		} finally {
+			it.close();
+		}
+		return rows;
+	}
+
 	/**
 	 * Use this to close down {@link ResultSet} objects with null safety checks
 	 */
@@ -304,6 +408,7 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 						targetMap.put(key, newValue);
 					}
 				}
+				QueryProfiler.addRows(position + 1);
 				return targetMap;
 			}
 		}, args);
@@ -314,17 +419,156 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
    */
 	public int update(final String sql, final Object... args) {
 	  PreparedStatement ps = null;
+	  Connection con = getConnection();
+	  QueryProfiler.Sample sample = QueryProfiler.start(con, uri, sql, args);
 	  try {
-      ps = connection.prepareStatement(sql);
+      ps = con.prepareStatement(sql);
       bindParamsToPreparedStatement(ps, args);
-      return ps.executeUpdate();
+      int updatedRows = ps.executeUpdate();
+      sample.executed();
+      return updatedRows;
     } catch (SQLException e) {
       throw createUncheckedException(sql, args, e);
     } finally {
       closeDbObject(ps);
+      sample.end();
+      QueryResultCache.invalidate(uri);
     }
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> List<T> queryForCachedList(final String sql, final RowMapper<T> mapper, final Object... args) {
+		return QueryResultCache.get(uri, "list " + QueryResultCache.describe(mapper), sql, args, new QueryResultCache.Loader<List<T>>() {
+			public List<T> load() {
+				return Collections.unmodifiableList(queryForList(sql, mapper, args));
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> List<T> queryForCachedDefaultObjectList(final String sql, final Class<T> expected, final Object... args) {
+		return queryForCachedList(sql, new DefaultObjectRowMapper<T>(expected, FIRST_COLUMN_INDEX), args);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <K, T> Map<K, T> queryForCachedMap(final String sql, final MapRowMapper<K, T> mapRowMapper, final Object... args) {
+		return QueryResultCache.get(uri, "map " + QueryResultCache.describe(mapRowMapper), sql, args, new QueryResultCache.Loader<Map<K, T>>() {
+			public Map<K, T> load() {
+				return Collections.unmodifiableMap(queryForMap(sql, mapRowMapper, args));
+			}
+		});
+	}
+
+	/**
+	 * Maps the rows of an open {@link ResultSet} as they are asked for and
+	 * closes it, together with its statement, after the last row. A MySQL
+	 * result streamed row by row and closed before its last row aborts its
+	 * connection first, see {@link #close()}.
+	 */
+	private class StreamingRowIterator<T> implements RowIterator<T> {
+
+		private final PreparedStatement ps;
+		private final ResultSet rs;
+		private final RowMapper<T> mapper;
+		private final String sql;
+		private final Object[] args;
+		private final QueryProfiler.Sample sample;
+		// whether rows are streamed one at a time, rather than fetched in batches
+		private final boolean rowByRow = (streamingFetchSize == Integer.MIN_VALUE);
+		private int position = 0;
+		private boolean onRow = false;
+		private boolean exhausted = false;
+		private boolean closed = false;
+
+		StreamingRowIterator(PreparedStatement ps, ResultSet rs,
+				RowMapper<T> mapper, String sql, Object[] args,
+				QueryProfiler.Sample sample) {
+			this.ps = ps;
+			this.rs = rs;
+			this.mapper = mapper;
+			this.sql = sql;
+			this.args = args;
+			this.sample = sample;
+		}
+
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+			if (!onRow) {
+				try {
+					onRow = rs.next();
+				} catch (SQLException e) {
+					close();
+					throw createUncheckedException(sql, args, e);
+				}
+				if (!onRow) {
+					exhausted = true;
+					close();
+				}
+			}
+			return onRow;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			onRow = false;
+			try {
+				return mapper.mapRow(rs, position++);
+			} catch (SQLException e) {
+				close();
+				throw createUncheckedException(sql, args, e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Closing a result streamed row by row before its last row would make
+		 * Connector/J read, and discard, the rest of it. Cancelling the
+		 * statement does not help, as Connector/J only cancels statements that
+		 * are still executing, so the connection is aborted instead and
+		 * discarded from the {@link ConnectionPool}, which opens a new one
+		 * when the database is next asked for.
+		 */
+		public void close() {
+			if (!closed) {
+				closed = true;
+				onRow = false;
+				if (!exhausted && rowByRow) {
+					abort();
+				}
+				closeDbObject(rs);
+				closeDbObject(ps);
+				sample.addRows(position);
+				sample.end();
+			}
+		}
+
+		private void abort() {
+			try {
+				Connection con = ps.getConnection();
+				if (con instanceof com.mysql.jdbc.Connection) {
+					((com.mysql.jdbc.Connection) con).abortInternal();
+					ConnectionPool.discard(con);
+				}
+			} catch (SQLException e) {
+				// ignore, the result is closed anyway
+			}
+		}
+
+	}
+
 	// ----- EXCEPTION HANDLING
 
 	/**
@@ -23,31 +23,155 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+
 /**
  * Implements connection pooling.
+ * <p>
+ * Connections opened while a test is running are borrowed from a bounded
+ * {@link ServerConnectionPool} for the database server, and given back when
+ * the test has finished. The test runner marks the start and end of a test
+ * with {@link #beginLease(EnsTestCase)} and {@link #endLease()}. Within a
+ * lease every request for the same URL returns the same connection, so tests
+ * can keep calling getConnection() as they always have.
+ * <p>
+ * Only leases started with {@link #beginLease(EnsTestCase)} on a thread that
+ * holds no other lease wait for a free connection when the server pool is
+ * full. Tests that connect to many databases and the worker threads of a test
+ * use {@link #beginUnboundedLease(EnsTestCase)}, and a lease nested in another
+ * on the same thread reuses the outer lease's connections. Such leases may
+ * go over the limit of the server pool rather than wait for connections that
+ * their own test holds.
+ * <p>
+ * Connections opened outside a lease, e.g. while the registry of databases is
+ * built or for the output database, are shared per URL for the lifetime of
+ * the JVM. They do not count towards the size of the server pools.
+ * <p>
+ * Whether a connection is checked before it is handed out is decided by the
+ * {@link ConnectionValidator}, see {@link #configureValidation}.
  */
 public final class ConnectionPool {
 
     /** The logger to use for this class */
     private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
-    // store connections; key = database URL (as String), Connection object
-    private static Map<String, Connection> pool = new HashMap<String, Connection>();
+    /** Default maximum number of leased connections per database server. */
+    public static final int DEFAULT_MAX_PER_SERVER = 50;
+
+    /** Default minimum number of idle connections kept per database server. */
+    public static final int DEFAULT_MIN_IDLE = 0;
+
+    /** Default time in milliseconds to wait for a free connection. */
+    public static final long DEFAULT_BORROW_TIMEOUT = 10 * 60 * 1000;
+
+    /** Default time in milliseconds after which idle connections are closed. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    /** Default time in milliseconds after which a borrowed connection is reported as leaked. */
+    public static final long DEFAULT_LEAK_THRESHOLD = 2 * 60 * 60 * 1000;
+
+    /** How often idle connections and leaks are checked for, in milliseconds. */
+    private static final long MAINTENANCE_INTERVAL = 30 * 1000;
+
+    // connections shared outside leases; key = database URL (as String), Connection object
+    private static Map<String, Connection> pool = new ConcurrentHashMap<String, Connection>();
+
+    // pools for leased connections; key = server URL and user
+    private static final ConcurrentMap<String, ServerConnectionPool> serverPools = new ConcurrentHashMap<String, ServerConnectionPool>();
+
+    // the leases of the current thread, innermost last
+    private static final ThreadLocal<LinkedList<Lease>> leases = new ThreadLocal<LinkedList<Lease>>() {
+        protected LinkedList<Lease> initialValue() {
+            return new LinkedList<Lease>();
+        }
+    };
+
+    private static final Set<String> loadedDrivers = new HashSet<String>();
+
+    private static volatile int minIdle = DEFAULT_MIN_IDLE;
+    private static volatile int maxPerServer = DEFAULT_MAX_PER_SERVER;
+    private static volatile long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+    private static volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private static volatile long leakThreshold = DEFAULT_LEAK_THRESHOLD;
+
+    private static ScheduledExecutorService maintenance;
+
+    private static final ConnectionValidator validator = new ConnectionValidator();
 
     // hide constructor to stop people instantiating this
     private ConnectionPool() { }
-    
+
+    /**
+     * Set the limits used by the server pools, including those that already
+     * exist.
+     * 
+     * @param minIdle
+     *          Idle connections per server that are never closed for being idle.
+     * @param maxPerServer
+     *          Maximum number of leased connections per server, below 1 for no limit.
+     * @param borrowTimeout
+     *          Milliseconds to wait for a connection when all are in use.
+     * @param idleTimeout
+     *          Milliseconds after which an idle connection is closed.
+     * @param leakThreshold
+     *          Milliseconds after which a connection that has not been given
+     *          back is reported, 0 to never report.
+     */
+    public static void configure(int minIdle, int maxPerServer, long borrowTimeout, long idleTimeout, long leakThreshold) {
+
+        ConnectionPool.minIdle = minIdle;
+        ConnectionPool.maxPerServer = maxPerServer;
+        ConnectionPool.borrowTimeout = borrowTimeout;
+        ConnectionPool.idleTimeout = idleTimeout;
+        ConnectionPool.leakThreshold = leakThreshold;
+
+        for (ServerConnectionPool serverPool : serverPools.values()) {
+            serverPool.configure(minIdle, maxPerServer, borrowTimeout, idleTimeout, leakThreshold);
+        }
+    }
+
+    /**
+     * Set when connections are checked before they are handed out.
+     * 
+     * @param mode
+     *          One of the {@link ConnectionValidator.Mode}s.
+     * @param idleThreshold
+     *          Milliseconds a connection may be unused before it is checked.
+     * @param timeout
+     *          Seconds to wait for a check to succeed.
+     */
+    public static void configureValidation(ConnectionValidator.Mode mode, long idleThreshold, int timeout) {
+
+        validator.configure(mode, idleThreshold, timeout);
+    }
+
+    public static ConnectionValidator getValidator() {
+
+        return validator;
+    }
+
     /**
-     * Get a connection from the pool. If a connection to this database already
-     * exists in the pool, it is returned. If not, it is created and added to
-     * the pool.
+     * Get a connection from the pool. Inside a lease, the connection leased
+     * for this URL is returned, borrowing one from the server pool first if
+     * needed. Outside a lease, the connection shared for this URL is returned,
+     * creating it first if needed.
      * 
      * @return A new connection, or one re-used from the pool.
      * @param driverClassName
@@ -62,15 +186,18 @@ public final class ConnectionPool {
      */
     public static Connection getConnection(String driverClassName, String databaseURL, String user, String password) throws SQLException {
 
+        LinkedList<Lease> threadLeases = leases.get();
+
+        if (!threadLeases.isEmpty()) {
+            return threadLeases.getLast().getConnection(driverClassName, databaseURL, user, password);
+        }
+
         Connection con = null;
 
         if (pool.containsKey(databaseURL)) {
 
 		logger.finest("Got connection to " + databaseURL + " from pool");
 		con = getConnectionFromPool(driverClassName, databaseURL, user, password);
-		// mnuhn: Turn off connection pooling, see if this fixes the problems we are having.
-		//
-		//con = getConnectionByClassloader(driverClassName, databaseURL, user, password);
 
         } else {
 
@@ -80,6 +207,151 @@ public final class ConnectionPool {
         return con;
     }
 
+    // -------------------------------------------------------------------------
+    /**
+     * Start leasing connections for testCase on the current thread. Leases
+     * can be nested; a nested lease reuses the connections of the leases it
+     * is nested in and is not limited by the size of the server pool.
+     * 
+     * @param testCase
+     *          The test the connections are for, reported if a connection is
+     *          held for too long.
+     */
+    public static void beginLease(EnsTestCase testCase) {
+
+        LinkedList<Lease> threadLeases = leases.get();
+        threadLeases.add(new Lease(owner(testCase), threadLeases.isEmpty(), threadLeases.isEmpty() ? null : threadLeases.getLast()));
+    }
+
+    /**
+     * Start leasing connections for testCase on the current thread without
+     * waiting when the server pool is full. Used for tests that connect to
+     * more databases than the pool may hold, and on worker threads of a test
+     * that already holds connections of its own.
+     * 
+     * @param testCase
+     *          The test the connections are for, reported if a connection is
+     *          held for too long.
+     */
+    public static void beginUnboundedLease(EnsTestCase testCase) {
+
+        LinkedList<Lease> threadLeases = leases.get();
+        threadLeases.add(new Lease(owner(testCase), false, threadLeases.isEmpty() ? null : threadLeases.getLast()));
+    }
+
+    private static String owner(EnsTestCase testCase) {
+
+        return (testCase == null) ? Thread.currentThread().getName() : testCase.getTestName();
+    }
+
+    /**
+     * Give back all connections borrowed in the innermost lease of the current
+     * thread.
+     */
+    public static void endLease() {
+
+        LinkedList<Lease> threadLeases = leases.get();
+        if (threadLeases.isEmpty()) {
+            logger.warning("endLease called without beginLease on thread " + Thread.currentThread().getName());
+            return;
+        }
+        threadLeases.removeLast().release();
+    }
+
+    /**
+     * @return The test holding the innermost lease of the current thread, or
+     *         the name of the thread if the lease is not for a test. Null
+     *         outside a lease.
+     */
+    public static String getLeaseOwner() {
+
+        LinkedList<Lease> threadLeases = leases.get();
+        return threadLeases.isEmpty() ? null : threadLeases.getLast().owner;
+    }
+
+    /**
+     * @return The pool for leased connections to the server that databaseURL
+     *         belongs to.
+     */
+    public static ServerConnectionPool getServerPool(String driverClassName, String databaseURL, String user, String password) {
+
+        String serverURL = getServerURL(databaseURL);
+        String key = serverURL + " " + user;
+
+        ServerConnectionPool serverPool = serverPools.get(key);
+        if (serverPool == null) {
+            loadDriver(driverClassName);
+            ServerConnectionPool created = new ServerConnectionPool(serverURL + " as " + user, user, password, minIdle, maxPerServer, borrowTimeout,
+                    idleTimeout, leakThreshold);
+            serverPool = serverPools.putIfAbsent(key, created);
+            if (serverPool == null) {
+                serverPool = created;
+                startMaintenance();
+            }
+        }
+        return serverPool;
+    }
+
+    /**
+     * @return The URL of the server for a database URL, i.e. everything up to
+     *         the database name. URLs without a database name are returned
+     *         unchanged.
+     */
+    static String getServerURL(String databaseURL) {
+
+        int hosts = databaseURL.indexOf("//");
+        int slash = databaseURL.indexOf('/', hosts + 2);
+        if (hosts < 0 || slash < 0) {
+            return databaseURL;
+        }
+        return databaseURL.substring(0, slash + 1);
+    }
+
+    // -------------------------------------------------------------------------
+    /**
+     * Check whether a connection can be handed out, according to the
+     * validation policy.
+     */
+    static boolean validate(Connection con) {
+
+        return validator.validate(con);
+    }
+
+    /**
+     * Record that a connection has just been used.
+     */
+    static void touch(Connection con) {
+
+        validator.touch(con);
+    }
+
+    /**
+     * Record that a connection has been given back to its pool.
+     */
+    static void returned(Connection con) {
+
+        validator.returned(con);
+    }
+
+    /**
+     * Close a connection that must not be used again, e.g. one that has been
+     * aborted, and stop handing it out. A connection leased on the current
+     * thread is given back to its server pool as broken; a shared connection
+     * is opened again when next asked for.
+     */
+    public static void discard(Connection con) {
+
+        LinkedList<Lease> threadLeases = leases.get();
+        for (Iterator<Lease> it = threadLeases.descendingIterator(); it.hasNext();) {
+            if (it.next().discard(con)) {
+                return;
+            }
+        }
+
+        pool.values().remove(con);
+        DBUtils.closeQuietly(con);
+    }
+
   public static boolean isValidConnection(Connection con) {
 
     String url;
@@ -140,26 +412,12 @@ public final class ConnectionPool {
     	
         Connection con = (Connection) pool.get(databaseURL);
         
-        boolean connectionIsValid;
-
         if (con.isClosed()) {
         	con = getConnectionByClassloader(driverClassName, databaseURL, user, password);
         	return con;
         }
 
-        try {
-        	
-        	// Currently throws a java.lang.AbstractMethodError, but maybe
-        	// someday this will work.
-        	//
-        	connectionIsValid = con.isValid(5000);
-        	
-        } catch(java.lang.AbstractMethodError e) {
-        	
-        	logger.finest("Connection object does not implement \"isValid()\" call. Using manual implementation");
-        	connectionIsValid = isValidConnection(con);
-        }
-        if (!connectionIsValid) {
+        if (!validate(con)) {
         	
         	logger.warning("Connection in pool was invalid. Creating again from scratch.");
         	con = getConnectionByClassloader(driverClassName, databaseURL, user, password); 
@@ -172,23 +430,38 @@ public final class ConnectionPool {
     	Connection con = null;
     	
         // create a connection and add it to the pool
-        try {
-
-            Class.forName(driverClassName);
-
-        } catch (ClassNotFoundException e) {
-
-            logger.severe("Can't load class " + driverClassName);
-            throw new RuntimeException(e);
-
-        }
+        loadDriver(driverClassName);
        	con = DriverManager.getConnection(databaseURL, user, password);
+        touch(con);
         pool.put(databaseURL, con);
         logger.finest("Added connection to " + databaseURL + " to pool");
     	
     	return con;
     }
 
+    private static void loadDriver(String driverClassName) {
+
+        synchronized (loadedDrivers) {
+
+            if (loadedDrivers.contains(driverClassName)) {
+                return;
+            }
+
+            try {
+
+                Class.forName(driverClassName);
+
+            } catch (ClassNotFoundException e) {
+
+                logger.severe("Can't load class " + driverClassName);
+                throw new RuntimeException(e);
+
+            }
+
+            loadedDrivers.add(driverClassName);
+        }
+    }
+
     // -------------------------------------------------------------------------
     /**
      * Close all the connections in the pool.
@@ -211,6 +484,154 @@ public final class ConnectionPool {
             }
         }
 
+        for (ServerConnectionPool serverPool : serverPools.values()) {
+            serverPool.closeAll();
+        }
+
     } // closeAll
 
+    // -------------------------------------------------------------------------
+    /**
+     * @return One line per server pool describing how it has been used.
+     */
+    public static List<String> getStatistics() {
+
+        List<String> statistics = new ArrayList<String>();
+        statistics.add("validation " + validator.getStatistics());
+        for (ServerConnectionPool serverPool : serverPools.values()) {
+            statistics.add(serverPool.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * Write the statistics of all server pools to the log.
+     */
+    public static void logStatistics() {
+
+        for (String line : getStatistics()) {
+            logger.info("Connection pool, " + line);
+        }
+    }
+
+    private static synchronized void startMaintenance() {
+
+        if (maintenance != null) {
+            return;
+        }
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "healthcheck-connection-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (ServerConnectionPool serverPool : serverPools.values()) {
+                    try {
+                        serverPool.evict();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Problem checking connection pool " + serverPool.getName(), e);
+                    }
+                }
+            }
+        }, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The connections borrowed by one test on one thread.
+     */
+    private static class Lease {
+
+        private final String owner;
+
+        // whether to wait for a connection when the server pool is full
+        private final boolean bounded;
+
+        // the lease this one is nested in on the same thread, or null
+        private final Lease outer;
+
+        // key = database URL; value = the connection and the pool it came from
+        private final Map<String, Connection> connections = new LinkedHashMap<String, Connection>();
+
+        private final Map<String, ServerConnectionPool> pools = new LinkedHashMap<String, ServerConnectionPool>();
+
+        Lease(String owner, boolean bounded, Lease outer) {
+            this.owner = owner;
+            this.bounded = bounded;
+            this.outer = outer;
+        }
+
+        /**
+         * @return The connection to databaseURL held by this lease or one it
+         *         is nested in, or null.
+         */
+        Connection find(String databaseURL) {
+
+            Connection con = connections.get(databaseURL);
+            if (con == null && outer != null) {
+                con = outer.find(databaseURL);
+            }
+            return con;
+        }
+
+        Connection getConnection(String driverClassName, String databaseURL, String user, String password) throws SQLException {
+
+            Connection con = connections.get(databaseURL);
+
+            if (con == null && outer != null) {
+                Connection shared = outer.find(databaseURL);
+                if (shared != null && validate(shared)) {
+                    return shared;
+                }
+            }
+
+            if (con != null) {
+                if (validate(con)) {
+                    return con;
+                }
+                logger.warning("Leased connection to " + databaseURL + " was invalid. Creating again from scratch.");
+                connections.remove(databaseURL);
+                pools.remove(databaseURL).discard(con);
+            }
+
+            ServerConnectionPool serverPool = getServerPool(driverClassName, databaseURL, user, password);
+            con = serverPool.borrow(databaseURL, owner, bounded);
+            connections.put(databaseURL, con);
+            pools.put(databaseURL, serverPool);
+
+            return con;
+        }
+
+        /**
+         * Give con back to its server pool as broken if this lease holds it.
+         * 
+         * @return Whether this lease held con.
+         */
+        boolean discard(Connection con) {
+
+            for (Map.Entry<String, Connection> entry : connections.entrySet()) {
+                if (entry.getValue() == con) {
+                    String databaseURL = entry.getKey();
+                    connections.remove(databaseURL);
+                    pools.remove(databaseURL).discard(con);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void release() {
+
+            for (Map.Entry<String, Connection> entry : connections.entrySet()) {
+                pools.get(entry.getKey()).release(entry.getValue());
+            }
+            connections.clear();
+            pools.clear();
+        }
+    }
+
 } // ConnectionPool
@@ -0,0 +1,306 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Decides when {@link ConnectionPool} checks that a connection is still alive
+ * before handing it out. Checking costs a round trip to the server, and tests
+ * ask for their connection very often, e.g. for every report they file.
+ * </p>
+ *
+ * <ul>
+ * <li>{@link Mode#IDLE}: only check connections that have not been handed out
+ * for idleThreshold milliseconds. A connection that was working a moment ago
+ * is assumed to still work.</li>
+ * <li>{@link Mode#KEEPALIVE}: never check when handing out. Instead a
+ * background thread checks connections that have been back in their pool,
+ * see {@link #returned(Connection)}, for idleThreshold milliseconds, which
+ * also stops the server from timing them out. Connections that are handed
+ * out are never checked, as they may be in the middle of reading a streamed
+ * result, during which the server accepts no other statement. Connections
+ * found dead are replaced when next asked for.</li>
+ * <li>{@link Mode#ALWAYS}: check every time with JDBC4
+ * {@link Connection#isValid(int)}, as the pool always used to.</li>
+ * </ul>
+ *
+ * <p>
+ * Closed connections are always detected, as that does not need a round
+ * trip.
+ * </p>
+ */
+public class ConnectionValidator {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	public enum Mode {
+		IDLE, KEEPALIVE, ALWAYS
+	}
+
+	/** Default mode. */
+	public static final Mode DEFAULT_MODE = Mode.IDLE;
+
+	/** Default idle time in milliseconds after which a connection is checked. */
+	public static final long DEFAULT_IDLE_THRESHOLD = 30 * 1000;
+
+	/** Default time in seconds to wait for a check to succeed. */
+	public static final int DEFAULT_TIMEOUT = 5;
+
+	private volatile Mode mode = DEFAULT_MODE;
+
+	private volatile long idleThreshold = DEFAULT_IDLE_THRESHOLD;
+
+	private volatile int timeout = DEFAULT_TIMEOUT;
+
+	/** When each connection was last handed out or checked. */
+	private final Map<Connection, Long> lastUsed = Collections.synchronizedMap(new WeakHashMap<Connection, Long>());
+
+	/**
+	 * Connections back in their pool since they were last handed out. The
+	 * keepalive thread holds the monitor of a connection while checking it.
+	 */
+	private final Map<Connection, Boolean> idle = Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+	/** Connections found dead by the keepalive thread. */
+	private final Map<Connection, Boolean> dead = Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+	private final AtomicLong checks = new AtomicLong();
+
+	private final AtomicLong avoided = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private ScheduledExecutorService keepalive;
+
+	/**
+	 * @param mode
+	 *          When to check connections.
+	 * @param idleThreshold
+	 *          Milliseconds a connection may be unused before it is checked.
+	 * @param timeout
+	 *          Seconds to wait for a check to succeed.
+	 */
+	public synchronized void configure(Mode mode, long idleThreshold, int timeout) {
+
+		this.mode = mode;
+		this.idleThreshold = idleThreshold;
+		this.timeout = timeout;
+
+		if (mode == Mode.KEEPALIVE) {
+			startKeepalive();
+		} else if (keepalive != null) {
+			keepalive.shutdownNow();
+			keepalive = null;
+		}
+
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return true if con can be handed out, false if it should be replaced.
+	 */
+	public boolean validate(Connection con) {
+
+		try {
+			if (con.isClosed()) {
+				return false;
+			}
+		} catch (SQLException e) {
+			return false;
+		}
+
+		// waits for the keepalive thread if it is checking con
+		synchronized (con) {
+			idle.remove(con);
+		}
+
+		long now = System.currentTimeMillis();
+		Long last = lastUsed.put(con, now);
+
+		switch (mode) {
+
+		case KEEPALIVE:
+			if (dead.remove(con) != null) {
+				return false;
+			}
+			avoided.incrementAndGet();
+			return true;
+
+		case IDLE:
+			if (last != null && now - last < idleThreshold) {
+				avoided.incrementAndGet();
+				return true;
+			}
+			return check(con);
+
+		default:
+			return check(con);
+
+		}
+
+	}
+
+	/**
+	 * Record that con has just been used, e.g. when it is given back to a
+	 * pool, so the idle time is counted from then.
+	 */
+	public void touch(Connection con) {
+		lastUsed.put(con, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record that con has been given back to its pool and is not used until
+	 * it is handed out again, so the keepalive thread may check it.
+	 */
+	public void returned(Connection con) {
+		lastUsed.put(con, System.currentTimeMillis());
+		idle.put(con, Boolean.TRUE);
+	}
+
+	/**
+	 * Check con with a round trip to the server.
+	 */
+	private boolean check(Connection con) {
+
+		checks.incrementAndGet();
+
+		boolean valid;
+		try {
+
+			valid = con.isValid(timeout);
+
+		} catch (java.lang.AbstractMethodError e) {
+
+			logger.finest("Connection object does not implement \"isValid()\" call. Using manual implementation");
+			valid = ConnectionPool.isValidConnection(con);
+
+		} catch (SQLException e) {
+
+			valid = false;
+
+		}
+
+		if (!valid) {
+			failures.incrementAndGet();
+			lastUsed.remove(con);
+		}
+		return valid;
+
+	}
+
+	private void startKeepalive() {
+
+		if (keepalive != null) {
+			return;
+		}
+
+		keepalive = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-connection-keepalive");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long interval = Math.max(1000, idleThreshold / 2);
+		keepalive.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				keepIdleConnectionsAlive();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+
+	}
+
+	/**
+	 * Check the connections that have been idle in their pool for
+	 * idleThreshold milliseconds. Package-private for tests.
+	 */
+	void keepIdleConnectionsAlive() {
+
+		long now = System.currentTimeMillis();
+		List<Connection> candidates = new ArrayList<Connection>();
+
+		synchronized (lastUsed) {
+			for (Map.Entry<Connection, Long> entry : lastUsed.entrySet()) {
+				if (now - entry.getValue() >= idleThreshold && idle.containsKey(entry.getKey())) {
+					candidates.add(entry.getKey());
+				}
+			}
+		}
+
+		for (Connection con : candidates) {
+			synchronized (con) {
+				// handed out since, or closed by the pool
+				if (!idle.containsKey(con)) {
+					continue;
+				}
+				try {
+					if (con.isClosed()) {
+						idle.remove(con);
+						continue;
+					}
+				} catch (SQLException e) {
+					idle.remove(con);
+					continue;
+				}
+				if (check(con)) {
+					lastUsed.put(con, System.currentTimeMillis());
+				} else {
+					logger.fine("Keepalive found a dead connection, it will be replaced when next used");
+					dead.put(con, Boolean.TRUE);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * @return A one line summary of the checks done and avoided.
+	 */
+	public String getStatistics() {
+		return "mode " + mode.name().toLowerCase() + ": " + checks.get() + " round trips, " + avoided.get() + " round trips avoided, " + failures.get()
+				+ " dead connections found";
+	}
+
+	public long getChecks() {
+		return checks.get();
+	}
+
+	public long getAvoided() {
+		return avoided.get();
+	}
+
+}
@@ -41,7 +41,15 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
@@ -50,6 +58,7 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
 import org.ensembl.healthcheck.DatabaseServer;
 import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
 import org.ensembl.healthcheck.TestRunner;
 import org.ensembl.healthcheck.configuration.ConfigureHost;
 import org.ensembl.healthcheck.testcase.EnsTestCase;
@@ -62,6 +71,9 @@ public final class DBUtils {
 
     private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
+    /** Number of databases that checkSameSQLResult queries at the same time. */
+    private static final int SAME_SQL_RESULT_THREADS = 8;
+
     private static List<DatabaseServer> mainDatabaseServers;
     private static List<DatabaseServer> secondaryDatabaseServers;
 
@@ -336,51 +348,9 @@ public final class DBUtils {
      */
     public static boolean checkSameSQLResult(EnsTestCase test, String sql, String regexp, boolean comparingSchema) {
 
-        ArrayList<ResultSet> resultSetGroup = new ArrayList<ResultSet>();
-        ArrayList<Statement> statements = new ArrayList<Statement>();
-
-        try {
-
-            DatabaseRegistry mainDatabaseRegistry = DBUtils.getMainDatabaseRegistry();
-
-            for (DatabaseRegistryEntry dbre : mainDatabaseRegistry.getMatching(regexp)) {
-
-                Connection con = dbre.getConnection();
-                Statement stmt = null;
-                ResultSet rs = null;
-                try {
-                    stmt = con.createStatement();
-                    rs = stmt.executeQuery(sql);
-                    if (rs != null) {
-                        resultSetGroup.add(rs);
-                    }
-                    logger.fine("Added ResultSet for " + DBUtils.getShortDatabaseName(con) + ": " + sql);
-                    // note that the Statement can't be closed here as we use
-                    // the
-                    // ResultSet elsewhere so store a reference to it for
-                    // closing
-                    // later
-                    statements.add(stmt);
-
-                } catch (Exception e) {
-                    throw new SqlUncheckedException("Could not check same SQL results", e);
-                } finally {
-                    closeQuietly(rs);
-                    closeQuietly(stmt);
-                }
-            }
-
-            logger.finest("Number of ResultSets to compare: " + resultSetGroup.size());
-            return DBUtils.compareResultSetGroup(resultSetGroup, test, comparingSchema);
-
-        } finally {
-            for (ResultSet rs : resultSetGroup) {
-                closeQuietly(rs);
-            }
-            for (Statement s : statements) {
-                closeQuietly(s);
-            }
-        }
+        List<DatabaseRegistryEntry> databases = DBUtils.getMainDatabaseRegistry().getMatching(regexp);
+        return checkSameSQLResult(test, sql, databases.toArray(new DatabaseRegistryEntry[databases.size()]),
+                comparingSchema);
 
     } // checkSameSQLResult
 
@@ -389,6 +359,13 @@ public final class DBUtils {
      * Check that a particular SQL statement has the same result when executed
      * on more than one database.
      * 
+     * The query is run on all the databases at the same time and each result
+     * is reduced to a {@link ResultDigest} as it is read. Databases are
+     * grouped by digest, and only the databases outside the largest group are
+     * compared row by row with a database from it, using
+     * {@link #compareResultSets(ResultSet, ResultSet, EnsTestCase, String, boolean, boolean, String, boolean)}
+     * to report the differences.
+     * 
      * @return True if all matched databases provide the same result, false
      *         otherwise.
      * @param sql
@@ -399,45 +376,135 @@ public final class DBUtils {
     public static boolean checkSameSQLResult(EnsTestCase test, String sql, DatabaseRegistryEntry[] databases,
             boolean comparingSchema) {
 
-        List<ResultSet> resultSetGroup = new ArrayList<ResultSet>();
-        List<Statement> statements = new ArrayList<Statement>();
-        try {
+        if (databases.length < 2) {
+            return true;
+        }
 
-            for (int i = 0; i < databases.length; i++) {
+        List<ResultDigest> digests = digestSQLResults(test, sql, databases);
 
-                Connection con = databases[i].getConnection();
-                Statement stmt = null;
-                ResultSet rs = null;
-                try {
-                    stmt = con.createStatement();
-                    rs = stmt.executeQuery(sql);
-                    if (rs != null) {
-                        resultSetGroup.add(rs);
-                    }
-                    logger.fine("Added ResultSet for " + DBUtils.getShortDatabaseName(con) + ": " + sql);
-                    statements.add(stmt);
-                } catch (Exception e) {
-                    DBUtils.closeQuietly(rs);
-                    DBUtils.closeQuietly(stmt);
-                    throw new SqlUncheckedException("Could not check same SQL results", e);
+        // group databases with the same result, keeping them in order
+        Map<ResultDigest, List<DatabaseRegistryEntry>> groups = new LinkedHashMap<ResultDigest, List<DatabaseRegistryEntry>>();
+        for (int i = 0; i < databases.length; i++) {
+            List<DatabaseRegistryEntry> group = groups.get(digests.get(i));
+            if (group == null) {
+                group = new ArrayList<DatabaseRegistryEntry>();
+                groups.put(digests.get(i), group);
+            }
+            group.add(databases[i]);
+        }
+
+        logger.finest(databases.length + " databases give " + groups.size() + " different results for " + sql);
+        if (groups.size() == 1) {
+            return true;
+        }
+
+        List<DatabaseRegistryEntry> majority = null;
+        for (List<DatabaseRegistryEntry> group : groups.values()) {
+            if (majority == null || group.size() > majority.size()) {
+                majority = group;
+            }
+        }
 
+        boolean same = true;
+        DatabaseRegistryEntry reference = majority.get(0);
+        for (List<DatabaseRegistryEntry> group : groups.values()) {
+            if (group != majority) {
+                for (DatabaseRegistryEntry dbre : group) {
+                    same &= compareSQLResults(test, sql, dbre, reference, comparingSchema);
                 }
             }
+        }
+        return same;
+
+    } // checkSameSQLResult
+
+    /**
+     * Run sql on all the databases concurrently, each with its own leased
+     * connection.
+     * 
+     * @return The digests of the results, in the order of databases.
+     */
+    private static List<ResultDigest> digestSQLResults(final EnsTestCase test, final String sql,
+            DatabaseRegistryEntry[] databases) {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(databases.length, SAME_SQL_RESULT_THREADS),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "healthcheck-same-sql-result");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        // the queries are profiled with those of the session of the caller
+        final ReportSession session = ReportManager.getBoundReportSession();
+
+        try {
+
+            List<Future<ResultDigest>> futures = new ArrayList<Future<ResultDigest>>();
+            for (final DatabaseRegistryEntry dbre : databases) {
+                futures.add(executor.submit(new Callable<ResultDigest>() {
+                    public ResultDigest call() throws SQLException {
+                        if (session != null) {
+                            ReportManager.bindReportSession(session);
+                        }
+                        ConnectionPool.beginUnboundedLease(test);
+                        try {
+                            ResultDigest digest = ResultDigest.of(dbre.getConnection(), sql);
+                            logger.fine("Digested " + digest.getRows() + " rows for " + dbre.getName() + ": " + sql);
+                            return digest;
+                        } finally {
+                            ConnectionPool.endLease();
+                            ReportManager.unbindReportSession();
+                        }
+                    }
+                }));
+            }
 
-            logger.finest("Number of ResultSets to compare: " + resultSetGroup.size());
-            return DBUtils.compareResultSetGroup(resultSetGroup, test, comparingSchema);
-        } catch (Exception e) {
+            List<ResultDigest> digests = new ArrayList<ResultDigest>();
+            for (Future<ResultDigest> future : futures) {
+                digests.add(future.get());
+            }
+            return digests;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqlUncheckedException("Interrupted while checking same SQL results", e);
+        } catch (ExecutionException e) {
+            throw new SqlUncheckedException("Could not check same SQL results", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Run sql on two databases and compare the results row by row, reporting
+     * any difference against dbre1.
+     */
+    private static boolean compareSQLResults(EnsTestCase test, String sql, DatabaseRegistryEntry dbre1,
+            DatabaseRegistryEntry dbre2, boolean comparingSchema) {
+
+        Statement stmt1 = null;
+        Statement stmt2 = null;
+        ResultSet rs1 = null;
+        ResultSet rs2 = null;
+        try {
+            stmt1 = dbre1.getConnection().createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            rs1 = stmt1.executeQuery(sql);
+            stmt2 = dbre2.getConnection().createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            rs2 = stmt2.executeQuery(sql);
+            return compareResultSets(rs1, rs2, test, "", true, true, "", comparingSchema);
+        } catch (SQLException e) {
             throw new SqlUncheckedException("Could not check same SQL results", e);
         } finally {
-            for (ResultSet rs : resultSetGroup) {
-                DBUtils.closeQuietly(rs);
-            }
-            for (Statement s : statements) {
-                DBUtils.closeQuietly(s);
-            }
+            closeQuietly(rs1);
+            closeQuietly(stmt1);
+            closeQuietly(rs2);
+            closeQuietly(stmt2);
         }
 
-    } // checkSameSQLResult
+    }
 
     public static boolean compareResultSets(ResultSet rs1, ResultSet rs2, EnsTestCase testCase, String text,
             boolean reportErrors, boolean warnNull, String singleTableName, int[] columns, boolean comparingSchema) {
@@ -797,11 +864,12 @@ public final class DBUtils {
      *            The name of the table to list.
      * @param con
      *            The connection to use.
-     * @return A List of Strings representing the column names.
+     * @return A List of Strings representing the column names. The list is
+     *         cached for the run and can't be changed.
      */
     public static List<String> getColumnsInTable(Connection con, String table) {
 
-        return getSqlTemplate(con).queryForDefaultObjectList("DESCRIBE " + table, String.class);
+        return getSqlTemplate(con).queryForCachedDefaultObjectList("DESCRIBE " + table, String.class);
 
     }
 
@@ -929,12 +997,13 @@ public final class DBUtils {
     // ---------------------------------------------------------------------
 
     /**
-     * Get the meta_value for a named key in the meta table.
+     * Get the meta_value for a named key in the meta table. Values are
+     * cached for the run.
      */
     public static String getMetaValue(Connection con, String key) {
 
         List<String> results = getSqlTemplate(con)
-                .queryForDefaultObjectList("SELECT meta_value FROM meta WHERE meta_key='" + key + "'", String.class);
+                .queryForCachedDefaultObjectList("SELECT meta_value FROM meta WHERE meta_key='" + key + "'", String.class);
         return CollectionUtils.getFirstElement(results, StringUtils.EMPTY);
 
     }
@@ -1398,15 +1467,18 @@ public final class DBUtils {
         int result = -1;
         Statement stmt = null;
         ResultSet rs = null;
+        QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
         try {
             stmt = con.createStatement();
             rs = stmt.executeQuery(sql);
             if (rs != null) {
+                sample.executed(rs);
                 if (rs.last()) {
                     result = rs.getRow();
                 } else {
                     result = 0; // probably signifies an empty ResultSet
                 }
+                sample.addRows(result);
             }
             rs.close();
             stmt.close();
@@ -1415,6 +1487,7 @@ public final class DBUtils {
         } finally {
             closeQuietly(rs);
             closeQuietly(stmt);
+            sample.end();
         }
 
         return result;
@@ -1671,12 +1744,15 @@ public final class DBUtils {
         List<String> blanks = new ArrayList<String>();
         Statement stmt = null;
         ResultSet rs = null;
+        String sql = "SELECT " + column + " FROM " + table;
+        QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
         try {
-            String sql = "SELECT " + column + " FROM " + table;
             stmt = con.createStatement();
             rs = stmt.executeQuery(sql);
+            sample.executed(rs);
             ResultSetMetaData rsmd = rs.getMetaData();
             while (rs.next()) {
+                sample.addRows(1);
                 String columnValue = rs.getString(1);
                 // should it be non-null?
                 if (rsmd.isNullable(1) == ResultSetMetaData.columnNoNulls) {
@@ -1692,6 +1768,7 @@ public final class DBUtils {
         } finally {
             closeQuietly(rs);
             closeQuietly(stmt);
+            sample.end();
         }
 
         return blanks;
@@ -1721,11 +1798,14 @@ public final class DBUtils {
         String sql = "SELECT * FROM " + table;
         ResultSet rs = null;
         Statement stmt = null;
+        QueryProfiler.Sample sample = QueryProfiler.start(con, sql);
         try {
             stmt = con.createStatement();
             rs = stmt.executeQuery(sql);
+            sample.executed(rs);
             ResultSetMetaData rsmd = rs.getMetaData();
             while (rs.next()) {
+                sample.addRows(1);
                 for (int i = 1; i <= rsmd.getColumnCount(); i++) {
                     String columnValue = rs.getString(i);
                     String columnName = rsmd.getColumnName(i);
@@ -1743,6 +1823,7 @@ public final class DBUtils {
         } finally {
             closeQuietly(rs);
             closeQuietly(stmt);
+            sample.end();
         }
 
         return blanks;
@@ -66,4 +66,11 @@ public class DefaultMapRowMapper<K,V> extends AbstractMapRowMapper<K,V> {
 		return valueMapper.mapRow(resultSet, position);
 	}
 
+	/**
+	 * Describes the types mapped, for {@link QueryResultCache}.
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + "(" + keyMapper + ", " + valueMapper + ")";
+	}
+
 }
@@ -125,4 +125,11 @@ public class DefaultObjectRowMapper<T> implements RowMapper<T> {
 		// Our only cast to the expected type T
 		return (T) result;
 	}
+
+	/**
+	 * Describes the type and column mapped, for {@link QueryResultCache}.
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + "(" + expectedType.getName() + " at " + columnIndex + ")";
+	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Map from int to long keyed by open addressing on two primitive arrays, so
+ * that a few million entries such as seq_region lengths take tens of
+ * megabytes rather than the hundreds a HashMap of boxed values would.
+ * </p>
+ *
+ * <p>
+ * Not thread safe. Once filled it can be read from several threads as long
+ * as it is no longer written to.
+ * </p>
+ */
+public class IntLongMap {
+
+	private static final int FREE = 0;
+
+	private int[] keys;
+
+	private long[] values;
+
+	/** Whether key 0, which marks free slots, is in the map. */
+	private boolean hasZero;
+
+	private long zeroValue;
+
+	private int size;
+
+	public IntLongMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expected
+	 *          Number of entries to make room for.
+	 */
+	public IntLongMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		values = new long[capacity];
+	}
+
+	public void put(int key, long value) {
+
+		if (key == FREE) {
+			if (!hasZero) {
+				hasZero = true;
+				size++;
+			}
+			zeroValue = value;
+			return;
+		}
+
+		int slot = slot(key, keys);
+		if (keys[slot] == FREE) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+
+		if (size * 2 > keys.length) {
+			grow();
+		}
+
+	}
+
+	/**
+	 * @return The value for key, or missing if it is not in the map.
+	 */
+	public long get(int key, long missing) {
+
+		if (key == FREE) {
+			return hasZero ? zeroValue : missing;
+		}
+		int slot = slot(key, keys);
+		return keys[slot] == FREE ? missing : values[slot];
+
+	}
+
+	public boolean containsKey(int key) {
+		return key == FREE ? hasZero : keys[slot(key, keys)] != FREE;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The keys in ascending order.
+	 */
+	public int[] keys() {
+
+		int[] result = new int[size];
+		int i = 0;
+		if (hasZero) {
+			result[i++] = FREE;
+		}
+		for (int key : keys) {
+			if (key != FREE) {
+				result[i++] = key;
+			}
+		}
+		Arrays.sort(result);
+		return result;
+
+	}
+
+	/**
+	 * @return The slot holding key in table, or the free slot where it would go.
+	 */
+	private static int slot(int key, int[] table) {
+
+		int mask = table.length - 1;
+		int hash = key * 0x9E3779B9;
+		int slot = (hash ^ hash >>> 16) & mask;
+		while (table[slot] != FREE && table[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+
+	}
+
+	private void grow() {
+
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new long[oldValues.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int slot = slot(oldKeys[i], keys);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,677 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
+
+/**
+ * <p>
+ * Records where the time of a run goes below the level of tests. Queries are
+ * grouped by the test running them, the database and their SQL with its
+ * whitespace collapsed and its literals replaced by ?, so the same query for
+ * different values falls into one group. For each group the number of runs,
+ * the time until the server answered, the time spent reading and mapping the
+ * rows, the number of rows and an estimate of the bytes read are kept.
+ * </p>
+ * 
+ * <p>
+ * Queries are recorded by {@link ConnectionBasedSqlTemplateImpl}, and
+ * therefore by most helpers of {@link DBUtils}, and by the helpers that run
+ * their own statements. The test is the one holding the connection lease of
+ * the thread, see {@link ConnectionPool#beginLease}. JDBC does not tell how
+ * many bytes a result took, so they are estimated from the display sizes of
+ * its columns.
+ * </p>
+ * 
+ * <p>
+ * The sql.profile.top groups that took longest are written to the log at the
+ * end of a run, 0 turns recording off. If sql.profile.explain is set, the plan
+ * of a SELECT that took at least that many seconds is kept with its group.
+ * Both are read when the first query is recorded, and again after
+ * {@link #clear()}.
+ * </p>
+ * 
+ * <p>
+ * Runs sharing a JVM, like the requests of the daemon, can keep their queries
+ * apart with {@link #startSession(ReportSession)}. Queries run by a thread
+ * bound to such a session are recorded in a profile of their own, the others
+ * in the profile shared by all threads.
+ * </p>
+ */
+public class QueryProfiler {
+
+	/** System property with the number of groups reported. */
+	public static final String TOP = "sql.profile.top";
+
+	public static final int DEFAULT_TOP = 20;
+
+	/** System property with the seconds after which a query is explained. */
+	public static final String EXPLAIN = "sql.profile.explain";
+
+	/** Most groups kept, queries that would start a new group after that are only counted. */
+	static final int MAX_GROUPS = 100000;
+
+	/** Most bytes counted per column when estimating the size of a row. */
+	static final int MAX_COLUMN_BYTES = 256;
+
+	private static final int MAX_REPORTED_SQL = 500;
+
+	/** Most raw SQL strings whose normalised form is kept. */
+	static final int MAX_NORMALISED = 10000;
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Queries of threads not bound to a session started with startSession. */
+	private static final Profile shared = new Profile();
+
+	private static final ConcurrentMap<ReportSession, Profile> sessions = new ConcurrentHashMap<ReportSession, Profile>();
+
+	private static final ConcurrentMap<String, String> normalised = new ConcurrentHashMap<String, String>();
+
+	// sql.profile.top and sql.profile.explain, -1 until read
+	private static volatile int top = -1;
+
+	private static volatile int explainAfter = -1;
+
+	// the innermost query run by the current thread, see addRows
+	private static final ThreadLocal<Sample> current = new ThreadLocal<Sample>();
+
+	private static final Sample DISABLED = new Sample(null, null, null, null, false);
+
+	// hide constructor to stop people instantiating this
+	private QueryProfiler() {
+	}
+
+	/**
+	 * Start recording a query about to be run on con. The query becomes the
+	 * one that {@link #addRows(long)} counts rows for until
+	 * {@link Sample#end()} is called.
+	 * 
+	 * @param uri
+	 *          The URL of the database con is connected to.
+	 */
+	public static Sample start(Connection con, String uri, String sql, Object... args) {
+
+		if (!isEnabled()) {
+			return DISABLED;
+		}
+		Sample sample = new Sample(con, uri, sql, args, true);
+		sample.outer = current.get();
+		current.set(sample);
+		return sample;
+	}
+
+	/**
+	 * Start recording a query about to be run on con.
+	 */
+	public static Sample start(Connection con, String sql) {
+
+		if (!isEnabled()) {
+			return DISABLED;
+		}
+		return start(con, getURL(con), sql);
+	}
+
+	/**
+	 * Start recording a query whose rows are read while other queries run,
+	 * e.g. one that is streamed. Its rows have to be added to the sample
+	 * returned.
+	 */
+	public static Sample startStreaming(Connection con, String uri, String sql, Object... args) {
+
+		if (!isEnabled()) {
+			return DISABLED;
+		}
+		return new Sample(con, uri, sql, args, false);
+	}
+
+	/**
+	 * Count rows read for the innermost query being recorded on this thread.
+	 */
+	public static void addRows(long rows) {
+
+		Sample sample = current.get();
+		if (sample != null) {
+			sample.addRows(rows);
+		}
+	}
+
+	public static boolean isEnabled() {
+		return getTop() > 0;
+	}
+
+	/**
+	 * Forget all queries not recorded for a session, at the end of a run. The
+	 * settings are read again for the next one.
+	 */
+	public static void clear() {
+
+		shared.clear();
+		normalised.clear();
+		top = -1;
+		explainAfter = -1;
+	}
+
+	/**
+	 * Record the queries of threads bound to session in a profile of their own
+	 * until {@link #endSession(ReportSession)}.
+	 */
+	public static void startSession(ReportSession session) {
+
+		sessions.put(session, new Profile());
+	}
+
+	/**
+	 * Forget the queries recorded for session.
+	 */
+	public static void endSession(ReportSession session) {
+
+		sessions.remove(session);
+	}
+
+	/**
+	 * @return The profile the queries of the current thread are recorded in.
+	 */
+	private static Profile getProfile() {
+
+		ReportSession session = ReportManager.getBoundReportSession();
+		Profile profile = (session == null) ? null : sessions.get(session);
+		return (profile == null) ? shared : profile;
+	}
+
+	private static int getTop() {
+
+		int value = top;
+		if (value < 0) {
+			value = Math.max(Integer.getInteger(TOP, DEFAULT_TOP), 0);
+			top = value;
+		}
+		return value;
+	}
+
+	private static int getExplainAfter() {
+
+		int value = explainAfter;
+		if (value < 0) {
+			value = Math.max(Integer.getInteger(EXPLAIN, 0), 0);
+			explainAfter = value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return A summary of all queries recorded outside a session followed by
+	 *         the top groups of queries that took longest, each with its plan
+	 *         if it has been explained.
+	 */
+	public static List<String> getReport(int top) {
+
+		return shared.getReport(top);
+	}
+
+	/**
+	 * @return The report of the queries recorded for session, see
+	 *         {@link #getReport(int)}.
+	 */
+	public static List<String> getReport(ReportSession session, int top) {
+
+		Profile profile = sessions.get(session);
+		return (profile == null) ? new Profile().getReport(top) : profile.getReport(top);
+	}
+
+	/**
+	 * Write the report of the sql.profile.top slowest groups to the log.
+	 */
+	public static void logReport() {
+
+		shared.logReport();
+	}
+
+	/**
+	 * Write the report of the sql.profile.top slowest groups recorded for
+	 * session to the log.
+	 */
+	public static void logReport(ReportSession session) {
+
+		Profile profile = sessions.get(session);
+		if (profile != null) {
+			profile.logReport();
+		}
+	}
+
+	/**
+	 * @return {@link #normalise(String)} of sql, remembered for the queries
+	 *         that are run again.
+	 */
+	private static String getNormalised(String sql) {
+
+		String result = normalised.get(sql);
+		if (result == null) {
+			result = normalise(sql);
+			if (normalised.size() < MAX_NORMALISED) {
+				normalised.put(sql, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return sql with its whitespace collapsed, and quoted strings and
+	 *         numbers replaced by ?. Lists of values become a single ?.
+	 */
+	static String normalise(String sql) {
+
+		int length = sql.length();
+		StringBuilder out = new StringBuilder(length);
+		boolean space = false;
+
+		for (int i = 0; i < length; i++) {
+
+			char c = sql.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				space = out.length() > 0;
+				continue;
+			}
+			if (space) {
+				out.append(' ');
+				space = false;
+			}
+
+			if (c == '\'' || c == '"') {
+				int j = i + 1;
+				while (j < length) {
+					char d = sql.charAt(j);
+					if (d == '\\') {
+						j += 2;
+					} else if (d == c && j + 1 < length && sql.charAt(j + 1) == c) {
+						j += 2;
+					} else if (d == c) {
+						break;
+					} else {
+						j++;
+					}
+				}
+				appendValue(out);
+				i = j;
+
+			} else if (Character.isDigit(c) && !endsWithIdentifier(out)) {
+				int j = i;
+				while (j + 1 < length && (Character.isLetterOrDigit(sql.charAt(j + 1)) || sql.charAt(j + 1) == '.')) {
+					j++;
+				}
+				appendValue(out);
+				i = j;
+
+			} else {
+				out.append(c);
+			}
+		}
+
+		return out.toString();
+	}
+
+	private static void appendValue(StringBuilder out) {
+
+		int length = out.length();
+		if (length > 2 && out.charAt(length - 1) == ' ' && out.charAt(length - 2) == ',' && out.charAt(length - 3) == '?') {
+			out.setLength(length - 2);
+		} else if (length > 1 && out.charAt(length - 1) == ',' && out.charAt(length - 2) == '?') {
+			out.setLength(length - 1);
+		} else {
+			out.append('?');
+		}
+	}
+
+	private static boolean endsWithIdentifier(StringBuilder out) {
+
+		if (out.length() == 0) {
+			return false;
+		}
+		char c = out.charAt(out.length() - 1);
+		return Character.isLetterOrDigit(c) || c == '_' || c == '`';
+	}
+
+	/**
+	 * @return The name of the database in uri.
+	 */
+	static String getDatabaseName(String uri) {
+
+		if (uri == null) {
+			return "";
+		}
+		int end = uri.indexOf('?');
+		String name = (end < 0) ? uri : uri.substring(0, end);
+		return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf(':')) + 1);
+	}
+
+	private static String getURL(Connection con) {
+
+		try {
+			return con.getMetaData().getURL();
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	private static String formatNanos(long nanos) {
+		return Utils.formatTimeString(nanos / 1000000).trim();
+	}
+
+	private static String formatBytes(long bytes) {
+
+		if (bytes < 10 * 1024) {
+			return bytes + " bytes";
+		}
+		if (bytes < 10 * 1024 * 1024) {
+			return (bytes / 1024) + " kB";
+		}
+		return (bytes / (1024 * 1024)) + " MB";
+	}
+
+	/**
+	 * @return The plan of sql, one line per row of EXPLAIN.
+	 */
+	private static List<String> explain(Connection con, String sql, Object[] args) {
+
+		List<String> plan = new ArrayList<String>();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = con.prepareStatement("EXPLAIN " + sql);
+			if (args != null) {
+				for (int i = 0; i < args.length; i++) {
+					ps.setObject(i + 1, args[i]);
+				}
+			}
+			rs = ps.executeQuery();
+			int columns = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				StringBuilder line = new StringBuilder();
+				for (int i = 1; i <= columns; i++) {
+					if (i > 1) {
+						line.append('\t');
+					}
+					line.append(rs.getString(i));
+				}
+				plan.add(line.toString());
+			}
+		} catch (SQLException e) {
+			plan.add("could not explain: " + e.getMessage());
+		} finally {
+			DBUtils.closeQuietly(rs);
+			DBUtils.closeQuietly(ps);
+		}
+		return plan;
+	}
+
+	/**
+	 * One run of a query. Call {@link #executed(ResultSet)} when the server
+	 * has answered and {@link #end()} when the result has been read and
+	 * closed.
+	 */
+	public static class Sample {
+
+		private final Connection con;
+		private final String uri;
+		private final String sql;
+		private final Object[] args;
+		private final boolean nested;
+		private final long start;
+		private long executed;
+		private long rowBytes;
+		private long rows;
+		private boolean ended;
+		private Sample outer;
+
+		Sample(Connection con, String uri, String sql, Object[] args, boolean nested) {
+			this.con = con;
+			this.uri = uri;
+			this.sql = sql;
+			this.args = args;
+			this.nested = nested;
+			this.start = (sql == null) ? 0 : System.nanoTime();
+		}
+
+		/**
+		 * Mark the time the server answered a statement without a result.
+		 */
+		public void executed() {
+			if (sql != null && executed == 0) {
+				executed = System.nanoTime();
+			}
+		}
+
+		/**
+		 * Mark the time the server answered with rs, and estimate the size of
+		 * its rows.
+		 */
+		public void executed(ResultSet rs) {
+			if (sql == null) {
+				return;
+			}
+			executed();
+			try {
+				ResultSetMetaData metaData = rs.getMetaData();
+				for (int i = 1; i <= metaData.getColumnCount(); i++) {
+					rowBytes += Math.min(Math.max(metaData.getColumnDisplaySize(i), 1), MAX_COLUMN_BYTES);
+				}
+			} catch (SQLException e) {
+				// the size stays unknown
+			}
+		}
+
+		public void addRows(long rows) {
+			if (sql != null) {
+				this.rows += rows;
+			}
+		}
+
+		/**
+		 * Record the query. Only the first call counts.
+		 */
+		public void end() {
+
+			if (sql == null || ended) {
+				return;
+			}
+			ended = true;
+			if (nested) {
+				current.set(outer);
+			}
+
+			long now = System.nanoTime();
+			long execution = ((executed == 0) ? now : executed) - start;
+			long reading = (executed == 0) ? 0 : now - executed;
+
+			String test = ConnectionPool.getLeaseOwner();
+			String key = ((test == null) ? "no test" : test) + "\t" + getDatabaseName(uri) + "\t" + getNormalised(sql);
+			Group group = getProfile().getGroup(key);
+			if (group == null) {
+				return;
+			}
+			group.add(execution, reading, rows, rows * rowBytes);
+
+			int explainAfter = getExplainAfter();
+			if (explainAfter > 0 && execution + reading >= explainAfter * 1000000000L && group.claimPlan()) {
+				group.setPlan(explain(con, sql, args));
+			}
+		}
+
+	}
+
+	/**
+	 * The queries recorded for one session, or for the threads outside any.
+	 */
+	private static class Profile {
+
+		private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+		private final AtomicLong dropped = new AtomicLong();
+
+		/**
+		 * @return The group for key, or null if there are too many groups
+		 *         already; the query is then only counted.
+		 */
+		Group getGroup(String key) {
+
+			Group group = groups.get(key);
+			if (group == null) {
+				if (groups.size() >= MAX_GROUPS) {
+					dropped.incrementAndGet();
+					return null;
+				}
+				Group created = new Group(key);
+				group = groups.putIfAbsent(key, created);
+				if (group == null) {
+					group = created;
+				}
+			}
+			return group;
+		}
+
+		void clear() {
+
+			groups.clear();
+			dropped.set(0);
+		}
+
+		List<String> getReport(int top) {
+
+			List<Group> sorted = new ArrayList<Group>(groups.values());
+			Collections.sort(sorted, new Comparator<Group>() {
+				public int compare(Group g1, Group g2) {
+					long t1 = g1.getTotal();
+					long t2 = g2.getTotal();
+					return (t1 > t2) ? -1 : ((t1 == t2) ? 0 : 1);
+				}
+			});
+
+			long runs = 0;
+			long total = 0;
+			for (Group group : sorted) {
+				runs += group.getRuns();
+				total += group.getTotal();
+			}
+
+			List<String> report = new ArrayList<String>();
+			report.add(runs + " queries of " + sorted.size() + " kinds took " + formatNanos(total) + " in all"
+					+ (dropped.get() > 0 ? ", " + dropped.get() + " more were not recorded" : ""));
+			for (Group group : sorted.subList(0, Math.min(top, sorted.size()))) {
+				report.addAll(group.describe());
+			}
+			return report;
+		}
+
+		void logReport() {
+
+			if (!isEnabled() || groups.isEmpty()) {
+				return;
+			}
+			for (String line : getReport(getTop())) {
+				logger.info("Slow queries, " + line);
+			}
+		}
+
+	}
+
+	/**
+	 * The runs of one query by one test on one database.
+	 */
+	private static class Group {
+
+		private final String key;
+		private long runs;
+		private long execution;
+		private long reading;
+		private long longest;
+		private long rows;
+		private long bytes;
+		private boolean explained;
+		private List<String> plan;
+
+		Group(String key) {
+			this.key = key;
+		}
+
+		synchronized void add(long execution, long reading, long rows, long bytes) {
+			this.runs++;
+			this.execution += execution;
+			this.reading += reading;
+			this.longest = Math.max(longest, execution + reading);
+			this.rows += rows;
+			this.bytes += bytes;
+		}
+
+		/**
+		 * @return True if the query of the group is a SELECT that has not been
+		 *         explained yet; the caller has to explain it.
+		 */
+		synchronized boolean claimPlan() {
+			if (explained || !key.substring(key.lastIndexOf('\t') + 1).regionMatches(true, 0, "SELECT", 0, 6)) {
+				return false;
+			}
+			explained = true;
+			return true;
+		}
+
+		synchronized void setPlan(List<String> plan) {
+			this.plan = plan;
+		}
+
+		synchronized long getRuns() {
+			return runs;
+		}
+
+		synchronized long getTotal() {
+			return execution + reading;
+		}
+
+		synchronized List<String> describe() {
+
+			String[] parts = key.split("\t", 3);
+			List<String> lines = new ArrayList<String>();
+			lines.add(formatNanos(execution + reading) + " in " + runs + " runs (longest " + formatNanos(longest) + ", "
+					+ formatNanos(reading) + " reading " + rows + " rows of about " + formatBytes(bytes) + ") by " + parts[0]
+					+ " on " + parts[1] + ": " + Utils.truncate(parts[2], MAX_REPORTED_SQL, true));
+			if (plan != null) {
+				for (String line : plan) {
+					lines.add("  plan: " + line);
+				}
+			}
+			return lines;
+		}
+
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+
+/**
+ * <p>
+ * Keeps the results of queries that several tests run on the same database
+ * during a run, such as meta values, the columns of a table or the lengths of
+ * the toplevel seq_regions. A result is found again by the URL of the
+ * database, the SQL with its whitespace collapsed, the arguments and the
+ * shape of the result, so a query mapped in two different ways is kept twice.
+ * </p>
+ *
+ * <p>
+ * Only queries run through the queryForCached methods of {@link SqlTemplate}
+ * or through {@link #get} are cached. Cached results are shared between tests
+ * and threads and must not be changed. Writes through a {@link SqlTemplate}
+ * and repairs drop the results of the database they were made to.
+ * </p>
+ *
+ * <p>
+ * Up to query.cache.size results are kept, the least recently used is
+ * dropped first. A size of 0 turns the cache off.
+ * </p>
+ */
+public class QueryResultCache {
+
+	/** System property with the maximum number of results kept. */
+	public static final String SIZE = "query.cache.size";
+
+	public static final int DEFAULT_SIZE = 1000;
+
+	/**
+	 * Runs a query whose result is not cached yet.
+	 */
+	public static interface Loader<T> {
+		T load() throws SQLException;
+	}
+
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final AtomicLong hits = new AtomicLong();
+
+	private static final AtomicLong misses = new AtomicLong();
+
+	private static final AtomicLong evictions = new AtomicLong();
+
+	private static final AtomicLong invalidations = new AtomicLong();
+
+	// access ordered, so the eldest entry is the least recently used
+	private static final Map<String, FutureTask<Object>> results = new LinkedHashMap<String, FutureTask<Object>>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Object>> eldest) {
+			if (size() > getMaxSize()) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * @return The result of sql with args on database, running loader if it
+	 *         is not cached. A query already being run by another thread is
+	 *         waited for instead of being run again.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T get(String database, String shape, String sql, Object[] args, final Loader<T> loader) {
+
+		if (getMaxSize() <= 0) {
+			misses.incrementAndGet();
+			return load(loader);
+		}
+
+		String key = key(database, shape, sql, args);
+		FutureTask<Object> result;
+		boolean found;
+		synchronized (results) {
+			result = results.get(key);
+			found = result != null;
+			if (!found) {
+				result = new FutureTask<Object>(new Callable<Object>() {
+					public Object call() throws SQLException {
+						return loader.load();
+					}
+				});
+				results.put(key, result);
+			}
+		}
+
+		if (found) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			result.run();
+		}
+
+		try {
+			return (T) result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while waiting for " + sql, e);
+		} catch (ExecutionException e) {
+			// don't keep failures, the next caller tries again
+			synchronized (results) {
+				if (results.get(key) == result) {
+					results.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SqlUncheckedException("Could not run " + sql, cause);
+		}
+
+	}
+
+	private static <T> T load(Loader<T> loader) {
+		try {
+			return loader.load();
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not run query", e);
+		}
+	}
+
+	/**
+	 * Drop the results of the database at the URL database.
+	 */
+	public static void invalidate(String database) {
+
+		String prefix = database + "\n";
+		synchronized (results) {
+			Iterator<String> keys = results.keySet().iterator();
+			while (keys.hasNext()) {
+				if (keys.next().startsWith(prefix)) {
+					keys.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop the results of dbre.
+	 */
+	public static void invalidate(DatabaseRegistryEntry dbre) {
+
+		Connection con = dbre.getConnection();
+		if (con == null) {
+			return;
+		}
+		try {
+			invalidate(con.getMetaData().getURL());
+		} catch (SQLException e) {
+			logger.warning("Can't drop the cached query results of " + dbre.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Drop all results and reset the statistics, at the end of a run.
+	 */
+	public static void clear() {
+
+		synchronized (results) {
+			results.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		invalidations.set(0);
+	}
+
+	/**
+	 * @return The number of results kept.
+	 */
+	public static int size() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return A one line summary of how the cache has been used.
+	 */
+	public static String getStatistics() {
+		return hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evicted, " + invalidations.get()
+				+ " dropped after writes, " + size() + " results kept";
+	}
+
+	/**
+	 * Write the statistics to the log.
+	 */
+	public static void logStatistics() {
+		logger.info("Query result cache, " + getStatistics());
+	}
+
+	/**
+	 * @return A description of what mapper maps rows to, for the shape of a
+	 *         cached result. {@link DefaultMapRowMapper} and
+	 *         {@link DefaultObjectRowMapper} are told apart by the classes they
+	 *         map to, other mappers by their class.
+	 */
+	static String describe(Object mapper) {
+		if (mapper instanceof DefaultMapRowMapper || mapper instanceof DefaultObjectRowMapper) {
+			return mapper.toString();
+		}
+		return mapper.getClass().getName();
+	}
+
+	static String key(String database, String shape, String sql, Object[] args) {
+		return database + "\n" + shape + "\n" + WHITESPACE.matcher(sql.trim()).replaceAll(" ") + "\n"
+				+ (args == null ? "[]" : Arrays.deepToString(args));
+	}
+
+	private static int getMaxSize() {
+		return Integer.getInteger(SIZE, DEFAULT_SIZE);
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * <p>
+ * MD5 digest of the result of a query, computed while the rows are streamed
+ * from the server so the result is never held in memory. Two results have
+ * the same digest if they have the same column names and types and the same
+ * rows in the same order, where values are compared the way
+ * {@link DBUtils#compareColumns(ResultSet, ResultSet, int, boolean)} compares
+ * them.
+ * </p>
+ */
+public class ResultDigest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String digest;
+
+	private final int rows;
+
+	private ResultDigest(String digest, int rows) {
+		this.digest = digest;
+		this.rows = rows;
+	}
+
+	/**
+	 * Run sql on con and digest its result.
+	 */
+	public static ResultDigest of(Connection con, String sql) throws SQLException {
+
+		MessageDigest md = newDigest();
+		int rows = 0;
+
+		Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+
+			stmt.setFetchSize(ConnectionBasedSqlTemplateImpl.defaultStreamingFetchSize(con.getMetaData().getURL()));
+			ResultSet rs = stmt.executeQuery(sql);
+
+			ResultSetMetaData rsmd = rs.getMetaData();
+			int columns = rsmd.getColumnCount();
+			int[] types = new int[columns + 1];
+			update(md, Integer.toString(columns));
+			for (int i = 1; i <= columns; i++) {
+				types[i] = rsmd.getColumnType(i);
+				update(md, rsmd.getColumnName(i));
+				update(md, Integer.toString(types[i]));
+			}
+
+			while (rs.next()) {
+				rows++;
+				for (int i = 1; i <= columns; i++) {
+					update(md, canonicalValue(rs, i, types[i]));
+				}
+			}
+			rs.close();
+
+		} finally {
+			stmt.close();
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return new ResultDigest(hex.toString(), rows);
+
+	}
+
+	/**
+	 * The value of column i of the current row as a String that is equal for
+	 * values that {@link DBUtils#compareColumns(ResultSet, ResultSet, int, boolean)}
+	 * considers equal, or null for SQL NULL.
+	 */
+	private static String canonicalValue(ResultSet rs, int i, int type) throws SQLException {
+
+		if (rs.getObject(i) == null) {
+			return null;
+		}
+
+		switch (type) {
+
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return Integer.toString(rs.getInt(i));
+
+		case Types.VARCHAR:
+			// ignore "AUTO_INCREMENT=" part in final part of table definition
+			return rs.getString(i).replaceAll("AUTO_INCREMENT=[0-9]+ ", "");
+
+		case Types.FLOAT:
+			return Float.toString(rs.getFloat(i));
+
+		case Types.DOUBLE:
+			return Double.toString(rs.getDouble(i));
+
+		case Types.TIMESTAMP:
+			return rs.getTimestamp(i).toString();
+
+		default:
+			return rs.getString(i);
+
+		}
+
+	}
+
+	/**
+	 * Add a length-prefixed value, so that no two different sequences of
+	 * values give the same bytes.
+	 */
+	private static void update(MessageDigest md, String value) {
+		if (value == null) {
+			md.update((byte) 0);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		md.update((byte) 1);
+		md.update(Integer.toString(bytes.length).getBytes(UTF8));
+		md.update((byte) ':');
+		md.update(bytes);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new UtilUncheckedException("MD5 is not available", e);
+		}
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof ResultDigest) && ((ResultDigest) o).digest.equals(digest) && ((ResultDigest) o).rows == rows;
+	}
+
+	@Override
+	public int hashCode() {
+		return digest.hashCode();
+	}
+
+}
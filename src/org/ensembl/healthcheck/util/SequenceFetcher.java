@@ -0,0 +1,213 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Reads the sequence of any part of a sequence region of a core database
+ * from the dna table, going down through the assembly table to the
+ * sequence level regions the sequence is stored for. Parts not covered by
+ * the assembly, or with no sequence stored, are returned as N.
+ * </p>
+ *
+ * <p>
+ * Where a region is assembled from regions of more than one coordinate
+ * system, e.g. a chromosome from both scaffolds and contigs, sequence level
+ * components are used if there are any, otherwise those of the coordinate
+ * system with the most components. The assembly of each region is read
+ * once and kept, so one fetcher can be shared by several threads, each
+ * with its own connection.
+ * </p>
+ */
+public class SequenceFetcher {
+
+	/** A piece of an assembled region made up of a piece of a component. */
+	private static final class Component {
+
+		private final int asmStart;
+		private final int asmEnd;
+		private final long cmpSeqRegionId;
+		private final int cmpStart;
+		private final int cmpEnd;
+		private final int ori;
+
+		private Component(int asmStart, int asmEnd, long cmpSeqRegionId, int cmpStart, int cmpEnd, int ori) {
+			this.asmStart = asmStart;
+			this.asmEnd = asmEnd;
+			this.cmpSeqRegionId = cmpSeqRegionId;
+			this.cmpStart = cmpStart;
+			this.cmpEnd = cmpEnd;
+			this.ori = ori;
+		}
+
+	}
+
+	private final Set<Long> sequenceLevel;
+
+	private final Map<Long, List<Component>> assemblies = new ConcurrentHashMap<Long, List<Component>>();
+
+	/**
+	 * @param con
+	 *          Connection to the database, used to find the sequence level
+	 *          regions.
+	 */
+	public SequenceFetcher(Connection con) throws SQLException {
+
+		sequenceLevel = new HashSet<Long>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT sr.seq_region_id FROM seq_region sr JOIN coord_system cs ON (cs.coord_system_id = sr.coord_system_id) "
+					+ "WHERE cs.attrib LIKE '%sequence_level%'");
+			while (rs.next()) {
+				sequenceLevel.add(rs.getLong(1));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+	}
+
+	/**
+	 * @return The forward strand sequence from start to end of the region, in
+	 *         upper case.
+	 */
+	public String getSequence(Connection con, long seqRegionId, int start, int end) throws SQLException {
+
+		char[] seq = new char[Math.max(0, end - start + 1)];
+		Arrays.fill(seq, 'N');
+		fill(con, seqRegionId, start, end, seq, 0);
+		return new String(seq);
+
+	}
+
+	private void fill(Connection con, long seqRegionId, int start, int end, char[] seq, int offset) throws SQLException {
+
+		if (sequenceLevel.contains(seqRegionId)) {
+
+			PreparedStatement stmt = con.prepareStatement("SELECT SUBSTRING(sequence, ?, ?) FROM dna WHERE seq_region_id = ?");
+			try {
+				stmt.setInt(1, start);
+				stmt.setInt(2, end - start + 1);
+				stmt.setLong(3, seqRegionId);
+				ResultSet rs = stmt.executeQuery();
+				if (rs.next()) {
+					String dna = rs.getString(1);
+					for (int i = 0; dna != null && i < dna.length() && offset + i < seq.length; i++) {
+						seq[offset + i] = Character.toUpperCase(dna.charAt(i));
+					}
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+			return;
+
+		}
+
+		for (Component c : getAssembly(con, seqRegionId)) {
+
+			if (c.asmEnd < start || c.asmStart > end) {
+				continue;
+			}
+
+			int from = Math.max(start, c.asmStart);
+			int to = Math.min(end, c.asmEnd);
+
+			int cmpFrom;
+			int cmpTo;
+			if (c.ori == -1) {
+				cmpFrom = c.cmpEnd - (to - c.asmStart);
+				cmpTo = c.cmpEnd - (from - c.asmStart);
+			} else {
+				cmpFrom = c.cmpStart + (from - c.asmStart);
+				cmpTo = c.cmpStart + (to - c.asmStart);
+			}
+
+			if (c.ori == -1) {
+				String piece = TranscriptTranslator.reverseComplement(getSequence(con, c.cmpSeqRegionId, cmpFrom, cmpTo));
+				piece.getChars(0, piece.length(), seq, offset + from - start);
+			} else {
+				fill(con, c.cmpSeqRegionId, cmpFrom, cmpTo, seq, offset + from - start);
+			}
+
+		}
+
+	}
+
+	private List<Component> getAssembly(Connection con, long asmSeqRegionId) throws SQLException {
+
+		List<Component> assembly = assemblies.get(asmSeqRegionId);
+		if (assembly != null) {
+			return assembly;
+		}
+
+		Map<Long, List<Component>> byCoordSystem = new HashMap<Long, List<Component>>();
+		List<Component> toSequenceLevel = new ArrayList<Component>();
+
+		PreparedStatement stmt = con.prepareStatement("SELECT a.asm_start, a.asm_end, a.cmp_seq_region_id, a.cmp_start, a.cmp_end, a.ori, "
+				+ "sr.coord_system_id FROM assembly a JOIN seq_region sr ON (sr.seq_region_id = a.cmp_seq_region_id) "
+				+ "WHERE a.asm_seq_region_id = ? ORDER BY a.asm_start");
+		try {
+			stmt.setLong(1, asmSeqRegionId);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				Component c = new Component(rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getInt(4), rs.getInt(5), rs.getInt(6));
+				if (sequenceLevel.contains(c.cmpSeqRegionId)) {
+					toSequenceLevel.add(c);
+				}
+				if (!byCoordSystem.containsKey(rs.getLong(7))) {
+					byCoordSystem.put(rs.getLong(7), new ArrayList<Component>());
+				}
+				byCoordSystem.get(rs.getLong(7)).add(c);
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		assembly = toSequenceLevel;
+		if (assembly.isEmpty()) {
+			for (List<Component> components : byCoordSystem.values()) {
+				if (components.size() > assembly.size()) {
+					assembly = components;
+				}
+			}
+		}
+
+		assemblies.put(asmSeqRegionId, assembly);
+		return assembly;
+
+	}
+
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A bounded pool of connections to the databases on one database server.
+ * Connections are handed out by {@link ConnectionPool} to the test that is
+ * running on the current thread and returned when the test has finished.
+ * </p>
+ *
+ * <ul>
+ * <li>No more than maxSize connections to the server are open at any time.
+ * Idle connections to other databases are closed to make room, and if every
+ * connection is in use a borrower waits for up to borrowTimeout
+ * milliseconds. Unbounded borrowers, which may already hold connections to
+ * the server, do not wait and open a connection over the limit instead.</li>
+ * <li>Idle connections are reused most recently used first. Idle
+ * connections that have not been used for idleTimeout milliseconds are
+ * closed by {@link #evict()}, keeping at least minIdle of them.</li>
+ * <li>A connection that has been borrowed for longer than leakThreshold
+ * milliseconds is reported once, together with the test that borrowed
+ * it.</li>
+ * <li>A connection that fails validation when it is taken from the pool is
+ * closed and replaced.</li>
+ * </ul>
+ */
+public class ServerConnectionPool {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private final String name;
+
+	private final String user;
+
+	private final String password;
+
+	private volatile int minIdle;
+
+	private volatile int maxSize;
+
+	private volatile long borrowTimeout;
+
+	private volatile long idleTimeout;
+
+	private volatile long leakThreshold;
+
+	/** Idle connections by URL, most recently used first. */
+	private final Map<String, LinkedList<Idle>> idle = new HashMap<String, LinkedList<Idle>>();
+
+	private int idleCount = 0;
+
+	private final Map<Connection, Borrowed> borrowed = new IdentityHashMap<Connection, Borrowed>();
+
+	/** Connections being opened or validated, and so neither idle nor borrowed. */
+	private int pending = 0;
+
+	// statistics
+	private long created;
+	private long borrows;
+	private long reused;
+	private long timeouts;
+	private long evicted;
+	private long discarded;
+	private long leaks;
+	private long overLimit;
+	private int peakInUse;
+	private long waitMillis;
+
+	/**
+	 * @param name
+	 *          Used in log messages, usually the URL of the server.
+	 * @param user
+	 *          The username to connect with.
+	 * @param password
+	 *          Password for user.
+	 */
+	public ServerConnectionPool(String name, String user, String password, int minIdle, int maxSize, long borrowTimeout, long idleTimeout,
+			long leakThreshold) {
+		this.name = name;
+		this.user = user;
+		this.password = password;
+		configure(minIdle, maxSize, borrowTimeout, idleTimeout, leakThreshold);
+	}
+
+	/**
+	 * Change the limits of this pool. A maxSize below 1 means no limit.
+	 */
+	public void configure(int minIdle, int maxSize, long borrowTimeout, long idleTimeout, long leakThreshold) {
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.borrowTimeout = borrowTimeout;
+		this.idleTimeout = idleTimeout;
+		this.leakThreshold = leakThreshold;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Borrow a connection to databaseURL, which must be a database on this
+	 * server.
+	 *
+	 * @param databaseURL
+	 *          The URL of the database to connect to.
+	 * @param owner
+	 *          Description of the borrower, reported if the connection is not
+	 *          returned in time.
+	 * @throws SQLException
+	 *           If a new connection can't be opened, or none becomes free
+	 *           within the borrow timeout.
+	 */
+	public Connection borrow(String databaseURL, String owner) throws SQLException {
+		return borrow(databaseURL, owner, true);
+	}
+
+	/**
+	 * Borrow a connection to databaseURL, which must be a database on this
+	 * server.
+	 *
+	 * @param databaseURL
+	 *          The URL of the database to connect to.
+	 * @param owner
+	 *          Description of the borrower, reported if the connection is not
+	 *          returned in time.
+	 * @param bounded
+	 *          If false and all connections are in use, a new connection is
+	 *          opened over the limit instead of waiting for one to be
+	 *          returned.
+	 * @throws SQLException
+	 *           If a new connection can't be opened, or none becomes free
+	 *           within the borrow timeout.
+	 */
+	public Connection borrow(String databaseURL, String owner, boolean bounded) throws SQLException {
+
+		long start = System.currentTimeMillis();
+		long deadline = start + borrowTimeout;
+
+		Connection con = null;
+
+		synchronized (this) {
+
+			while (con == null) {
+
+				Idle i = pollIdle(databaseURL);
+				if (i != null) {
+					con = i.connection;
+				} else if (maxSize < 1 || total() < maxSize) {
+					break;
+				} else if (closeIdleConnection()) {
+					continue;
+				} else if (!bounded) {
+					overLimit++;
+					break;
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						timeouts++;
+						throw new SQLException("Timed out after " + borrowTimeout + "ms waiting for one of the " + maxSize + " connections to " + name
+								+ " for " + owner + ". In use by: " + borrowers());
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection to " + name);
+					}
+				}
+			}
+
+			pending++;
+			waitMillis += System.currentTimeMillis() - start;
+
+		}
+
+		boolean reuse = con != null;
+
+		try {
+
+			if (!reuse) {
+				con = DriverManager.getConnection(databaseURL, user, password);
+				logger.finest("Opened new connection to " + databaseURL);
+			} else if (!ConnectionPool.validate(con)) {
+				logger.warning("Connection to " + databaseURL + " in pool was invalid. Creating again from scratch.");
+				DBUtils.closeQuietly(con);
+				synchronized (this) {
+					discarded++;
+				}
+				con = DriverManager.getConnection(databaseURL, user, password);
+				reuse = false;
+			}
+
+		} catch (SQLException e) {
+
+			synchronized (this) {
+				pending--;
+				notifyAll();
+			}
+			throw e;
+
+		}
+
+		if (!reuse) {
+			ConnectionPool.touch(con);
+		}
+
+		synchronized (this) {
+			pending--;
+			if (reuse) {
+				reused++;
+			} else {
+				created++;
+			}
+			borrows++;
+			borrowed.put(con, new Borrowed(databaseURL, owner));
+			peakInUse = Math.max(peakInUse, borrowed.size());
+		}
+
+		return con;
+
+	}
+
+	/**
+	 * Return a borrowed connection to the pool. Connections that have been
+	 * closed by the borrower are dropped.
+	 */
+	public synchronized void release(Connection con) {
+
+		Borrowed b = borrowed.remove(con);
+		if (b == null) {
+			return;
+		}
+
+		boolean closed;
+		try {
+			closed = con.isClosed();
+		} catch (SQLException e) {
+			closed = true;
+		}
+
+		if (closed) {
+			discarded++;
+		} else {
+			LinkedList<Idle> list = idle.get(b.url);
+			if (list == null) {
+				list = new LinkedList<Idle>();
+				idle.put(b.url, list);
+			}
+			list.addFirst(new Idle(con));
+			idleCount++;
+			ConnectionPool.returned(con);
+		}
+
+		notifyAll();
+
+	}
+
+	/**
+	 * Close a borrowed connection that turned out to be broken.
+	 */
+	public void discard(Connection con) {
+
+		synchronized (this) {
+			if (borrowed.remove(con) == null) {
+				return;
+			}
+			discarded++;
+			notifyAll();
+		}
+		DBUtils.closeQuietly(con);
+
+	}
+
+	/**
+	 * Close connections that have been idle for too long and report
+	 * connections that have been borrowed for too long. Called periodically
+	 * by {@link ConnectionPool}.
+	 */
+	public void evict() {
+
+		List<Connection> toClose = new ArrayList<Connection>();
+		List<String> leaked = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+
+			for (LinkedList<Idle> list : idle.values()) {
+				while (!list.isEmpty() && idleCount > minIdle && now - list.getLast().since > idleTimeout) {
+					toClose.add(list.removeLast().connection);
+					idleCount--;
+					evicted++;
+				}
+			}
+
+			if (leakThreshold > 0) {
+				for (Borrowed b : borrowed.values()) {
+					if (!b.reported && now - b.since > leakThreshold) {
+						b.reported = true;
+						leaks++;
+						leaked.add("Connection to " + b.url + " has been borrowed by " + b.owner + " on thread " + b.thread + " for " + (now - b.since) / 1000
+								+ "s");
+					}
+				}
+			}
+
+			if (!toClose.isEmpty()) {
+				notifyAll();
+			}
+
+		}
+
+		for (Connection con : toClose) {
+			DBUtils.closeQuietly(con);
+		}
+		for (String message : leaked) {
+			logger.warning(message);
+		}
+
+	}
+
+	/**
+	 * Close all connections, including borrowed ones.
+	 */
+	public void closeAll() {
+
+		List<Connection> toClose = new ArrayList<Connection>();
+
+		synchronized (this) {
+			for (LinkedList<Idle> list : idle.values()) {
+				for (Idle i : list) {
+					toClose.add(i.connection);
+				}
+			}
+			idle.clear();
+			idleCount = 0;
+			toClose.addAll(borrowed.keySet());
+			borrowed.clear();
+			notifyAll();
+		}
+
+		for (Connection con : toClose) {
+			DBUtils.closeQuietly(con);
+		}
+
+	}
+
+	public synchronized int getIdleCount() {
+		return idleCount;
+	}
+
+	public synchronized int getBorrowedCount() {
+		return borrowed.size();
+	}
+
+	/**
+	 * @return A one line summary of how this pool has been used.
+	 */
+	public synchronized String getStatistics() {
+		return name + ": " + created + " opened, " + borrows + " borrowed (" + reused + " reused), " + timeouts + " timeouts, " + evicted + " evicted, "
+				+ discarded + " discarded, " + leaks + " leaks, " + overLimit + " over the limit, peak " + peakInUse + " in use, " + (waitMillis / 1000) + "s waiting";
+	}
+
+	private int total() {
+		return idleCount + borrowed.size() + pending;
+	}
+
+	private Idle pollIdle(String databaseURL) {
+		LinkedList<Idle> list = idle.get(databaseURL);
+		if (list == null || list.isEmpty()) {
+			return null;
+		}
+		idleCount--;
+		return list.removeFirst();
+	}
+
+	/**
+	 * Close the least recently used idle connection to make room for a
+	 * connection to another database.
+	 *
+	 * @return false if there are no idle connections.
+	 */
+	private boolean closeIdleConnection() {
+
+		LinkedList<Idle> oldest = null;
+		for (LinkedList<Idle> list : idle.values()) {
+			if (!list.isEmpty() && (oldest == null || list.getLast().since < oldest.getLast().since)) {
+				oldest = list;
+			}
+		}
+		if (oldest == null) {
+			return false;
+		}
+
+		DBUtils.closeQuietly(oldest.removeLast().connection);
+		idleCount--;
+		evicted++;
+		return true;
+
+	}
+
+	private String borrowers() {
+		StringBuilder buf = new StringBuilder();
+		for (Borrowed b : borrowed.values()) {
+			if (buf.length() > 0) {
+				buf.append(", ");
+			}
+			buf.append(b.owner);
+		}
+		return buf.toString();
+	}
+
+	private static class Idle {
+
+		final Connection connection;
+
+		final long since = System.currentTimeMillis();
+
+		Idle(Connection connection) {
+			this.connection = connection;
+		}
+
+	}
+
+	private static class Borrowed {
+
+		final String url;
+
+		final String owner;
+
+		final String thread = Thread.currentThread().getName();
+
+		final long since = System.currentTimeMillis();
+
+		boolean reported = false;
+
+		Borrowed(String url, String owner) {
+			this.url = url;
+			this.owner = owner;
+		}
+
+	}
+
+}
@@ -20,6 +20,7 @@ package org.ensembl.healthcheck.util;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -279,6 +280,34 @@ public interface SqlTemplate {
 	<K, T> Map<K, T> queryForMap(String sql, MapRowMapper<K, T> mapRowMapper,
 			Object... args);
 
+	/**
+	 * As {@link #queryForList(String, RowMapper, Object...)}, but the result
+	 * is kept in the {@link QueryResultCache} for the rest of the run and
+	 * shared with other tests asking for the same query on the same database.
+	 * Only use this for queries on data that tests do not change.
+	 *
+	 * @return An unmodifiable list
+	 */
+	<T> List<T> queryForCachedList(String sql, RowMapper<T> mapper, Object... args);
+
+	/**
+	 * As {@link #queryForDefaultObjectList(String, Class, Object...)}, with
+	 * the result cached as for
+	 * {@link #queryForCachedList(String, RowMapper, Object...)}.
+	 *
+	 * @return An unmodifiable list
+	 */
+	<T> List<T> queryForCachedDefaultObjectList(String sql, Class<T> expected, Object... args);
+
+	/**
+	 * As {@link #queryForMap(String, MapRowMapper, Object...)}, with the
+	 * result cached as for
+	 * {@link #queryForCachedList(String, RowMapper, Object...)}.
+	 *
+	 * @return An unmodifiable map
+	 */
+	<K, T> Map<K, T> queryForCachedMap(String sql, MapRowMapper<K, T> mapRowMapper, Object... args);
+
 	/**
    * A generic method used for opening {@link PreparedStatement} and
    * {@link ResultSet} instances and closing them down. Useful for when
@@ -295,6 +324,58 @@ public interface SqlTemplate {
    */
   <T> T execute(String sql, ResultSetCallback<T> callback, Object... args);
 
+	/**
+	 * Runs a query and maps its rows one at a time as they are read, rather
+	 * than reading them all into a collection first. The statement is forward
+	 * only and read only and rows are fetched from the server in batches (on
+	 * MySQL they are streamed row by row), so memory use does not grow with
+	 * the size of the result. Example usage:
+	 *
+	 * <code>
+	 * RowIterator&lt;String&gt; names = template.stream("select name from big_table", mapper);
+	 * try {
+	 *   while (names.hasNext()) {
+	 *     ...
+	 *   }
+	 * } finally {
+	 *   names.close();
+	 * }
+	 * </code>
+	 *
+	 * The iterator closes itself once the last row has been read, but must be
+	 * closed if you stop early. While it is open no other statement can be run
+	 * on the same connection. On MySQL, stopping early aborts the connection
+	 * rather than read the rest of the result; the connection pool replaces
+	 * it when the database is next asked for, but a connection you hold
+	 * yourself can't be used afterwards.
+	 *
+	 * @param sql
+	 *            The SQL to run
+	 * @param mapper
+	 *            The mapper to use for each row
+	 * @param args
+	 *            Arguments to use in the SQL
+	 * @return An iterator over the mapped rows
+	 */
+	<T> RowIterator<T> stream(String sql, RowMapper<T> mapper, Object... args);
+
+	/**
+	 * Callback version of {@link #stream(String, RowMapper, Object...)}, which
+	 * passes each mapped row to callback and closes the statement afterwards.
+	 * Returning false from the callback stops the query early.
+	 *
+	 * @param sql
+	 *            The SQL to run
+	 * @param mapper
+	 *            The mapper to use for each row
+	 * @param callback
+	 *            Called with each mapped row
+	 * @param args
+	 *            Arguments to use in the SQL
+	 * @return The number of rows passed to callback
+	 */
+	<T> int streamEach(String sql, RowMapper<T> mapper, RowCallback<T> callback, Object... args);
+
 	/**
    * Executes the given SQL statement. Useful for executing inlined DML or DDL
    *
@@ -326,4 +407,23 @@ public interface SqlTemplate {
     T process(ResultSet rs) throws SQLException;
   }
 
+	/**
+	 * Iterator returned by {@link SqlTemplate#stream(String, RowMapper, Object...)}.
+	 * Closing it releases the statement and result set behind it; failures
+	 * while reading rows are raised as {@link SqlUncheckedException}.
+	 */
+	public static interface RowIterator<T> extends Iterator<T>, java.io.Closeable {
+		void close();
+	}
+
+	/**
+	 * Callback used by {@link SqlTemplate#streamEach(String, RowMapper, RowCallback, Object...)}.
+	 */
+	public static interface RowCallback<T> {
+		/**
+		 * @return false to stop reading rows.
+		 */
+		boolean process(T row) throws SQLException;
+	}
+
 }
@@ -0,0 +1,430 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Splices and translates one transcript the way Bio::EnsEMBL::Transcript
+ * translate() does, from its exons and the genomic sequence they are on:
+ * </p>
+ *
+ * <ul>
+ * <li>_rna_edit edits are applied to the spliced sequence and move the
+ * coding start and end,</li>
+ * <li>the coding sequence is padded with N for the phase of the start
+ * exon,</li>
+ * <li>a final stop codon is removed,</li>
+ * <li>the sequence is translated with the codon table of the sequence
+ * region,</li>
+ * <li>translation edits such as _selenocysteine and amino_acid_sub are
+ * applied to the peptide.</li>
+ * </ul>
+ */
+public class TranscriptTranslator {
+
+	/** An exon, in forward strand coordinates of the sequence region. */
+	public static class Exon {
+
+		private final long id;
+		private final int start;
+		private final int end;
+		private final int phase;
+
+		public Exon(long id, int start, int end, int phase) {
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.phase = phase;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		public int getLength() {
+			return end - start + 1;
+		}
+
+	}
+
+	/**
+	 * An edit of a sequence, stored as an attribute with the value
+	 * "start end alternative sequence". Insertions have end = start - 1.
+	 */
+	public static class SeqEdit {
+
+		private final int start;
+		private final int end;
+		private final String altSeq;
+
+		public SeqEdit(int start, int end, String altSeq) {
+			this.start = start;
+			this.end = end;
+			this.altSeq = altSeq;
+		}
+
+		/**
+		 * @return The edit described by an attribute value, or null if value
+		 *         is not an edit.
+		 */
+		public static SeqEdit parse(String value) {
+			String[] parts = value.trim().split("\\s+");
+			try {
+				return new SeqEdit(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), parts.length > 2 ? parts[2] : "");
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * @return How much longer the sequence is after the edit.
+		 */
+		public int getLengthDiff() {
+			return altSeq.length() - (end - start + 1);
+		}
+
+		void apply(StringBuilder seq) {
+			if (start - 1 <= seq.length() && end <= seq.length() && end >= start - 1) {
+				seq.replace(start - 1, end, altSeq);
+			}
+		}
+
+	}
+
+	/** Edits sorted by descending start, so applying one doesn't move the next. */
+	private static final Comparator<SeqEdit> REVERSE_START = new Comparator<SeqEdit>() {
+		public int compare(SeqEdit a, SeqEdit b) {
+			return b.start < a.start ? -1 : (b.start == a.start ? 0 : 1);
+		}
+	};
+
+	private final int strand;
+	private final List<Exon> exons;
+	private final long startExonId;
+	private final int seqStart;
+	private final long endExonId;
+	private final int seqEnd;
+	private final List<SeqEdit> rnaEdits;
+	private final List<SeqEdit> translationEdits;
+	private final CodonTable codonTable;
+
+	/**
+	 * @param strand
+	 *          Strand of the transcript, 1 or -1.
+	 * @param exons
+	 *          The exons, in the order of their rank.
+	 * @param startExonId
+	 *          Exon the translation starts in.
+	 * @param seqStart
+	 *          Start of the translation in startExonId, from 1.
+	 * @param endExonId
+	 *          Exon the translation ends in.
+	 * @param seqEnd
+	 *          End of the translation in endExonId.
+	 * @param rnaEdits
+	 *          _rna_edit attributes of the transcript.
+	 * @param translationEdits
+	 *          Edits of the peptide from attributes of the translation.
+	 * @param codonTable
+	 *          Codon table of the sequence region.
+	 */
+	public TranscriptTranslator(int strand, List<Exon> exons, long startExonId, int seqStart, long endExonId, int seqEnd,
+			List<SeqEdit> rnaEdits, List<SeqEdit> translationEdits, CodonTable codonTable) {
+		this.strand = strand;
+		this.exons = exons;
+		this.startExonId = startExonId;
+		this.seqStart = seqStart;
+		this.endExonId = endExonId;
+		this.seqEnd = seqEnd;
+		this.rnaEdits = new ArrayList<SeqEdit>(rnaEdits);
+		Collections.sort(this.rnaEdits, REVERSE_START);
+		this.translationEdits = new ArrayList<SeqEdit>(translationEdits);
+		Collections.sort(this.translationEdits, REVERSE_START);
+		this.codonTable = codonTable;
+	}
+
+	/**
+	 * @return The lowest coordinate of any exon.
+	 */
+	public int getStart() {
+		int start = Integer.MAX_VALUE;
+		for (Exon exon : exons) {
+			start = Math.min(start, exon.start);
+		}
+		return start;
+	}
+
+	/**
+	 * @return The highest coordinate of any exon.
+	 */
+	public int getEnd() {
+		int end = Integer.MIN_VALUE;
+		for (Exon exon : exons) {
+			end = Math.max(end, exon.end);
+		}
+		return end;
+	}
+
+	/**
+	 * @param genomic
+	 *          Forward strand sequence of the sequence region, covering all the
+	 *          exons.
+	 * @param genomicStart
+	 *          Coordinate of the first base of genomic.
+	 * @return The sequence of the exons with _rna_edit edits applied.
+	 */
+	public String splicedSeq(CharSequence genomic, int genomicStart) {
+
+		StringBuilder seq = new StringBuilder();
+		for (Exon exon : exons) {
+			CharSequence exonSeq = genomic.subSequence(exon.start - genomicStart, exon.end - genomicStart + 1);
+			seq.append(strand == -1 ? reverseComplement(exonSeq) : exonSeq.toString().toUpperCase());
+		}
+
+		for (SeqEdit edit : rnaEdits) {
+			edit.apply(seq);
+		}
+
+		return seq.toString();
+
+	}
+
+	/**
+	 * @return Position of the first coding base in the spliced sequence, from
+	 *         1, or 0 if the start exon is not one of the exons.
+	 */
+	public int cdnaCodingStart() {
+
+		int start = cdnaPosition(startExonId, seqStart);
+		if (start == 0) {
+			return 0;
+		}
+		// less than, so the start of the CDS can be extended
+		for (SeqEdit edit : rnaEdits) {
+			if (edit.start < start) {
+				start += edit.getLengthDiff();
+			}
+		}
+		return start;
+
+	}
+
+	/**
+	 * @return Position of the last coding base in the spliced sequence, or 0
+	 *         if the end exon is not one of the exons.
+	 */
+	public int cdnaCodingEnd() {
+
+		int end = cdnaPosition(endExonId, seqEnd);
+		if (end == 0) {
+			return 0;
+		}
+		for (SeqEdit edit : rnaEdits) {
+			if (edit.start <= end) {
+				end += edit.getLengthDiff();
+			}
+		}
+		return end;
+
+	}
+
+	/**
+	 * @return The coding sequence, padded with N for the phase of the start
+	 *         exon, or an empty string if there is none.
+	 */
+	public String translateableSeq(CharSequence genomic, int genomicStart) {
+
+		int start = cdnaCodingStart();
+		int end = cdnaCodingEnd();
+		if (start == 0 || end == 0) {
+			return "";
+		}
+
+		String spliced = splicedSeq(genomic, genomicStart);
+		if (start > end || end > spliced.length()) {
+			return "";
+		}
+		String mrna = spliced.substring(start - 1, end);
+
+		int startPhase = getExon(startExonId).phase;
+		if (startPhase > 0) {
+			mrna = "NN".substring(0, Math.min(startPhase, 2)) + mrna;
+		}
+
+		return mrna;
+
+	}
+
+	/**
+	 * @return The peptide, without a final stop codon, or null if there is
+	 *         no coding sequence.
+	 */
+	public String translate(CharSequence genomic, int genomicStart) {
+
+		String mrna = translateableSeq(genomic, genomicStart);
+
+		if (mrna.length() % 3 == 0 && mrna.length() >= 3 && codonTable.isStop(mrna.substring(mrna.length() - 3))) {
+			mrna = mrna.substring(0, mrna.length() - 3);
+		} else if (mrna.length() % 3 == 2 && codonTable.isStop(mrna.substring(mrna.length() - 2))) {
+			mrna = mrna.substring(0, mrna.length() - 2);
+		}
+
+		if (mrna.length() < 1) {
+			return null;
+		}
+
+		StringBuilder peptide = new StringBuilder(codonTable.translate(mrna));
+		for (SeqEdit edit : translationEdits) {
+			edit.apply(peptide);
+		}
+
+		return peptide.toString();
+
+	}
+
+	/**
+	 * Map a position of the peptide to the genome as
+	 * Bio::EnsEMBL::TranscriptMapper pep2genomic does.
+	 *
+	 * @return The start of each piece of the genome the codon maps to.
+	 */
+	public List<Integer> pep2genomic(int position) {
+
+		int cdnaStart = cdnaCodingStart();
+		return cdna2genomic(3 * position - 2 + cdnaStart - 1, 3 * position + cdnaStart - 1);
+
+	}
+
+	/**
+	 * @return The start of each piece of the genome the positions from start
+	 *         to end of the spliced sequence map to, ignoring edits.
+	 */
+	public List<Integer> cdna2genomic(int start, int end) {
+
+		List<Integer> starts = new ArrayList<Integer>();
+
+		int exonCdnaStart = 1;
+		for (Exon exon : exons) {
+			int exonCdnaEnd = exonCdnaStart + exon.getLength() - 1;
+			int from = Math.max(start, exonCdnaStart);
+			int to = Math.min(end, exonCdnaEnd);
+			if (from <= to) {
+				if (strand == -1) {
+					starts.add(exon.end - (to - exonCdnaStart));
+				} else {
+					starts.add(exon.start + (from - exonCdnaStart));
+				}
+			}
+			exonCdnaStart = exonCdnaEnd + 1;
+		}
+
+		return starts;
+
+	}
+
+	private int cdnaPosition(long exonId, int offset) {
+		int position = 0;
+		for (Exon exon : exons) {
+			if (exon.id == exonId) {
+				return position + offset;
+			}
+			position += exon.getLength();
+		}
+		return 0;
+	}
+
+	private Exon getExon(long exonId) {
+		for (Exon exon : exons) {
+			if (exon.id == exonId) {
+				return exon;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The reverse complement of seq, in upper case.
+	 */
+	public static String reverseComplement(CharSequence seq) {
+
+		StringBuilder rc = new StringBuilder(seq.length());
+		for (int i = seq.length() - 1; i >= 0; i--) {
+			char c = Character.toUpperCase(seq.charAt(i));
+			switch (c) {
+			case 'A':
+				rc.append('T');
+				break;
+			case 'T':
+				rc.append('A');
+				break;
+			case 'C':
+				rc.append('G');
+				break;
+			case 'G':
+				rc.append('C');
+				break;
+			case 'R':
+				rc.append('Y');
+				break;
+			case 'Y':
+				rc.append('R');
+				break;
+			case 'K':
+				rc.append('M');
+				break;
+			case 'M':
+				rc.append('K');
+				break;
+			case 'B':
+				rc.append('V');
+				break;
+			case 'V':
+				rc.append('B');
+				break;
+			case 'D':
+				rc.append('H');
+				break;
+			case 'H':
+				rc.append('D');
+				break;
+			default:
+				rc.append(c);
+			}
+		}
+		return rc.toString();
+
+	}
+
+}
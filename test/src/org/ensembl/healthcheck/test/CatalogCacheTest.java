@@ -0,0 +1,232 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.ensembl.healthcheck.CatalogCache;
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseServer;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that what is known about a database is kept until its fingerprint
+ * changes, and that the test case classes found in a jar are kept until the
+ * jar changes. H2 does not have the information_schema of MySQL, so the
+ * rows the fingerprints are taken from are put into a table of their own
+ * and the queries are pointed at it.
+ */
+public class CatalogCacheTest {
+
+	private static final String CORE = "homo_sapiens_core_90_38";
+
+	private static final String VARIATION = "homo_sapiens_variation_90_38";
+
+	private static final List<String> NAMES = Arrays.asList(CORE, VARIATION);
+
+	private File dir;
+
+	private File jar;
+
+	private Connection h2;
+
+	private Connection con;
+
+	private SqlTemplate tables;
+
+	private DatabaseServer server;
+
+	@BeforeMethod
+	public void setUp() throws IOException, SQLException {
+		dir = File.createTempFile("catalog", "");
+		dir.delete();
+		jar = File.createTempFile("healthcheck", ".jar");
+		write(jar, "first");
+		CatalogCache.configure(dir);
+
+		h2 = DriverManager.getConnection("jdbc:h2:mem:catalogcache", "sa", "");
+		con = withInformationSchema(h2);
+		tables = new ConnectionBasedSqlTemplateImpl(h2);
+		tables.execute("CREATE SCHEMA fake_is");
+		tables.execute("CREATE TABLE fake_is.TABLES (TABLE_SCHEMA VARCHAR(64), TABLE_NAME VARCHAR(64), CREATE_TIME TIMESTAMP, "
+				+ "UPDATE_TIME TIMESTAMP, DATA_LENGTH BIGINT)");
+		for (String name : NAMES) {
+			table(name, "gene", "2017-08-01 10:00:00", "2017-08-02 10:00:00", 1000);
+			table(name, "meta", "2017-08-01 10:00:00", "2017-08-03 10:00:00", 200);
+		}
+
+		server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+	}
+
+	@AfterMethod
+	public void tearDown() throws SQLException {
+		CatalogCache.configure(null);
+		delete(dir);
+		jar.delete();
+		tables.execute("DROP SCHEMA fake_is CASCADE");
+		h2.close();
+	}
+
+	@Test
+	public void testEntryKeptBetweenRuns() {
+
+		Map<String, CatalogCache.Entry> entries = CatalogCache.lookup(server, con, NAMES);
+		CatalogCache.Entry entry = entries.get(CORE);
+		Assert.assertNull(entry.getInfo(), "Nothing known before the first run");
+		Assert.assertNull(entry.getSpeciesIds());
+		entry.setInfo(new DatabaseInfo(CORE, "human", "homo_sapiens", DatabaseType.CORE, "90", "38"));
+		entry.setSpeciesIds(Arrays.asList(1, 2));
+
+		DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(server, new DatabaseInfo(CORE, null, null, DatabaseType.CORE, null, null));
+		Assert.assertSame(CatalogCache.get(dbre), entry, "Entry looked up in this run");
+
+		// the next run
+		CatalogCache.configure(dir);
+		Assert.assertNull(CatalogCache.get(dbre), "Only entries looked up in this run are served");
+
+		entry = CatalogCache.lookup(server, con, NAMES).get(CORE);
+		DatabaseInfo info = entry.getInfo();
+		Assert.assertNotNull(info, "Entry read back");
+		Assert.assertEquals(info.getName(), CORE);
+		Assert.assertEquals(info.getSpecies(), "homo_sapiens");
+		Assert.assertEquals(info.getType(), DatabaseType.CORE);
+		Assert.assertEquals(info.getSchemaVersion(), "90");
+		Assert.assertEquals(entry.getSpeciesIds(), Arrays.asList(1, 2));
+
+	}
+
+	@Test
+	public void testTableAddedDropsEntry() {
+		assertDropped("INSERT INTO fake_is.TABLES VALUES (?, 'transcript', '2017-08-01 10:00:00', NULL, 0)");
+	}
+
+	@Test
+	public void testCreateTimeChangeDropsEntry() {
+		assertDropped("UPDATE fake_is.TABLES SET CREATE_TIME = '2017-09-01 10:00:00' WHERE TABLE_SCHEMA = ? AND TABLE_NAME = 'gene'");
+	}
+
+	@Test
+	public void testUpdateTimeChangeDropsEntry() {
+		assertDropped("UPDATE fake_is.TABLES SET UPDATE_TIME = '2017-09-01 10:00:00' WHERE TABLE_SCHEMA = ? AND TABLE_NAME = 'gene'");
+	}
+
+	@Test
+	public void testDataLengthChangeDropsEntry() {
+		assertDropped("UPDATE fake_is.TABLES SET DATA_LENGTH = 1200 WHERE TABLE_SCHEMA = ? AND TABLE_NAME = 'meta'");
+	}
+
+	/**
+	 * Cache an entry for both databases, run change on the core database and
+	 * check that only the entry of the core database is dropped.
+	 */
+	private void assertDropped(String change) {
+
+		Map<String, CatalogCache.Entry> entries = CatalogCache.lookup(server, con, NAMES);
+		for (String name : NAMES) {
+			entries.get(name).setInfo(new DatabaseInfo(name, null, "homo_sapiens", DatabaseType.CORE, "90", "38"));
+		}
+
+		tables.update(change, CORE);
+
+		CatalogCache.configure(dir);
+		entries = CatalogCache.lookup(server, con, NAMES);
+		Assert.assertNull(entries.get(CORE).getInfo(), "Entry of a changed database dropped");
+		Assert.assertNotNull(entries.get(VARIATION).getInfo(), "Entry of an unchanged database kept");
+
+	}
+
+	private void table(String schema, String name, String created, String updated, long dataLength) {
+		tables.update("INSERT INTO fake_is.TABLES VALUES (?, ?, ?, ?, ?)", schema, name, java.sql.Timestamp.valueOf(created),
+				java.sql.Timestamp.valueOf(updated), dataLength);
+	}
+
+	@Test
+	public void testTestClasses() throws IOException {
+
+		String packageName = "org.ensembl.healthcheck.testcase";
+
+		Assert.assertNull(CatalogCache.getTestClasses(jar, packageName));
+
+		CatalogCache.putTestClasses(jar, packageName, Arrays.asList("org.ensembl.healthcheck.testcase.generic.Meta",
+				"org.ensembl.healthcheck.testcase.core.Gene"));
+		Assert.assertEquals(CatalogCache.getTestClasses(jar, packageName),
+				Arrays.asList("org.ensembl.healthcheck.testcase.generic.Meta", "org.ensembl.healthcheck.testcase.core.Gene"));
+		Assert.assertNull(CatalogCache.getTestClasses(jar, "org.ensembl.healthcheck.testcase.generic"),
+				"Classes found for another package are not reused");
+
+		write(jar, "second version");
+		Assert.assertNull(CatalogCache.getTestClasses(jar, packageName));
+
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileWriter out = new FileWriter(file);
+		out.write(content);
+		out.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * @return con, with the queries on information_schema sent to the table
+	 *         in fake_is instead.
+	 */
+	private static Connection withInformationSchema(final Connection con) {
+		return (Connection) Proxy.newProxyInstance(CatalogCacheTest.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("prepareStatement") && args[0] instanceof String) {
+							args[0] = ((String) args[0]).replaceAll("(?i)information_schema\\.", "fake_is.");
+						}
+						try {
+							return method.invoke(con, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+}
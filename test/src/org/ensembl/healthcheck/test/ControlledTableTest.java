@@ -0,0 +1,145 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.AbstractControlledTable;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that rows of a controlled table are looked up in the master by
+ * primary key, across batches and with the cap on reported rows.
+ */
+public class ControlledTableTest {
+
+	private Connection testConn;
+
+	private Connection masterConn;
+
+	private DatabaseRegistryEntry testDbre;
+
+	private DatabaseRegistryEntry masterDbre;
+
+	private final ControlledTable testCase = new ControlledTable();
+
+	public static class ControlledTable extends AbstractControlledTable {
+
+		@Override
+		protected String getControlledTableName() {
+			return "species_set";
+		}
+
+		@Override
+		protected int getMaxReportedMismatches() {
+			return 5;
+		}
+
+		public boolean compare(DatabaseRegistryEntry testDbre, DatabaseRegistryEntry masterDbre) {
+			numReportedRows = 0;
+			return checkAllRowsInTable(getControlledTableName(), testDbre, masterDbre);
+		}
+
+	}
+
+	@BeforeMethod
+	public void setUp() throws SQLException {
+
+		ReportManager.initialise();
+
+		testConn = DriverManager.getConnection("jdbc:h2:mem:controlledtest;DATABASE_TO_UPPER=false", "sa", "");
+		masterConn = DriverManager.getConnection("jdbc:h2:mem:controlledmaster;DATABASE_TO_UPPER=false", "sa", "");
+		testDbre = new DatabaseRegistryEntry(new DatabaseInfo("controlledtest", null, null, DatabaseType.COMPARA, null, null), testConn);
+		masterDbre = new DatabaseRegistryEntry(new DatabaseInfo("controlledmaster", null, null, DatabaseType.COMPARA, null, null), masterConn);
+
+		for (Connection con : new Connection[] { testConn, masterConn }) {
+			new ConnectionBasedSqlTemplateImpl(con).execute(
+					"CREATE TABLE species_set (species_set_id INT, genome_db_id INT, name VARCHAR(40), PRIMARY KEY (species_set_id, genome_db_id))");
+		}
+		// more rows than fit in one batch, the master has some extra ones
+		SqlTemplate test = new ConnectionBasedSqlTemplateImpl(testConn);
+		SqlTemplate master = new ConnectionBasedSqlTemplateImpl(masterConn);
+		for (int i = 0; i < 1500; i++) {
+			test.update("INSERT INTO species_set VALUES (?,?,?)", i / 3, i % 3, "set " + i);
+			master.update("INSERT INTO species_set VALUES (?,?,?)", i / 3, i % 3, "set " + i);
+		}
+		master.update("INSERT INTO species_set VALUES (?,?,?)", 9999, 1, "master only");
+
+	}
+
+	@AfterMethod
+	public void tearDown() throws SQLException {
+		testConn.close();
+		masterConn.close();
+	}
+
+	@Test
+	public void testIdenticalTables() {
+		Assert.assertTrue(testCase.compare(testDbre, masterDbre));
+		Assert.assertTrue(problems().isEmpty());
+	}
+
+	@Test
+	public void testMissingAndDifferentRows() {
+
+		SqlTemplate master = new ConnectionBasedSqlTemplateImpl(masterConn);
+		master.update("DELETE FROM species_set WHERE species_set_id=? AND genome_db_id=?", 400, 2);
+		master.update("UPDATE species_set SET name=? WHERE species_set_id=? AND genome_db_id=?", "renamed", 10, 0);
+		// compared the way MySQL compares strings by default
+		master.update("UPDATE species_set SET name=? WHERE species_set_id=? AND genome_db_id=?", "SET 11", 3, 2);
+
+		Assert.assertFalse(testCase.compare(testDbre, masterDbre));
+
+		List<ReportLine> problems = problems();
+		Assert.assertEquals(problems.size(), 2);
+		Assert.assertTrue(problems.get(0).getMessage().startsWith("Row differs from master: species_set_id=10, genome_db_id=0"));
+		Assert.assertTrue(problems.get(1).getMessage().startsWith("Row not found in master: species_set_id=400, genome_db_id=2"));
+
+	}
+
+	@Test
+	public void testMaxReportedMismatches() {
+
+		new ConnectionBasedSqlTemplateImpl(masterConn).update("DELETE FROM species_set WHERE genome_db_id=?", 1);
+
+		Assert.assertFalse(testCase.compare(testDbre, masterDbre));
+
+		List<ReportLine> problems = problems();
+		Assert.assertEquals(problems.size(), 6);
+		Assert.assertTrue(problems.get(5).getMessage().startsWith("The maximum of 5 reported rows has been reached"));
+
+	}
+
+	private List<ReportLine> problems() {
+		return ReportManager.getReportsByTestCase(testCase.getTestName(), ReportLine.PROBLEM);
+	}
+
+}
@@ -17,7 +17,20 @@
 
 package org.ensembl.healthcheck.test;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlTemplate;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -29,4 +42,47 @@ public class DBUtilsTest {
     Assert.assertNotNull(dbName);
   }
 
+  @Test
+  public void testCheckSameSQLResult() throws SQLException {
+
+    ReportManager.initialise();
+    EnsTestCase testCase = new EnsTestCase() {
+      @Override
+      public String getTestName() {
+        return "org.ensembl.healthcheck.test.SameSQLResultTest";
+      }
+    };
+
+    DatabaseRegistryEntry[] databases = new DatabaseRegistryEntry[12];
+    for (int i = 0; i < databases.length; i++) {
+      Connection con = DriverManager.getConnection("jdbc:h2:mem:samesql" + i, "sa", "");
+      databases[i] = new DatabaseRegistryEntry(new DatabaseInfo("samesql" + i, null, null, DatabaseType.CORE, null, null), con);
+      SqlTemplate t = new ConnectionBasedSqlTemplateImpl(con);
+      t.execute("CREATE TABLE attrib_type (attrib_type_id INT, code VARCHAR(20), description VARCHAR(255))");
+      for (int j = 0; j < 100; j++) {
+        t.update("INSERT INTO attrib_type VALUES (?,?,?)", j, "code" + j, j % 10 == 0 ? null : "description " + j);
+      }
+    }
+
+    String sql = "SELECT * FROM attrib_type ORDER BY attrib_type_id";
+    try {
+
+      Assert.assertTrue(DBUtils.checkSameSQLResult(testCase, sql, databases, false));
+
+      new ConnectionBasedSqlTemplateImpl(databases[7].getConnection()).update("UPDATE attrib_type SET code=? WHERE attrib_type_id=?", "changed", 50);
+      Assert.assertFalse(DBUtils.checkSameSQLResult(testCase, sql, databases, false));
+
+      // only the database that differs from the others is reported
+      List<ReportLine> problems = ReportManager.getReportsByTestCase(testCase.getTestName(), ReportLine.PROBLEM);
+      Assert.assertEquals(problems.size(), 1);
+      Assert.assertTrue(problems.get(0).getDatabaseName().endsWith("samesql7"));
+
+    } finally {
+      for (DatabaseRegistryEntry dbre : databases) {
+        dbre.getConnection().close();
+      }
+    }
+
+  }
+
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseDiscovery;
+import org.ensembl.healthcheck.DatabaseRegistry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that databases are found with bulk queries, typed from their meta
+ * table when the name doesn't say, and can be looked up in the registry.
+ */
+public class DatabaseDiscoveryTest {
+
+	private Connection conn;
+
+	@BeforeMethod
+	public void setUp() throws SQLException {
+
+		conn = DriverManager.getConnection("jdbc:h2:mem:discoverytest;MODE=MySQL;DATABASE_TO_UPPER=false", "sa", "");
+		SqlTemplate t = new ConnectionBasedSqlTemplateImpl(conn);
+		t.execute("CREATE SCHEMA homo_sapiens_core_90_38");
+		t.execute("CREATE SCHEMA mus_musculus_core_90_38");
+		t.execute("CREATE SCHEMA mus_musculus_variation_90_38");
+		t.execute("CREATE SCHEMA my_odd_db");
+		t.execute("CREATE TABLE my_odd_db.meta (meta_key VARCHAR(40), meta_value VARCHAR(255))");
+		t.execute("INSERT INTO my_odd_db.meta VALUES ('schema_type', 'variation'), ('schema_version', '90')");
+		t.execute("CREATE SCHEMA my_other_db");
+
+	}
+
+	@AfterMethod
+	public void tearDown() throws SQLException {
+		conn.createStatement().execute("DROP ALL OBJECTS");
+		conn.close();
+	}
+
+	@Test
+	public void testDiscover() throws SQLException {
+
+		List<DatabaseRegistryEntry> dbres = DatabaseDiscovery.discover(null, conn, Arrays.asList("mus%", "my_.*", "%core%"), null, null);
+
+		String[] names = new String[dbres.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = dbres.get(i).getName();
+		}
+		Assert.assertEquals(names, new String[] { "mus_musculus_core_90_38", "mus_musculus_variation_90_38", "my_odd_db", "my_other_db",
+				"homo_sapiens_core_90_38" });
+
+		Assert.assertEquals(dbres.get(1).getType(), DatabaseType.VARIATION);
+		Assert.assertEquals(dbres.get(2).getType(), DatabaseType.VARIATION);
+		Assert.assertEquals(dbres.get(2).getSchemaVersion(), "90");
+		Assert.assertEquals(dbres.get(3).getType(), DatabaseType.UNKNOWN);
+
+		DatabaseRegistry registry = new DatabaseRegistry(dbres);
+		Assert.assertEquals(registry.getAll(DatabaseType.CORE).length, 2);
+		Assert.assertEquals(registry.getAll(DatabaseType.VARIATION).length, 2);
+		Assert.assertEquals(registry.getAll(DatabaseType.FUNCGEN).length, 0);
+		Assert.assertEquals(registry.getAll("mus_musculus").length, 2);
+		Assert.assertEquals(registry.getAll(DatabaseType.CORE, "mus_musculus")[0].getName(), "mus_musculus_core_90_38");
+		Assert.assertSame(registry.getByExactName("my_odd_db"), dbres.get(2));
+		Assert.assertNull(registry.getByExactName("danio_rerio_core_90_38"));
+		Assert.assertTrue(registry.contains(dbres.get(4)));
+
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ensembl.healthcheck.LocalJobExecutor;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the session job only runs once all database jobs have ended.
+ */
+public class LocalJobExecutorTest {
+
+	private File dir;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("jobs").toFile();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testSessionJobWaitsForDatabaseJobs() throws IOException {
+
+		LocalJobExecutor executor = new LocalJobExecutor(2);
+
+		List<String> jobNames = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			String marker = new File(dir, "done_" + i).getPath();
+			executor.submit("Job_" + i, new String[] { "sh", "-c", "sleep 0.2; touch " + marker + "; exit " + (i % 2) }, dir + "/job_%J.out", dir
+					+ "/job_%J.err");
+			jobNames.add("Job_" + i);
+		}
+
+		executor.submitAfter("hc_1", jobNames, new String[] { "sh", "-c", "ls " + dir + " | grep -c done_" }, dir + "/session.out", dir
+				+ "/session.err");
+		executor.finish();
+
+		String count = new String(Files.readAllBytes(new File(dir, "session.out").toPath()), StandardCharsets.UTF_8).trim();
+		Assert.assertEquals(count, "4");
+
+	}
+
+}
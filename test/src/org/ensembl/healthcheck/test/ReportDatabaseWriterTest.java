@@ -0,0 +1,229 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.ReportDatabaseWriter;
+import org.ensembl.healthcheck.ReportIndex;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the background report writer deduplicates reports, carries
+ * existing reports over to the new session and writes everything on drain.
+ */
+public class ReportDatabaseWriterTest {
+
+	private Connection conn;
+
+	private SqlTemplate t;
+
+	private final EnsTestCase testCase = new EnsTestCase() {
+		@Override
+		public String getTestName() {
+			return "org.ensembl.healthcheck.test.WriterTest";
+		}
+	};
+
+	@BeforeMethod
+	public void setUp() throws SQLException {
+
+		conn = DriverManager.getConnection("jdbc:h2:mem:reportwritertest;MODE=MySQL", "sa", "");
+		t = new ConnectionBasedSqlTemplateImpl(conn);
+		// H2 has no BINARY() function, comparisons are case sensitive anyway
+		t.execute("CREATE ALIAS IF NOT EXISTS BINARY FOR \"" + getClass().getName() + ".binary\"");
+		t.execute("CREATE TABLE report (report_id INT AUTO_INCREMENT PRIMARY KEY, first_session_id INT, last_session_id INT, "
+				+ "database_name VARCHAR(255), species VARCHAR(255), database_type VARCHAR(255), timestamp DATETIME, testcase VARCHAR(255), "
+				+ "result VARCHAR(10), text TEXT, text_digest CHAR(32), team_responsible VARCHAR(255), created DATETIME)");
+
+	}
+
+	@AfterMethod
+	public void tearDown() throws SQLException {
+		t.execute("DROP TABLE report");
+		conn.close();
+	}
+
+	@Test
+	public void testDedupeAndDrain() {
+
+		ReportDatabaseWriter writer = new ReportDatabaseWriter(conn, 1, 7, 60000);
+		for (int i = 0; i < 100; i++) {
+			writer.add(line(ReportLine.PROBLEM, "problem " + (i % 25)));
+		}
+		writer.add(line(ReportLine.WARNING, "problem 0"));
+		writer.drain();
+
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 26);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report WHERE timestamp IS NULL", Integer.class).intValue(), 0);
+
+	}
+
+	@Test
+	public void testExistingReportsAreCarriedOver() {
+
+		ReportDatabaseWriter first = new ReportDatabaseWriter(conn, 1, 500, 60000);
+		first.add(line(ReportLine.PROBLEM, "old"));
+		first.add(line(ReportLine.PROBLEM, "kept"));
+		first.drain();
+
+		ReportDatabaseWriter second = new ReportDatabaseWriter(conn, 2, 500, 60000);
+		second.add(line(ReportLine.PROBLEM, "kept"));
+		second.add(line(ReportLine.PROBLEM, "new"));
+		second.drain();
+
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 3);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='old'", Integer.class).intValue(), 1);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='kept'", Integer.class).intValue(), 2);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT first_session_id FROM report WHERE text='new'", Integer.class).intValue(), 2);
+
+	}
+
+	@Test
+	public void testCarryOverFromIndex() {
+
+		ReportDatabaseWriter first = new ReportDatabaseWriter(conn, 1, 500, 60000);
+		first.add(line(ReportLine.PROBLEM, "old"));
+		first.add(line(ReportLine.PROBLEM, "kept"));
+		first.add(line(ReportLine.INFO, "#Started"));
+		first.drain();
+
+		// a report from before text_digest was added
+		t.update("UPDATE report SET text_digest=NULL WHERE text='old'");
+		ReportIndex incomplete = ReportIndex.load(conn, Arrays.asList("homo_sapiens_core_90_38"));
+		Assert.assertFalse(incomplete.covers("homo_sapiens_core_90_38"));
+
+		t.update("UPDATE report SET text_digest=? WHERE text='old'", ReportDatabaseWriter.digest("old"));
+		ReportIndex index = ReportIndex.load(conn, Arrays.asList("homo_sapiens_core_90_38", "mus_musculus_core_90_38"));
+		Assert.assertTrue(index.covers("homo_sapiens_core_90_38"));
+		Assert.assertEquals(index.size(), 3);
+		Assert.assertTrue(index.get(line(ReportLine.PROBLEM, "kept")) > -1);
+		Assert.assertEquals(index.get(line(ReportLine.WARNING, "kept")), -1);
+
+		ReportDatabaseWriter second = new ReportDatabaseWriter(conn, 2, 500, 60000, index);
+		second.add(line(ReportLine.PROBLEM, "kept"));
+		second.add(line(ReportLine.INFO, "#Started"));
+		second.add(line(ReportLine.PROBLEM, "new"));
+		second.drain();
+
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 4);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='old'", Integer.class).intValue(), 1);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='kept'", Integer.class).intValue(), 2);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='#Started'", Integer.class).intValue(), 2);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT text_digest FROM report WHERE text='new'", String.class), ReportDatabaseWriter.digest("new"));
+
+	}
+
+	@Test(timeOut = 30000)
+	public void testFailingFlushDoesNotStopWriter() {
+
+		ReportDatabaseWriter writer = new ReportDatabaseWriter(conn, 1, 2, 60000) {
+			@Override
+			protected void flush(List<PendingReport> batch) {
+				for (PendingReport pending : batch) {
+					if (pending.report.getMessage().startsWith("bad")) {
+						throw new NullPointerException("injected");
+					}
+				}
+				super.flush(batch);
+			}
+		};
+
+		// more than the queue holds, so add() would block if the writer thread had died
+		for (int i = 0; i < 50; i++) {
+			writer.add(line(ReportLine.PROBLEM, (i < 2 ? "bad " : "good ") + i));
+		}
+		writer.drain();
+
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 48);
+		Assert.assertEquals(writer.getDroppedCount(), 2);
+
+	}
+
+	@Test(timeOut = 30000)
+	public void testNoConnection() {
+
+		ReportDatabaseWriter writer = new ReportDatabaseWriter(null, 1, 2, 60000);
+		for (int i = 0; i < 50; i++) {
+			writer.add(line(ReportLine.PROBLEM, "problem " + i));
+		}
+		writer.drain();
+
+		Assert.assertEquals(writer.getDroppedCount(), 50);
+
+	}
+
+	@Test
+	public void testFailedBatchIsCounted() {
+
+		// the insert names a column the table no longer has
+		t.execute("ALTER TABLE report DROP COLUMN created");
+		ReportDatabaseWriter writer = new ReportDatabaseWriter(conn, 1, 500, 60000);
+		writer.add(line(ReportLine.PROBLEM, "lost"));
+		writer.drain();
+
+		Assert.assertEquals(writer.getDroppedCount(), 1);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 0);
+
+	}
+
+	@Test
+	public void testFailedCarryOverIsCounted() {
+
+		ReportDatabaseWriter first = new ReportDatabaseWriter(conn, 1, 500, 60000);
+		first.add(line(ReportLine.PROBLEM, "kept"));
+		first.drain();
+
+		ReportIndex index = ReportIndex.load(conn, Arrays.asList("homo_sapiens_core_90_38"));
+		ReportDatabaseWriter second = new ReportDatabaseWriter(conn, 2, 500, 60000, index) {
+			@Override
+			protected void flush(List<PendingReport> batch) {
+				super.flush(batch);
+				// the carry-over on drain names a column the table no longer has
+				t.execute("ALTER TABLE report DROP COLUMN timestamp");
+			}
+		};
+		second.add(line(ReportLine.PROBLEM, "kept"));
+		second.drain();
+
+		Assert.assertEquals(second.getDroppedCount(), 1);
+		Assert.assertEquals(t.queryForDefaultObject("SELECT last_session_id FROM report WHERE text='kept'", Integer.class).intValue(), 1);
+
+	}
+
+	public static String binary(String text) {
+		return text;
+	}
+
+	private ReportLine line(int level, String message) {
+		return new ReportLine(testCase, "homo_sapiens_core_90_38", level, message, Team.GENEBUILD, null);
+	}
+
+}
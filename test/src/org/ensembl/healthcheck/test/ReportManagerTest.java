@@ -0,0 +1,201 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.ensembl.healthcheck.ReportDatabaseWriter;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
+import org.ensembl.healthcheck.ReportStore;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that reports added from many threads at once are neither lost nor
+ * duplicated.
+ */
+public class ReportManagerTest {
+
+	private static final int THREADS = 8;
+	private static final int LINES_PER_THREAD = 1000;
+	private static final int TESTS = 8;
+	private static final int DATABASES = 13;
+
+	private final EnsTestCase[] testCases = new EnsTestCase[TESTS];
+
+	@BeforeMethod
+	public void setUp() {
+		ReportManager.initialise();
+		for (int i = 0; i < TESTS; i++) {
+			final String name = "org.ensembl.healthcheck.test.StressTest" + i;
+			testCases[i] = new EnsTestCase() {
+				@Override
+				public String getTestName() {
+					return name;
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testConcurrentAdd() throws InterruptedException {
+
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < LINES_PER_THREAD; i++) {
+						ReportManager.problem(testCases[i % TESTS], "stress_db_" + (i % DATABASES), thread + ":" + i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertAllLinesPresentOnce(ReportManager.getAllReportsByTestCase(), TESTS);
+		assertAllLinesPresentOnce(ReportManager.getAllReportsByDatabase(), DATABASES);
+
+	}
+
+	@Test
+	public void testLinesKeepOrderWithinBucket() {
+
+		for (int i = 0; i < 100; i++) {
+			ReportManager.problem(testCases[0], "stress_db_0", Integer.toString(i));
+		}
+
+		List<ReportLine> lines = ReportManager.getReportsByTestCase(testCases[0].getTestName(), ReportLine.ALL);
+		Assert.assertEquals(lines.size(), 100);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(lines.get(i).getMessage(), Integer.toString(i));
+		}
+
+	}
+
+	@Test
+	public void testBoundStoreIsIsolated() {
+
+		ReportStore own = new ReportStore(100);
+		ReportManager.bindReportStore(own);
+		try {
+			ReportManager.problem(testCases[0], "stress_db_0", "bound");
+			Assert.assertEquals(ReportManager.getAllReportsByTestCase().size(), 1);
+		} finally {
+			ReportManager.unbindReportStore();
+		}
+
+		Assert.assertTrue(ReportManager.getAllReportsByTestCase().isEmpty(), "Report leaked into the shared store");
+		Assert.assertEquals(own.getByDatabase("stress_db_0").size(), 1);
+
+	}
+
+	@Test
+	public void testRecording() {
+
+		ReportManager.problem(testCases[0], "stress_db_0", "before");
+		ReportManager.startRecording();
+		ReportManager.problem(testCases[0], "stress_db_0", "during");
+		List<ReportLine> recorded = ReportManager.stopRecording();
+		ReportManager.problem(testCases[0], "stress_db_0", "after");
+
+		Assert.assertEquals(recorded.size(), 1);
+		Assert.assertEquals(recorded.get(0).getMessage(), "during");
+		Assert.assertEquals(ReportManager.getReportsByTestCase(testCases[0].getTestName(), ReportLine.ALL).size(), 3);
+
+	}
+
+	@Test
+	public void testSessionCountsProblemsWrittenToDatabase() throws SQLException {
+
+		Connection conn = DriverManager.getConnection("jdbc:h2:mem:reportsessiontest;MODE=MySQL", "sa", "");
+		SqlTemplate t = new ConnectionBasedSqlTemplateImpl(conn);
+		t.execute("CREATE ALIAS IF NOT EXISTS BINARY FOR \"" + ReportDatabaseWriterTest.class.getName() + ".binary\"");
+		t.execute("CREATE TABLE report (report_id INT AUTO_INCREMENT PRIMARY KEY, first_session_id INT, last_session_id INT, "
+				+ "database_name VARCHAR(255), species VARCHAR(255), database_type VARCHAR(255), timestamp DATETIME, testcase VARCHAR(255), "
+				+ "result VARCHAR(10), text TEXT, text_digest CHAR(32), team_responsible VARCHAR(255), created DATETIME)");
+
+		try {
+
+			ReportStore store = new ReportStore(100);
+			ReportDatabaseWriter writer = new ReportDatabaseWriter(conn, 1, 10, 60000);
+			ReportSession session = new ReportSession(store, writer, ReportLine.PROBLEM);
+
+			ReportManager.bindReportSession(session);
+			try {
+				ReportManager.problem(testCases[0], "stress_db_0", "first");
+				ReportManager.warning(testCases[0], "stress_db_0", "below the level of the request");
+				ReportManager.problem(testCases[1], "stress_db_1", "second");
+			} finally {
+				ReportManager.unbindReportSession();
+			}
+			writer.drain();
+
+			Assert.assertEquals(session.getProblemCount(), 2);
+			Assert.assertTrue(store.getAllByTestCase().isEmpty(), "Reports written to the database are not stored");
+			Assert.assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM report", Integer.class).intValue(), 2);
+
+		} finally {
+			conn.close();
+		}
+
+	}
+
+	private void assertAllLinesPresentOnce(Map<String, List<ReportLine>> reports, int expectedKeys) {
+
+		Assert.assertEquals(reports.size(), expectedKeys);
+
+		Set<String> seen = new HashSet<String>();
+		int total = 0;
+		for (List<ReportLine> lines : reports.values()) {
+			for (ReportLine line : lines) {
+				Assert.assertTrue(seen.add(line.getMessage()), "Duplicated report " + line.getMessage());
+				total++;
+			}
+		}
+
+		Assert.assertEquals(total, THREADS * LINES_PER_THREAD, "Reports were lost");
+
+	}
+
+}
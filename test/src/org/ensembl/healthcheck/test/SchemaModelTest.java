@@ -0,0 +1,261 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.generic.SchemaComparer;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaModel.Table;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that a {@link SchemaModel} is built from the information_schema
+ * rows describing a database, that {@link SchemaComparer} reports the
+ * tables, columns and indexes that differ, and that master schemas are
+ * cached until cleared. H2 does not have the information_schema of MySQL,
+ * so its rows are put into tables of their own and the queries are pointed
+ * at them.
+ */
+public class SchemaModelTest {
+
+	private Connection masterConn;
+
+	private Connection targetConn;
+
+	private DatabaseRegistryEntry masterDbre;
+
+	private DatabaseRegistryEntry targetDbre;
+
+	private final EnsTestCase testCase = new EnsTestCase() {
+		@Override
+		public String getTestName() {
+			return "org.ensembl.healthcheck.test.SchemaModelTest";
+		}
+	};
+
+	@BeforeMethod
+	public void setUp() throws SQLException {
+
+		ReportManager.initialise();
+		SchemaModel.clearCache();
+
+		masterConn = DriverManager.getConnection("jdbc:h2:mem:schemamaster;DATABASE_TO_UPPER=false", "sa", "");
+		targetConn = DriverManager.getConnection("jdbc:h2:mem:schematarget;DATABASE_TO_UPPER=false", "sa", "");
+		masterDbre = new DatabaseRegistryEntry(new DatabaseInfo("schemamaster", null, null, DatabaseType.CORE, null, null),
+				withInformationSchema(masterConn));
+		targetDbre = new DatabaseRegistryEntry(new DatabaseInfo("schematarget", null, null, DatabaseType.CORE, null, null),
+				withInformationSchema(targetConn));
+
+		for (Connection con : new Connection[] { masterConn, targetConn }) {
+			SqlTemplate t = new ConnectionBasedSqlTemplateImpl(con);
+			t.execute("CREATE SCHEMA fake_is");
+			t.execute("CREATE TABLE fake_is.TABLES (TABLE_SCHEMA VARCHAR(64), TABLE_NAME VARCHAR(64), TABLE_TYPE VARCHAR(64), "
+					+ "ENGINE VARCHAR(64), CREATE_OPTIONS VARCHAR(255), TABLE_COLLATION VARCHAR(32))");
+			t.execute("CREATE TABLE fake_is.COLLATION_CHARACTER_SET_APPLICABILITY (COLLATION_NAME VARCHAR(32), CHARACTER_SET_NAME VARCHAR(32))");
+			t.execute("CREATE TABLE fake_is.COLUMNS (TABLE_SCHEMA VARCHAR(64), TABLE_NAME VARCHAR(64), COLUMN_NAME VARCHAR(64), "
+					+ "ORDINAL_POSITION INT, COLUMN_TYPE VARCHAR(64), IS_NULLABLE VARCHAR(3), COLUMN_DEFAULT VARCHAR(64), "
+					+ "CHARACTER_OCTET_LENGTH BIGINT, EXTRA VARCHAR(64))");
+			t.execute("CREATE TABLE fake_is.STATISTICS (TABLE_SCHEMA VARCHAR(64), TABLE_NAME VARCHAR(64), INDEX_NAME VARCHAR(64), "
+					+ "SEQ_IN_INDEX INT, NON_UNIQUE INT, INDEX_TYPE VARCHAR(16), COLUMN_NAME VARCHAR(64))");
+			t.update("INSERT INTO fake_is.COLLATION_CHARACTER_SET_APPLICABILITY VALUES (?, ?)", "latin1_swedish_ci", "latin1");
+
+			t.update("INSERT INTO fake_is.TABLES VALUES (DATABASE(), ?, ?, ?, ?, ?)", "gene", "BASE TABLE", "MyISAM",
+					"max_rows=100 avg_row_length=50", "latin1_swedish_ci");
+			t.update("INSERT INTO fake_is.TABLES VALUES (DATABASE(), ?, ?, ?, ?, ?)", "gene_view", "VIEW", null, null, null);
+			column(t, "gene", "gene_id", 1, "int(10) unsigned", "NO", null, 0, "auto_increment");
+			column(t, "gene", "seq_region_id", 2, "int(10) unsigned", "NO", null, 0, "");
+			column(t, "gene", "seq_region_start", 3, "int(10) unsigned", "NO", null, 0, "");
+			column(t, "gene", "biotype", 4, "varchar(40)", "YES", "protein_coding", 40, "");
+			index(t, "gene", "PRIMARY", 1, 0, "gene_id");
+			// rows of an index come back in any order
+			index(t, "gene", "seq_region_idx", 2, 1, "seq_region_start");
+			index(t, "gene", "seq_region_idx", 1, 1, "seq_region_id");
+		}
+
+	}
+
+	@AfterMethod
+	public void tearDown() throws SQLException {
+		SchemaModel.clearCache();
+		masterConn.close();
+		targetConn.close();
+	}
+
+	@Test
+	public void testLoad() {
+
+		SchemaModel model = SchemaModel.load(masterDbre.getConnection(), "schemamaster");
+
+		Assert.assertEquals(model.getName(), "schemamaster");
+		Assert.assertEquals(model.getTableNames(), new HashSet<String>(Arrays.asList("gene")));
+		Assert.assertEquals(model.getViews(), new HashSet<String>(Arrays.asList("gene_view")));
+		Assert.assertNull(model.getTable("gene_view"), "Views are not tables");
+
+		Table gene = model.getTable("gene");
+		List<String> columns = new ArrayList<String>();
+		for (Column column : gene.getColumns()) {
+			columns.add(column.getName());
+		}
+		Assert.assertEquals(columns, Arrays.asList("gene_id", "seq_region_id", "seq_region_start", "biotype"));
+		Assert.assertTrue(gene.getColumns().contains(new Column("gene_id", "int(10) unsigned", false, null, 0, true)));
+		Assert.assertTrue(gene.getColumns().contains(new Column("biotype", "varchar(40)", true, "protein_coding", 40, false)));
+
+		Assert.assertEquals(gene.getIndexes().size(), 2);
+		Assert.assertTrue(gene.getIndexes().contains(new Index("PRIMARY", Arrays.asList("gene_id"), false, "BTREE")));
+		Assert.assertTrue(gene.getIndexes().contains(new Index("any name", Arrays.asList("seq_region_id", "seq_region_start"), true, "BTREE")));
+
+		Assert.assertEquals(gene.getOption(SchemaComparer.TestTypes.ENGINE), "MyISAM");
+		Assert.assertEquals(gene.getOption(SchemaComparer.TestTypes.CHARSET), "latin1");
+		Assert.assertEquals(gene.getOption(SchemaComparer.TestTypes.MAX_ROWS), Integer.valueOf(100));
+		Assert.assertEquals(gene.getOption(SchemaComparer.TestTypes.AVG_ROW_LENGTH), Integer.valueOf(50));
+
+	}
+
+	@Test
+	public void testIdenticalSchemas() {
+
+		SchemaComparer comparer = new SchemaComparer();
+		comparer.addTestTypes(SchemaComparer.TestTypes.ENGINE, SchemaComparer.TestTypes.MAX_ROWS);
+
+		Assert.assertTrue(comparer.compare(testCase, masterDbre, targetDbre));
+		Assert.assertTrue(problems().isEmpty());
+
+	}
+
+	@Test
+	public void testDifferentSchemas() {
+
+		SqlTemplate target = new ConnectionBasedSqlTemplateImpl(targetConn);
+		target.update("UPDATE fake_is.COLUMNS SET COLUMN_TYPE=?, CHARACTER_OCTET_LENGTH=? WHERE COLUMN_NAME=?", "varchar(64)", 64, "biotype");
+		target.update("DELETE FROM fake_is.STATISTICS WHERE INDEX_NAME=?", "seq_region_idx");
+		target.update("UPDATE fake_is.TABLES SET ENGINE=? WHERE TABLE_NAME=?", "InnoDB", "gene");
+		target.update("INSERT INTO fake_is.TABLES VALUES (DATABASE(), ?, ?, ?, ?, ?)", "gene_extra", "BASE TABLE", "MyISAM", "",
+				"latin1_swedish_ci");
+
+		SchemaComparer comparer = new SchemaComparer();
+		comparer.addTestTypes(SchemaComparer.TestTypes.ENGINE);
+
+		Assert.assertFalse(comparer.compare(testCase, masterDbre, targetDbre));
+
+		List<String> messages = new ArrayList<String>();
+		for (ReportLine line : problems()) {
+			messages.add(line.getMessage());
+		}
+		Assert.assertTrue(messages.contains("Table gene_extra exists in schematarget but not in schemamaster"), messages.toString());
+		Assert.assertTrue(messages.contains("`schematarget` `gene` does not have the same definition as `schemamaster`. "
+				+ "Column `biotype` was different. Check table structures"), messages.toString());
+		Assert.assertTrue(messages.contains("`schematarget` `gene` does not have the index `seq_region_idx=[seq_region_id,seq_region_start]` "
+				+ "which is present in `schemamaster`. Check table structures"), messages.toString());
+		Assert.assertTrue(messages.contains("ENGINE in `gene` had different values. `schemamaster` contained 'MyISAM'. "
+				+ "`schematarget` contained 'InnoDB'"), messages.toString());
+
+	}
+
+	@Test
+	public void testMasterCachedUntilCleared() {
+
+		SchemaModel first = SchemaModel.getCached(masterDbre);
+		Assert.assertSame(SchemaModel.getCached(masterDbre), first);
+
+		SqlTemplate master = new ConnectionBasedSqlTemplateImpl(masterConn);
+		column(master, "gene", "description", 5, "text", "YES", null, 65535, "");
+		Assert.assertEquals(SchemaModel.getCached(masterDbre).getTable("gene").getColumns().size(), 4);
+
+		SchemaModel.clearCache();
+		SchemaModel second = SchemaModel.getCached(masterDbre);
+		Assert.assertNotSame(second, first);
+		Assert.assertEquals(second.getTable("gene").getColumns().size(), 5);
+
+	}
+
+	@Test
+	public void testFailedReadNotCached() {
+
+		SqlTemplate master = new ConnectionBasedSqlTemplateImpl(masterConn);
+		master.execute("ALTER TABLE fake_is.TABLES RENAME TO fake_is.TABLES_AWAY");
+		try {
+			SchemaModel.getCached(masterDbre);
+			Assert.fail("Reading a master without information_schema should fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		master.execute("ALTER TABLE fake_is.TABLES_AWAY RENAME TO fake_is.TABLES");
+		Assert.assertEquals(SchemaModel.getCached(masterDbre).getTableNames(), new HashSet<String>(Arrays.asList("gene")));
+
+	}
+
+	private List<ReportLine> problems() {
+		return ReportManager.getReportsByTestCase(testCase.getTestName(), ReportLine.PROBLEM);
+	}
+
+	private static void column(SqlTemplate t, String table, String name, int position, String type, String nullable,
+			String columnDefault, long octetLength, String extra) {
+		t.update("INSERT INTO fake_is.COLUMNS VALUES (DATABASE(), ?, ?, ?, ?, ?, ?, ?, ?)", table, name, position, type, nullable,
+				columnDefault, octetLength, extra);
+	}
+
+	private static void index(SqlTemplate t, String table, String name, int seq, int nonUnique, String column) {
+		t.update("INSERT INTO fake_is.STATISTICS VALUES (DATABASE(), ?, ?, ?, ?, ?, ?)", table, name, seq, nonUnique, "BTREE", column);
+	}
+
+	/**
+	 * @return con, with the queries on information_schema sent to the tables
+	 *         in fake_is instead.
+	 */
+	private static Connection withInformationSchema(final Connection con) {
+		return (Connection) Proxy.newProxyInstance(SchemaModelTest.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("prepareStatement") && args[0] instanceof String) {
+							args[0] = ((String) args[0]).replaceAll("(?i)information_schema\\.", "fake_is.");
+						}
+						try {
+							return method.invoke(con, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.TestResultCache;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that results are not reused once the code on the class path has
+ * changed, including helper classes of a test.
+ */
+public class TestResultCacheTest {
+
+	private File dir;
+
+	private File helper;
+
+	private File jar;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		dir = File.createTempFile("classes", "");
+		dir.delete();
+		helper = new File(new File(dir, "util"), "CodonTable.class");
+		helper.getParentFile().mkdirs();
+		write(helper, "first");
+		jar = File.createTempFile("healthcheck", ".jar");
+		write(jar, "first");
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		helper.delete();
+		helper.getParentFile().delete();
+		dir.delete();
+		jar.delete();
+	}
+
+	@Test
+	public void testHelperChangeMissesCache() throws IOException {
+
+		List<File> locations = Arrays.asList(dir, jar);
+		String fingerprint = TestResultCache.fingerprintLocations(locations);
+		Assert.assertEquals(TestResultCache.fingerprintLocations(locations), fingerprint, "Unchanged code is reused");
+
+		write(helper, "second version");
+		String changed = TestResultCache.fingerprintLocations(locations);
+		Assert.assertNotEquals(changed, fingerprint, "Changed class in a directory");
+
+		write(jar, "second version");
+		Assert.assertNotEquals(TestResultCache.fingerprintLocations(locations), changed, "Changed jar");
+
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileWriter out = new FileWriter(file);
+		out.write(content);
+		out.close();
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.TestTimings;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the estimates made from the timings file.
+ */
+public class TestTimingsTest {
+
+	@Test
+	public void testEstimates() throws IOException {
+
+		File file = File.createTempFile("timings", ".txt");
+		file.deleteOnExit();
+		FileWriter out = new FileWriter(file);
+		out.write("100\thomo_sapiens_core_90_38\tDuplicateExons\t0.1 s\n");
+		out.write("300\thomo_sapiens_core_90_38\tDuplicateExons\t0.3 s\n");
+		out.write("1000\tmus_musculus_core_90_38\tDuplicateExons\t1 s\n");
+		out.write("5000\thomo_sapiens_variation_90_38\tAlleleFrequencies\t5 s\n");
+		out.write("not a timing\n");
+		out.write("40\tCompareSchema\t0.04 s\n");
+		out.close();
+
+		TestTimings timings = TestTimings.load(file.getPath());
+
+		// recent runs on the same database count for more
+		Assert.assertEquals(timings.estimate("DuplicateExons", "homo_sapiens_core_90_38", DatabaseType.CORE, false), 200);
+		// then the same type of database
+		Assert.assertEquals(timings.estimate("DuplicateExons", "danio_rerio_core_90_10", DatabaseType.CORE, false), 466);
+		// then any database
+		Assert.assertEquals(timings.estimate("DuplicateExons", "danio_rerio_otherfeatures_90_10", DatabaseType.OTHERFEATURES, false), 466);
+		Assert.assertEquals(timings.estimate("CompareSchema", "danio_rerio_core_90_10", DatabaseType.CORE, false), 40);
+
+		Assert.assertFalse(timings.isKnown("Meta"));
+		Assert.assertEquals(timings.estimate("Meta", "danio_rerio_core_90_10", DatabaseType.CORE, false), TestTimings.DEFAULT_ESTIMATE);
+		Assert.assertEquals(timings.estimate("Meta", "danio_rerio_core_90_10", DatabaseType.CORE, true), TestTimings.DEFAULT_LONG_RUNNING_ESTIMATE);
+
+		Assert.assertEquals(timings.estimateDatabases("homo_sapiens_.*"), 5200);
+		Assert.assertEquals(timings.estimateDatabases("mus_musculus_core_90_38"), 1000);
+		Assert.assertEquals(timings.estimateDatabases("["), 0);
+
+	}
+
+	@Test
+	public void testMissingFile() {
+		TestTimings timings = TestTimings.load(new File("no_such_dir", "timings.txt").getPath());
+		Assert.assertFalse(timings.isKnown("DuplicateExons"));
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.testcase.ForeignKeyCatalog.Relation;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the relations of a {@link ForeignKeyCatalog} select and report
+ * the same orphans as the {@link EnsTestCase} methods they replace.
+ */
+public class ForeignKeyCatalogTest {
+
+	@Test
+	public void testGeneratedClauses() {
+
+		List<Relation> relations = new ForeignKeyCatalog()
+				.oneWay("gene", "gene_id", "transcript", "gene_id")
+				.twoWay("gene", "gene_id", "transcript", "gene_id")
+				.withConstraint("genome_db", "taxon_id", "ncbi_taxa_node", "taxon_id", "taxon_id != 0 AND (last_release IS NULL)")
+				.optional("xref", "external_db_id", "external_db", "external_db_id")
+				.getRelations();
+
+		Relation oneWay = relations.get(0);
+		Assert.assertTrue(oneWay.isOneWay());
+		Assert.assertEquals(oneWay.getOrphanClauses(),
+				" FROM gene LEFT JOIN transcript ON gene.gene_id = transcript.gene_id WHERE transcript.gene_id IS NULL");
+
+		Relation twoWay = relations.get(1);
+		Assert.assertFalse(twoWay.isOneWay());
+		Assert.assertEquals(twoWay.getOrphanClauses(), oneWay.getOrphanClauses());
+		Assert.assertEquals(twoWay.getReverseOrphanClauses(),
+				" FROM transcript LEFT JOIN gene ON transcript.gene_id = gene.gene_id WHERE gene.gene_id IS NULL");
+
+		// checkForOrphansWithConstraint spelt it "iS NULL"
+		Relation constrained = relations.get(2);
+		Assert.assertTrue(constrained.isOneWay());
+		Assert.assertEquals(constrained.getOrphanClauses(), " FROM genome_db LEFT JOIN ncbi_taxa_node ON genome_db.taxon_id = ncbi_taxa_node.taxon_id"
+				+ " WHERE ncbi_taxa_node.taxon_id IS NULL AND genome_db.taxon_id != 0 AND (last_release IS NULL)");
+
+		Relation optional = relations.get(3);
+		Assert.assertTrue(optional.isOneWay());
+		Assert.assertEquals(optional.getConstraint(), "external_db_id IS NOT NULL");
+		Assert.assertEquals(optional.getOrphanClauses(), " FROM xref LEFT JOIN external_db ON xref.external_db_id = external_db.external_db_id"
+				+ " WHERE external_db.external_db_id IS NULL AND xref.external_db_id IS NOT NULL");
+
+	}
+
+	@Test
+	public void testSameProblemsAsEnsTestCase() throws SQLException {
+
+		ReportManager.initialise();
+
+		Connection con = DriverManager.getConnection("jdbc:h2:mem:foreignkeycatalogtest", "sa", "");
+		try {
+
+			SqlTemplate t = new ConnectionBasedSqlTemplateImpl(con);
+			t.execute("CREATE TABLE gene (gene_id INT)");
+			t.execute("CREATE TABLE transcript (transcript_id INT, gene_id INT)");
+			t.execute("CREATE TABLE gene_attrib (gene_id INT)");
+			t.execute("CREATE TABLE xref (xref_id INT, external_db_id INT)");
+			t.execute("CREATE TABLE external_db (external_db_id INT)");
+			t.execute("INSERT INTO gene VALUES (1), (2), (3)");
+			t.execute("INSERT INTO transcript VALUES (10, 1), (11, 1), (12, 4)");
+			t.execute("INSERT INTO gene_attrib VALUES (1), (3)");
+			t.execute("INSERT INTO xref VALUES (20, 1), (21, NULL), (22, 7)");
+			t.execute("INSERT INTO external_db VALUES (1)");
+
+			EnsTestCase old = testCase("OldForeignKeys");
+			EnsTestCase catalog = testCase("CatalogForeignKeys");
+			DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(new DatabaseInfo("foreignkeycatalogtest", null, null, DatabaseType.CORE, null,
+					null), con);
+
+			Assert.assertFalse(old.checkForOrphans(con, "gene", "gene_id", "transcript", "gene_id", false));
+			Assert.assertTrue(old.checkForOrphans(con, "gene_attrib", "gene_id", "gene", "gene_id", true));
+			Assert.assertFalse(old.checkForOrphansWithConstraint(con, "transcript", "gene_id", "gene", "gene_id", "transcript_id > 10"));
+			Assert.assertFalse(old.checkOptionalRelation(con, "xref", "external_db_id", "external_db", "external_db_id"));
+
+			Assert.assertFalse(new ForeignKeyCatalog()
+					.twoWay("gene", "gene_id", "transcript", "gene_id")
+					.oneWay("gene_attrib", "gene_id", "gene", "gene_id")
+					.withConstraint("transcript", "gene_id", "gene", "gene_id", "transcript_id > 10")
+					.optional("xref", "external_db_id", "external_db", "external_db_id")
+					.check(catalog, dbre));
+
+			List<String> expected = problems(old);
+			Assert.assertEquals(expected.size(), 10);
+			Assert.assertTrue(expected.contains("FAILURE DETAILS: 3 gene entries are not linked to transcript"), expected.toString());
+			Assert.assertTrue(expected.contains("FAILURE DETAILS: 1 xref entries are not linked to external_db"), expected.toString());
+			Assert.assertEquals(problems(catalog), expected);
+
+		} finally {
+			con.close();
+		}
+
+	}
+
+	/**
+	 * @return The problems reported by test, with "iS NULL" spelt the way
+	 *         the catalog spells it.
+	 */
+	private static List<String> problems(EnsTestCase test) {
+
+		List<String> problems = new ArrayList<String>();
+		for (ReportLine line : ReportManager.getReportsByTestCase(test.getTestName(), ReportLine.PROBLEM)) {
+			problems.add(line.getMessage().replace(" iS NULL", " IS NULL"));
+		}
+		return problems;
+
+	}
+
+	private static EnsTestCase testCase(final String name) {
+
+		return new EnsTestCase() {
+			@Override
+			public String getTestName() {
+				return "org.ensembl.healthcheck.testcase." + name;
+			}
+		};
+
+	}
+
+}
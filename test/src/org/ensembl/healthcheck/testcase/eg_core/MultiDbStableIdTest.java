@@ -0,0 +1,147 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.eg_core;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseType;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the merge of sorted stable ID hashes, and that stable IDs whose
+ * hashes collide are compared as strings before they are reported.
+ */
+public class MultiDbStableIdTest {
+
+	private final List<Connection> connections = new ArrayList<Connection>();
+
+	@AfterMethod
+	public void closeDatabases() throws SQLException {
+		for (Connection con : connections) {
+			con.close();
+		}
+		connections.clear();
+	}
+
+	@Test
+	public void testDuplicatedAcrossDatabases() {
+
+		long[] duplicated = MultiDbStableId.findDuplicated(Arrays.asList(new long[] { 1, 5, 9 }, new long[] { 2, 5, 7 }, new long[] { 3, 7, 11 },
+				new long[] { -4, 9, 12 }));
+		Assert.assertEquals(duplicated, new long[] { 5, 7, 9 });
+
+		// a hash in three databases is reported once
+		Assert.assertEquals(MultiDbStableId.findDuplicated(Arrays.asList(new long[] { 4 }, new long[] { 4 }, new long[] { 4 })), new long[] { 4 });
+
+	}
+
+	@Test
+	public void testDuplicatedWithinDatabase() {
+
+		Assert.assertEquals(MultiDbStableId.findDuplicated(Arrays.asList(new long[] { 1, 3, 3, 3, 8 }, new long[] { 2, 8 })), new long[] { 3, 8 });
+		Assert.assertEquals(MultiDbStableId.findDuplicated(Collections.singletonList(new long[] { Long.MIN_VALUE, Long.MIN_VALUE, 0 })),
+				new long[] { Long.MIN_VALUE });
+
+	}
+
+	@Test
+	public void testEmptyInputs() {
+
+		Assert.assertEquals(MultiDbStableId.findDuplicated(new ArrayList<long[]>()).length, 0);
+		Assert.assertEquals(MultiDbStableId.findDuplicated(Arrays.asList(new long[0], new long[0])).length, 0);
+		Assert.assertEquals(MultiDbStableId.findDuplicated(Arrays.asList(new long[0], new long[] { 1, 2 }, new long[0])).length, 0);
+
+	}
+
+	@Test
+	public void testHash() {
+
+		Assert.assertEquals(MultiDbStableId.hash(""), 0xcbf29ce484222325L);
+		Assert.assertEquals(MultiDbStableId.hash("a"), 0xaf63dc4c8601ec8cL);
+		Assert.assertEquals(MultiDbStableId.hash(null), MultiDbStableId.hash(""));
+		Assert.assertTrue(MultiDbStableId.hash("ENSG00000139618") != MultiDbStableId.hash("ENSG00000139619"));
+
+	}
+
+	@Test
+	public void testCollisionsAreCheckedAgainstStableIds() throws SQLException {
+
+		ReportManager.initialise();
+
+		// every stable ID of the same length collides
+		MultiDbStableId test = new MultiDbStableId() {
+			@Override
+			long hashStableId(String stableId) {
+				return stableId.length();
+			}
+		};
+
+		DatabaseRegistry registry = new DatabaseRegistry(Arrays.asList(
+				database("stableid_a_core_90_1", "ENSG01", "ENSG02"),
+				database("stableid_b_core_90_1", "ENSG03", "ENSG04"),
+				database("stableid_c_core_90_1", "ENSG05", "ENSG06")));
+		Assert.assertTrue(test.run(registry), "Colliding hashes reported as duplicates");
+		Assert.assertTrue(ReportManager.getReportsByTestCase(test.getTestName(), ReportLine.PROBLEM).isEmpty());
+
+		registry = new DatabaseRegistry(Arrays.asList(
+				database("stableid_d_core_90_1", "ENSG01", "ENSG02"),
+				database("stableid_e_core_90_1", "ENSG03", "ENSG04"),
+				database("stableid_f_core_90_1", "ENSG05", "ENSG02")));
+		Assert.assertFalse(test.run(registry));
+		List<ReportLine> problems = ReportManager.getReportsByTestCase(test.getTestName(), ReportLine.PROBLEM);
+		// one per object type
+		Assert.assertEquals(problems.size(), 4);
+		for (ReportLine problem : problems) {
+			Assert.assertEquals(problem.getDatabaseName(), "stableid_f_core_90_1");
+			Assert.assertTrue(problem.getMessage().contains("stable ID ENSG02 has been found in the following core databases :stableid_d_core_90_1"),
+					problem.getMessage());
+		}
+
+	}
+
+	private DatabaseRegistryEntry database(String name, String... stableIds) throws SQLException {
+
+		Connection con = DriverManager.getConnection("jdbc:h2:mem:" + name, "sa", "");
+		connections.add(con);
+		SqlTemplate t = new ConnectionBasedSqlTemplateImpl(con);
+		for (String table : new String[] { "gene", "transcript", "translation", "exon" }) {
+			t.execute("CREATE TABLE " + table + " (stable_id VARCHAR(128))");
+			for (String stableId : stableIds) {
+				t.update("INSERT INTO " + table + " VALUES (?)", stableId);
+			}
+		}
+		return new DatabaseRegistryEntry(new DatabaseInfo(name, null, null, DatabaseType.CORE, null, null), con);
+
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.funcgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.ensembl.healthcheck.testcase.funcgen.DataFileTableHasFile.FileType;
+import org.ensembl.healthcheck.testcase.funcgen.DataFileVerifier.Status;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks how data files are classified and that the result of checking a
+ * path is reused.
+ */
+public class DataFileVerifierTest {
+
+	private File dir;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		dir = File.createTempFile("datafileverifier", "");
+		Assert.assertTrue(dir.delete() && dir.mkdir());
+	}
+
+	@AfterMethod
+	public void deleteDirectory() {
+		System.clearProperty(DataFileVerifier.MAGIC);
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testClassification() throws IOException {
+
+		File ok = write("ok.bam", new byte[] { 1, 2, 3 });
+		File empty = write("empty.bam", new byte[0]);
+		File missing = new File(dir, "missing.bam");
+		File subdir = new File(dir, "subdir");
+		Assert.assertTrue(subdir.mkdir());
+
+		Map<String, Status> statuses = DataFileVerifier.verify(
+				Arrays.asList(missing.getPath(), subdir.getPath(), empty.getPath(), ok.getPath()), FileType.BAM);
+
+		Assert.assertEquals(statuses.keySet().toArray(), new String[] { missing.getPath(), subdir.getPath(), empty.getPath(), ok.getPath() },
+				"Results are in the order of the paths");
+		Assert.assertEquals(statuses.get(missing.getPath()), Status.MISSING);
+		Assert.assertEquals(statuses.get(subdir.getPath()), Status.NOT_A_FILE);
+		Assert.assertEquals(statuses.get(empty.getPath()), Status.EMPTY);
+		// the first bytes are only checked if datafile.check.magic is set
+		Assert.assertEquals(statuses.get(ok.getPath()), Status.OK);
+
+	}
+
+	@Test
+	public void testMagic() throws IOException {
+
+		System.setProperty(DataFileVerifier.MAGIC, "true");
+
+		byte[] bam = new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 };
+		byte[] bigWigLittleEndian = new byte[] { 0x26, (byte) 0xFC, (byte) 0x8F, (byte) 0x88, 4, 0 };
+		byte[] bigBedBigEndian = new byte[] { (byte) 0x87, (byte) 0x89, (byte) 0xF2, (byte) 0xEB, 4, 0 };
+
+		Assert.assertEquals(verify(write("a.bam", bam), FileType.BAM), Status.OK);
+		Assert.assertEquals(verify(write("a.bw", bigWigLittleEndian), FileType.BIGWIG), Status.OK);
+		Assert.assertEquals(verify(write("a.bb", bigBedBigEndian), FileType.BIGBED), Status.OK);
+
+		Assert.assertEquals(verify(write("b.bam", "not a bam file".getBytes()), FileType.BAM), Status.WRONG_FORMAT);
+		Assert.assertEquals(verify(write("b.bw", bigBedBigEndian), FileType.BIGWIG), Status.WRONG_FORMAT);
+		Assert.assertEquals(verify(write("b.bb", new byte[] { (byte) 0x87, (byte) 0x89 }), FileType.BIGBED), Status.WRONG_FORMAT,
+				"Too short to hold the magic number");
+
+		// without a type only the size is checked
+		Assert.assertEquals(verify(write("c.bam", "not a bam file".getBytes()), null), Status.OK);
+
+	}
+
+	@Test
+	public void testResultsAreCached() throws IOException {
+
+		File file = new File(dir, "late.bw");
+		Assert.assertEquals(verify(file, null), Status.MISSING);
+
+		write(file.getName(), new byte[] { 1 });
+		Assert.assertEquals(verify(file, null), Status.MISSING, "Result of the first check is reused");
+		Assert.assertEquals(DataFileVerifier.check(file, null), Status.OK);
+
+	}
+
+	@Test
+	public void testExpiredResultsAreDropped() throws IOException {
+
+		File file = new File(dir, "gone.bw");
+		Assert.assertEquals(verify(file, null), Status.MISSING);
+		Assert.assertTrue(DataFileVerifier.cacheSize() > 0);
+
+		DataFileVerifier.purgeExpired(System.currentTimeMillis() + DataFileVerifier.CACHE_MILLIS + 1);
+		Assert.assertEquals(DataFileVerifier.cacheSize(), 0, "Expired results are not kept");
+
+		write(file.getName(), new byte[] { 1 });
+		Assert.assertEquals(verify(file, null), Status.OK);
+
+	}
+
+	private Status verify(File file, FileType type) {
+		return DataFileVerifier.verify(Arrays.asList(file.getPath()), type).get(file.getPath());
+	}
+
+	private File write(String name, byte[] content) throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}
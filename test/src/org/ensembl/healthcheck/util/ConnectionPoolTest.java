@@ -0,0 +1,288 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ConnectionPoolTest {
+
+  private static final String DRIVER = "org.h2.Driver";
+
+  @AfterMethod
+  void resetLimits() {
+    ConnectionPool.configure(ConnectionPool.DEFAULT_MIN_IDLE, ConnectionPool.DEFAULT_MAX_PER_SERVER, ConnectionPool.DEFAULT_BORROW_TIMEOUT,
+        ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_LEAK_THRESHOLD);
+  }
+
+  @Test
+  public void serverURL() {
+    assertEquals(ConnectionPool.getServerURL("jdbc:mysql://host:3306/homo_sapiens_core_90_38"), "jdbc:mysql://host:3306/");
+    assertEquals(ConnectionPool.getServerURL("jdbc:mysql://host:3306/"), "jdbc:mysql://host:3306/");
+    assertEquals(ConnectionPool.getServerURL("jdbc:h2:mem:pool"), "jdbc:h2:mem:pool");
+  }
+
+  @Test
+  public void leaseReusesConnection() throws SQLException {
+
+    String url = "jdbc:h2:mem:leasetest";
+    ServerConnectionPool pool = ConnectionPool.getServerPool(DRIVER, url, "sa", "");
+
+    ConnectionPool.beginLease(null);
+    Connection first;
+    try {
+      first = ConnectionPool.getConnection(DRIVER, url, "sa", "");
+      assertSame(ConnectionPool.getConnection(DRIVER, url, "sa", ""), first, "Same connection within a lease");
+      assertEquals(pool.getBorrowedCount(), 1);
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+    assertEquals(pool.getBorrowedCount(), 0);
+    assertEquals(pool.getIdleCount(), 1);
+
+    ConnectionPool.beginLease(null);
+    try {
+      assertSame(ConnectionPool.getConnection(DRIVER, url, "sa", ""), first, "Idle connection reused by the next lease");
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+    // outside a lease the shared connection is used
+    assertNotSame(ConnectionPool.getConnection(DRIVER, url, "sa", ""), first);
+    assertEquals(pool.getBorrowedCount(), 0);
+
+  }
+
+  @Test
+  public void closedConnectionIsReplaced() throws SQLException {
+
+    String url = "jdbc:h2:mem:closedtest";
+    ServerConnectionPool pool = ConnectionPool.getServerPool(DRIVER, url, "sa", "");
+
+    ConnectionPool.beginLease(null);
+    try {
+      Connection con = ConnectionPool.getConnection(DRIVER, url, "sa", "");
+      con.close();
+      Connection replacement = ConnectionPool.getConnection(DRIVER, url, "sa", "");
+      assertFalse(replacement.isClosed());
+      assertEquals(pool.getBorrowedCount(), 1);
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+  }
+
+  @Test
+  public void discardedConnectionIsReplaced() throws SQLException {
+
+    String url = "jdbc:h2:mem:discardtest";
+    ServerConnectionPool pool = ConnectionPool.getServerPool(DRIVER, url, "sa", "");
+
+    ConnectionPool.beginLease(null);
+    try {
+      Connection con = ConnectionPool.getConnection(DRIVER, url, "sa", "");
+      ConnectionPool.discard(con);
+      assertTrue(con.isClosed());
+      assertEquals(pool.getBorrowedCount(), 0, "Discarded connection given back");
+      Connection replacement = ConnectionPool.getConnection(DRIVER, url, "sa", "");
+      assertNotSame(replacement, con);
+      assertFalse(replacement.isClosed());
+    } finally {
+      ConnectionPool.endLease();
+    }
+    assertEquals(pool.getIdleCount(), 1, "Only the replacement is kept");
+
+  }
+
+  @Test
+  public void borrowTimesOutWhenPoolIsFull() throws SQLException {
+
+    String url = "jdbc:h2:mem:fulltest";
+    ServerConnectionPool pool = new ServerConnectionPool(url, "sa", "", 0, 1, 100, 60000, 0);
+
+    Connection con = pool.borrow(url, "first");
+    try {
+      pool.borrow(url, "second");
+      fail("Borrowed more connections than the pool allows");
+    } catch (SQLException e) {
+      assertTrue(e.getMessage().contains("first"), "Message names the borrower: " + e.getMessage());
+    }
+
+    pool.release(con);
+    assertSame(pool.borrow(url, "third"), con);
+    pool.closeAll();
+
+  }
+
+  @Test
+  public void unboundedLeaseGoesOverTheLimit() throws SQLException {
+
+    // all these databases are on the same "server"
+    final String server = "jdbc:h2:mem://manydbtest/";
+    int databases = ConnectionPool.DEFAULT_MAX_PER_SERVER + 10;
+    ServerConnectionPool pool = ConnectionPool.getServerPool(DRIVER, server + "db0", "sa", "");
+    ConnectionPool.configure(0, ConnectionPool.DEFAULT_MAX_PER_SERVER, 100, 60000, 0);
+
+    final SQLException[] timedOut = new SQLException[1];
+
+    ConnectionPool.beginUnboundedLease(null);
+    try {
+      for (int i = 0; i < databases; i++) {
+        assertFalse(ConnectionPool.getConnection(DRIVER, server + "db" + i, "sa", "").isClosed());
+      }
+      assertEquals(pool.getBorrowedCount(), databases);
+
+      // a test on another thread still waits while the pool is over its limit
+      Thread other = new Thread() {
+        public void run() {
+          ConnectionPool.beginLease(null);
+          try {
+            ConnectionPool.getConnection(DRIVER, server + "other", "sa", "");
+          } catch (SQLException e) {
+            timedOut[0] = e;
+          } finally {
+            ConnectionPool.endLease();
+          }
+        }
+      };
+      other.start();
+      other.join();
+    } catch (InterruptedException e) {
+      fail("Interrupted", e);
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+    assertTrue(timedOut[0] != null, "Bounded lease borrowed over the limit");
+    assertEquals(pool.getBorrowedCount(), 0);
+    pool.closeAll();
+
+  }
+
+  @Test
+  public void nestedLeaseSharesConnections() throws SQLException {
+
+    String server = "jdbc:h2:mem://nestedtest/";
+    ServerConnectionPool pool = ConnectionPool.getServerPool(DRIVER, server + "a", "sa", "");
+    ConnectionPool.configure(0, 1, 100, 60000, 0);
+
+    ConnectionPool.beginLease(null);
+    try {
+      Connection outer = ConnectionPool.getConnection(DRIVER, server + "a", "sa", "");
+
+      ConnectionPool.beginLease(null);
+      try {
+        assertSame(ConnectionPool.getConnection(DRIVER, server + "a", "sa", ""), outer, "Nested lease reuses the outer connection");
+        // the pool is full, but a nested lease doesn't wait for its own test
+        assertNotSame(ConnectionPool.getConnection(DRIVER, server + "b", "sa", ""), outer);
+        assertEquals(pool.getBorrowedCount(), 2);
+      } finally {
+        ConnectionPool.endLease();
+      }
+
+      assertEquals(pool.getBorrowedCount(), 1, "Nested lease does not give back the outer connection");
+      assertFalse(outer.isClosed());
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+    assertEquals(pool.getBorrowedCount(), 0);
+    pool.closeAll();
+
+  }
+
+  @Test
+  public void validationPolicy() throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:validationtest", "sa", "");
+    ConnectionValidator validator = new ConnectionValidator();
+
+    validator.configure(ConnectionValidator.Mode.IDLE, 60000, 5);
+    assertTrue(validator.validate(con));
+    assertTrue(validator.validate(con));
+    assertTrue(validator.validate(con));
+    assertEquals(validator.getChecks(), 1, "Only the first use is checked");
+    assertEquals(validator.getAvoided(), 2);
+
+    validator.configure(ConnectionValidator.Mode.ALWAYS, 60000, 5);
+    assertTrue(validator.validate(con));
+    assertEquals(validator.getChecks(), 2);
+
+    con.close();
+    assertFalse(validator.validate(con), "Closed connections are never handed out");
+
+  }
+
+  @Test
+  public void keepaliveChecksOnlyIdleConnections() throws SQLException {
+
+    Connection leased = DriverManager.getConnection("jdbc:h2:mem:keepaliveleased", "sa", "");
+    Connection returned = DriverManager.getConnection("jdbc:h2:mem:keepalivereturned", "sa", "");
+    ConnectionValidator validator = new ConnectionValidator();
+    validator.configure(ConnectionValidator.Mode.IDLE, 0, 5);
+
+    assertTrue(validator.validate(leased));
+    assertTrue(validator.validate(returned));
+    validator.returned(returned);
+    long checks = validator.getChecks();
+
+    validator.keepIdleConnectionsAlive();
+    assertEquals(validator.getChecks(), checks + 1, "Only the connection back in its pool is checked");
+
+    assertTrue(validator.validate(returned));
+    checks = validator.getChecks();
+    validator.keepIdleConnectionsAlive();
+    assertEquals(validator.getChecks(), checks, "Connections handed out again are not checked");
+
+    leased.close();
+    returned.close();
+
+  }
+
+  @Test
+  public void idleConnectionsAreEvicted() throws SQLException, InterruptedException {
+
+    String url = "jdbc:h2:mem:evicttest";
+    ServerConnectionPool pool = new ServerConnectionPool(url, "sa", "", 1, 5, 1000, 1, 0);
+
+    Connection a = pool.borrow(url, "a");
+    Connection b = pool.borrow(url, "b");
+    pool.release(a);
+    pool.release(b);
+    assertEquals(pool.getIdleCount(), 2);
+
+    Thread.sleep(20);
+    pool.evict();
+    assertEquals(pool.getIdleCount(), 1, "minIdle connections are kept");
+    pool.closeAll();
+
+  }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class IntLongMapTest {
+
+  @Test
+  public void testPutAndGet() {
+
+    IntLongMap map = new IntLongMap();
+    for (int i = -1000; i < 100000; i += 7) {
+      map.put(i, i * 3L);
+    }
+    assertEquals(map.size(), 14429);
+    assertEquals(map.get(0, -1), -1);
+
+    map.put(0, 5000000000L);
+    map.put(-993, 1);
+
+    assertEquals(map.size(), 14430);
+    assertEquals(map.get(0, -1), 5000000000L);
+    assertEquals(map.get(-993, -1), 1);
+    assertEquals(map.get(99996, -1), 299988);
+    assertEquals(map.get(9, -1), -1);
+    assertTrue(map.containsKey(-1000));
+    assertFalse(map.containsKey(2));
+
+    int[] keys = map.keys();
+    assertEquals(keys.length, map.size());
+    assertEquals(keys[0], -1000);
+    assertEquals(keys[keys.length - 1], 99996);
+
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.ReportSession;
+import org.ensembl.healthcheck.ReportStore;
+import org.testng.annotations.Test;
+
+public class QueryProfilerTest {
+
+  @Test
+  public void normaliseQueries() {
+    assertEquals(QueryProfiler.normalise("select  a\n from t where b = 'x''y' and c in (1, 2,3) and d_1 = 4.5"),
+        "select a from t where b = ? and c in (?) and d_1 = ?");
+    assertEquals(QueryProfiler.normalise("SELECT \"a\\\"b\" FROM t2 LIMIT 10"), "SELECT ? FROM t2 LIMIT ?");
+    assertEquals(QueryProfiler.getDatabaseName("jdbc:mysql://host:3306/homo_sapiens_core_90_38?useCursorFetch=true"),
+        "homo_sapiens_core_90_38");
+  }
+
+  @Test
+  public void settingsReadUntilCleared() {
+    QueryProfiler.clear();
+    assertTrue(QueryProfiler.isEnabled());
+    System.setProperty(QueryProfiler.TOP, "0");
+    try {
+      assertTrue(QueryProfiler.isEnabled(), "Property only read again after clear");
+      QueryProfiler.clear();
+      assertFalse(QueryProfiler.isEnabled());
+    } finally {
+      System.clearProperty(QueryProfiler.TOP);
+      QueryProfiler.clear();
+    }
+    assertTrue(QueryProfiler.isEnabled());
+  }
+
+  @Test
+  public void groupQueries() throws SQLException {
+    Connection conn = ConnectionPool.getConnection("org.h2.Driver", "jdbc:h2:mem:queryprofilertest", "sa", "");
+    SqlTemplate t = new ConnectionBasedSqlTemplateImpl(conn);
+    t.execute("create table numbers(a int)");
+    for (int i = 1; i <= 5; i++) {
+      t.update("insert into numbers values(?)", i);
+    }
+
+    QueryProfiler.clear();
+    ConnectionPool.beginLease(null);
+    try {
+      t.queryForDefaultObjectList("select a from numbers where a > 3", Integer.class);
+      t.queryForDefaultObjectList("select a from numbers where a > 1", Integer.class);
+      t.queryForMap("select a, a from numbers", new DefaultMapRowMapper<Integer, Integer>(Integer.class, Integer.class));
+    } finally {
+      ConnectionPool.endLease();
+    }
+
+    List<String> report = QueryProfiler.getReport(5);
+    assertEquals(report.size(), 3, "Summary and one line per kind of query");
+    assertTrue(report.get(0).startsWith("3 queries of 2 kinds"), report.get(0));
+    String grouped = report.get(1).contains("where a > ?") ? report.get(1) : report.get(2);
+    assertTrue(grouped.contains("in 2 runs") && grouped.contains("6 rows"), grouped);
+    assertTrue(grouped.contains(" on queryprofilertest: "), grouped);
+    QueryProfiler.clear();
+  }
+
+  @Test
+  public void sessionsKeptApart() throws SQLException {
+    Connection conn = ConnectionPool.getConnection("org.h2.Driver", "jdbc:h2:mem:queryprofilersessiontest", "sa", "");
+    SqlTemplate t = new ConnectionBasedSqlTemplateImpl(conn);
+    t.execute("create table letters(a varchar(1))");
+
+    QueryProfiler.clear();
+    ReportSession first = new ReportSession(new ReportStore(10));
+    ReportSession second = new ReportSession(new ReportStore(10));
+    QueryProfiler.startSession(first);
+    QueryProfiler.startSession(second);
+    try {
+      ReportManager.bindReportSession(first);
+      t.queryForDefaultObjectList("select a from letters", String.class);
+      t.queryForDefaultObjectList("select a from letters where a = 'x'", String.class);
+      ReportManager.bindReportSession(second);
+      t.queryForDefaultObjectList("select a from letters", String.class);
+      ReportManager.unbindReportSession();
+      t.queryForDefaultObjectList("select count(*) from letters", Integer.class);
+
+      assertTrue(QueryProfiler.getReport(first, 5).get(0).startsWith("2 queries of 2 kinds"));
+      assertTrue(QueryProfiler.getReport(second, 5).get(0).startsWith("1 queries of 1 kinds"));
+      assertTrue(QueryProfiler.getReport(5).get(0).startsWith("1 queries of 1 kinds"), "Unbound threads use the shared profile");
+
+      QueryProfiler.endSession(first);
+      assertTrue(QueryProfiler.getReport(first, 5).get(0).startsWith("0 queries"), "Ended sessions are forgotten");
+      assertTrue(QueryProfiler.getReport(second, 5).get(0).startsWith("1 queries"), "Other sessions are not cleared");
+    } finally {
+      ReportManager.unbindReportSession();
+      QueryProfiler.endSession(first);
+      QueryProfiler.endSession(second);
+      QueryProfiler.clear();
+    }
+  }
+
+}
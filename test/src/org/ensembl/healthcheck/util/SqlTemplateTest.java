@@ -24,17 +24,28 @@ import static org.ensembl.healthcheck.util.CollectionUtils.quadruple;
 import static org.ensembl.healthcheck.util.CollectionUtils.triple;
 import static org.ensembl.healthcheck.util.CollectionUtils.unit;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.testng.annotations.BeforeClass;
+import org.ensembl.healthcheck.util.SqlTemplate.RowCallback;
+import org.ensembl.healthcheck.util.SqlTemplate.RowIterator;
 import org.testng.annotations.Test;
 
 public class SqlTemplateTest {
@@ -101,4 +112,159 @@ public class SqlTemplateTest {
     assertEquals(triple(1, "hello", 4.0D), t.queryForObject(sql, TupleRowMappers.triple(a,b,c)), "Checking triple ok");
     assertEquals(quadruple(1, "hello", 4.0D, true), t.queryForObject(sql, TupleRowMappers.quadruple(a, b, c, d)), "Checking quadruple ok");
   }
+
+  @Test
+  public void streamingMethods() {
+    DefaultObjectRowMapper<Integer> mapper = new DefaultObjectRowMapper<Integer>(Integer.class, 1);
+
+    List<Integer> ints = new ArrayList<Integer>();
+    RowIterator<Integer> it = t.stream("select a from numbers where a > ? order by a", mapper, 4);
+    while (it.hasNext()) {
+      ints.add(it.next());
+    }
+    assertFalse(it.hasNext(), "Iterator should stay exhausted");
+    it.close();
+    assertEquals(ints, Arrays.asList(5,6,7,8,8), "Streaming all rows");
+
+    final List<Integer> first = new ArrayList<Integer>();
+    int rows = t.streamEach(SQL_INT, mapper, new RowCallback<Integer>() {
+      @Override
+      public boolean process(Integer row) {
+        first.add(row);
+        return first.size() < 3;
+      }
+    });
+    assertEquals(rows, 3, "Stopping early");
+    assertEquals(first, Arrays.asList(8,8,7), "Stopping early");
+
+    // the connection is usable again once the stream is closed
+    assertEquals(t.queryForDefaultObject("select count(*) from numbers", Integer.class), Integer.valueOf(TABLE_ROWS.length));
+  }
+
+  @Test
+  public void streamingStopsEarly() throws SQLException {
+    DefaultObjectRowMapper<Integer> mapper = new DefaultObjectRowMapper<Integer>(Integer.class, 1);
+
+    int[] rowsRead = new int[1];
+    Connection early = streamingMySQL(DriverManager.getConnection("jdbc:h2:mem:sqltemplatetest", "sa", ""), rowsRead);
+    ConnectionBasedSqlTemplateImpl streaming = new ConnectionBasedSqlTemplateImpl(early);
+    streaming.setStreamingFetchSize(Integer.MIN_VALUE);
+    int rows = streaming.streamEach(SQL_INT, mapper, new RowCallback<Integer>() {
+      @Override
+      public boolean process(Integer row) {
+        return false;
+      }
+    });
+    assertEquals(rows, 1);
+    assertEquals(rowsRead[0], 1, "Rest of the result not read after stopping early");
+    assertTrue(early.isClosed(), "Connection aborted after stopping early");
+
+    rowsRead[0] = 0;
+    Connection complete = streamingMySQL(DriverManager.getConnection("jdbc:h2:mem:sqltemplatetest", "sa", ""), rowsRead);
+    streaming = new ConnectionBasedSqlTemplateImpl(complete);
+    streaming.setStreamingFetchSize(Integer.MIN_VALUE);
+    RowIterator<Integer> it = streaming.stream(SQL_INT, mapper);
+    while (it.hasNext()) {
+      it.next();
+    }
+    it.close();
+    assertEquals(rowsRead[0], TABLE_ROWS.length);
+    assertFalse(complete.isClosed(), "Connection kept after the last row");
+    assertEquals(streaming.queryForDefaultObject("select count(*) from numbers", Integer.class), Integer.valueOf(TABLE_ROWS.length));
+    complete.close();
+  }
+
+  /**
+   * @return conn made to look like a Connector/J connection streaming row by
+   *         row: closing a result reads the rest of it unless the connection
+   *         has been aborted. rowsRead counts the rows read from conn.
+   */
+  private static Connection streamingMySQL(final Connection conn, final int[] rowsRead) {
+    final Connection[] mysql = new Connection[1];
+    mysql[0] = (Connection) Proxy.newProxyInstance(SqlTemplateTest.class.getClassLoader(), new Class<?>[] { com.mysql.jdbc.Connection.class },
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("abortInternal")) {
+              conn.close();
+              return null;
+            }
+            Object result = forward(conn, method, args);
+            if (!method.getName().equals("prepareStatement")) {
+              return result;
+            }
+            final PreparedStatement ps = (PreparedStatement) result;
+            return Proxy.newProxyInstance(SqlTemplateTest.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                new InvocationHandler() {
+                  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("setFetchSize")) {
+                      // Integer.MIN_VALUE only means something to Connector/J
+                      return null;
+                    }
+                    if (method.getName().equals("getConnection")) {
+                      return mysql[0];
+                    }
+                    Object result = forward(ps, method, args);
+                    return method.getName().equals("executeQuery") ? countingRows((ResultSet) result, conn, rowsRead) : result;
+                  }
+                });
+          }
+        });
+    return mysql[0];
+  }
+
+  private static ResultSet countingRows(final ResultSet rs, final Connection conn, final int[] rowsRead) {
+    return (ResultSet) Proxy.newProxyInstance(SqlTemplateTest.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("next")) {
+              if (conn.isClosed()) {
+                throw new SQLException("Communications link failure");
+              }
+              boolean onRow = rs.next();
+              if (onRow) {
+                rowsRead[0]++;
+              }
+              return onRow;
+            }
+            if (method.getName().equals("close") && !conn.isClosed()) {
+              // as Connector/J does, read the rest of the result first
+              while (rs.next()) {
+                rowsRead[0]++;
+              }
+            }
+            return forward(rs, method, args);
+          }
+        });
+  }
+
+  private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void cachedMethods() throws SQLException {
+    t.execute("create table cached(a int)");
+    t.update("insert into cached values(?)", 1);
+
+    long hits = QueryResultCache.getHits();
+    List<Integer> ints = t.queryForCachedDefaultObjectList("select a from cached", Integer.class);
+    assertEquals(ints, Arrays.asList(1), "First query");
+
+    conn.createStatement().execute("insert into cached values(2)");
+    assertEquals(t.queryForCachedDefaultObjectList("select  a\n from cached ", Integer.class), Arrays.asList(1), "Served from the cache");
+    assertEquals(QueryResultCache.getHits(), hits + 1, "Whitespace does not matter");
+    assertEquals(t.queryForCachedDefaultObjectList("select a from cached", String.class), Arrays.asList("1", "2"), "Mapped differently");
+
+    t.update("insert into cached values(?)", 3);
+    assertEquals(t.queryForCachedDefaultObjectList("select a from cached", Integer.class), Arrays.asList(1, 2, 3), "Dropped after a write");
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void cachedResultsCannotChange() {
+    t.queryForCachedDefaultObjectList(SQL_INT, Integer.class).add(9);
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.ensembl.healthcheck.util.TranscriptTranslator.Exon;
+import org.ensembl.healthcheck.util.TranscriptTranslator.SeqEdit;
+import org.testng.annotations.Test;
+
+public class TranscriptTranslatorTest {
+
+  private static final CodonTable STANDARD = CodonTable.get(CodonTable.STANDARD);
+
+  @Test
+  public void testSplicedForwardStrand() {
+
+    // exon 1 at 101-106, exon 2 at 111-119
+    String genomic = "ATGAAACCCCTTTGGGTAA";
+    TranscriptTranslator t = new TranscriptTranslator(1, Arrays.asList(new Exon(1, 101, 106, -1), new Exon(2, 111, 119, 0)), 1, 1, 2, 9,
+        Collections.<SeqEdit> emptyList(), Collections.<SeqEdit> emptyList(), STANDARD);
+
+    assertEquals(t.translateableSeq(genomic, 101), "ATGAAATTTGGGTAA");
+    assertEquals(t.translate(genomic, 101), "MKFG");
+    assertEquals(t.pep2genomic(3), Arrays.asList(111));
+    assertEquals(t.pep2genomic(2), Arrays.asList(104));
+
+  }
+
+  @Test
+  public void testReverseStrandInternalStop() {
+
+    String genomic = TranscriptTranslator.reverseComplement("ATGTGATTTTAG");
+    TranscriptTranslator t = new TranscriptTranslator(-1, Arrays.asList(new Exon(1, 1, 12, 0)), 1, 1, 1, 12,
+        Collections.<SeqEdit> emptyList(), Collections.<SeqEdit> emptyList(), STANDARD);
+
+    assertEquals(t.translate(genomic, 1), "M*F");
+    assertEquals(t.pep2genomic(1), Arrays.asList(10));
+
+  }
+
+  @Test
+  public void testCodonTableAndEdits() {
+
+    String genomic = "ATGTGATTT";
+    TranscriptTranslator mt = new TranscriptTranslator(1, Arrays.asList(new Exon(1, 1, 9, 0)), 1, 1, 1, 9,
+        Collections.<SeqEdit> emptyList(), Collections.<SeqEdit> emptyList(), CodonTable.get(2));
+    assertEquals(mt.translate(genomic, 1), "MWF");
+
+    TranscriptTranslator seleno = new TranscriptTranslator(1, Arrays.asList(new Exon(1, 1, 9, 0)), 1, 1, 1, 9,
+        Collections.<SeqEdit> emptyList(), Arrays.asList(SeqEdit.parse("2 2 U")), STANDARD);
+    assertEquals(seleno.translate(genomic, 1), "MUF");
+
+    // an inserted base moves the coding end
+    TranscriptTranslator rnaEdit = new TranscriptTranslator(1, Arrays.asList(new Exon(1, 1, 9, 0)), 1, 1, 1, 8,
+        Arrays.asList(SeqEdit.parse("4 3 C")), Collections.<SeqEdit> emptyList(), STANDARD);
+    assertEquals(rnaEdit.translate(genomic, 1), "MLI");
+
+  }
+
+  @Test
+  public void testPhaseAndAmbiguity() {
+
+    TranscriptTranslator t = new TranscriptTranslator(1, Arrays.asList(new Exon(1, 1, 8, 1)), 1, 1, 1, 8,
+        Collections.<SeqEdit> emptyList(), Collections.<SeqEdit> emptyList(), STANDARD);
+    assertEquals(t.translate("GCGCTAGC", 1), "XAS");
+
+    assertEquals(STANDARD.translate("GCNTRA"), "A*");
+    assertEquals(STANDARD.translate("ATGGC"), "MA");
+    assertNull(CodonTable.get(7));
+
+  }
+
+}